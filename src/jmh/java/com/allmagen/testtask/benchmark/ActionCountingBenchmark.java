@@ -0,0 +1,98 @@
+package com.allmagen.testtask.benchmark;
+
+import com.allmagen.testtask.service.ActionCounts;
+import com.allmagen.testtask.service.parser.ActionLineReader;
+import com.allmagen.testtask.service.parser.ByteDictionary;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting actions per uid and tag. Each operation counts {@code lines} actions of {@code uids} distinct views.
+ * <ul>
+ *     <li>{@code hashMapOfRecords}: merges one key record per line into a {@link HashMap}, from lines that are
+ *     already split.</li>
+ *     <li>{@code openCsvHashMap}: reads the file with opencsv and counts in a {@link HashMap}, like the BATCH
+ *     action upload did before {@link ActionCounts}.</li>
+ *     <li>{@code primitiveCounts}: reads the file with {@link ActionLineReader} and counts in {@link ActionCounts},
+ *     like the BATCH action upload.</li>
+ * </ul>
+ * Run with {@code -prof gc} to compare the allocation per operation; divided by {@code lines} it is the allocation
+ * per input line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActionCountingBenchmark {
+    @Param({"1000000"})
+    private int lines;
+    @Param({"10000", "500000"})
+    private int uids;
+
+    private String[] lineUids;
+    private String[] lineTags;
+    private byte[] file;
+
+    @Setup
+    public void setUp() {
+        String[] actionLines = BenchmarkData.actionLines(lines, uids);
+        lineUids = new String[lines];
+        lineTags = new String[lines];
+        for (int i = 0; i < lines; i++) {
+            int separator = actionLines[i].indexOf(',');
+            lineUids[i] = actionLines[i].substring(0, separator);
+            lineTags[i] = actionLines[i].substring(separator + 1);
+        }
+        file = BenchmarkData.file(BenchmarkData.ACTIONS_HEADER, actionLines);
+    }
+
+    @Benchmark
+    public Map<ActionKey, Integer> hashMapOfRecords() {
+        Map<ActionKey, Integer> counts = new HashMap<>();
+        for (int i = 0; i < lines; i++) {
+            counts.merge(new ActionKey(lineUids[i], lineTags[i]), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public Map<ActionKey, Integer> openCsvHashMap() throws IOException, CsvValidationException {
+        Map<ActionKey, Integer> counts = new HashMap<>();
+        try (CSVReader reader = new CSVReaderBuilder(new InputStreamReader(new ByteArrayInputStream(file), StandardCharsets.UTF_8)).build()) {
+            reader.readNext();
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                counts.merge(new ActionKey(line[0], line[1]), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public ActionCounts primitiveCounts() throws IOException {
+        ActionCounts counts = new ActionCounts(uids);
+        ActionLineReader reader = new ActionLineReader(new ByteArrayInputStream(file), new ByteDictionary(uids), new ByteDictionary(16));
+        while (reader.next()) {
+            counts.increment(reader.uid(), reader.tag());
+        }
+        return counts;
+    }
+
+    /**
+     * The key of the action upload before {@link ActionCounts}.
+     */
+    public record ActionKey(String uid, String tag) {
+    }
+}
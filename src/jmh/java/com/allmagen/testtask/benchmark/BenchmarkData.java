@@ -0,0 +1,88 @@
+package com.allmagen.testtask.benchmark;
+
+import com.allmagen.testtask.service.parser.TimestampDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Synthetic CSV input shaped like the interview.x and interview.y sample files, generated with a fixed seed
+ * so that runs on different commits see the same data.
+ */
+final class BenchmarkData {
+    static final String VIEWS_HEADER = "reg_time,uid,fc_imp_chk,fc_time_chk,utmtr,mm_dma,osName,model,hardware,site_id";
+    static final String ACTIONS_HEADER = "uid,tag";
+
+    /**
+     * Action tags weighted by their frequency in interview.y.
+     */
+    private static final String[] TAGS = weighted(new String[]{"vregistration", "registration", "fclick", "vcontent",
+            "vsignup", "vlead", "vmisc", "signup", "content", "misc", "lead"}, new int[]{63, 41, 39, 5, 3, 1, 1, 1, 1, 1, 1});
+    private static final String[] OS_NAMES = {"iOS", "Android", "Windows", "OS X", "Linux"};
+    private static final String[] MODELS = {"iPhone", "iPhone XR", "SM-G960U", "Pixel 4a", "Other"};
+    private static final String[] HARDWARE = {"Mobile Phone", "Desktop", "Media Player", "Tablet"};
+    private static final String[] SITES = {"soaps.sheknows.com", "www.forbes.com", "www.whowhatwear.com", "www.stylecaster.com",
+            "www.nytimes.com", "hellogiggles.com", "www.rollingstone.com", "www.refinery29.com"};
+    private static final LocalDateTime FIRST_REG_TIME = LocalDateTime.parse("2021-07-20T00:00:00");
+
+    private BenchmarkData() {
+    }
+
+    static String uid(int index) {
+        return String.format("00000000-0000-0001-6268-%012d", 860_000_000_000L + index);
+    }
+
+    static String tag(Random random) {
+        return TAGS[random.nextInt(TAGS.length)];
+    }
+
+    /**
+     * @return {@code count} view lines without the header, one view per uid index, about one per second.
+     */
+    static String[] viewLines(int count) {
+        Random random = new Random(42);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = TimestampDecoder.FORMATTER.format(FIRST_REG_TIME.plusSeconds(i + random.nextInt(5))) + "," + uid(i) + ","
+                    + random.nextInt(2) + "," + random.nextInt(10) + "," + random.nextInt(10) + "," + (500 + random.nextInt(300)) + ","
+                    + OS_NAMES[random.nextInt(OS_NAMES.length)] + "," + MODELS[random.nextInt(MODELS.length)] + ","
+                    + HARDWARE[random.nextInt(HARDWARE.length)] + "," + SITES[random.nextInt(SITES.length)];
+        }
+        return lines;
+    }
+
+    /**
+     * @return {@code count} action lines without the header for uids drawn from {@code uids} views.
+     */
+    static String[] actionLines(int count, int uids) {
+        Random random = new Random(42);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = uid(random.nextInt(uids)) + "," + tag(random);
+        }
+        return lines;
+    }
+
+    /**
+     * @return The lines joined into a file with a header line.
+     */
+    static byte[] file(String header, String[] lines) {
+        return (header + "\n" + String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String[] weighted(String[] values, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        String[] result = new String[total];
+        int index = 0;
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < weights[i]; j++) {
+                result[index++] = values[i];
+            }
+        }
+        return result;
+    }
+}
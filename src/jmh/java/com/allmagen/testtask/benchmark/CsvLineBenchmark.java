@@ -0,0 +1,74 @@
+package com.allmagen.testtask.benchmark;
+
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.service.parser.CsvFields;
+import com.allmagen.testtask.service.parser.ViewLineDecoder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting view lines into fields and building {@link ViewEntity} instances: the opencsv reader used by the action
+ * upload and the COPY engine fallback against the byte-level {@link CsvFields} and {@link ViewLineDecoder}
+ * used by the view upload. Each operation processes a whole file of {@code lines} lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvLineBenchmark {
+    @Param({"100000"})
+    private int lines;
+
+    private byte[] file;
+    private int[] lineStarts;
+
+    @Setup
+    public void setUp() {
+        file = BenchmarkData.file(BenchmarkData.VIEWS_HEADER, BenchmarkData.viewLines(lines));
+        lineStarts = new int[lines + 1];
+        int line = 0;
+        for (int i = 0; i < file.length; i++) {
+            if (file[i] == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public void openCsvSplit(Blackhole blackhole) throws IOException, CsvValidationException {
+        try (CSVReader csvReader = new CSVReaderBuilder(new InputStreamReader(new ByteArrayInputStream(file), StandardCharsets.UTF_8))
+                .withSkipLines(1).build()) {
+            String[] csvLine;
+            while ((csvLine = csvReader.readNext()) != null) {
+                blackhole.consume(csvLine);
+            }
+        }
+    }
+
+    @Benchmark
+    public void csvFieldsSplit(Blackhole blackhole) {
+        CsvFields fields = new CsvFields(10);
+        for (int line = 0; line < lines; line++) {
+            blackhole.consume(fields.split(file, lineStarts[line], lineStarts[line + 1] - 1));
+        }
+    }
+
+    @Benchmark
+    public void viewLineDecoder(Blackhole blackhole) {
+        ViewLineDecoder decoder = new ViewLineDecoder();
+        for (int line = 0; line < lines; line++) {
+            blackhole.consume(decoder.decode(file, lineStarts[line], lineStarts[line + 1] - 1));
+        }
+    }
+}
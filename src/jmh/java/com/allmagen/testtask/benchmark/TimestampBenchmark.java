@@ -0,0 +1,46 @@
+package com.allmagen.testtask.benchmark;
+
+import com.allmagen.testtask.service.parser.TimestampDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing registration times: {@link TimestampDecoder} on the raw bytes against {@link LocalDateTime#parse}
+ * with the same pattern, which the decoder falls back to for irregular values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestampBenchmark {
+    private static final int VALUES = 1024;
+
+    private final String[] strings = new String[VALUES];
+    private final byte[][] bytes = new byte[VALUES][];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        String[] lines = BenchmarkData.viewLines(VALUES);
+        for (int i = 0; i < VALUES; i++) {
+            strings[i] = lines[i].substring(0, lines[i].indexOf(','));
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public LocalDateTime timestampDecoder() {
+        byte[] value = bytes[next++ & (VALUES - 1)];
+        return TimestampDecoder.decode(value, 0, value.length);
+    }
+
+    @Benchmark
+    public LocalDateTime dateTimeFormatter() {
+        return LocalDateTime.parse(strings[next++ & (VALUES - 1)], TimestampDecoder.FORMATTER);
+    }
+}
@@ -0,0 +1,88 @@
+package com.allmagen.testtask.controller;
+
+import com.allmagen.testtask.model.metrics.CtrDates;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.ZoneOffset;
+
+/**
+ * Writes CTR or EvPM rows in the {@value #MEDIA_TYPE} format: a columnar binary layout that is decoded without
+ * parsing text. All numbers are little-endian.
+ * <pre>
+ * header:  4 bytes  magic "CTRC"
+ *          4 bytes  int32 format version, currently 1
+ * block:   4 bytes  int32 row count n, 0 marks the end of the stream
+ *          8n bytes int64 interval start per row, in epoch seconds (UTC)
+ *          4n bytes float32 CTR or EvPM value per row
+ * </pre>
+ * Rows are collected into blocks of up to {@value #BLOCK_ROWS} rows, so a response is written while the query runs
+ * and its size is known only when the last block is written. The columns are copied from the rows into primitive
+ * arrays; no object is created per row.
+ */
+public class CtrColumnsWriter {
+    public static final String MEDIA_TYPE = "application/vnd.ctr-evpm.columns";
+    public static final int VERSION = 1;
+    static final int BLOCK_ROWS = 4096;
+    private static final byte[] MAGIC = {'C', 'T', 'R', 'C'};
+
+    private final OutputStream out;
+    private final long[] intervalStarts = new long[BLOCK_ROWS];
+    private final float[] values = new float[BLOCK_ROWS];
+    private final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + BLOCK_ROWS * (Long.BYTES + Float.BYTES))
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private int rows;
+
+    public CtrColumnsWriter(OutputStream out) throws IOException {
+        this.out = out;
+        buffer.put(MAGIC).putInt(VERSION);
+        flushBuffer();
+    }
+
+    /**
+     * Adds one row to the current block and writes the block once it is full.
+     *
+     * @throws UncheckedIOException if the block could not be written.
+     */
+    public void write(CtrDates row) {
+        intervalStarts[rows] = row.getIntervalStart().toEpochSecond(ZoneOffset.UTC);
+        values[rows] = row.getCtr();
+        if (++rows == BLOCK_ROWS) {
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the last block and the end marker. Does not close the underlying stream.
+     * A stream without the end marker was cut off, e.g. because the query failed.
+     */
+    public void finish() throws IOException {
+        if (rows > 0) {
+            writeBlock();
+        }
+        writeBlock();
+        out.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        buffer.putInt(rows);
+        buffer.asLongBuffer().put(intervalStarts, 0, rows);
+        buffer.position(buffer.position() + rows * Long.BYTES);
+        buffer.asFloatBuffer().put(values, 0, rows);
+        buffer.position(buffer.position() + rows * Float.BYTES);
+        rows = 0;
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+}
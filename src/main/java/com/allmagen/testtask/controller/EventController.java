@@ -0,0 +1,52 @@
+package com.allmagen.testtask.controller;
+
+import com.allmagen.testtask.service.EventIngestService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Real-time ingestion of single view and action events, written in micro-batches by {@link EventIngestService}.
+ * The body is one JSON event, a JSON array of events, or newline-delimited JSON events.
+ */
+@Controller
+public class EventController {
+    private final EventIngestService eventIngestService;
+
+    public EventController(EventIngestService eventIngestService) {
+        this.eventIngestService = eventIngestService;
+    }
+
+    @Operation(summary = "Send view events")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Number of views accepted for the next micro-batch"),
+            @ApiResponse(responseCode = "400", description = "Invalid view, no view of the request is accepted"),
+            @ApiResponse(responseCode = "429", description = "Too many events waiting to be written")})
+    @PostMapping(
+            path = "/events/views",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = "text/plain")
+    public ResponseEntity<String> receiveViews(InputStream body) throws IOException {
+        return ResponseEntity.accepted().body("Views accepted: " + eventIngestService.receiveViews(body));
+    }
+
+    @Operation(summary = "Send action events")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Number of actions accepted for the next micro-batch"),
+            @ApiResponse(responseCode = "400", description = "Invalid action, no action of the request is accepted"),
+            @ApiResponse(responseCode = "429", description = "Too many events waiting to be written")})
+    @PostMapping(
+            path = "/events/actions",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = "text/plain")
+    public ResponseEntity<String> receiveActions(InputStream body) throws IOException {
+        return ResponseEntity.accepted().body("Actions accepted: " + eventIngestService.receiveActions(body));
+    }
+}
@@ -0,0 +1,89 @@
+package com.allmagen.testtask.controller;
+
+import com.allmagen.testtask.service.live.LiveWindow;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Live CTR and EvPM per minute of the {@link LiveWindow}, streamed as server-sent events and drawn by the
+ * "liveBarChart" view. Every {@code buckets} event carries a JSON array of buckets, the first one the whole window.
+ * The streams end after {@code spring.mvc.async.request-timeout}, and browsers reconnect by themselves.
+ */
+@Controller
+public class LiveController {
+    private final LiveWindow liveWindow;
+
+    public LiveController(LiveWindow liveWindow) {
+        this.liveWindow = liveWindow;
+    }
+
+    @Operation(summary = "Stream the CTR per minute of the live window")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Server-sent events with the changed CTR buckets")})
+    @GetMapping(value = "/ctrLive", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getCTRLive(@Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+        return stream(LiveWindow.Metric.CTR, tag);
+    }
+
+    @GetMapping("/ctrLiveChart")
+    public String getCTRLiveChart(@Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                  Model model) {
+        return fillModelAndDrawChart(model, "Live CTR for given tag: " + tag, "CTR", "/ctrLive", tag);
+    }
+
+    @Operation(summary = "Stream the EvPM per minute of the live window")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Server-sent events with the changed EvPM buckets")})
+    @GetMapping(value = "/evpmLive", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getEvPMLive(@Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+        return stream(LiveWindow.Metric.EVPM, tag);
+    }
+
+    @GetMapping("/evpmLiveChart")
+    public String getEvPMLiveChart(@Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                   Model model) {
+        return fillModelAndDrawChart(model, "Live EvPM for given tag: " + tag, "EvPM", "/evpmLive", tag);
+    }
+
+    private SseEmitter stream(LiveWindow.Metric metric, String tag) {
+        SseEmitter emitter = new SseEmitter();
+        LiveWindow.Subscription subscription = liveWindow.subscribe(metric, tag, buckets -> {
+            try {
+                emitter.send(SseEmitter.event().name("buckets").data(buckets, MediaType.APPLICATION_JSON));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(error -> subscription.close());
+        return emitter;
+    }
+
+    /**
+     * Fills the model of a live chart, which reads its data from the stream at {@code streamPath}.
+     *
+     * @return the name of the view to be rendered, "liveBarChart"
+     */
+    private String fillModelAndDrawChart(Model model, String graphTitle, String yAxisTitle, String streamPath, String tag) {
+        model.addAttribute("graphTitle", graphTitle);
+        model.addAttribute("yAxisTitle", yAxisTitle);
+        model.addAttribute("streamUrl", UriComponentsBuilder.fromPath(streamPath)
+                .queryParamIfPresent("tag", Optional.ofNullable(tag))
+                .encode()
+                .toUriString());
+        model.addAttribute("windowMinutes", liveWindow.minutes());
+        return "liveBarChart";
+    }
+}
@@ -0,0 +1,28 @@
+package com.allmagen.testtask.controller;
+
+import com.allmagen.testtask.service.QueryCache;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+
+/**
+ * Counters of the statistics query result cache.
+ */
+@Controller
+public class QueryCacheController {
+    private final QueryCache queryCache;
+
+    public QueryCacheController(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    @Operation(summary = "Get the hit, miss, eviction and invalidation counters of the query result cache")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Cache counters and the number of cached entries")})
+    @GetMapping(value = "/cache/stats", produces = {"application/json"})
+    public ResponseEntity<QueryCache.Stats> getStats() {
+        return ResponseEntity.ok(queryCache.stats());
+    }
+}
@@ -0,0 +1,31 @@
+package com.allmagen.testtask.controller;
+
+import com.allmagen.testtask.repository.RollupRepository;
+import com.allmagen.testtask.service.RollupService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+
+/**
+ * Maintenance of the pre-aggregated CTR and EvPM rollups.
+ */
+@Controller
+public class RollupController {
+    private final RollupService rollupService;
+
+    public RollupController(RollupService rollupService) {
+        this.rollupService = rollupService;
+    }
+
+    @Operation(summary = "Rebuild the minute, hour and day rollups and the uid sample from the views and actions tables")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Number of view and action buckets written")})
+    @PostMapping(value = "/rollups/rebuild", produces = "text/plain")
+    public ResponseEntity<String> rebuild() {
+        RollupRepository.RebuildResult result = rollupService.rebuild();
+        return ResponseEntity.ok("Rollups rebuilt: " + result.viewBuckets() + " view buckets, "
+                + result.actionBuckets() + " action buckets");
+    }
+}
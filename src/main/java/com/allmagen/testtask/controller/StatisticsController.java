@@ -1,14 +1,19 @@
 package com.allmagen.testtask.controller;
 
 import com.allmagen.testtask.model.metrics.*;
+import com.allmagen.testtask.service.ChartSeries;
 import com.allmagen.testtask.service.StatisticsService;
-import com.opencsv.exceptions.CsvValidationException;
+import com.allmagen.testtask.service.UploadJob;
+import com.allmagen.testtask.service.UploadJobService;
+import com.allmagen.testtask.service.UploadResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -16,41 +21,80 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Controller
 @RequestMapping("/")
 public class StatisticsController {
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final MediaType NDJSON = MediaType.parseMediaType(NDJSON_VALUE);
+    private static final String GROUP_BY_DESCRIPTION = "Grouping sets separated by ';', each a comma-separated list of " +
+            "mmDma, siteId, osName, hardware, model and time (e.g. mmDma;siteId;osName,hardware)";
+    private static final String MEASURES_DESCRIPTION = "Comma-separated list of views, actions and ctr";
+
     private final StatisticsService statisticsService;
+    private final UploadJobService uploadJobService;
+    private final ObjectMapper objectMapper;
+    private final int defaultMaxPoints;
 
-    public StatisticsController(StatisticsService statisticsService) {
+    public StatisticsController(StatisticsService statisticsService, UploadJobService uploadJobService, ObjectMapper objectMapper,
+                                @Value("${statistics.chart.max-points:1000}") int defaultMaxPoints) {
         this.statisticsService = statisticsService;
+        this.uploadJobService = uploadJobService;
+        this.objectMapper = objectMapper;
+        this.defaultMaxPoints = defaultMaxPoints;
     }
 
     @Operation(summary = "Upload view data from CSV")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Number of views uploaded"),
+            @ApiResponse(responseCode = "202", description = "Id of the upload job, see /jobs/{id}")})
     @PostMapping(
             path = "views",
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
             produces = "text/plain")
-    public ResponseEntity<String> uploadViewsFromFile(@RequestPart(value = "file") MultipartFile multipartFile) throws CsvValidationException, IOException {
-        int viewsNumber = statisticsService.uploadViewsFromFile(multipartFile);
-        return ResponseEntity.ok("Views uploaded: " + viewsNumber);
+    public ResponseEntity<String> uploadViewsFromFile(@RequestPart(value = "file") MultipartFile multipartFile,
+                                                      @Parameter(description = "Run the upload as a background job")
+                                                      @RequestParam(value = "async", defaultValue = "false") boolean async) throws IOException {
+        if (async) {
+            return jobAccepted(uploadJobService.submitViews(multipartFile));
+        }
+        UploadResult result = statisticsService.uploadViewsFromFile(multipartFile);
+        return ResponseEntity.ok("Views uploaded: " + result);
     }
 
     @Operation(summary = "Upload action data from CSV")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Number of actions uploaded"),
+            @ApiResponse(responseCode = "202", description = "Id of the upload job, see /jobs/{id}")})
     @PostMapping(
             path = "actions",
             consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
             produces = "text/plain")
-    public ResponseEntity<String> uploadActionsFromFile(@RequestPart(value = "file") MultipartFile multipartFile) throws CsvValidationException, IOException {
-        int actionsNumber = statisticsService.uploadActionsFromFile(multipartFile);
-        return ResponseEntity.ok("Actions uploaded: " + actionsNumber);
+    public ResponseEntity<String> uploadActionsFromFile(@RequestPart(value = "file") MultipartFile multipartFile,
+                                                        @Parameter(description = "Run the upload as a background job")
+                                                        @RequestParam(value = "async", defaultValue = "false") boolean async) throws IOException {
+        if (async) {
+            return jobAccepted(uploadJobService.submitActions(multipartFile));
+        }
+        UploadResult result = statisticsService.uploadActionsFromFile(multipartFile);
+        return ResponseEntity.ok("Actions uploaded: " + result);
     }
 
     @Operation(summary = "Get CTR within Date Range and Tag")
@@ -63,13 +107,43 @@ public class StatisticsController {
                                                            @RequestParam(value = "dateTo")
                                                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
                                                            @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
-                                                           @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+                                                           @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                           @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
 
-        Stream<CtrDates> resultStream = statisticsService.getCTR(dateFrom, dateTo, interval, tag);
+        Stream<CtrDates> resultStream = statisticsService.getCTR(dateFrom, dateTo, interval, tag, approximate);
 
         return ResponseEntity.ok(new StreamResponse<>(resultStream));
     }
 
+    @Operation(summary = "Get CTR within Date Range and Tag, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/ctr", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCTR(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateFrom")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                          @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateTo")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                          @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
+                                                          @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                          @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
+        return ndjson(() -> statisticsService.getCTR(dateFrom, dateTo, interval, tag, approximate));
+    }
+
+    @Operation(summary = "Get CTR within Date Range and Tag, as binary columns")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Interval starts and values in the " + CtrColumnsWriter.MEDIA_TYPE + " layout")})
+    @GetMapping(value = "/ctr", produces = CtrColumnsWriter.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> getCTRColumns(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                         @RequestParam(value = "dateFrom")
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                         @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                         @RequestParam(value = "dateTo")
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                         @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
+                                                         @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+        return columns(() -> statisticsService.getCTR(dateFrom, dateTo, interval, tag));
+    }
+
     @GetMapping("/ctrChart")
     public String getCTRChart(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
                               @RequestParam(value = "dateFrom")
@@ -79,18 +153,16 @@ public class StatisticsController {
                               @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
                               @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
                               @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                              @Parameter(description = "Maximum number of bars, longer series are downsampled (e.g. 500)")
+                              @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
                               Model model) {
-        List<LocalDateTime> x = new ArrayList<>();
-        List<Float> y = new ArrayList<>();
-
-        Stream<CtrDates> resultStream = statisticsService.getCTR(dateFrom, dateTo, interval, tag);
-
-        resultStream.forEach(mmDmaCTR -> {
-            x.add(mmDmaCTR.getIntervalStart());
-            y.add(mmDmaCTR.getCtr());
-        });
+        ChartSeries series = new ChartSeries();
+        try (Stream<CtrDates> resultStream = statisticsService.getCTR(dateFrom, dateTo, interval, tag)) {
+            resultStream.forEach(row -> series.add(row.getIntervalStart(), row.getCtr()));
+        }
+        ChartSeries chart = series.downsample(maxPoints == null ? defaultMaxPoints : maxPoints);
 
-        return fillModelAndDrawChart(model, "CTR for given tag: " + tag + "\n from " + dateFrom + " to " + dateTo, "CTR", y, x);
+        return fillModelAndDrawChart(model, "CTR for given tag: " + tag + "\n from " + dateFrom + " to " + dateTo, "CTR", chart.yAxisData(), chart.xAxisData());
     }
 
     @Operation(summary = "Get EvPM within Date Range and Tag")
@@ -103,13 +175,43 @@ public class StatisticsController {
                                                             @RequestParam(value = "dateTo")
                                                             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
                                                             @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
-                                                            @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+                                                            @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                            @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
 
-        Stream<CtrDates> resultStream = statisticsService.getEvPM(dateFrom, dateTo, interval, tag);
+        Stream<CtrDates> resultStream = statisticsService.getEvPM(dateFrom, dateTo, interval, tag, approximate);
 
         return ResponseEntity.ok(new StreamResponse<>(resultStream));
     }
 
+    @Operation(summary = "Get EvPM within Date Range and Tag, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/evpm", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamEvPM(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateFrom")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                          @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateTo")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                          @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
+                                                          @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                          @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
+        return ndjson(() -> statisticsService.getEvPM(dateFrom, dateTo, interval, tag, approximate));
+    }
+
+    @Operation(summary = "Get EvPM within Date Range and Tag, as binary columns")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Interval starts and values in the " + CtrColumnsWriter.MEDIA_TYPE + " layout")})
+    @GetMapping(value = "/evpm", produces = CtrColumnsWriter.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> getEvPMColumns(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                         @RequestParam(value = "dateFrom")
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                         @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                         @RequestParam(value = "dateTo")
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                         @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
+                                                         @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+        return columns(() -> statisticsService.getEvPM(dateFrom, dateTo, interval, tag));
+    }
+
     @GetMapping("/evpmChart")
     public String getEvPMChart(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
                                @RequestParam(value = "dateFrom")
@@ -119,18 +221,16 @@ public class StatisticsController {
                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
                                @Parameter(in = ParameterIn.QUERY, name = "interval", schema = @Schema(implementation = Interval.class), required = true) Interval interval,
                                @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                               @Parameter(description = "Maximum number of bars, longer series are downsampled (e.g. 500)")
+                               @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
                                Model model) {
-        List<LocalDateTime> x = new ArrayList<>();
-        List<Float> y = new ArrayList<>();
-
-        Stream<CtrDates> resultStream = statisticsService.getEvPM(dateFrom, dateTo, interval, tag);
-
-        resultStream.forEach(mmDmaCTR -> {
-            x.add(mmDmaCTR.getIntervalStart());
-            y.add(mmDmaCTR.getCtr());
-        });
+        ChartSeries series = new ChartSeries();
+        try (Stream<CtrDates> resultStream = statisticsService.getEvPM(dateFrom, dateTo, interval, tag)) {
+            resultStream.forEach(row -> series.add(row.getIntervalStart(), row.getCtr()));
+        }
+        ChartSeries chart = series.downsample(maxPoints == null ? defaultMaxPoints : maxPoints);
 
-        return fillModelAndDrawChart(model, "EvPM for given tag: " + tag + ", from " + dateFrom + " to " + dateTo, "EvPM", y, x);
+        return fillModelAndDrawChart(model, "EvPM for given tag: " + tag + ", from " + dateFrom + " to " + dateTo, "EvPM", chart.yAxisData(), chart.xAxisData());
     }
 
     @Operation(summary = "Aggregate number of views by mmDma for given dates")
@@ -142,13 +242,27 @@ public class StatisticsController {
             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateFrom,
             @Parameter(description = "Date to", required = true)
             @RequestParam(value = "dateTo")
-            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateTo) {
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateTo,
+            @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
 
-        Stream<MmDmaCount> viewsCounts = statisticsService.getViewsCountByMmDma(dateFrom, dateTo);
+        Stream<MmDmaCount> viewsCounts = statisticsService.getViewsCountByMmDma(dateFrom, dateTo, approximate);
 
         return ResponseEntity.ok(new StreamResponse<>(viewsCounts));
     }
 
+    @Operation(summary = "Aggregate number of views by mmDma for given dates, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/viewsCountByMmDma", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamViewsCountByMmDma(@Parameter(description = "Date from (e.g. 2021-07-20)", required = true)
+                                                          @RequestParam(value = "dateFrom")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateFrom,
+                                                          @Parameter(description = "Date to (e.g. 2021-07-22)", required = true)
+                                                          @RequestParam(value = "dateTo")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateTo,
+                                                          @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
+        return ndjson(() -> statisticsService.getViewsCountByMmDma(dateFrom, dateTo, approximate));
+    }
+
     @Operation(summary = "Aggregate number of views by siteId for given dates")
     @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Number of views aggregated by siteId")})
     @GetMapping(value = "/viewsCountBySiteId", produces = {"application/json"})
@@ -158,13 +272,27 @@ public class StatisticsController {
             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateFrom,
             @Parameter(description = "Date to (e.g. 2021-07-22)", required = true)
             @RequestParam(value = "dateTo")
-            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateTo) {
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateTo,
+            @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
 
-        Stream<SiteIdCount> viewsCounts = statisticsService.getViewsCountBySiteId(dateFrom, dateTo);
+        Stream<SiteIdCount> viewsCounts = statisticsService.getViewsCountBySiteId(dateFrom, dateTo, approximate);
 
         return ResponseEntity.ok(new StreamResponse<>(viewsCounts));
     }
 
+    @Operation(summary = "Aggregate number of views by siteId for given dates, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/viewsCountBySiteId", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamViewsCountBySiteId(@Parameter(description = "Date from (e.g. 2021-07-20)", required = true)
+                                                          @RequestParam(value = "dateFrom")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateFrom,
+                                                          @Parameter(description = "Date to (e.g. 2021-07-22)", required = true)
+                                                          @RequestParam(value = "dateTo")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) final LocalDate dateTo,
+                                                          @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
+        return ndjson(() -> statisticsService.getViewsCountBySiteId(dateFrom, dateTo, approximate));
+    }
+
     @Operation(summary = "Get CtrAggregateByMmDma within Date Range and Tag")
     @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Array of Ctr Aggregate By MmDma pairs with a specific Date Range")})
     @GetMapping("/ctrByMmDma")
@@ -174,12 +302,27 @@ public class StatisticsController {
                                                                            @Parameter(description = "Date to (e.g. 2021-07-23T20:00:00)", required = true)
                                                                            @RequestParam(value = "dateTo")
                                                                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
-                                                                           @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+                                                                           @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                                           @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
 
-        Stream<MmDmaCTR> resultStream = statisticsService.getCtrAggregateByMmDma(dateFrom, dateTo, tag);
+        Stream<MmDmaCTR> resultStream = statisticsService.getCtrAggregateByMmDma(dateFrom, dateTo, tag, approximate);
         return ResponseEntity.ok(new StreamResponse<>(resultStream));
     }
 
+    @Operation(summary = "Get CtrAggregateByMmDma within Date Range and Tag, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/ctrByMmDma", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCtrAggregateByMmDma(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateFrom")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                          @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateTo")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                          @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                          @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
+        return ndjson(() -> statisticsService.getCtrAggregateByMmDma(dateFrom, dateTo, tag, approximate));
+    }
+
     @GetMapping("/ctrByMmDmaChart")
     public String getCtrAggregateByMmDmaChart(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
                                               @RequestParam(value = "dateFrom")
@@ -211,12 +354,27 @@ public class StatisticsController {
                                                                              @Parameter(description = "Date to (e.g. 2021-07-23T20:00:00)", required = true)
                                                                              @RequestParam(value = "dateTo")
                                                                              @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
-                                                                             @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+                                                                             @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                                             @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
 
-        Stream<SiteIdCTR> resultStream = statisticsService.getCtrAggregateBySiteId(dateFrom, dateTo, tag);
+        Stream<SiteIdCTR> resultStream = statisticsService.getCtrAggregateBySiteId(dateFrom, dateTo, tag, approximate);
         return ResponseEntity.ok(new StreamResponse<>(resultStream));
     }
 
+    @Operation(summary = "Get Ctr Aggregate By SiteId within Date Range and Tag, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/ctrBySiteId", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCtrAggregateBySiteId(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateFrom")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                          @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                          @RequestParam(value = "dateTo")
+                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                          @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                          @Parameter(description = "Estimate from the uid sample, with an error bound") @RequestParam(value = "approximate", defaultValue = "false") boolean approximate) {
+        return ndjson(() -> statisticsService.getCtrAggregateBySiteId(dateFrom, dateTo, tag, approximate));
+    }
+
     @GetMapping("/ctrBySiteIdChart")
     public String getCtrAggregateBySiteIdChart(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
                                                @RequestParam(value = "dateFrom")
@@ -225,11 +383,17 @@ public class StatisticsController {
                                                @RequestParam(value = "dateTo")
                                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
                                                @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                               @Parameter(description = "Only draw the siteIds with the highest CTR")
+                                               @RequestParam(value = "top", required = false) Integer top,
+                                               @Parameter(description = "Minimum number of views of the drawn siteIds, with top")
+                                               @RequestParam(value = "minViews", defaultValue = "1") int minViews,
                                                Model model) {
         List<String> x = new ArrayList<>();
         List<Float> y = new ArrayList<>();
 
-        Stream<SiteIdCTR> resultStream = statisticsService.getCtrAggregateBySiteId(dateFrom, dateTo, tag);
+        Stream<? extends SiteIdCTR> resultStream = top == null
+                ? statisticsService.getCtrAggregateBySiteId(dateFrom, dateTo, tag)
+                : statisticsService.getTopSiteIds(dateFrom, dateTo, tag, RankBy.CTR, false, minViews, top);
 
         resultStream.forEach(mmDmaCTR -> {
             x.add(mmDmaCTR.getSiteId());
@@ -239,6 +403,203 @@ public class StatisticsController {
         return fillModelAndDrawChart(model, "CTR aggregate by SiteId for given tag: " + tag + ", from " + dateFrom + " to " + dateTo, "CTR", y, x);
     }
 
+    @Operation(summary = "Get the top siteIds by CTR or views within Date Range and Tag")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The first siteIds with at least minViews views")})
+    @GetMapping("/topSiteIds")
+    public ResponseEntity<StreamResponse<SiteIdTop>> getTopSiteIds(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                                   @RequestParam(value = "dateFrom")
+                                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                                   @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                                   @RequestParam(value = "dateTo")
+                                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                                   @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                                   @Parameter(description = "Rank by CTR or by number of views") @RequestParam(value = "rankBy", defaultValue = "CTR") RankBy rankBy,
+                                                                   @Parameter(description = "Return the lowest instead of the highest values") @RequestParam(value = "ascending", defaultValue = "false") boolean ascending,
+                                                                   @Parameter(description = "Minimum number of views to be ranked") @RequestParam(value = "minViews", defaultValue = "1") int minViews,
+                                                                   @Parameter(description = "Number of rows to return") @RequestParam(value = "limit", defaultValue = "50") int limit) {
+
+        Stream<SiteIdTop> resultStream = statisticsService.getTopSiteIds(dateFrom, dateTo, tag, rankBy, ascending, minViews, limit);
+        return ResponseEntity.ok(new StreamResponse<>(resultStream));
+    }
+
+    @Operation(summary = "Get the top siteIds by CTR or views within Date Range and Tag, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/topSiteIds", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTopSiteIds(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                                  @RequestParam(value = "dateFrom")
+                                                                  @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                                  @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                                  @RequestParam(value = "dateTo")
+                                                                  @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                                  @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                                  @Parameter(description = "Rank by CTR or by number of views") @RequestParam(value = "rankBy", defaultValue = "CTR") RankBy rankBy,
+                                                                  @Parameter(description = "Return the lowest instead of the highest values") @RequestParam(value = "ascending", defaultValue = "false") boolean ascending,
+                                                                  @Parameter(description = "Minimum number of views to be ranked") @RequestParam(value = "minViews", defaultValue = "1") int minViews,
+                                                                  @Parameter(description = "Number of rows to return") @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        return ndjson(() -> statisticsService.getTopSiteIds(dateFrom, dateTo, tag, rankBy, ascending, minViews, limit));
+    }
+
+    @Operation(summary = "Get the top mmDma codes by CTR or views within Date Range and Tag")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The first mmDma codes with at least minViews views")})
+    @GetMapping("/topMmDmas")
+    public ResponseEntity<StreamResponse<MmDmaTop>> getTopMmDmas(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                                 @RequestParam(value = "dateFrom")
+                                                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                                 @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                                 @RequestParam(value = "dateTo")
+                                                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                                 @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                                 @Parameter(description = "Rank by CTR or by number of views") @RequestParam(value = "rankBy", defaultValue = "CTR") RankBy rankBy,
+                                                                 @Parameter(description = "Return the lowest instead of the highest values") @RequestParam(value = "ascending", defaultValue = "false") boolean ascending,
+                                                                 @Parameter(description = "Minimum number of views to be ranked") @RequestParam(value = "minViews", defaultValue = "1") int minViews,
+                                                                 @Parameter(description = "Number of rows to return") @RequestParam(value = "limit", defaultValue = "50") int limit) {
+
+        Stream<MmDmaTop> resultStream = statisticsService.getTopMmDmas(dateFrom, dateTo, tag, rankBy, ascending, minViews, limit);
+        return ResponseEntity.ok(new StreamResponse<>(resultStream));
+    }
+
+    @Operation(summary = "Get the top mmDma codes by CTR or views within Date Range and Tag, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/topMmDmas", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTopMmDmas(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                                 @RequestParam(value = "dateFrom")
+                                                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                                 @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                                 @RequestParam(value = "dateTo")
+                                                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                                 @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag,
+                                                                 @Parameter(description = "Rank by CTR or by number of views") @RequestParam(value = "rankBy", defaultValue = "CTR") RankBy rankBy,
+                                                                 @Parameter(description = "Return the lowest instead of the highest values") @RequestParam(value = "ascending", defaultValue = "false") boolean ascending,
+                                                                 @Parameter(description = "Minimum number of views to be ranked") @RequestParam(value = "minViews", defaultValue = "1") int minViews,
+                                                                 @Parameter(description = "Number of rows to return") @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        return ndjson(() -> statisticsService.getTopMmDmas(dateFrom, dateTo, tag, rankBy, ascending, minViews, limit));
+    }
+
+    @Operation(summary = "Get views, actions and CTR grouped by several sets of dimensions with one query")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One row per group of every grouping set")})
+    @GetMapping("/cube")
+    public ResponseEntity<StreamResponse<CubeRow>> getCube(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                           @RequestParam(value = "dateFrom")
+                                                           @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                           @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                           @RequestParam(value = "dateTo")
+                                                           @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                           @Parameter(description = GROUP_BY_DESCRIPTION, required = true) @RequestParam(value = "groupBy") String groupBy,
+                                                           @Parameter(description = "Add the total over all views") @RequestParam(value = "total", defaultValue = "false") boolean total,
+                                                           @Parameter(description = MEASURES_DESCRIPTION) @RequestParam(value = "measures", defaultValue = "views,actions,ctr") String measures,
+                                                           @Parameter(description = "Interval of the time dimension") @RequestParam(value = "interval", required = false) Interval interval,
+                                                           @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+
+        Stream<CubeRow> resultStream = statisticsService.getCube(dateFrom, dateTo, groupingSets(groupBy, total), measures(measures), interval, tag);
+        return ResponseEntity.ok(new StreamResponse<>(resultStream));
+    }
+
+    @Operation(summary = "Get views, actions and CTR grouped by several sets of dimensions with one query, streamed as NDJSON")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "One JSON object per line")})
+    @GetMapping(value = "/cube", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCube(@Parameter(description = "Date from (e.g. 2021-07-20T20:00:00)", required = true)
+                                                            @RequestParam(value = "dateFrom")
+                                                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateFrom,
+                                                            @Parameter(description = "Date to (e.g. 2021-07-22T20:00:00)", required = true)
+                                                            @RequestParam(value = "dateTo")
+                                                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final LocalDateTime dateTo,
+                                                            @Parameter(description = GROUP_BY_DESCRIPTION, required = true) @RequestParam(value = "groupBy") String groupBy,
+                                                            @Parameter(description = "Add the total over all views") @RequestParam(value = "total", defaultValue = "false") boolean total,
+                                                            @Parameter(description = MEASURES_DESCRIPTION) @RequestParam(value = "measures", defaultValue = "views,actions,ctr") String measures,
+                                                            @Parameter(description = "Interval of the time dimension") @RequestParam(value = "interval", required = false) Interval interval,
+                                                            @Parameter(description = "tag") @RequestParam(value = "tag", required = false) String tag) {
+        List<Set<CubeDimension>> groupingSets = groupingSets(groupBy, total);
+        Set<CubeMeasure> cubeMeasures = measures(measures);
+        return ndjson(() -> statisticsService.getCube(dateFrom, dateTo, groupingSets, cubeMeasures, interval, tag));
+    }
+
+    /**
+     * Parses the grouping sets of a cube request: sets separated by {@code ;}, dimensions within a set by {@code ,}.
+     *
+     * @throws IllegalArgumentException If a dimension is unknown.
+     */
+    private static List<Set<CubeDimension>> groupingSets(String groupBy, boolean total) {
+        List<Set<CubeDimension>> groupingSets = new ArrayList<>();
+        for (String groupingSet : groupBy.split(";")) {
+            if (!groupingSet.isBlank()) {
+                groupingSets.add(Arrays.stream(groupingSet.split(","))
+                        .map(String::trim)
+                        .map(CubeDimension::of)
+                        .collect(Collectors.toCollection(() -> EnumSet.noneOf(CubeDimension.class))));
+            }
+        }
+        if (total) {
+            groupingSets.add(EnumSet.noneOf(CubeDimension.class));
+        }
+        return groupingSets;
+    }
+
+    /**
+     * Parses the comma-separated measures of a cube request.
+     *
+     * @throws IllegalArgumentException If a measure is unknown or none is given.
+     */
+    private static Set<CubeMeasure> measures(String measures) {
+        Set<CubeMeasure> cubeMeasures = Arrays.stream(measures.split(","))
+                .map(String::trim)
+                .filter(measure -> !measure.isEmpty())
+                .map(CubeMeasure::of)
+                .collect(Collectors.toCollection(() -> EnumSet.noneOf(CubeMeasure.class)));
+        if (cubeMeasures.isEmpty()) {
+            throw new IllegalArgumentException("At least one cube measure is required");
+        }
+        return cubeMeasures;
+    }
+
+    /**
+     * Writes the rows of a statistics query as newline-delimited JSON while the query runs.
+     * The response is written on an async request thread, which holds the read-only transaction and
+     * the database cursor of the query until the last row is written.
+     *
+     * @param query runs one of the query methods of {@link StatisticsService}.
+     * @return The streaming response.
+     */
+    private <T> ResponseEntity<StreamingResponseBody> ndjson(Supplier<Stream<T>> query) {
+        StreamingResponseBody body = outputStream -> {
+            OutputStream out = new BufferedOutputStream(outputStream);
+            statisticsService.forEachRow(query, row -> {
+                try {
+                    out.write(objectMapper.writeValueAsBytes(row));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Writes CTR or EvPM rows with a {@link CtrColumnsWriter} while the query runs, like {@link #ndjson(Supplier)}.
+     *
+     * @param query runs {@link StatisticsService#getCTR} or {@link StatisticsService#getEvPM}.
+     * @return The streaming response.
+     */
+    private ResponseEntity<StreamingResponseBody> columns(Supplier<Stream<CtrDates>> query) {
+        StreamingResponseBody body = outputStream -> {
+            CtrColumnsWriter writer = new CtrColumnsWriter(outputStream);
+            statisticsService.forEachRow(query, writer::write);
+            writer.finish();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(CtrColumnsWriter.MEDIA_TYPE))
+                .body(body);
+    }
+
+    private ResponseEntity<String> jobAccepted(UploadJob job) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/jobs/" + job.getId()))
+                .body(job.getId().toString());
+    }
+
     /**
      * Fills the provided Spring MVC Model with data and draws a bar chart.
      *
@@ -267,6 +628,11 @@ public class StatisticsController {
 
     }
 
+    public enum RankBy {
+        CTR,
+        VIEWS
+    }
+
     public enum Interval {
         DAY("day"),
         MINUTE("minute"),
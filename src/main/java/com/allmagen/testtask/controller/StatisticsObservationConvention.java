@@ -0,0 +1,39 @@
+package com.allmagen.testtask.controller;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.common.KeyValues;
+import org.springframework.http.server.observation.DefaultServerRequestObservationConvention;
+import org.springframework.http.server.observation.ServerRequestObservationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Adds the query parameters that shape a statistics query to the {@code http.server.requests} metrics:
+ * {@code interval} (the requested interval, or {@code none}) and {@code tagged} (whether a tag filter was set).
+ * Both have few values, so the latency histograms stay small.
+ */
+@Component
+public class StatisticsObservationConvention extends DefaultServerRequestObservationConvention {
+
+    @Override
+    public KeyValues getLowCardinalityKeyValues(ServerRequestObservationContext context) {
+        String interval = context.getCarrier().getParameter("interval");
+        String tag = context.getCarrier().getParameter("tag");
+        return super.getLowCardinalityKeyValues(context).and(
+                KeyValue.of("interval", interval == null ? "none" : interval(interval)),
+                KeyValue.of("tagged", String.valueOf(tag != null && !tag.isEmpty())));
+    }
+
+    /**
+     * @return The interval name, or {@code invalid} for values that are not an interval, so arbitrary
+     * parameter values do not create new time series.
+     */
+    private static String interval(String value) {
+        try {
+            return StatisticsController.Interval.valueOf(value.toUpperCase(Locale.ROOT)).name();
+        } catch (IllegalArgumentException e) {
+            return "invalid";
+        }
+    }
+}
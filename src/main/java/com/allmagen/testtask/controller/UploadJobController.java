@@ -0,0 +1,36 @@
+package com.allmagen.testtask.controller;
+
+import com.allmagen.testtask.service.UploadJob;
+import com.allmagen.testtask.service.UploadJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+
+import java.util.UUID;
+
+/**
+ * Status of background uploads started with {@code async=true}.
+ */
+@Controller
+public class UploadJobController {
+    private final UploadJobService uploadJobService;
+
+    public UploadJobController(UploadJobService uploadJobService) {
+        this.uploadJobService = uploadJobService;
+    }
+
+    @Operation(summary = "Get the progress of an upload job")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Rows parsed, written and rejected, throughput and ETA"),
+            @ApiResponse(responseCode = "404", description = "Unknown or expired job id")})
+    @GetMapping(value = "/jobs/{id}", produces = {"application/json"})
+    public ResponseEntity<UploadJob.Status> getJob(@PathVariable("id") UUID id) {
+        return uploadJobService.getJob(id)
+                .map(job -> ResponseEntity.ok(job.status()))
+                .orElse(ResponseEntity.notFound().build());
+    }
+}
@@ -2,6 +2,7 @@ package com.allmagen.testtask.model;
 
 import jakarta.persistence.*;
 
+import java.time.LocalDateTime;
 import java.util.Objects;
 
 /**
@@ -20,9 +21,15 @@ public class ActionEntity {
     private Long id;
 
     @ManyToOne
-    @JoinColumn(name = "uid", nullable = false)
+    // the foreign key is maintained by PartitionService, it cannot exist between partitioned tables
+    @JoinColumn(name = "uid", nullable = false, foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private ViewEntity viewEntity;
 
+    /**
+     * Registration time of the view, so that actions can be stored in the time partition of their view
+     * and filtered by the same time range.
+     */
+    private LocalDateTime regTime;
     private String tag;
     private int count;
 
@@ -47,6 +54,14 @@ public class ActionEntity {
         return viewEntity;
     }
 
+    public LocalDateTime getRegTime() {
+        return regTime;
+    }
+
+    public void setRegTime(LocalDateTime regTime) {
+        this.regTime = regTime;
+    }
+
     public String getTag() {
         return tag;
     }
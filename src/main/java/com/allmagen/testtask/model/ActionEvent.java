@@ -0,0 +1,8 @@
+package com.allmagen.testtask.model;
+
+/**
+ * An action sent to the event ingestion endpoint, with the fields of a line of an actions CSV file.
+ * Both fields are required.
+ */
+public record ActionEvent(String uid, String tag) {
+}
@@ -0,0 +1,74 @@
+package com.allmagen.testtask.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Entity class representing the sum of action counts per tag for the views registered in a time bucket.
+ * Buckets are kept for every granularity of {@code StatisticsController.Interval}.
+ **/
+@Entity
+@Table(name = "action_rollup")
+@IdClass(ActionRollupEntity.Key.class)
+public class ActionRollupEntity {
+    @Id
+    private String granularity;
+
+    @Id
+    private LocalDateTime bucketStart;
+
+    @Id
+    private String tag;
+
+    private long actionCount;
+
+    public ActionRollupEntity() {
+    }
+
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public LocalDateTime getBucketStart() {
+        return bucketStart;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getActionCount() {
+        return actionCount;
+    }
+
+    public static class Key implements Serializable {
+        private String granularity;
+        private LocalDateTime bucketStart;
+        private String tag;
+
+        public Key() {
+        }
+
+        public Key(String granularity, LocalDateTime bucketStart, String tag) {
+            this.granularity = granularity;
+            this.bucketStart = bucketStart;
+            this.tag = tag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(granularity, key.granularity) && Objects.equals(bucketStart, key.bucketStart) && Objects.equals(tag, key.tag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(granularity, bucketStart, tag);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.allmagen.testtask.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Entity class representing the action count per tag of a view in the uid sample, see {@link ViewSampleEntity}.
+ **/
+@Entity
+@Table(name = "action_sample")
+@IdClass(ActionSampleEntity.Key.class)
+public class ActionSampleEntity {
+    @Id
+    private String uid;
+
+    @Id
+    private String tag;
+
+    private long count;
+
+    public ActionSampleEntity() {
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public static class Key implements Serializable {
+        private String uid;
+        private String tag;
+
+        public Key() {
+        }
+
+        public Key(String uid, String tag) {
+            this.uid = uid;
+            this.tag = tag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(uid, key.uid) && Objects.equals(tag, key.tag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uid, tag);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.allmagen.testtask.model;
+
+/**
+ * A view sent to the event ingestion endpoint, with the fields of a line of a views CSV file.
+ * All fields are required; {@code regTime} has the {@code yyyy-MM-dd HH:mm:ss} format of the CSV files.
+ */
+public record ViewEvent(String regTime, String uid, Integer fcImpChk, Integer fcTimeChk, Integer utmtr, Integer mmDma,
+                        String osName, String model, String hardware, String siteId) {
+}
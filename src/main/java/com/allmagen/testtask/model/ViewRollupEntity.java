@@ -0,0 +1,65 @@
+package com.allmagen.testtask.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Entity class representing the number of views registered in a time bucket.
+ * Buckets are kept for every granularity of {@code StatisticsController.Interval}.
+ **/
+@Entity
+@Table(name = "view_rollup")
+@IdClass(ViewRollupEntity.Key.class)
+public class ViewRollupEntity {
+    @Id
+    private String granularity;
+
+    @Id
+    private LocalDateTime bucketStart;
+
+    private long viewCount;
+
+    public ViewRollupEntity() {
+    }
+
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public LocalDateTime getBucketStart() {
+        return bucketStart;
+    }
+
+    public long getViewCount() {
+        return viewCount;
+    }
+
+    public static class Key implements Serializable {
+        private String granularity;
+        private LocalDateTime bucketStart;
+
+        public Key() {
+        }
+
+        public Key(String granularity, LocalDateTime bucketStart) {
+            this.granularity = granularity;
+            this.bucketStart = bucketStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(granularity, key.granularity) && Objects.equals(bucketStart, key.bucketStart);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(granularity, bucketStart);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.allmagen.testtask.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entity class representing a view of the uid sample: the columns of {@link ViewEntity} used by the statistics
+ * queries, for about one in {@code SampleRepository.SAMPLE_MODULUS} views, chosen by a hash of the uid.
+ **/
+@Entity
+@Table(name = "view_sample",
+        indexes = @Index(name = "viewSampleRegTimeIndex", columnList = "regTime"))
+public class ViewSampleEntity {
+    @Id
+    private String uid;
+
+    private LocalDateTime regTime;
+    private int mmDma;
+    private String siteId;
+
+    public ViewSampleEntity() {
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public LocalDateTime getRegTime() {
+        return regTime;
+    }
+
+    public int getMmDma() {
+        return mmDma;
+    }
+
+    public String getSiteId() {
+        return siteId;
+    }
+}
@@ -0,0 +1,23 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.time.LocalDateTime;
+
+/**
+ * {@link CtrDates} estimated from the uid sample.
+ */
+public record CtrDatesEstimate(LocalDateTime intervalStart, float ctr, Float error) implements CtrDates, Estimate {
+    @Override
+    public LocalDateTime getIntervalStart() {
+        return intervalStart;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+
+    @Override
+    public Float getError() {
+        return error;
+    }
+}
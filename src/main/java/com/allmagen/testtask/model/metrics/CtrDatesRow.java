@@ -0,0 +1,18 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.time.LocalDateTime;
+
+/**
+ * {@link CtrDates} computed outside of a JPA query.
+ */
+public record CtrDatesRow(LocalDateTime intervalStart, float ctr) implements CtrDates {
+    @Override
+    public LocalDateTime getIntervalStart() {
+        return intervalStart;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+}
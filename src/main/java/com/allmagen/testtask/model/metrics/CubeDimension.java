@@ -0,0 +1,53 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.util.Arrays;
+
+/**
+ * A view attribute the cube can be grouped by.
+ */
+public enum CubeDimension {
+    MM_DMA("mmDma", "mm_dma"),
+    SITE_ID("siteId", "site_id"),
+    OS_NAME("osName", "os_name"),
+    HARDWARE("hardware", "hardware"),
+    MODEL("model", "model"),
+    /**
+     * The registration time truncated to the requested interval.
+     */
+    TIME("time", "DATE_TRUNC(:interval, reg_time)");
+
+    private final String name;
+    private final String expression;
+
+    CubeDimension(String name, String expression) {
+        this.name = name;
+        this.expression = expression;
+    }
+
+    /**
+     * @return The name of the dimension in requests and responses.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The SQL expression of the dimension over a row of {@code views_table}.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @param name the name of a dimension, as returned by {@link #getName()}.
+     * @return The dimension.
+     * @throws IllegalArgumentException If there is no dimension with this name.
+     */
+    public static CubeDimension of(String name) {
+        return Arrays.stream(values())
+                .filter(dimension -> dimension.name.equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown cube dimension '" + name + "', expected one of "
+                        + Arrays.stream(values()).map(CubeDimension::getName).toList()));
+    }
+}
@@ -0,0 +1,47 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.util.Arrays;
+
+/**
+ * A value the cube computes for every group.
+ */
+public enum CubeMeasure {
+    /**
+     * The number of views.
+     */
+    VIEWS("views"),
+    /**
+     * The number of actions of the views that pass the CTR tag filter.
+     */
+    ACTIONS("actions"),
+    /**
+     * Actions per view, as in the CTR aggregates by mmDma and siteId.
+     */
+    CTR("ctr");
+
+    private final String name;
+
+    CubeMeasure(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The name of the measure in requests and responses.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name of a measure, as returned by {@link #getName()}.
+     * @return The measure.
+     * @throws IllegalArgumentException If there is no measure with this name.
+     */
+    public static CubeMeasure of(String name) {
+        return Arrays.stream(values())
+                .filter(measure -> measure.name.equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown cube measure '" + name + "', expected one of "
+                        + Arrays.stream(values()).map(CubeMeasure::getName).toList()));
+    }
+}
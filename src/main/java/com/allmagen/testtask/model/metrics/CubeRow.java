@@ -0,0 +1,19 @@
+package com.allmagen.testtask.model.metrics;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One group of a cube query.
+ *
+ * @param grouping   the names of the dimensions of the grouping set this group belongs to, empty for the total.
+ * @param dimensions the value of each dimension of the grouping set, by name.
+ * @param views      the number of views, {@code null} if not requested.
+ * @param actions    the number of actions, {@code null} if not requested.
+ * @param ctr        the actions per view, {@code null} if not requested.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record CubeRow(List<String> grouping, Map<String, Object> dimensions, Long views, Long actions, Float ctr) {
+}
@@ -0,0 +1,12 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * A statistic estimated from the uid sample instead of computed from all rows.
+ */
+public interface Estimate {
+    /**
+     * @return The half-width of the 95% confidence interval of the estimate, or {@code null} if too few views were
+     * sampled to tell.
+     */
+    Float getError();
+}
@@ -0,0 +1,14 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.time.LocalDateTime;
+
+/**
+ * One minute of the live CTR or EvPM window.
+ *
+ * @param intervalStart the start of the minute.
+ * @param views         the number of views registered in the minute.
+ * @param actions       the number of counted actions of these views.
+ * @param ctr           the CTR in percent or the EvPM, {@code 0} without views.
+ */
+public record LiveBucket(LocalDateTime intervalStart, long views, long actions, float ctr) {
+}
@@ -0,0 +1,21 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link MmDmaCTR} estimated from the uid sample.
+ */
+public record MmDmaCTREstimate(int mmDma, float ctr, Float error) implements MmDmaCTR, Estimate {
+    @Override
+    public int getMmDma() {
+        return mmDma;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+
+    @Override
+    public Float getError() {
+        return error;
+    }
+}
@@ -0,0 +1,16 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link MmDmaCTR} computed outside of a JPA query.
+ */
+public record MmDmaCTRRow(int mmDma, float ctr) implements MmDmaCTR {
+    @Override
+    public int getMmDma() {
+        return mmDma;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+}
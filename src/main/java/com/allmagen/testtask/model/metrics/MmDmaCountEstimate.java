@@ -0,0 +1,21 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link MmDmaCount} estimated from the uid sample.
+ */
+public record MmDmaCountEstimate(int mmDma, int count, Float error) implements MmDmaCount, Estimate {
+    @Override
+    public int getMmDma() {
+        return mmDma;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public Float getError() {
+        return error;
+    }
+}
@@ -0,0 +1,16 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link MmDmaCount} computed outside of a JPA query.
+ */
+public record MmDmaCountRow(int mmDma, int count) implements MmDmaCount {
+    @Override
+    public int getMmDma() {
+        return mmDma;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,20 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * An mmDma of a top-K ranking with its number of views and CTR.
+ */
+public record MmDmaTop(int mmDma, long views, float ctr) implements MmDmaCTR {
+    @Override
+    public int getMmDma() {
+        return mmDma;
+    }
+
+    public long getViews() {
+        return views;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+}
@@ -0,0 +1,12 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents the earliest and latest registration time of a set of views.
+ */
+public interface RegTimeRange {
+    LocalDateTime getFirstRegTime();
+
+    LocalDateTime getLastRegTime();
+}
@@ -0,0 +1,21 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link SiteIdCTR} estimated from the uid sample.
+ */
+public record SiteIdCTREstimate(String siteId, float ctr, Float error) implements SiteIdCTR, Estimate {
+    @Override
+    public String getSiteId() {
+        return siteId;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+
+    @Override
+    public Float getError() {
+        return error;
+    }
+}
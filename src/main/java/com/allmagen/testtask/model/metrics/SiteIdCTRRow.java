@@ -0,0 +1,16 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link SiteIdCTR} computed outside of a JPA query.
+ */
+public record SiteIdCTRRow(String siteId, float ctr) implements SiteIdCTR {
+    @Override
+    public String getSiteId() {
+        return siteId;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+}
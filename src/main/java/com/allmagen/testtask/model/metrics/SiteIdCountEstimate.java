@@ -0,0 +1,21 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link SiteIdCount} estimated from the uid sample.
+ */
+public record SiteIdCountEstimate(String siteId, int count, Float error) implements SiteIdCount, Estimate {
+    @Override
+    public String getSiteId() {
+        return siteId;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public Float getError() {
+        return error;
+    }
+}
@@ -0,0 +1,16 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * {@link SiteIdCount} computed outside of a JPA query.
+ */
+public record SiteIdCountRow(String siteId, int count) implements SiteIdCount {
+    @Override
+    public String getSiteId() {
+        return siteId;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+}
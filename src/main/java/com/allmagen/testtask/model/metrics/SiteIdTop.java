@@ -0,0 +1,20 @@
+package com.allmagen.testtask.model.metrics;
+
+/**
+ * A siteId of a top-K ranking with its number of views and CTR.
+ */
+public record SiteIdTop(String siteId, long views, float ctr) implements SiteIdCTR {
+    @Override
+    public String getSiteId() {
+        return siteId;
+    }
+
+    public long getViews() {
+        return views;
+    }
+
+    @Override
+    public float getCtr() {
+        return ctr;
+    }
+}
@@ -0,0 +1,12 @@
+package com.allmagen.testtask.model.metrics;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents the registration time of one view.
+ */
+public interface ViewRegTime {
+    String getUid();
+
+    LocalDateTime getRegTime();
+}
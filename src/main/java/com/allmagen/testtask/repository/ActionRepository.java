@@ -8,5 +8,5 @@ import org.springframework.stereotype.Repository;
  * Repository interface for managing ActionEntity instances.
  */
 @Repository
-public interface ActionRepository extends JpaRepository<ActionEntity, Long> {
+public interface ActionRepository extends JpaRepository<ActionEntity, Long>, ActionRepositoryCustom {
 }
\ No newline at end of file
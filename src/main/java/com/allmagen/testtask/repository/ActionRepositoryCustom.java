@@ -0,0 +1,24 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ActionEntity;
+
+import java.util.List;
+
+/**
+ * Bulk write operations for actions that bypass the JPA persistence context.
+ */
+public interface ActionRepositoryCustom {
+    /**
+     * The unique key of actions_table: one row per uid and tag, maintained by {@link PartitionRepository}.
+     * With partitioned tables the key also contains the registration time, which is the same for all actions of a uid.
+     */
+    String UNIQUE_KEY = "actions_table_uid_tag_key";
+
+    /**
+     * Adds the counts of the given actions to the stored rows of the same uid and tag with a single statement,
+     * inserting the rows that do not exist yet.
+     *
+     * @param actions the actions to merge, at most one per uid and tag.
+     */
+    void upsertAll(List<ActionEntity> actions);
+}
@@ -0,0 +1,71 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ActionEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * JDBC implementation of {@link ActionRepositoryCustom}.
+ * Runs on the connection of the surrounding transaction.
+ */
+public class ActionRepositoryCustomImpl implements ActionRepositoryCustom {
+    private static final String UPSERT_ACTIONS = "WITH staged AS (SELECT * " +
+            "FROM unnest(?::varchar[], ?::varchar[], ?::integer[], ?::timestamp[]) AS u(uid, tag, count, reg_time)), " +
+            upsertSql("staged s") + " SELECT COUNT(*) FROM updated";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ActionRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void upsertAll(List<ActionEntity> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        String[] uids = new String[actions.size()];
+        String[] tags = new String[actions.size()];
+        Integer[] counts = new Integer[actions.size()];
+        Timestamp[] regTimes = new Timestamp[actions.size()];
+        for (int i = 0; i < actions.size(); i++) {
+            ActionEntity action = actions.get(i);
+            uids[i] = action.getViewEntity().getUid();
+            tags[i] = action.getTag();
+            counts[i] = action.getCount();
+            regTimes[i] = action.getRegTime() == null ? null : Timestamp.valueOf(action.getRegTime());
+        }
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(UPSERT_ACTIONS);
+            ps.setArray(1, connection.createArrayOf("varchar", uids));
+            ps.setArray(2, connection.createArrayOf("varchar", tags));
+            ps.setArray(3, connection.createArrayOf("integer", counts));
+            ps.setArray(4, connection.createArrayOf("timestamp", regTimes));
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+        });
+    }
+
+    /**
+     * Builds the WITH items that add action counts to the stored rows of the same uid and tag and insert the
+     * remaining rows. Stored rows are updated first, so ids are only taken from actions_table_seq for the rows
+     * that are inserted; the ON CONFLICT clause covers rows inserted by concurrent transactions meanwhile.
+     *
+     * @param source a FROM item aliased {@code s} with {@code uid}, {@code tag}, {@code count} and {@code reg_time}
+     *               columns, at most one row per uid and tag.
+     * @return The {@code updated} and {@code added} WITH items, {@code updated} returning the uid and tag of the
+     * updated rows.
+     */
+    public static String upsertSql(String source) {
+        return "updated AS (UPDATE actions_table a SET count = a.count + s.count " +
+                "FROM " + source + " WHERE a.uid = s.uid AND a.tag = s.tag RETURNING a.uid, a.tag), " +
+                "added AS (INSERT INTO actions_table (id, uid, tag, count, reg_time) " +
+                "SELECT nextval('actions_table_seq'), s.uid, s.tag, s.count, s.reg_time FROM " + source + " " +
+                "WHERE NOT EXISTS (SELECT 1 FROM updated u WHERE u.uid = s.uid AND u.tag = s.tag) " +
+                "ON CONFLICT ON CONSTRAINT " + UNIQUE_KEY + " DO UPDATE SET count = actions_table.count + EXCLUDED.count)";
+    }
+}
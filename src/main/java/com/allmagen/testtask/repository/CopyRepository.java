@@ -0,0 +1,353 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.service.parser.TimestampDecoder;
+import org.postgresql.PGConnection;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Bulk loader that streams CSV files into the database with the PostgreSQL COPY protocol.
+ * Each file is copied into a temporary staging table and then merged into the target table,
+ * all on the connection of the surrounding transaction. The merge statements update the rollups
+ * of {@link RollupRepository} and the sample of {@link SampleRepository} in the same statement.
+ */
+@Repository
+public class CopyRepository {
+    private static final String CREATE_VIEWS_STAGING = "CREATE TEMPORARY TABLE views_staging (" +
+            "reg_time text, uid text, fc_imp_chk text, fc_time_chk text, utmtr text, " +
+            "mm_dma text, os_name text, model text, hardware text, site_id text, " +
+            "line bigint GENERATED ALWAYS AS IDENTITY) ON COMMIT DROP";
+    private static final String COPY_VIEWS = "COPY views_staging " +
+            "(reg_time, uid, fc_imp_chk, fc_time_chk, utmtr, mm_dma, os_name, model, hardware, site_id) " +
+            "FROM STDIN WITH (FORMAT csv, HEADER true)";
+    private static final String STAGED_VIEWS_REG_TIME_RANGE = "SELECT MIN(reg_time::timestamp), MAX(reg_time::timestamp) FROM views_staging";
+    /**
+     * Inserts the first line of each uid of the file, as the batch engine does. Views whose uid is stored are skipped
+     * by the primary key of the plain views_table, or by the uid claim of the partitioned one, see
+     * {@link PartitionRepository#addViewUidsIfMissing()}.
+     */
+    private static final String MERGE_VIEWS = "WITH inserted AS (INSERT INTO views_table " +
+            "(uid, reg_time, fc_imp_chk, fc_time_chk, utmtr, mm_dma, os_name, model, hardware, site_id) " +
+            "SELECT DISTINCT ON (uid) uid, reg_time::timestamp, fc_imp_chk::integer, fc_time_chk::integer, utmtr::integer, " +
+            "mm_dma::integer, os_name, model, hardware, site_id " +
+            "FROM views_staging ORDER BY uid, line " +
+            "ON CONFLICT DO NOTHING " +
+            "RETURNING *), " +
+            "rollup AS (" + RollupRepository.addViewsSql("inserted s") + "), " +
+            "sample AS (" + SampleRepository.addViewsSql("inserted s") + ") ";
+
+    private static final String CREATE_ACTIONS_STAGING = "CREATE TEMPORARY TABLE actions_staging (" +
+            "uid text, tag text) ON COMMIT DROP";
+    private static final String COPY_ACTIONS = "COPY actions_staging FROM STDIN WITH (FORMAT csv, HEADER true)";
+    private static final String COUNT_UNKNOWN_ACTIONS = "SELECT COUNT(*) FROM actions_staging s " +
+            "WHERE NOT EXISTS (SELECT 1 FROM views_table v WHERE v.uid = s.uid)";
+    /**
+     * Adds the counts of the file to the stored rows of the same uid and tag. {@code inserted} holds the counts of
+     * the file rather than the new totals, so the rollups, the sample and listeners receive the delta.
+     */
+    private static final String MERGE_ACTIONS = "WITH inserted AS (" +
+            "SELECT s.uid, s.tag, COUNT(*)::integer AS count, v.reg_time " +
+            "FROM actions_staging s JOIN views_table v ON v.uid = s.uid " +
+            "GROUP BY s.uid, s.tag, v.reg_time), " +
+            ActionRepositoryCustomImpl.upsertSql("inserted s") + ", " +
+            "rollup AS (" + RollupRepository.addActionsSql("inserted s") + "), " +
+            "sample AS (" + SampleRepository.addActionsSql("inserted s") + ") ";
+    private static final String SUMMARIZE_MERGED = "SELECT COUNT(*), MIN(reg_time), MAX(reg_time) FROM inserted";
+    private static final String SELECT_MERGED = "SELECT * FROM inserted";
+
+    /**
+     * SQLSTATE reported by COPY for lines with missing or extra columns.
+     */
+    private static final String BAD_COPY_FILE_FORMAT = "22P04";
+    private static final String VIEWS_LENGTH_ERROR = "Error: The length of the CSV line should exactly match the expected length of 10 elements.";
+    private static final String ACTIONS_LENGTH_ERROR = "Error: The length of the CSV line should exactly match the expected length of 2 elements";
+    /**
+     * SQLSTATEs reported by the casts of the staged text columns for values that are not integers or timestamps.
+     */
+    private static final String INVALID_TEXT_REPRESENTATION = "22P02";
+    private static final String NUMERIC_VALUE_OUT_OF_RANGE = "22003";
+    private static final String INVALID_DATETIME_FORMAT = "22007";
+    private static final String DATETIME_FIELD_OVERFLOW = "22008";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate cursorJdbcTemplate;
+    private final int batchSize;
+
+    public CopyRepository(DataSource dataSource, JdbcTemplate jdbcTemplate,
+                          @Qualifier(JdbcConfiguration.CURSOR) NamedParameterJdbcTemplate cursorJdbcTemplate,
+                          @Value("${statistics.upload.batch-size:1000}") int batchSize) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.cursorJdbcTemplate = cursorJdbcTemplate.getJdbcTemplate();
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Copies a views CSV file into the views table. Views whose uid is already stored are skipped.
+     *
+     * @param csv the CSV file content, including the header line.
+     * @return The number of lines copied, views skipped and views inserted.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 10 elements,
+     *                          or a value is not a valid integer or timestamp.
+     */
+    public CopyResult copyViews(InputStream csv) throws IOException {
+        return copyViews(csv, null, null, null);
+    }
+
+    /**
+     * Copies a views CSV file into the views table and hands the inserted views to consumers.
+     *
+     * @param csv      the CSV file content, including the header line.
+     * @param staged   receives the first and last registration time of the staged views before they are merged,
+     *                 or {@code null} if they are not needed.
+     * @param merged   receives the first and last registration time of the inserted views if any, or {@code null}.
+     * @param inserted receives the inserted views in chunks of {@code statistics.upload.batch-size}, or {@code null}
+     *                 if they are not needed.
+     * @return The number of lines copied, views skipped and views inserted.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 10 elements,
+     *                          or a value is not a valid integer or timestamp.
+     * @see #copyViews(InputStream)
+     */
+    public CopyResult copyViews(InputStream csv, BiConsumer<LocalDateTime, LocalDateTime> staged,
+                                BiConsumer<LocalDateTime, LocalDateTime> merged,
+                                Consumer<List<ViewEntity>> inserted) throws IOException {
+        jdbcTemplate.execute(CREATE_VIEWS_STAGING);
+        long copied = copyIn(COPY_VIEWS, csv, VIEWS_LENGTH_ERROR);
+        int insertedCount;
+        try {
+            insertedCount = mergeViews(staged, merged, inserted);
+        } catch (DataAccessException e) {
+            throw valueError(e);
+        }
+        return new CopyResult(copied, copied - insertedCount, insertedCount);
+    }
+
+    /**
+     * Casts the staged views and merges them into the views table.
+     *
+     * @return The number of views inserted.
+     */
+    private int mergeViews(BiConsumer<LocalDateTime, LocalDateTime> staged,
+                           BiConsumer<LocalDateTime, LocalDateTime> merged,
+                           Consumer<List<ViewEntity>> inserted) {
+        if (staged != null) {
+            jdbcTemplate.query(STAGED_VIEWS_REG_TIME_RANGE, rs -> {
+                Timestamp first = rs.getTimestamp(1);
+                Timestamp last = rs.getTimestamp(2);
+                staged.accept(first == null ? null : first.toLocalDateTime(), last == null ? null : last.toLocalDateTime());
+            });
+        }
+        return merge(MERGE_VIEWS, merged, inserted, (rs, rowNum) -> {
+            ViewEntity view = new ViewEntity(rs.getString("uid"));
+            Timestamp regTime = rs.getTimestamp("reg_time");
+            view.setRegTime(regTime == null ? null : regTime.toLocalDateTime());
+            view.setFcImpChk(rs.getInt("fc_imp_chk"));
+            view.setFcTimeChk(rs.getInt("fc_time_chk"));
+            view.setUtmtr(rs.getInt("utmtr"));
+            view.setMmDma(rs.getInt("mm_dma"));
+            view.setOsName(rs.getString("os_name"));
+            view.setModel(rs.getString("model"));
+            view.setHardware(rs.getString("hardware"));
+            view.setSiteId(rs.getString("site_id"));
+            return view;
+        });
+    }
+
+    /**
+     * Copies an actions CSV file into the actions table, counting the actions per uid and tag.
+     * The counts are added to the stored rows of the same uid and tag.
+     * Actions whose uid does not exist in the views table are skipped.
+     *
+     * @param csv the CSV file content, including the header line.
+     * @return The number of lines copied, lines of unknown uids and action rows inserted.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 2 elements.
+     */
+    public CopyResult copyActions(InputStream csv) throws IOException {
+        return copyActions(csv, null, null);
+    }
+
+    /**
+     * Copies an actions CSV file into the actions table and hands the inserted action rows to consumers.
+     *
+     * @param csv      the CSV file content, including the header line.
+     * @param merged   receives the first and last registration time of the views of the inserted action rows if any,
+     *                 or {@code null}.
+     * @param inserted receives the inserted action rows in chunks of {@code statistics.upload.batch-size}, or
+     *                 {@code null} if they are not needed.
+     * @return The number of lines copied, lines of unknown uids and action rows inserted.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 2 elements.
+     * @see #copyActions(InputStream)
+     */
+    public CopyResult copyActions(InputStream csv, BiConsumer<LocalDateTime, LocalDateTime> merged,
+                                  Consumer<List<ActionEntity>> inserted) throws IOException {
+        jdbcTemplate.execute(CREATE_ACTIONS_STAGING);
+        long copied = copyIn(COPY_ACTIONS, csv, ACTIONS_LENGTH_ERROR);
+        Long unknown = jdbcTemplate.queryForObject(COUNT_UNKNOWN_ACTIONS, Long.class);
+        int insertedCount = merge(MERGE_ACTIONS, merged, inserted, (rs, rowNum) -> {
+            ActionEntity action = new ActionEntity(new ViewEntity(rs.getString("uid")), rs.getString("tag"));
+            action.setCount(rs.getInt("count"));
+            Timestamp regTime = rs.getTimestamp("reg_time");
+            action.setRegTime(regTime == null ? null : regTime.toLocalDateTime());
+            return action;
+        });
+        return new CopyResult(copied, unknown == null ? 0 : unknown, insertedCount);
+    }
+
+    /**
+     * Runs a merge statement that also updates the rollups and the sample and returns the number of rows merged.
+     * The merged rows are only read back if a consumer wants them, through a cursor and in chunks, so they are never
+     * all held in memory.
+     */
+    private <T> int merge(String mergeSql, BiConsumer<LocalDateTime, LocalDateTime> merged, Consumer<List<T>> inserted,
+                          RowMapper<T> rowMapper) {
+        if (inserted == null) {
+            int[] count = new int[1];
+            jdbcTemplate.query(mergeSql + SUMMARIZE_MERGED, (RowCallbackHandler) rs -> {
+                count[0] = rs.getInt(1);
+                if (merged != null && count[0] > 0) {
+                    merged.accept(toLocalDateTime(rs.getTimestamp(2)), toLocalDateTime(rs.getTimestamp(3)));
+                }
+            });
+            return count[0];
+        }
+        MergedRows<T> rows = new MergedRows<>(inserted, rowMapper);
+        cursorJdbcTemplate.query(mergeSql + SELECT_MERGED, rows);
+        rows.flush();
+        if (merged != null && rows.first != null) {
+            merged.accept(rows.first, rows.last);
+        }
+        return rows.count;
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime();
+    }
+
+    /**
+     * Turns a failed cast of a staged value into the exception the batch engine throws for the same value,
+     * by parsing the value quoted in the server message as the batch engine does.
+     *
+     * @return The exception to throw, {@code e} itself if the failure is not a rejected value.
+     */
+    private static RuntimeException valueError(DataAccessException e) {
+        if (!(e.getMostSpecificCause() instanceof PSQLException cause) || cause.getServerErrorMessage() == null) {
+            return e;
+        }
+        ServerErrorMessage error = cause.getServerErrorMessage();
+        String message = error.getMessage();
+        int start = message == null ? -1 : message.indexOf('"');
+        int end = message == null ? -1 : message.lastIndexOf('"');
+        if (start < 0 || end <= start) {
+            return e;
+        }
+        String value = message.substring(start + 1, end);
+        try {
+            switch (String.valueOf(error.getSQLState())) {
+                case INVALID_TEXT_REPRESENTATION, NUMERIC_VALUE_OUT_OF_RANGE -> Integer.parseInt(value);
+                case INVALID_DATETIME_FORMAT, DATETIME_FIELD_OVERFLOW -> TimestampDecoder.decode(value);
+                default -> {
+                    return e;
+                }
+            }
+        } catch (RuntimeException parseError) {
+            parseError.addSuppressed(e);
+            return parseError;
+        }
+        // values the batch engine accepts, such as February 30th, are still rejected by the database
+        return e;
+    }
+
+    private long copyIn(String sql, InputStream csv, String lengthError) throws IOException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql, csv);
+        } catch (PSQLException e) {
+            if (BAD_COPY_FILE_FORMAT.equals(e.getSQLState())) {
+                throw new RuntimeException(lengthError, e);
+            }
+            throw new RuntimeException(e.getMessage(), e);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Hands merged rows to a consumer in chunks of {@code statistics.upload.batch-size} and tracks their
+     * registration time span.
+     */
+    private final class MergedRows<T> implements RowCallbackHandler {
+        private final Consumer<List<T>> inserted;
+        private final RowMapper<T> rowMapper;
+        private final List<T> chunk = new ArrayList<>();
+        private int count;
+        private LocalDateTime first;
+        private LocalDateTime last;
+
+        private MergedRows(Consumer<List<T>> inserted, RowMapper<T> rowMapper) {
+            this.inserted = inserted;
+            this.rowMapper = rowMapper;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            LocalDateTime regTime = toLocalDateTime(rs.getTimestamp("reg_time"));
+            if (regTime != null) {
+                first = first == null || regTime.isBefore(first) ? regTime : first;
+                last = last == null || regTime.isAfter(last) ? regTime : last;
+            }
+            chunk.add(rowMapper.mapRow(rs, count++));
+            if (chunk.size() == batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (!chunk.isEmpty()) {
+                // the listeners keep the chunk until the transaction commits
+                inserted.accept(List.copyOf(chunk));
+                chunk.clear();
+            }
+        }
+    }
+
+    /**
+     * Outcome of a COPY upload.
+     *
+     * @param copied   the number of CSV lines copied into the staging table.
+     * @param rejected the number of lines that were not merged into the target table.
+     * @param inserted the number of rows inserted into the target table.
+     */
+    public record CopyResult(long copied, long rejected, int inserted) {
+    }
+}
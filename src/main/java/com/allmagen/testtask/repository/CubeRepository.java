@@ -0,0 +1,140 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.metrics.CubeDimension;
+import com.allmagen.testtask.model.metrics.CubeMeasure;
+import com.allmagen.testtask.model.metrics.CubeRow;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Views, actions and CTR over any combination of view attributes. All requested groupings are computed by one
+ * {@code GROUPING SETS} query, so the views and actions in the range are read and joined once however many
+ * breakdowns are requested.
+ */
+@Repository
+public class CubeRepository {
+    private final NamedParameterJdbcTemplate cursorJdbcTemplate;
+
+    public CubeRepository(@Qualifier(JdbcConfiguration.CURSOR) NamedParameterJdbcTemplate cursorJdbcTemplate) {
+        this.cursorJdbcTemplate = cursorJdbcTemplate;
+    }
+
+    /**
+     * Groups the views registered in {@code [startDate, endDate]} by every grouping set.
+     * Rows are ordered by grouping set in the requested order, then by the dimension values.
+     *
+     * @param groupingSets the dimensions of each grouping set; an empty set gives the total over all views.
+     * @param measures     the measures to compute. Actions are only read if {@link CubeMeasure#ACTIONS} or
+     *                     {@link CubeMeasure#CTR} is requested.
+     * @param interval     the {@code DATE_TRUNC} field of {@link CubeDimension#TIME}, only used if it is requested.
+     * @param tag          the action tag, with the same defaults as {@link ViewRepository#getCtrAggregateByMmDma}.
+     */
+    public Stream<CubeRow> getCube(LocalDateTime startDate, LocalDateTime endDate, List<Set<CubeDimension>> groupingSets,
+                                   Set<CubeMeasure> measures, String interval, String tag) {
+        List<CubeDimension> dimensions = groupingSets.stream()
+                .flatMap(Set::stream)
+                .distinct()
+                .sorted()
+                .toList();
+        boolean withActions = measures.contains(CubeMeasure.ACTIONS) || measures.contains(CubeMeasure.CTR);
+
+        // GROUPING() sets the bit of every dimension that is not grouped, the first dimension being the highest bit
+        Map<Integer, Set<CubeDimension>> setsByGroupingId = new LinkedHashMap<>();
+        for (Set<CubeDimension> groupingSet : groupingSets) {
+            int groupingId = 0;
+            for (CubeDimension dimension : dimensions) {
+                groupingId = groupingId << 1 | (groupingSet.contains(dimension) ? 0 : 1);
+            }
+            setsByGroupingId.putIfAbsent(groupingId, groupingSet);
+        }
+
+        String sql = sql(dimensions, setsByGroupingId, withActions);
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("startDate", startDate)
+                .addValue("endDate", endDate)
+                .addValue("interval", interval)
+                .addValue("tag", tag);
+        return cursorJdbcTemplate.queryForStream(sql, parameters, (rs, rowNum) -> {
+            Set<CubeDimension> groupingSet = setsByGroupingId.get(rs.getInt("grouping_id"));
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (CubeDimension dimension : dimensions) {
+                if (groupingSet.contains(dimension)) {
+                    Object value = rs.getObject(column(dimension));
+                    values.put(dimension.getName(), value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : value);
+                }
+            }
+            long views = rs.getLong("views");
+            long actions = withActions ? rs.getLong("actions") : 0;
+            return new CubeRow(
+                    groupingSet.stream().sorted().map(CubeDimension::getName).toList(),
+                    values,
+                    measures.contains(CubeMeasure.VIEWS) ? views : null,
+                    measures.contains(CubeMeasure.ACTIONS) ? actions : null,
+                    measures.contains(CubeMeasure.CTR) ? (float) ((double) actions / views) : null);
+        });
+    }
+
+    /**
+     * Builds the query in the style of {@link ViewRepository#getCtrAggregateByMmDma}: the views in the range with
+     * the requested dimensions, their matching actions summed per view, and the grouping sets over the join of both.
+     * Dimensions are computed once per view in the first CTE, so {@code GROUPING()} refers to plain columns.
+     */
+    private static String sql(List<CubeDimension> dimensions, Map<Integer, Set<CubeDimension>> setsByGroupingId,
+                              boolean withActions) {
+        StringBuilder sql = new StringBuilder("WITH v AS (SELECT uid, reg_time");
+        for (CubeDimension dimension : dimensions) {
+            sql.append(", ").append(dimension.getExpression()).append(" AS ").append(column(dimension));
+        }
+        sql.append(" FROM views_table WHERE reg_time BETWEEN :startDate AND :endDate)");
+        if (withActions) {
+            sql.append(", a AS (SELECT a.uid, a.reg_time, SUM(a.count) AS actions FROM actions_table a ")
+                    .append("JOIN v ON v.uid = a.uid AND v.reg_time = a.reg_time ")
+                    .append("WHERE a.reg_time BETWEEN :startDate AND :endDate AND ").append(ViewRepository.CTR_TAG_FILTER)
+                    .append(" GROUP BY a.uid, a.reg_time)");
+        }
+
+        String groupingColumns = dimensions.stream().map(dimension -> "v." + column(dimension)).collect(Collectors.joining(", "));
+        sql.append(" SELECT ").append(dimensions.isEmpty() ? "0" : "GROUPING(" + groupingColumns + ")").append(" AS grouping_id");
+        for (CubeDimension dimension : dimensions) {
+            sql.append(", v.").append(column(dimension));
+        }
+        sql.append(", COUNT(*) AS views");
+        if (withActions) {
+            sql.append(", COALESCE(SUM(a.actions), 0) AS actions FROM v LEFT JOIN a ON a.uid = v.uid AND a.reg_time = v.reg_time");
+        } else {
+            sql.append(" FROM v");
+        }
+
+        sql.append(" GROUP BY GROUPING SETS (")
+                .append(setsByGroupingId.values().stream()
+                        .map(groupingSet -> groupingSet.stream().sorted().map(dimension -> "v." + column(dimension))
+                                .collect(Collectors.joining(", ", "(", ")")))
+                        .collect(Collectors.joining(", ")))
+                .append(")");
+
+        sql.append(" ORDER BY ");
+        if (!dimensions.isEmpty()) {
+            sql.append("CASE GROUPING(").append(groupingColumns).append(")");
+            int position = 0;
+            for (int groupingId : setsByGroupingId.keySet()) {
+                sql.append(" WHEN ").append(groupingId).append(" THEN ").append(position++);
+            }
+            sql.append(" END, ").append(groupingColumns);
+        } else {
+            sql.append("1");
+        }
+        return sql.toString();
+    }
+
+    private static String column(CubeDimension dimension) {
+        return "d_" + dimension.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,65 @@
+package com.allmagen.testtask.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * The position up to which an ingest log has been written to the database. The position is saved in the transaction
+ * that writes the rows read before it, so every row of the log is written exactly once, also when the application
+ * stops between two transactions.
+ * <p>
+ * Records that cannot be written are kept in the table {@code ingest_log_dead_letter} with the error, and the position
+ * is moved past them, so they do not block the rest of the log.
+ */
+@Repository
+public class IngestLogRepository {
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS ingest_log_checkpoint (" +
+            "log varchar(255) PRIMARY KEY, position bigint NOT NULL)";
+    private static final String CREATE_DEAD_LETTER_TABLE = "CREATE TABLE IF NOT EXISTS ingest_log_dead_letter (" +
+            "id bigserial PRIMARY KEY, log varchar(255) NOT NULL, position bigint NOT NULL, record bytea, " +
+            "error text, failed_at timestamp NOT NULL DEFAULT now())";
+    private static final String FIND_POSITION = "SELECT position FROM ingest_log_checkpoint WHERE log = ?";
+    private static final String SAVE_POSITION = "INSERT INTO ingest_log_checkpoint (log, position) VALUES (?, ?) " +
+            "ON CONFLICT (log) DO UPDATE SET position = EXCLUDED.position";
+    private static final String ADD_DEAD_LETTER = "INSERT INTO ingest_log_dead_letter (log, position, record, error) " +
+            "VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IngestLogRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void createTable() {
+        jdbcTemplate.execute(CREATE_TABLE);
+        jdbcTemplate.execute(CREATE_DEAD_LETTER_TABLE);
+    }
+
+    /**
+     * @param log the name of the log.
+     * @return The saved position, {@code 0} if none was saved.
+     */
+    public long findPosition(String log) {
+        List<Long> positions = jdbcTemplate.queryForList(FIND_POSITION, Long.class, log);
+        return positions.isEmpty() ? 0 : positions.get(0);
+    }
+
+    /**
+     * Saves the position of a log on the connection of the surrounding transaction.
+     */
+    public void savePosition(String log, long position) {
+        jdbcTemplate.update(SAVE_POSITION, log, position);
+    }
+
+    /**
+     * Keeps a record that cannot be written, on the connection of the surrounding transaction.
+     *
+     * @param position the position of the record.
+     * @param record   the record, {@code null} if it cannot be read.
+     */
+    public void addDeadLetter(String log, long position, byte[] record, String error) {
+        jdbcTemplate.update(ADD_DEAD_LETTER, log, position, record, error);
+    }
+}
@@ -0,0 +1,28 @@
+package com.allmagen.testtask.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * JDBC templates shared by the repositories.
+ */
+@Configuration
+public class JdbcConfiguration {
+    /**
+     * Qualifier of the template that reads query results through a cursor in chunks of
+     * {@code statistics.streaming.fetch-size} rows. PostgreSQL only opens the cursor inside a transaction and
+     * returns the whole result at once otherwise.
+     */
+    public static final String CURSOR = "cursorJdbcTemplate";
+
+    @Bean(CURSOR)
+    public NamedParameterJdbcTemplate cursorJdbcTemplate(JdbcTemplate jdbcTemplate,
+                                                         @Value("${statistics.streaming.fetch-size:1000}") int fetchSize) {
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        cursorTemplate.setFetchSize(fetchSize);
+        return new NamedParameterJdbcTemplate(cursorTemplate);
+    }
+}
@@ -0,0 +1,230 @@
+package com.allmagen.testtask.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DDL for range partitioning views_table and actions_table by the registration time of the view.
+ * Actions carry the registration time of their view, so the actions of a view are stored in the partition
+ * covering the same time range as the view. All statements run on the connection of the surrounding transaction.
+ */
+@Repository
+public class PartitionRepository {
+    private static final String IS_PARTITIONED = "SELECT relkind = 'p' FROM pg_class WHERE oid = 'views_table'::regclass";
+    private static final String FIND_PARTITION_BOUNDS = "SELECT pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i " +
+            "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'views_table'::regclass";
+    private static final Pattern PARTITION_BOUND = Pattern.compile("FROM \\('([^']+)'\\) TO \\('([^']+)'\\)");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter PARTITION_TIME_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    private static final String COUNT_VIEWS_WITHOUT_REG_TIME = "SELECT COUNT(*) FROM views_table WHERE reg_time IS NULL";
+    private static final String HAS_VIEW_FOREIGN_KEY = "SELECT EXISTS (SELECT 1 FROM pg_constraint " +
+            "WHERE conrelid = 'actions_table'::regclass AND confrelid = 'views_table'::regclass AND contype = 'f')";
+    private static final String ADD_VIEW_FOREIGN_KEY = "ALTER TABLE actions_table ADD CONSTRAINT actions_table_view_fk " +
+            "FOREIGN KEY (uid) REFERENCES views_table (uid)";
+    private static final String HAS_ACTION_KEY = "SELECT EXISTS (SELECT 1 FROM pg_constraint " +
+            "WHERE conrelid = 'actions_table'::regclass AND conname = '" + ActionRepositoryCustom.UNIQUE_KEY + "')";
+    /**
+     * Merges the rows of a uid and tag that were stored before actions_table had a unique key into the row with the
+     * lowest id. The sums do not change, so the rollups stay valid.
+     */
+    private static final String SUM_DUPLICATE_ACTIONS = "UPDATE actions_table a SET count = d.count " +
+            "FROM (SELECT MIN(id) AS id, SUM(count) AS count FROM actions_table GROUP BY uid, tag HAVING COUNT(*) > 1) d " +
+            "WHERE a.id = d.id";
+    private static final String DELETE_DUPLICATE_ACTIONS = "DELETE FROM actions_table a USING actions_table b " +
+            "WHERE b.uid = a.uid AND b.tag = a.tag AND b.id < a.id";
+    private static final String BACKFILL_ACTION_REG_TIMES = "UPDATE actions_table a SET reg_time = v.reg_time " +
+            "FROM views_table v WHERE v.uid = a.uid AND a.reg_time IS NULL AND v.reg_time IS NOT NULL";
+
+    /**
+     * Creates the partitioned tables next to the renamed plain tables. The primary keys include the partition key,
+     * so a uid is only unique together with its registration time, see {@link #addViewUidsIfMissing()}. actions_table has no foreign key to views_table:
+     * attaching a partition to a table with a foreign key locks the referenced table against the inserts of the upload
+     * that needs the partition.
+     */
+    private static final String[] CREATE_PARTITIONED_TABLES = {
+            "LOCK TABLE views_table, actions_table IN ACCESS EXCLUSIVE MODE",
+            "ALTER TABLE actions_table RENAME TO actions_table_unpartitioned",
+            "ALTER TABLE views_table RENAME TO views_table_unpartitioned",
+            "CREATE TABLE views_table (LIKE views_table_unpartitioned INCLUDING DEFAULTS, " +
+                    "PRIMARY KEY (uid, reg_time)) PARTITION BY RANGE (reg_time)",
+            "CREATE TABLE actions_table (LIKE actions_table_unpartitioned INCLUDING DEFAULTS, " +
+                    "PRIMARY KEY (id, reg_time)) PARTITION BY RANGE (reg_time)"
+    };
+    /**
+     * Moves the rows of the plain tables into the partitions and recreates the indexes of the entities.
+     * The registration time is part of the primary keys, so every view must have one.
+     */
+    private static final String[] MOVE_ROWS = {
+            "INSERT INTO views_table SELECT * FROM views_table_unpartitioned",
+            "INSERT INTO actions_table (id, uid, tag, count, reg_time) " +
+                    "SELECT a.id, a.uid, a.tag, a.count, v.reg_time " +
+                    "FROM actions_table_unpartitioned a JOIN views_table_unpartitioned v ON v.uid = a.uid",
+            "DROP TABLE actions_table_unpartitioned",
+            "DROP TABLE views_table_unpartitioned",
+            "CREATE INDEX mmDmaIndex ON views_table (mm_dma)",
+            "CREATE INDEX siteIdIndex ON views_table (site_id)",
+            "CREATE INDEX regTimeIndex ON views_table (reg_time)",
+            "CREATE INDEX uidIndex ON actions_table (uid)",
+            "CREATE INDEX tagIndex ON actions_table (tag)"
+    };
+
+    private static final String HAS_VIEW_UIDS = "SELECT to_regclass('view_uids') IS NOT NULL";
+    /**
+     * Keeps the uids of the partitioned views_table unique, whose primary key also contains the registration time.
+     * The trigger claims the uid of every inserted view in view_uids and skips the view if the uid is claimed.
+     * The primary key of view_uids makes a claim wait for a concurrent claim of the same uid until its transaction
+     * ends, so concurrent uploads of a uid insert one view.
+     */
+    private static final String[] CREATE_VIEW_UIDS = {
+            "CREATE TABLE view_uids (uid varchar(255) PRIMARY KEY)",
+            "INSERT INTO view_uids SELECT DISTINCT uid FROM views_table",
+            "CREATE FUNCTION claim_view_uid() RETURNS trigger LANGUAGE plpgsql AS $$ BEGIN " +
+                    "INSERT INTO view_uids VALUES (NEW.uid) ON CONFLICT DO NOTHING; " +
+                    "IF NOT FOUND THEN RETURN NULL; END IF; " +
+                    "RETURN NEW; END $$",
+            "CREATE TRIGGER claim_view_uid BEFORE INSERT ON views_table FOR EACH ROW EXECUTE FUNCTION claim_view_uid()"
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return {@code true} if views_table is a partitioned table.
+     */
+    public boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_PARTITIONED, Boolean.class));
+    }
+
+    /**
+     * @return The bounds of the partitions of views_table, as a map from the inclusive start to the exclusive end.
+     */
+    public NavigableMap<LocalDateTime, LocalDateTime> findPartitionBounds() {
+        NavigableMap<LocalDateTime, LocalDateTime> bounds = new TreeMap<>();
+        jdbcTemplate.query(FIND_PARTITION_BOUNDS, rs -> {
+            Matcher matcher = PARTITION_BOUND.matcher(rs.getString(1));
+            if (matcher.find()) {
+                bounds.put(parseBound(matcher.group(1)), parseBound(matcher.group(2)));
+            }
+        });
+        return bounds;
+    }
+
+    /**
+     * Serializes partition maintenance across connections until the surrounding transaction ends.
+     */
+    public void lockPartitions() {
+        jdbcTemplate.execute("SELECT pg_advisory_xact_lock(hashtext('views_table partitions'))");
+    }
+
+    /**
+     * Creates the partitions of views_table and actions_table for the registration times {@code [from, to)}.
+     * The partitions are created as plain tables and then attached, which does not block concurrent reads and writes
+     * of the partitioned tables until the surrounding transaction ends, unlike {@code CREATE TABLE ... PARTITION OF}.
+     */
+    public void createPartition(LocalDateTime from, LocalDateTime to) {
+        String suffix = "_p" + (from.toLocalTime().equals(LocalTime.MIDNIGHT) ? PARTITION_SUFFIX : PARTITION_TIME_SUFFIX).format(from);
+        String bounds = "FOR VALUES FROM ('" + Timestamp.valueOf(from) + "') TO ('" + Timestamp.valueOf(to) + "')";
+        for (String table : new String[]{"views_table", "actions_table"}) {
+            jdbcTemplate.execute("CREATE TABLE " + table + suffix + " (LIKE " + table + " INCLUDING DEFAULTS)");
+            jdbcTemplate.execute("ALTER TABLE " + table + " ATTACH PARTITION " + table + suffix + " " + bounds);
+        }
+    }
+
+    /**
+     * @return The number of views without a registration time, which cannot be stored in a partition.
+     */
+    public long countViewsWithoutRegTime() {
+        Long count = jdbcTemplate.queryForObject(COUNT_VIEWS_WITHOUT_REG_TIME, Long.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Replaces the plain views_table and actions_table with empty partitioned tables, keeping the plain tables
+     * under a different name until {@link #moveRows()}.
+     */
+    public void createPartitionedTables() {
+        for (String statement : CREATE_PARTITIONED_TABLES) {
+            jdbcTemplate.execute(statement);
+        }
+    }
+
+    /**
+     * Moves the rows of the plain tables renamed by {@link #createPartitionedTables()} into the partitions,
+     * which must cover their registration times, and drops the plain tables.
+     */
+    public void moveRows() {
+        for (String statement : MOVE_ROWS) {
+            jdbcTemplate.execute(statement);
+        }
+    }
+
+    /**
+     * Adds the foreign key from actions_table to views_table of the plain tables if it does not exist yet.
+     * The entity mapping does not declare it, because it cannot exist between the partitioned tables.
+     */
+    public void addViewForeignKeyIfMissing() {
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_VIEW_FOREIGN_KEY, Boolean.class))) {
+            jdbcTemplate.execute(ADD_VIEW_FOREIGN_KEY);
+        }
+    }
+
+    /**
+     * Adds the view_uids table and the trigger that keep the uids of the partitioned views_table unique, if they do
+     * not exist yet. Partitions attached later inherit the trigger.
+     *
+     * @return {@code true} if they were added.
+     */
+    public boolean addViewUidsIfMissing() {
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_VIEW_UIDS, Boolean.class))) {
+            return false;
+        }
+        for (String statement : CREATE_VIEW_UIDS) {
+            jdbcTemplate.execute(statement);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the unique key {@link ActionRepositoryCustom#UNIQUE_KEY} to actions_table if it does not exist yet, after
+     * merging duplicate rows. The key of the partitioned table also contains the partition key {@code reg_time}.
+     *
+     * @param partitioned whether actions_table is partitioned.
+     * @return The number of duplicate rows merged, or {@code -1} if the key already existed.
+     */
+    public int addActionKeyIfMissing(boolean partitioned) {
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_ACTION_KEY, Boolean.class))) {
+            return -1;
+        }
+        jdbcTemplate.update(SUM_DUPLICATE_ACTIONS);
+        int merged = jdbcTemplate.update(DELETE_DUPLICATE_ACTIONS);
+        jdbcTemplate.execute("ALTER TABLE actions_table ADD CONSTRAINT " + ActionRepositoryCustom.UNIQUE_KEY +
+                " UNIQUE (uid, tag" + (partitioned ? ", reg_time)" : ")"));
+        return merged;
+    }
+
+    /**
+     * Copies the registration time of the view to the actions stored before actions had one.
+     *
+     * @return The number of actions updated.
+     */
+    public int backfillActionRegTimes() {
+        return jdbcTemplate.update(BACKFILL_ACTION_REG_TIMES);
+    }
+
+    private static LocalDateTime parseBound(String bound) {
+        return LocalDateTime.parse(bound.replace(' ', 'T'));
+    }
+}
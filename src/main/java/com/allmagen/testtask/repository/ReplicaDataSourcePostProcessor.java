@@ -0,0 +1,99 @@
+package com.allmagen.testtask.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends read-only transactions to read replicas. The {@code dataSource} bean configured by
+ * {@code spring.datasource.*} stays the primary and is wrapped in a {@link ReplicaRoutingDataSource} with one
+ * connection pool per JDBC URL of {@code statistics.datasource.replicas}, behind a
+ * {@link LazyConnectionDataSourceProxy}. The replicas use the credentials of the primary.
+ * <p>
+ * Without {@code statistics.datasource.replicas} the data source is not wrapped and every query runs on the primary.
+ */
+@Component
+@ConditionalOnProperty(name = "statistics.datasource.replicas")
+public class ReplicaDataSourcePostProcessor implements DestructionAwareBeanPostProcessor {
+    private static final String DATA_SOURCE_BEAN = "dataSource";
+
+    private final List<String> replicaUrls;
+    private final String username;
+    private final String password;
+    private final int poolSize;
+    private final Duration connectionTimeout;
+    private final Duration retry;
+
+    private final List<HikariDataSource> replicas = new ArrayList<>();
+    private DataSource primary;
+
+    public ReplicaDataSourcePostProcessor(@Value("${statistics.datasource.replicas}") List<String> replicaUrls,
+                                          @Value("${spring.datasource.username:}") String username,
+                                          @Value("${spring.datasource.password:}") String password,
+                                          @Value("${statistics.datasource.replica-pool-size:10}") int poolSize,
+                                          @Value("${statistics.datasource.replica-connection-timeout:PT2S}") Duration connectionTimeout,
+                                          @Value("${statistics.datasource.replica-retry:PT30S}") Duration retry) {
+        this.replicaUrls = replicaUrls.stream().map(String::trim).filter(url -> !url.isEmpty()).toList();
+        this.username = username;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.connectionTimeout = connectionTimeout;
+        this.retry = retry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!DATA_SOURCE_BEAN.equals(beanName) || !(bean instanceof DataSource primary) || replicaUrls.isEmpty()) {
+            return bean;
+        }
+        this.primary = primary;
+        for (String url : replicaUrls) {
+            replicas.add(replica(url, replicas.size()));
+        }
+        return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primary, replicas, retry));
+    }
+
+    /**
+     * A replica pool that starts without a connection and fails fast, so an unreachable replica neither prevents
+     * startup nor holds up the queries that fall back to the next replica.
+     */
+    private HikariDataSource replica(String url, int index) {
+        HikariDataSource replica = new HikariDataSource();
+        replica.setPoolName("replica-" + index);
+        replica.setJdbcUrl(url);
+        replica.setUsername(username);
+        replica.setPassword(password);
+        replica.setMaximumPoolSize(poolSize);
+        replica.setConnectionTimeout(connectionTimeout.toMillis());
+        replica.setInitializationFailTimeout(-1);
+        replica.setReadOnly(true);
+        return replica;
+    }
+
+    /**
+     * The proxy replaces the primary pool as the {@code dataSource} bean, so the pools are closed here.
+     */
+    @Override
+    public void postProcessBeforeDestruction(Object bean, String beanName) {
+        if (!DATA_SOURCE_BEAN.equals(beanName) || primary == null) {
+            return;
+        }
+        replicas.forEach(HikariDataSource::close);
+        if (primary instanceof HikariDataSource hikari) {
+            hikari.close();
+        }
+    }
+
+    @Override
+    public boolean requiresDestruction(Object bean) {
+        return bean instanceof LazyConnectionDataSourceProxy;
+    }
+}
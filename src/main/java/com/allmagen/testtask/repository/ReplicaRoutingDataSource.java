@@ -0,0 +1,99 @@
+package com.allmagen.testtask.repository;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens the connections of read-only transactions on read replicas and all other connections on the primary.
+ * Replicas are used round-robin. A replica that fails to open a connection is skipped for {@code retry}, and
+ * read-only transactions fall back to the primary while no replica is available.
+ * <p>
+ * A transaction is only marked read-only after its connection has been requested, so this data source has to be
+ * used behind a {@link LazyConnectionDataSourceProxy}, which opens the physical connection at the first statement.
+ */
+public class ReplicaRoutingDataSource extends DelegatingDataSource {
+    private static final Logger LOGGER = LogManager.getLogger(ReplicaRoutingDataSource.class);
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long retryNanos;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param primary  receives all connections outside read-only transactions.
+     * @param replicas receive the connections of read-only transactions.
+     * @param retry    how long a replica is skipped after it failed to open a connection.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<? extends DataSource> replicas, Duration retry) {
+        super(primary);
+        for (DataSource replica : replicas) {
+            this.replicas.add(new Replica(this.replicas.size(), replica));
+        }
+        this.retryNanos = retry.toNanos();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (replicas.isEmpty() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return super.getConnection();
+        }
+        int first = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((first + i) % replicas.size());
+            if (replica.isAvailable()) {
+                try {
+                    return replica.getConnection();
+                } catch (SQLException | RuntimeException e) {
+                    replica.failed(e);
+                }
+            }
+        }
+        return super.getConnection();
+    }
+
+    private final class Replica {
+        private final int index;
+        private final DataSource dataSource;
+        /**
+         * The {@link System#nanoTime()} until which the replica is skipped, valid if {@link #down} is set.
+         */
+        private volatile long downUntil;
+        private volatile boolean down;
+
+        private Replica(int index, DataSource dataSource) {
+            this.index = index;
+            this.dataSource = dataSource;
+        }
+
+        private boolean isAvailable() {
+            return !down || System.nanoTime() - downUntil >= 0;
+        }
+
+        private Connection getConnection() throws SQLException {
+            Connection connection = dataSource.getConnection();
+            if (down) {
+                down = false;
+                LOGGER.log(Level.INFO, "Read replica " + index + " is available again");
+            }
+            return connection;
+        }
+
+        private void failed(Exception e) {
+            downUntil = System.nanoTime() + retryNanos;
+            down = true;
+            LOGGER.log(Level.WARN, "Read replica " + index + " is skipped for " + Duration.ofNanos(retryNanos)
+                    + ", it failed to open a connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.CtrDates;
+import com.allmagen.testtask.model.metrics.CtrDatesRow;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Pre-aggregated view counts and action sums per minute, hour and day bucket of the view registration time.
+ * The rollups are kept up to date by every upload and answer CTR and EvPM queries without scanning the raw tables.
+ */
+@Repository
+public class RollupRepository {
+    /**
+     * The bucket granularities kept in the rollup tables, named as {@code DATE_TRUNC} fields.
+     */
+    public static final Map<String, ChronoUnit> GRANULARITIES = Map.of(
+            "minute", ChronoUnit.MINUTES,
+            "hour", ChronoUnit.HOURS,
+            "day", ChronoUnit.DAYS);
+
+    private static final String GRANULARITY_VALUES = "(VALUES ('minute'), ('hour'), ('day')) AS g(granularity)";
+
+    private static final String ADD_VIEWS_SOURCE = "unnest(?::timestamp[]) AS s(reg_time)";
+    private static final String ADD_ACTIONS_SOURCE = "unnest(?::varchar[], ?::varchar[], ?::integer[]) AS s(uid, tag, count)";
+
+    private static final String REBUILD_VIEWS = "INSERT INTO view_rollup (granularity, bucket_start, view_count) " +
+            "SELECT g.granularity, DATE_TRUNC(g.granularity, v.reg_time), COUNT(*) " +
+            "FROM views_table v CROSS JOIN " + GRANULARITY_VALUES + " " +
+            "WHERE v.reg_time IS NOT NULL " +
+            "GROUP BY 1, 2";
+    private static final String REBUILD_ACTIONS = "INSERT INTO action_rollup (granularity, bucket_start, tag, action_count) " +
+            "SELECT g.granularity, DATE_TRUNC(g.granularity, v.reg_time), a.tag, SUM(a.count) " +
+            "FROM actions_table a JOIN views_table v ON v.uid = a.uid CROSS JOIN " + GRANULARITY_VALUES + " " +
+            "WHERE v.reg_time IS NOT NULL AND a.tag IS NOT NULL " +
+            "GROUP BY 1, 2, 3";
+
+    private static final String CTR_TAG_FILTER = "((CAST(:tag AS varchar) IS NULL AND (%1$s.tag = 'fclick' OR NOT (%1$s.tag LIKE 'v%%'))) OR %1$s.tag = :tag)";
+    private static final String EVPM_TAG_FILTER = "(CAST(:tag AS varchar) IS NULL OR %1$s.tag = :tag OR %1$s.tag = CONCAT('v', CAST(:tag AS varchar)))";
+
+    /**
+     * Sums view counts and action counts per output bucket over disjoint segments of the requested range:
+     * whole buckets of the requested interval from its rollup, whole minutes at the edges from the minute rollup
+     * and the remaining seconds from the raw tables. The final division is the same as in {@link ViewRepository#getCTR}.
+     */
+    private static final String ROLLUP_QUERY = "SELECT bucket, CAST(SUM(actions) AS bigint) * %1$s / CAST(SUM(views) AS bigint) AS ctr FROM (" +
+            "SELECT DATE_TRUNC(:interval, v.reg_time) AS bucket, COUNT(*) AS views, 0 AS actions " +
+            "FROM views_table v WHERE %3$s GROUP BY 1 " +
+            "UNION ALL " +
+            "SELECT DATE_TRUNC(:interval, v.reg_time), 0, SUM(a.count) " +
+            "FROM views_table v JOIN actions_table a ON a.uid = v.uid AND a.reg_time = v.reg_time AND %2$s " +
+            "WHERE %3$s AND %6$s GROUP BY 1 " +
+            "UNION ALL " +
+            "SELECT DATE_TRUNC(:interval, r.bucket_start), SUM(r.view_count), 0 " +
+            "FROM view_rollup r WHERE %4$s GROUP BY 1 " +
+            "UNION ALL " +
+            "SELECT DATE_TRUNC(:interval, r.bucket_start), 0, SUM(r.action_count) " +
+            "FROM action_rollup r WHERE %4$s AND %5$s GROUP BY 1" +
+            ") buckets " +
+            "GROUP BY bucket HAVING SUM(views) > 0 " +
+            "ORDER BY bucket";
+    private static final String RAW_SEGMENTS = "((%1$s.reg_time >= :rawHeadFrom AND %1$s.reg_time < :rawHeadTo) " +
+            "OR (%1$s.reg_time >= :rawTailFrom AND %1$s.reg_time <= :rawTailTo))";
+    private static final String ROLLUP_SEGMENTS = "((r.granularity = 'minute' AND ((r.bucket_start >= :minuteHeadFrom AND r.bucket_start < :minuteHeadTo) " +
+            "OR (r.bucket_start >= :minuteTailFrom AND r.bucket_start < :minuteTailTo))) " +
+            "OR (r.granularity = :interval AND r.bucket_start >= :coreFrom AND r.bucket_start < :coreTo))";
+
+    private static final String CTR_QUERY = String.format(ROLLUP_QUERY, "100.0",
+            String.format(CTR_TAG_FILTER, "a"), String.format(RAW_SEGMENTS, "v"), ROLLUP_SEGMENTS, String.format(CTR_TAG_FILTER, "r"),
+            String.format(RAW_SEGMENTS, "a"));
+    private static final String EVPM_QUERY = String.format(ROLLUP_QUERY, "1.0",
+            String.format(EVPM_TAG_FILTER, "a"), String.format(RAW_SEGMENTS, "v"), ROLLUP_SEGMENTS, String.format(EVPM_TAG_FILTER, "r"),
+            String.format(RAW_SEGMENTS, "a"));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate cursorJdbcTemplate;
+
+    public RollupRepository(JdbcTemplate jdbcTemplate,
+                            @Qualifier(JdbcConfiguration.CURSOR) NamedParameterJdbcTemplate cursorJdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cursorJdbcTemplate = cursorJdbcTemplate;
+    }
+
+    /**
+     * Builds an upsert that adds views to the view rollup.
+     *
+     * @param source a FROM item aliased {@code s} with a {@code reg_time} column, one row per view.
+     * @return The INSERT statement, usable on its own or inside a WITH clause.
+     */
+    public static String addViewsSql(String source) {
+        return "INSERT INTO view_rollup (granularity, bucket_start, view_count) " +
+                "SELECT g.granularity, DATE_TRUNC(g.granularity, s.reg_time), COUNT(*) " +
+                "FROM " + source + " CROSS JOIN " + GRANULARITY_VALUES + " " +
+                "WHERE s.reg_time IS NOT NULL " +
+                "GROUP BY 1, 2 ORDER BY 1, 2 " +
+                "ON CONFLICT (granularity, bucket_start) DO UPDATE SET view_count = view_rollup.view_count + EXCLUDED.view_count";
+    }
+
+    /**
+     * Builds an upsert that adds action counts to the action rollup, bucketed by the registration time of their views.
+     *
+     * @param source a FROM item aliased {@code s} with {@code uid}, {@code tag} and {@code count} columns.
+     * @return The INSERT statement, usable on its own or inside a WITH clause.
+     */
+    public static String addActionsSql(String source) {
+        return "INSERT INTO action_rollup (granularity, bucket_start, tag, action_count) " +
+                "SELECT g.granularity, DATE_TRUNC(g.granularity, v.reg_time), s.tag, SUM(s.count) " +
+                "FROM " + source + " JOIN views_table v ON v.uid = s.uid CROSS JOIN " + GRANULARITY_VALUES + " " +
+                "WHERE v.reg_time IS NOT NULL AND s.tag IS NOT NULL " +
+                "GROUP BY 1, 2, 3 ORDER BY 1, 2, 3 " +
+                "ON CONFLICT (granularity, bucket_start, tag) DO UPDATE SET action_count = action_rollup.action_count + EXCLUDED.action_count";
+    }
+
+    /**
+     * Adds newly inserted views to the rollups.
+     *
+     * @param views the views inserted by the current transaction.
+     */
+    public void addViews(List<ViewEntity> views) {
+        if (views.isEmpty()) {
+            return;
+        }
+        Timestamp[] regTimes = views.stream()
+                .map(view -> view.getRegTime() == null ? null : Timestamp.valueOf(view.getRegTime()))
+                .toArray(Timestamp[]::new);
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(addViewsSql(ADD_VIEWS_SOURCE));
+            ps.setArray(1, connection.createArrayOf("timestamp", regTimes));
+            return ps;
+        });
+    }
+
+    /**
+     * Adds newly inserted action counts to the rollups.
+     *
+     * @param actions the action rows inserted by the current transaction.
+     */
+    public void addActions(List<ActionEntity> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        String[] uids = new String[actions.size()];
+        String[] tags = new String[actions.size()];
+        Integer[] counts = new Integer[actions.size()];
+        for (int i = 0; i < actions.size(); i++) {
+            ActionEntity action = actions.get(i);
+            uids[i] = action.getViewEntity().getUid();
+            tags[i] = action.getTag();
+            counts[i] = action.getCount();
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(addActionsSql(ADD_ACTIONS_SOURCE));
+            ps.setArray(1, connection.createArrayOf("varchar", uids));
+            ps.setArray(2, connection.createArrayOf("varchar", tags));
+            ps.setArray(3, connection.createArrayOf("integer", counts));
+            return ps;
+        });
+    }
+
+    /**
+     * Recomputes both rollups from the views and actions tables.
+     *
+     * @return The number of view buckets and action buckets written.
+     */
+    public RebuildResult rebuild() {
+        jdbcTemplate.update("DELETE FROM action_rollup");
+        jdbcTemplate.update("DELETE FROM view_rollup");
+        int viewBuckets = jdbcTemplate.update(REBUILD_VIEWS);
+        int actionBuckets = jdbcTemplate.update(REBUILD_ACTIONS);
+        return new RebuildResult(viewBuckets, actionBuckets);
+    }
+
+    /**
+     * @return {@code true} if views are stored but the view rollup has never been built.
+     */
+    public boolean isStale() {
+        Boolean stale = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM views_table) " +
+                "AND NOT EXISTS (SELECT 1 FROM view_rollup)", Boolean.class);
+        return Boolean.TRUE.equals(stale);
+    }
+
+    /**
+     * Same result as {@link ViewRepository#getCTR}, computed from the rollups.
+     */
+    public Stream<CtrDates> getCTR(LocalDateTime startDate, LocalDateTime endDate, String interval, String tag) {
+        return query(CTR_QUERY, startDate, endDate, interval, tag);
+    }
+
+    /**
+     * Same result as {@link ViewRepository#getEvPM}, computed from the rollups.
+     */
+    public Stream<CtrDates> getEvPM(LocalDateTime startDate, LocalDateTime endDate, String interval, String tag) {
+        return query(EVPM_QUERY, startDate, endDate, interval, tag);
+    }
+
+    private Stream<CtrDates> query(String sql, LocalDateTime startDate, LocalDateTime endDate, String interval, String tag) {
+        MapSqlParameterSource parameters = segments(startDate, endDate, GRANULARITIES.get(interval))
+                .addValue("interval", interval)
+                .addValue("tag", tag);
+        // the JPA query reads the ratio as a double, convert the same way to get identical floats
+        return cursorJdbcTemplate.queryForStream(sql, parameters, (rs, rowNum) ->
+                new CtrDatesRow(rs.getTimestamp("bucket").toLocalDateTime(), (float) rs.getDouble("ctr")));
+    }
+
+    /**
+     * Splits {@code [startDate, endDate]} into disjoint segments: raw seconds before the first and from the last
+     * whole minute, whole minutes up to the first and from the last whole {@code unit}, and whole units in between.
+     * Empty segments are expressed as empty ranges.
+     */
+    static MapSqlParameterSource segments(LocalDateTime startDate, LocalDateTime endDate, ChronoUnit unit) {
+        LocalDateTime rawHeadTo = ceil(startDate, ChronoUnit.MINUTES);
+        LocalDateTime rawTailFrom = endDate.truncatedTo(ChronoUnit.MINUTES);
+        LocalDateTime minuteHeadTo = rawHeadTo;
+        LocalDateTime coreFrom = rawHeadTo;
+        LocalDateTime coreTo = rawHeadTo;
+        LocalDateTime minuteTailFrom = rawHeadTo;
+
+        if (rawHeadTo.isAfter(rawTailFrom)) {
+            // the whole range lies within one minute
+            rawHeadTo = startDate;
+            rawTailFrom = startDate;
+            minuteHeadTo = startDate;
+            coreFrom = startDate;
+            coreTo = startDate;
+            minuteTailFrom = startDate;
+        } else {
+            LocalDateTime first = ceil(rawHeadTo, unit);
+            LocalDateTime last = rawTailFrom.truncatedTo(unit);
+            if (first.isBefore(last)) {
+                minuteHeadTo = first;
+                coreFrom = first;
+                coreTo = last;
+                minuteTailFrom = last;
+            } else {
+                minuteHeadTo = rawTailFrom;
+                minuteTailFrom = rawTailFrom;
+            }
+        }
+
+        LocalDateTime minuteHeadFrom = rawHeadTo;
+        LocalDateTime minuteTailTo = rawTailFrom;
+        return new MapSqlParameterSource()
+                .addValue("rawHeadFrom", startDate)
+                .addValue("rawHeadTo", rawHeadTo)
+                .addValue("rawTailFrom", rawTailFrom)
+                .addValue("rawTailTo", endDate)
+                .addValue("minuteHeadFrom", minuteHeadFrom)
+                .addValue("minuteHeadTo", minuteHeadTo)
+                .addValue("minuteTailFrom", minuteTailFrom)
+                .addValue("minuteTailTo", minuteTailTo)
+                .addValue("coreFrom", coreFrom)
+                .addValue("coreTo", coreTo);
+    }
+
+    private static LocalDateTime ceil(LocalDateTime dateTime, ChronoUnit unit) {
+        LocalDateTime truncated = dateTime.truncatedTo(unit);
+        return truncated.equals(dateTime) ? truncated : truncated.plus(1, unit);
+    }
+
+    /**
+     * Outcome of a rollup rebuild.
+     *
+     * @param viewBuckets   the number of view rollup rows written.
+     * @param actionBuckets the number of action rollup rows written.
+     */
+    public record RebuildResult(int viewBuckets, int actionBuckets) {
+    }
+}
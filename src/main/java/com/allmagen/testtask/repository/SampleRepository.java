@@ -0,0 +1,312 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.*;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A fixed sample of about one in {@link #SAMPLE_MODULUS} views, chosen by the MD5 of the uid, with all their actions.
+ * Since a view is either sampled with all its actions or not at all, the per-view action counts in the sample are
+ * the same as in the raw tables and the CTR, EvPM and view counts can be estimated from it with a known error.
+ * The sample is kept up to date by every upload and answers the approximate queries in about a hundredth of the
+ * time of the exact ones.
+ */
+@Repository
+public class SampleRepository {
+    /**
+     * A view is sampled if the hash of its uid is divisible by this number.
+     */
+    public static final int SAMPLE_MODULUS = 100;
+    private static final double SAMPLE_RATE = 1.0 / SAMPLE_MODULUS;
+    /**
+     * The quantile of the standard normal distribution for a 95% confidence interval.
+     */
+    private static final double Z_95 = 1.96;
+
+    /**
+     * The first 32 bits of the MD5 of the uid as a signed integer, divisible by {@link #SAMPLE_MODULUS}.
+     * Computed the same way by {@link #isSampled(String)}.
+     */
+    private static final String SAMPLED = "mod(('x' || substr(md5(%s), 1, 8))::bit(32)::integer, " + SAMPLE_MODULUS + ") = 0";
+
+    private static final String ADD_VIEWS_SOURCE = "unnest(?::varchar[], ?::timestamp[], ?::integer[], ?::varchar[]) AS s(uid, reg_time, mm_dma, site_id)";
+    private static final String ADD_ACTIONS_SOURCE = "unnest(?::varchar[], ?::varchar[], ?::integer[]) AS s(uid, tag, count)";
+
+    private static final String REBUILD_VIEWS = addViewsSql("views_table s");
+    private static final String REBUILD_ACTIONS = addActionsSql("actions_table s");
+
+    /**
+     * Per sampled view in {@code [:startDate, :endDate]}, the number of its actions that pass the tag filter,
+     * then per group the number of views {@code n}, the sum {@code s1} and the sum of squares {@code s2} of those
+     * numbers, from which the mean and its standard error are computed.
+     */
+    private static final String RATIO_QUERY = "SELECT %1$s AS grp, COUNT(*) AS n, SUM(y) AS s1, SUM(y * y) AS s2 FROM (" +
+            "SELECT v.reg_time, v.mm_dma, v.site_id, COALESCE(SUM(a.count), 0) AS y " +
+            "FROM view_sample v LEFT JOIN action_sample a ON a.uid = v.uid AND %2$s " +
+            "WHERE v.reg_time BETWEEN :startDate AND :endDate " +
+            "GROUP BY v.uid) y " +
+            "GROUP BY 1 " +
+            "ORDER BY 1";
+    private static final String COUNT_QUERY = "SELECT %1$s AS grp, COUNT(*) AS n FROM view_sample " +
+            "WHERE reg_time >= :startTime AND reg_time < :endTime " +
+            "GROUP BY 1 " +
+            "ORDER BY 1";
+
+    private static final String CTR_QUERY = String.format(RATIO_QUERY, "DATE_TRUNC(:interval, y.reg_time)", ViewRepository.CTR_TAG_FILTER);
+    private static final String EVPM_QUERY = String.format(RATIO_QUERY, "DATE_TRUNC(:interval, y.reg_time)", ViewRepository.EVPM_TAG_FILTER);
+    private static final String CTR_BY_MM_DMA_QUERY = String.format(RATIO_QUERY, "y.mm_dma", ViewRepository.CTR_TAG_FILTER);
+    private static final String CTR_BY_SITE_ID_QUERY = String.format(RATIO_QUERY, "y.site_id", ViewRepository.CTR_TAG_FILTER);
+    private static final String COUNT_BY_MM_DMA_QUERY = String.format(COUNT_QUERY, "mm_dma");
+    private static final String COUNT_BY_SITE_ID_QUERY = String.format(COUNT_QUERY, "site_id");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate cursorJdbcTemplate;
+
+    public SampleRepository(JdbcTemplate jdbcTemplate,
+                            @Qualifier(JdbcConfiguration.CURSOR) NamedParameterJdbcTemplate cursorJdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cursorJdbcTemplate = cursorJdbcTemplate;
+    }
+
+    /**
+     * Builds an insert that adds the sampled ones of some views to the view sample.
+     *
+     * @param source a FROM item aliased {@code s} with {@code uid}, {@code reg_time}, {@code mm_dma} and
+     *               {@code site_id} columns, one row per view.
+     * @return The INSERT statement, usable on its own or inside a WITH clause.
+     */
+    public static String addViewsSql(String source) {
+        return "INSERT INTO view_sample (uid, reg_time, mm_dma, site_id) " +
+                "SELECT s.uid, s.reg_time, s.mm_dma, s.site_id FROM " + source + " " +
+                "WHERE " + String.format(SAMPLED, "s.uid") + " " +
+                "ON CONFLICT (uid) DO NOTHING";
+    }
+
+    /**
+     * Builds an upsert that adds the action counts of sampled views to the action sample.
+     *
+     * @param source a FROM item aliased {@code s} with {@code uid}, {@code tag} and {@code count} columns.
+     * @return The INSERT statement, usable on its own or inside a WITH clause.
+     */
+    public static String addActionsSql(String source) {
+        return "INSERT INTO action_sample (uid, tag, count) " +
+                "SELECT s.uid, s.tag, SUM(s.count) FROM " + source + " " +
+                "WHERE " + String.format(SAMPLED, "s.uid") + " AND s.tag IS NOT NULL " +
+                "GROUP BY 1, 2 ORDER BY 1, 2 " +
+                "ON CONFLICT (uid, tag) DO UPDATE SET count = action_sample.count + EXCLUDED.count";
+    }
+
+    /**
+     * Adds the sampled ones of newly inserted views to the sample.
+     *
+     * @param views the views inserted by the current transaction.
+     */
+    public void addViews(List<ViewEntity> views) {
+        List<ViewEntity> sampled = views.stream().filter(view -> isSampled(view.getUid())).toList();
+        if (sampled.isEmpty()) {
+            return;
+        }
+        String[] uids = new String[sampled.size()];
+        Timestamp[] regTimes = new Timestamp[sampled.size()];
+        Integer[] mmDmas = new Integer[sampled.size()];
+        String[] siteIds = new String[sampled.size()];
+        for (int i = 0; i < sampled.size(); i++) {
+            ViewEntity view = sampled.get(i);
+            uids[i] = view.getUid();
+            regTimes[i] = view.getRegTime() == null ? null : Timestamp.valueOf(view.getRegTime());
+            mmDmas[i] = view.getMmDma();
+            siteIds[i] = view.getSiteId();
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(addViewsSql(ADD_VIEWS_SOURCE));
+            ps.setArray(1, connection.createArrayOf("varchar", uids));
+            ps.setArray(2, connection.createArrayOf("timestamp", regTimes));
+            ps.setArray(3, connection.createArrayOf("integer", mmDmas));
+            ps.setArray(4, connection.createArrayOf("varchar", siteIds));
+            return ps;
+        });
+    }
+
+    /**
+     * Adds the newly inserted action counts of sampled views to the sample.
+     *
+     * @param actions the action rows inserted by the current transaction.
+     */
+    public void addActions(List<ActionEntity> actions) {
+        List<ActionEntity> sampled = actions.stream().filter(action -> isSampled(action.getViewEntity().getUid())).toList();
+        if (sampled.isEmpty()) {
+            return;
+        }
+        String[] uids = new String[sampled.size()];
+        String[] tags = new String[sampled.size()];
+        Integer[] counts = new Integer[sampled.size()];
+        for (int i = 0; i < sampled.size(); i++) {
+            ActionEntity action = sampled.get(i);
+            uids[i] = action.getViewEntity().getUid();
+            tags[i] = action.getTag();
+            counts[i] = action.getCount();
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(addActionsSql(ADD_ACTIONS_SOURCE));
+            ps.setArray(1, connection.createArrayOf("varchar", uids));
+            ps.setArray(2, connection.createArrayOf("varchar", tags));
+            ps.setArray(3, connection.createArrayOf("integer", counts));
+            return ps;
+        });
+    }
+
+    /**
+     * Recomputes the sample from the views and actions tables.
+     *
+     * @return The number of views sampled.
+     */
+    public int rebuild() {
+        jdbcTemplate.update("DELETE FROM action_sample");
+        jdbcTemplate.update("DELETE FROM view_sample");
+        int views = jdbcTemplate.update(REBUILD_VIEWS);
+        jdbcTemplate.update(REBUILD_ACTIONS);
+        return views;
+    }
+
+    /**
+     * @return {@code true} if views that belong to the sample are stored but the sample has never been built.
+     */
+    public boolean isStale() {
+        Boolean stale = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM views_table WHERE " + String.format(SAMPLED, "uid") + ") " +
+                "AND NOT EXISTS (SELECT 1 FROM view_sample)", Boolean.class);
+        return Boolean.TRUE.equals(stale);
+    }
+
+    /**
+     * Estimates {@link ViewRepository#getCTR} from the sample.
+     */
+    public Stream<CtrDates> getCTR(LocalDateTime startDate, LocalDateTime endDate, String interval, String tag) {
+        return cursorJdbcTemplate.queryForStream(CTR_QUERY, ratioParameters(startDate, endDate, tag).addValue("interval", interval),
+                (rs, rowNum) -> new CtrDatesEstimate(rs.getTimestamp("grp").toLocalDateTime(), (float) mean(rs, 100), error(rs, 100)));
+    }
+
+    /**
+     * Estimates {@link ViewRepository#getEvPM} from the sample.
+     */
+    public Stream<CtrDates> getEvPM(LocalDateTime startDate, LocalDateTime endDate, String interval, String tag) {
+        return cursorJdbcTemplate.queryForStream(EVPM_QUERY, ratioParameters(startDate, endDate, tag).addValue("interval", interval),
+                (rs, rowNum) -> new CtrDatesEstimate(rs.getTimestamp("grp").toLocalDateTime(), (float) mean(rs, 1), error(rs, 1)));
+    }
+
+    /**
+     * Estimates {@link ViewRepository#getCtrAggregateByMmDma} from the sample.
+     */
+    public Stream<MmDmaCTR> getCtrAggregateByMmDma(LocalDateTime startDate, LocalDateTime endDate, String tag) {
+        return cursorJdbcTemplate.queryForStream(CTR_BY_MM_DMA_QUERY, ratioParameters(startDate, endDate, tag),
+                (rs, rowNum) -> new MmDmaCTREstimate(rs.getInt("grp"), (float) mean(rs, 1), error(rs, 1)));
+    }
+
+    /**
+     * Estimates {@link ViewRepository#getCtrAggregateBySiteId} from the sample.
+     */
+    public Stream<SiteIdCTR> getCtrAggregateBySiteId(LocalDateTime startDate, LocalDateTime endDate, String tag) {
+        return cursorJdbcTemplate.queryForStream(CTR_BY_SITE_ID_QUERY, ratioParameters(startDate, endDate, tag),
+                (rs, rowNum) -> new SiteIdCTREstimate(rs.getString("grp"), (float) mean(rs, 1), error(rs, 1)));
+    }
+
+    /**
+     * Estimates {@link ViewRepository#getViewsCountByMmDma} from the sample.
+     */
+    public Stream<MmDmaCount> getViewsCountByMmDma(LocalDateTime startTime, LocalDateTime endTime) {
+        return cursorJdbcTemplate.queryForStream(COUNT_BY_MM_DMA_QUERY, countParameters(startTime, endTime),
+                (rs, rowNum) -> new MmDmaCountEstimate(rs.getInt("grp"), count(rs), countError(rs)));
+    }
+
+    /**
+     * Estimates {@link ViewRepository#getViewsCountBySiteId} from the sample.
+     */
+    public Stream<SiteIdCount> getViewsCountBySiteId(LocalDateTime startTime, LocalDateTime endTime) {
+        return cursorJdbcTemplate.queryForStream(COUNT_BY_SITE_ID_QUERY, countParameters(startTime, endTime),
+                (rs, rowNum) -> new SiteIdCountEstimate(rs.getString("grp"), count(rs), countError(rs)));
+    }
+
+    /**
+     * @return {@code true} if a view with this uid belongs to the sample, so only those are sent to the database.
+     */
+    private static boolean isSampled(String uid) {
+        if (uid == null) {
+            return false;
+        }
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(uid.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        int hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | digest[3] & 0xff;
+        // Java and PostgreSQL both truncate the remainder towards zero
+        return hash % SAMPLE_MODULUS == 0;
+    }
+
+    private static MapSqlParameterSource ratioParameters(LocalDateTime startDate, LocalDateTime endDate, String tag) {
+        return new MapSqlParameterSource()
+                .addValue("startDate", startDate)
+                .addValue("endDate", endDate)
+                .addValue("tag", tag);
+    }
+
+    private static MapSqlParameterSource countParameters(LocalDateTime startTime, LocalDateTime endTime) {
+        return new MapSqlParameterSource()
+                .addValue("startTime", startTime)
+                .addValue("endTime", endTime);
+    }
+
+    /**
+     * @return The mean number of actions per sampled view of the current group, times {@code scale}.
+     */
+    private static double mean(ResultSet rs, double scale) throws SQLException {
+        return rs.getDouble("s1") * scale / rs.getLong("n");
+    }
+
+    /**
+     * The half-width of the 95% confidence interval of {@link #mean}: the standard error of a mean of {@code n}
+     * values drawn without replacement at rate {@link #SAMPLE_RATE}.
+     *
+     * @return The error, or {@code null} if fewer than two views of the group were sampled.
+     */
+    private static Float error(ResultSet rs, double scale) throws SQLException {
+        long n = rs.getLong("n");
+        if (n < 2) {
+            return null;
+        }
+        double s1 = rs.getDouble("s1");
+        double variance = Math.max(0, (rs.getDouble("s2") - s1 * s1 / n) / (n - 1));
+        return (float) (Z_95 * Math.sqrt((1 - SAMPLE_RATE) * variance / n) * scale);
+    }
+
+    /**
+     * @return The number of sampled views of the current group, scaled up to all views.
+     */
+    private static int count(ResultSet rs) throws SQLException {
+        return (int) Math.round(rs.getLong("n") / SAMPLE_RATE);
+    }
+
+    /**
+     * The half-width of the 95% confidence interval of {@link #count}, as a binomial count divided by
+     * {@link #SAMPLE_RATE}.
+     */
+    private static Float countError(ResultSet rs) throws SQLException {
+        return (float) (Z_95 * Math.sqrt(rs.getLong("n") * (1 - SAMPLE_RATE)) / SAMPLE_RATE);
+    }
+}
@@ -0,0 +1,80 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.metrics.MmDmaTop;
+import com.allmagen.testtask.model.metrics.SiteIdTop;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * The first K siteIds or mmDma codes by CTR or by number of views. The ordering and the limit are part of the query,
+ * so PostgreSQL keeps only the best K groups in a bounded top-N heap instead of sorting all of them, and only K rows
+ * are returned.
+ */
+@Repository
+public class TopRepository {
+    /**
+     * The CTR aggregate of {@link ViewRepository#getCtrAggregateBySiteId} with a minimum number of views per group,
+     * ordered by CTR or views and limited. Ties are broken by the number of views, then by the group.
+     */
+    private static final String TOP_QUERY = "WITH v AS (SELECT uid, reg_time, %1$s AS grp FROM views_table WHERE reg_time BETWEEN :startDate AND :endDate), " +
+            "a AS (SELECT a.uid, a.reg_time, SUM(a.count) AS actions FROM actions_table a " +
+            "JOIN v ON v.uid = a.uid AND v.reg_time = a.reg_time " +
+            "WHERE a.reg_time BETWEEN :startDate AND :endDate AND %3$s GROUP BY a.uid, a.reg_time) " +
+            "SELECT v.grp, COUNT(*) AS views, " +
+            "CAST(COALESCE(SUM(a.actions), 0) * 1.0 / COUNT(*) AS double precision) AS ctr " +
+            "FROM v LEFT JOIN a ON a.uid = v.uid AND a.reg_time = v.reg_time " +
+            "GROUP BY v.grp " +
+            "HAVING COUNT(*) >= :minViews " +
+            "ORDER BY %2$s, v.grp " +
+            "LIMIT :limit";
+
+    private final NamedParameterJdbcTemplate cursorJdbcTemplate;
+
+    public TopRepository(@Qualifier(JdbcConfiguration.CURSOR) NamedParameterJdbcTemplate cursorJdbcTemplate) {
+        this.cursorJdbcTemplate = cursorJdbcTemplate;
+    }
+
+    /**
+     * @param byViews   order by the number of views instead of the CTR.
+     * @param ascending return the lowest instead of the highest values.
+     * @param minViews  the minimum number of views of a siteId to be ranked.
+     * @param limit     the number of siteIds to return.
+     */
+    public Stream<SiteIdTop> getTopSiteIds(LocalDateTime startDate, LocalDateTime endDate, String tag,
+                                           boolean byViews, boolean ascending, int minViews, int limit) {
+        return cursorJdbcTemplate.queryForStream(sql("site_id", byViews, ascending),
+                parameters(startDate, endDate, tag, minViews, limit),
+                (rs, rowNum) -> new SiteIdTop(rs.getString("grp"), rs.getLong("views"), (float) rs.getDouble("ctr")));
+    }
+
+    /**
+     * @see #getTopSiteIds(LocalDateTime, LocalDateTime, String, boolean, boolean, int, int)
+     */
+    public Stream<MmDmaTop> getTopMmDmas(LocalDateTime startDate, LocalDateTime endDate, String tag,
+                                         boolean byViews, boolean ascending, int minViews, int limit) {
+        return cursorJdbcTemplate.queryForStream(sql("mm_dma", byViews, ascending),
+                parameters(startDate, endDate, tag, minViews, limit),
+                (rs, rowNum) -> new MmDmaTop(rs.getInt("grp"), rs.getLong("views"), (float) rs.getDouble("ctr")));
+    }
+
+    private static String sql(String column, boolean byViews, boolean ascending) {
+        String direction = ascending ? "ASC" : "DESC";
+        String order = byViews ? "views " + direction : "ctr " + direction + ", views DESC";
+        return String.format(TOP_QUERY, column, order, ViewRepository.CTR_TAG_FILTER);
+    }
+
+    private static MapSqlParameterSource parameters(LocalDateTime startDate, LocalDateTime endDate, String tag,
+                                                    int minViews, int limit) {
+        return new MapSqlParameterSource()
+                .addValue("startDate", startDate)
+                .addValue("endDate", endDate)
+                .addValue("tag", tag)
+                .addValue("minViews", minViews)
+                .addValue("limit", limit);
+    }
+}
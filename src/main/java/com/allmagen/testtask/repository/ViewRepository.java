@@ -6,63 +6,88 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.stream.Stream;
 
 /**
  * Repository interface for managing ViewEntity instance
  */
 @Repository
-public interface ViewRepository extends JpaRepository<ViewEntity, String> {
+public interface ViewRepository extends JpaRepository<ViewEntity, String>, ViewRepositoryCustom {
+    /**
+     * Actions counted by the CTR queries: clicks and all non-view actions by default, or exactly the given tag.
+     */
+    String CTR_TAG_FILTER = "((CAST(:tag AS varchar) IS NULL AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) OR a.tag = :tag)";
+    /**
+     * Actions counted by the EvPM query: all actions by default, or the given tag and its view-based variant.
+     */
+    String EVPM_TAG_FILTER = "(CAST(:tag AS varchar) IS NULL OR a.tag = :tag OR a.tag = CONCAT('v', CAST(:tag AS varchar)))";
 
-    @Query("SELECT FUNCTION('DATE_TRUNC', :interval, v.regTime) AS intervalStart, " +
-            "SUM(COALESCE(a.count, 0)) * 100.0 / COUNT(DISTINCT v.uid) AS ctr " +
-            "FROM ViewEntity v " +
-            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND ((:tag is null AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) or a.tag = :tag))" +
-            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
-            "GROUP BY intervalStart " +
-            "ORDER BY intervalStart")
+    @Query("SELECT v.uid AS uid, v.regTime AS regTime FROM ViewEntity v WHERE v.uid IN :uids")
+    List<ViewRegTime> findRegTimes(Collection<String> uids);
+
+    @Query("SELECT MIN(v.regTime) AS firstRegTime, MAX(v.regTime) AS lastRegTime FROM ViewEntity v WHERE v.uid IN :uids")
+    RegTimeRange findRegTimeRange(Collection<String> uids);
+
+    @Query("SELECT MIN(v.regTime) AS firstRegTime, MAX(v.regTime) AS lastRegTime FROM ViewEntity v")
+    RegTimeRange findRegTimeRange();
+
+    @Query(value = "WITH v AS (SELECT uid, reg_time FROM views_table WHERE reg_time BETWEEN :startDate AND :endDate), " +
+            "a AS (SELECT a.uid, a.reg_time, SUM(a.count) AS actions FROM actions_table a " +
+            "JOIN v ON v.uid = a.uid AND v.reg_time = a.reg_time " +
+            "WHERE a.reg_time BETWEEN :startDate AND :endDate AND " + CTR_TAG_FILTER + " GROUP BY a.uid, a.reg_time) " +
+            "SELECT DATE_TRUNC(:interval, v.reg_time) AS \"intervalStart\", " +
+            "CAST(COALESCE(SUM(a.actions), 0) * 100.0 / COUNT(*) AS double precision) AS ctr " +
+            "FROM v LEFT JOIN a ON a.uid = v.uid AND a.reg_time = v.reg_time " +
+            "GROUP BY 1 " +
+            "ORDER BY 1", nativeQuery = true)
     Stream<CtrDates> getCTR(LocalDateTime startDate, LocalDateTime endDate, String interval, String tag);
 
-    @Query("SELECT FUNCTION('DATE_TRUNC', :interval, v.regTime) AS intervalStart, " +
-            "SUM(COALESCE(a.count, 0)) * 1.0 / COUNT(DISTINCT v.uid) AS ctr " +
-            "FROM ViewEntity v " +
-            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND (:tag is null OR a.tag = :tag OR a.tag = CONCAT('v', :tag)))" +
-            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
-            "GROUP BY intervalStart " +
-            "ORDER BY intervalStart")
+    @Query(value = "WITH v AS (SELECT uid, reg_time FROM views_table WHERE reg_time BETWEEN :startDate AND :endDate), " +
+            "a AS (SELECT a.uid, a.reg_time, SUM(a.count) AS actions FROM actions_table a " +
+            "JOIN v ON v.uid = a.uid AND v.reg_time = a.reg_time " +
+            "WHERE a.reg_time BETWEEN :startDate AND :endDate AND " + EVPM_TAG_FILTER + " GROUP BY a.uid, a.reg_time) " +
+            "SELECT DATE_TRUNC(:interval, v.reg_time) AS \"intervalStart\", " +
+            "CAST(COALESCE(SUM(a.actions), 0) * 1.0 / COUNT(*) AS double precision) AS ctr " +
+            "FROM v LEFT JOIN a ON a.uid = v.uid AND a.reg_time = v.reg_time " +
+            "GROUP BY 1 " +
+            "ORDER BY 1", nativeQuery = true)
     Stream<CtrDates> getEvPM(LocalDateTime startDate, LocalDateTime endDate, String interval, String tag);
 
-
     @Query("SELECT v.mmDma AS mmDma, COUNT(v) AS count " +
             "FROM ViewEntity v  " +
-            "WHERE DATE(v.regTime) >= :startDate AND DATE(v.regTime) <= :endDate " +
+            "WHERE v.regTime >= :startTime AND v.regTime < :endTime " +
             "GROUP BY mmDma")
-    Stream<MmDmaCount> getViewsCountByMmDma(LocalDate startDate, LocalDate endDate);
+    Stream<MmDmaCount> getViewsCountByMmDma(LocalDateTime startTime, LocalDateTime endTime);
 
     @Query("SELECT v.siteId AS siteId, COUNT(v) AS count " +
             "FROM ViewEntity v  " +
-            "WHERE DATE(v.regTime) >= :startDate AND DATE(v.regTime) <= :endDate " +
+            "WHERE v.regTime >= :startTime AND v.regTime < :endTime " +
             "GROUP BY siteId")
-    Stream<SiteIdCount> getViewsCountBySiteId(LocalDate startDate, LocalDate endDate);
+    Stream<SiteIdCount> getViewsCountBySiteId(LocalDateTime startTime, LocalDateTime endTime);
 
-    @Query("SELECT v.mmDma AS mmDma, " +
-            "SUM(COALESCE(a.count, 0)) * 1.0 / COUNT(DISTINCT v.uid) AS ctr " +
-            "FROM ViewEntity v " +
-            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND ((:tag is null AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) or a.tag = :tag))" +
-            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
-            "GROUP BY mmDma " +
-            "ORDER BY mmDma")
+    @Query(value = "WITH v AS (SELECT uid, reg_time, mm_dma FROM views_table WHERE reg_time BETWEEN :startDate AND :endDate), " +
+            "a AS (SELECT a.uid, a.reg_time, SUM(a.count) AS actions FROM actions_table a " +
+            "JOIN v ON v.uid = a.uid AND v.reg_time = a.reg_time " +
+            "WHERE a.reg_time BETWEEN :startDate AND :endDate AND " + CTR_TAG_FILTER + " GROUP BY a.uid, a.reg_time) " +
+            "SELECT v.mm_dma AS \"mmDma\", " +
+            "CAST(COALESCE(SUM(a.actions), 0) * 1.0 / COUNT(*) AS double precision) AS ctr " +
+            "FROM v LEFT JOIN a ON a.uid = v.uid AND a.reg_time = v.reg_time " +
+            "GROUP BY v.mm_dma " +
+            "ORDER BY v.mm_dma", nativeQuery = true)
     Stream<MmDmaCTR> getCtrAggregateByMmDma(LocalDateTime startDate, LocalDateTime endDate, String tag);
 
-    @Query("SELECT v.siteId AS siteId, " +
-            "SUM(COALESCE(a.count, 0)) * 1.0 / COUNT(DISTINCT v.uid) AS ctr " +
-            "FROM ViewEntity v " +
-            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND ((:tag is null AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) or a.tag = :tag))" +
-            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
-            "GROUP BY siteId " +
-            "ORDER BY siteId")
+    @Query(value = "WITH v AS (SELECT uid, reg_time, site_id FROM views_table WHERE reg_time BETWEEN :startDate AND :endDate), " +
+            "a AS (SELECT a.uid, a.reg_time, SUM(a.count) AS actions FROM actions_table a " +
+            "JOIN v ON v.uid = a.uid AND v.reg_time = a.reg_time " +
+            "WHERE a.reg_time BETWEEN :startDate AND :endDate AND " + CTR_TAG_FILTER + " GROUP BY a.uid, a.reg_time) " +
+            "SELECT v.site_id AS \"siteId\", " +
+            "CAST(COALESCE(SUM(a.actions), 0) * 1.0 / COUNT(*) AS double precision) AS ctr " +
+            "FROM v LEFT JOIN a ON a.uid = v.uid AND a.reg_time = v.reg_time " +
+            "GROUP BY v.site_id " +
+            "ORDER BY v.site_id", nativeQuery = true)
     Stream<SiteIdCTR> getCtrAggregateBySiteId(LocalDateTime startDate, LocalDateTime endDate, String tag);
 
 
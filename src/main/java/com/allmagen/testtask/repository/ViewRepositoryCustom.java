@@ -0,0 +1,20 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ViewEntity;
+
+import java.util.List;
+
+/**
+ * Bulk write operations for views that bypass the JPA persistence context.
+ */
+public interface ViewRepositoryCustom {
+
+    /**
+     * Inserts the given views as a single JDBC batch without loading existing rows first.
+     * Views whose uid is already stored are skipped.
+     *
+     * @param views the views to insert.
+     * @return The views actually inserted.
+     */
+    List<ViewEntity> insertAll(List<ViewEntity> views);
+}
@@ -0,0 +1,65 @@
+package com.allmagen.testtask.repository;
+
+import com.allmagen.testtask.model.ViewEntity;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDBC implementation of {@link ViewRepositoryCustom}.
+ * Runs on the connection of the surrounding transaction.
+ */
+public class ViewRepositoryCustomImpl implements ViewRepositoryCustom {
+    /**
+     * Skips views whose uid is stored, by the primary key of the plain views_table or by the uid claim of the
+     * partitioned one, whose primary key also contains the registration time.
+     */
+    private static final String INSERT_VIEW = "INSERT INTO views_table " +
+            "(uid, reg_time, fc_imp_chk, fc_time_chk, utmtr, mm_dma, os_name, model, hardware, site_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ViewRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<ViewEntity> insertAll(List<ViewEntity> views) {
+        int[] updateCounts = jdbcTemplate.batchUpdate(INSERT_VIEW, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ViewEntity view = views.get(i);
+                ps.setString(1, view.getUid());
+                ps.setTimestamp(2, view.getRegTime() == null ? null : Timestamp.valueOf(view.getRegTime()));
+                ps.setInt(3, view.getFcImpChk());
+                ps.setInt(4, view.getFcTimeChk());
+                ps.setInt(5, view.getUtmtr());
+                ps.setInt(6, view.getMmDma());
+                ps.setString(7, view.getOsName());
+                ps.setString(8, view.getModel());
+                ps.setString(9, view.getHardware());
+                ps.setString(10, view.getSiteId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return views.size();
+            }
+        });
+
+        List<ViewEntity> inserted = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] > 0) {
+                inserted.add(views.get(i));
+            }
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,141 @@
+package com.allmagen.testtask.service;
+
+import java.util.Arrays;
+
+/**
+ * Number of actions per uid id and tag id, as assigned by a {@link com.allmagen.testtask.service.parser.ByteDictionary}.
+ * Both ids are packed into one {@code long} key of an open addressing table with linear probing, and the counts are
+ * kept in a parallel {@code int} array, so counting an action allocates nothing. The table is grown at half load.
+ * Instances are not thread-safe.
+ */
+public final class ActionCounts {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize the number of distinct (uid, tag) pairs expected; the table grows beyond it as needed.
+     */
+    public ActionCounts(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds one action.
+     *
+     * @param uid the uid id, not negative.
+     * @param tag the tag id, not negative.
+     */
+    public void increment(int uid, int tag) {
+        long key = key(uid, tag);
+        int slot = slot(key);
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                counts[slot]++;
+                return;
+            }
+            if (slotKey == EMPTY) {
+                keys[slot] = key;
+                counts[slot] = 1;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return The number of actions of a uid with a tag, {@code 0} if none were counted.
+     */
+    public int get(int uid, int tag) {
+        long key = key(uid, tag);
+        int slot = slot(key);
+        while (true) {
+            long slotKey = keys[slot];
+            if (slotKey == key) {
+                return counts[slot];
+            }
+            if (slotKey == EMPTY) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return The number of distinct (uid, tag) pairs counted.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all counts and reuses the allocated capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Passes every counted (uid, tag) pair with its count to {@code consumer}, in no particular order.
+     */
+    public void forEach(Consumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            long key = keys[slot];
+            if (key != EMPTY) {
+                consumer.accept((int) (key >>> 32), (int) key, counts[slot]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            long key = oldKeys[oldSlot];
+            if (key != EMPTY) {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                counts[slot] = oldCounts[oldSlot];
+            }
+        }
+    }
+
+    private static long key(int uid, int tag) {
+        return ((long) uid << 32) | tag;
+    }
+
+    private int slot(long key) {
+        // the finalizer of MurmurHash3, so consecutive ids are spread over the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * Receives the counts of {@link #forEach(Consumer)}.
+     */
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(int uid, int tag, int count);
+    }
+}
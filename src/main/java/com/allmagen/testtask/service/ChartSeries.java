@@ -0,0 +1,122 @@
+package com.allmagen.testtask.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A time series for a chart, stored as primitive arrays of interval starts in epoch seconds and values.
+ * Long series are reduced with the Largest-Triangle-Three-Buckets algorithm, which keeps the points that
+ * shape the series, such as peaks and drops, instead of averaging them away.
+ */
+public class ChartSeries {
+    private long[] x = new long[64];
+    private float[] y = new float[64];
+    private int size;
+
+    /**
+     * Appends a point. Points must be added in ascending order of {@code intervalStart}.
+     */
+    public void add(LocalDateTime intervalStart, float value) {
+        if (size == x.length) {
+            x = Arrays.copyOf(x, size * 2);
+            y = Arrays.copyOf(y, size * 2);
+        }
+        x[size] = intervalStart.toEpochSecond(ZoneOffset.UTC);
+        y[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Selects at most {@code maxPoints} points with Largest-Triangle-Three-Buckets. The first and last points are kept.
+     * The points in between are split into {@code maxPoints - 2} buckets, and from each bucket the point is kept that
+     * forms the largest triangle with the point kept from the previous bucket and the average of the next bucket.
+     *
+     * @param maxPoints the maximum number of points, at least 3.
+     * @return The downsampled series, or this series if it has no more than {@code maxPoints} points.
+     * @throws IllegalArgumentException if {@code maxPoints} is less than 3.
+     */
+    public ChartSeries downsample(int maxPoints) {
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("maxPoints must be at least 3.");
+        }
+        if (size <= maxPoints) {
+            return this;
+        }
+
+        ChartSeries sampled = new ChartSeries();
+        sampled.x = new long[maxPoints];
+        sampled.y = new float[maxPoints];
+        sampled.append(x[0], y[0]);
+
+        double bucketSize = (double) (size - 2) / (maxPoints - 2);
+        int selected = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int from = (int) (bucket * bucketSize) + 1;
+            int to = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextTo = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+
+            // the average of the next bucket; for the last bucket that is the last point
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = to; i < nextTo; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            averageX /= nextTo - to;
+            averageY /= nextTo - to;
+
+            double selectedX = x[selected];
+            double selectedY = y[selected];
+            double maxArea = -1;
+            int next = from;
+            for (int i = from; i < to; i++) {
+                // twice the triangle area, which selects the same point
+                double area = Math.abs((selectedX - averageX) * (y[i] - selectedY) - (selectedX - x[i]) * (averageY - selectedY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            sampled.append(x[next], y[next]);
+            selected = next;
+        }
+
+        sampled.append(x[size - 1], y[size - 1]);
+        return sampled;
+    }
+
+    /**
+     * @return The interval starts, for the x-axis of a chart.
+     */
+    public List<LocalDateTime> xAxisData() {
+        List<LocalDateTime> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            data.add(LocalDateTime.ofEpochSecond(x[i], 0, ZoneOffset.UTC));
+        }
+        return data;
+    }
+
+    /**
+     * @return The values, for the y-axis of a chart.
+     */
+    public List<Float> yAxisData() {
+        List<Float> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            data.add(y[i]);
+        }
+        return data;
+    }
+
+    private void append(long pointX, float pointY) {
+        x[size] = pointX;
+        y[size] = pointY;
+        size++;
+    }
+}
@@ -0,0 +1,339 @@
+package com.allmagen.testtask.service;
+
+import com.allmagen.testtask.model.ActionEvent;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.ViewEvent;
+import com.allmagen.testtask.service.parser.TimestampDecoder;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.Counter;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Ingests single view and action events as they happen instead of whole files.
+ * Events are validated when they are received, buffered, and written in micro-batches by a single flusher thread:
+ * as soon as {@code statistics.events.batch-size} events are buffered, or when the oldest buffered event has waited
+ * for {@code statistics.events.flush-interval}. Batches are written like the batches of a CSV upload with
+ * {@link UploadEngine#BATCH}, so the rollups, the uid sample and the query cache are kept up to date the same way.
+ * <p>
+ * Buffered views are always written before buffered actions, so an action can be sent as soon as its view has been
+ * accepted. Events are acknowledged once buffered; buffered events are lost if the application stops abruptly.
+ */
+@Service
+public class EventIngestService {
+    private static final Logger LOGGER = LogManager.getLogger(EventIngestService.class);
+
+    private final StatisticsService statisticsService;
+    private final ObjectReader viewReader;
+    private final ObjectReader actionReader;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int maxBuffered;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when events are buffered, a flush is requested or the service stops.
+     */
+    private final Condition bufferChanged = lock.newCondition();
+    /**
+     * Signalled when buffered events have been written.
+     */
+    private final Condition eventsWritten = lock.newCondition();
+    private List<ViewEntity> views = new ArrayList<>();
+    private List<ActionEvent> actions = new ArrayList<>();
+    /**
+     * The {@link System#nanoTime()} at which the oldest buffered event was received.
+     */
+    private long oldestNanos;
+    /**
+     * The number of events received and the number of events written, rejected or failed since startup.
+     */
+    private long receivedEvents;
+    private long processedEvents;
+    private boolean flushRequested;
+    private boolean running = true;
+
+    private final Counter viewsReceived;
+    private final Counter viewsWritten;
+    private final Counter viewsRejected;
+    private final Counter viewsFailed;
+    private final Counter actionsReceived;
+    private final Counter actionsWritten;
+    private final Counter actionsRejected;
+    private final Counter actionsFailed;
+    private final Thread flusher;
+
+    public EventIngestService(StatisticsService statisticsService, ObjectMapper objectMapper, StatisticsMetrics metrics,
+                              @Value("${statistics.events.batch-size:1000}") int batchSize,
+                              @Value("${statistics.events.flush-interval:PT1S}") Duration flushInterval,
+                              @Value("${statistics.events.max-buffered:100000}") int maxBuffered) {
+        this.statisticsService = statisticsService;
+        this.viewReader = objectMapper.readerFor(ViewEvent.class);
+        this.actionReader = objectMapper.readerFor(ActionEvent.class);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.maxBuffered = maxBuffered;
+
+        viewsReceived = metrics.events("views", "received");
+        viewsWritten = metrics.events("views", "written");
+        viewsRejected = metrics.events("views", "rejected");
+        viewsFailed = metrics.events("views", "failed");
+        actionsReceived = metrics.events("actions", "received");
+        actionsWritten = metrics.events("actions", "written");
+        actionsRejected = metrics.events("actions", "rejected");
+        actionsFailed = metrics.events("actions", "failed");
+        metrics.bufferedEvents(() -> {
+            lock.lock();
+            try {
+                return buffered();
+            } finally {
+                lock.unlock();
+            }
+        });
+
+        this.flusher = Thread.ofVirtual().name("event-flusher").start(this::flushLoop);
+    }
+
+    /**
+     * Validates and buffers view events: a single JSON object, a JSON array or newline-delimited JSON objects.
+     * Views are validated like the lines of a views CSV file; if any of them is invalid, none is buffered.
+     *
+     * @param inputStream The request body.
+     * @return The number of views buffered.
+     * @throws IOException             If the body is not valid JSON.
+     * @throws RuntimeException        If a view misses a field or has an invalid registration time.
+     * @throws ResponseStatusException If {@code statistics.events.max-buffered} events are already buffered.
+     */
+    public int receiveViews(InputStream inputStream) throws IOException {
+        List<ViewEntity> received = read(viewReader, inputStream, EventIngestService::toView);
+        buffer(received, () -> views);
+        viewsReceived.increment(received.size());
+        return received.size();
+    }
+
+    /**
+     * Validates and buffers action events like {@link #receiveViews(InputStream)}. Actions of uids without a
+     * stored view are skipped when they are written.
+     *
+     * @param inputStream The request body.
+     * @return The number of actions buffered.
+     * @throws IOException             If the body is not valid JSON.
+     * @throws RuntimeException        If an action misses a field.
+     * @throws ResponseStatusException If {@code statistics.events.max-buffered} events are already buffered.
+     */
+    public int receiveActions(InputStream inputStream) throws IOException {
+        List<ActionEvent> received = read(actionReader, inputStream, EventIngestService::toAction);
+        buffer(received, () -> actions);
+        actionsReceived.increment(received.size());
+        return received.size();
+    }
+
+    /**
+     * Writes the buffered events now and waits until every event received before the call has been written.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        lock.lock();
+        try {
+            long target = receivedEvents;
+            flushRequested = true;
+            bufferChanged.signalAll();
+            while (processedEvents < target && flusher.isAlive()) {
+                eventsWritten.await(100, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting events and writes the buffered ones.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        lock.lock();
+        try {
+            running = false;
+            bufferChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join();
+    }
+
+    private static <E, T> List<T> read(ObjectReader reader, InputStream inputStream, Function<E, T> validator) throws IOException {
+        List<T> events = new ArrayList<>();
+        try (MappingIterator<E> iterator = reader.readValues(inputStream)) {
+            while (iterator.hasNextValue()) {
+                E event = iterator.nextValue();
+                try {
+                    events.add(validator.apply(event));
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Event " + (events.size() + 1) + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Converts a view event with the rules of {@link com.allmagen.testtask.service.parser.ViewLineDecoder}:
+     * all fields are required and the registration time has the {@code yyyy-MM-dd HH:mm:ss} format.
+     */
+    private static ViewEntity toView(ViewEvent event) {
+        ViewEntity view = new ViewEntity(required(event.uid(), "uid"));
+        view.setRegTime(TimestampDecoder.decode(required(event.regTime(), "regTime")));
+        view.setFcImpChk(required(event.fcImpChk(), "fcImpChk"));
+        view.setFcTimeChk(required(event.fcTimeChk(), "fcTimeChk"));
+        view.setUtmtr(required(event.utmtr(), "utmtr"));
+        view.setMmDma(required(event.mmDma(), "mmDma"));
+        view.setOsName(required(event.osName(), "osName"));
+        view.setModel(required(event.model(), "model"));
+        view.setHardware(required(event.hardware(), "hardware"));
+        view.setSiteId(required(event.siteId(), "siteId"));
+        return view;
+    }
+
+    private static ActionEvent toAction(ActionEvent event) {
+        required(event.uid(), "uid");
+        required(event.tag(), "tag");
+        return event;
+    }
+
+    private static <T> T required(T value, String field) {
+        if (value == null) {
+            throw new RuntimeException("The field '" + field + "' is missing.");
+        }
+        return value;
+    }
+
+    /**
+     * @param buffer returns the current buffer of the event type, read under the lock since the flusher replaces it.
+     */
+    private <T> void buffer(List<T> received, Supplier<List<T>> buffer) {
+        if (received.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!running) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Event ingestion is stopping");
+            }
+            if (buffered() + received.size() > maxBuffered) {
+                throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many events buffered");
+            }
+            boolean wasEmpty = buffered() == 0;
+            if (wasEmpty) {
+                oldestNanos = System.nanoTime();
+            }
+            buffer.get().addAll(received);
+            receivedEvents += received.size();
+            if (wasEmpty || buffered() >= batchSize) {
+                bufferChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int buffered() {
+        return views.size() + actions.size();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<ViewEntity> viewBatch;
+            List<ActionEvent> actionBatch;
+            lock.lock();
+            try {
+                while (running && !flushRequested && buffered() < batchSize) {
+                    if (buffered() == 0) {
+                        bufferChanged.await();
+                        continue;
+                    }
+                    long waitNanos = oldestNanos + flushIntervalNanos - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        break;
+                    }
+                    bufferChanged.awaitNanos(waitNanos);
+                }
+                if (!running && buffered() == 0) {
+                    return;
+                }
+                flushRequested = false;
+                viewBatch = views;
+                actionBatch = actions;
+                views = new ArrayList<>();
+                actions = new ArrayList<>();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            write(viewBatch, actionBatch);
+        }
+    }
+
+    /**
+     * Writes the views, then the actions, in transactions of at most {@code statistics.events.batch-size} events.
+     * A batch that fails is logged and dropped.
+     */
+    private void write(List<ViewEntity> viewBatch, List<ActionEvent> actionBatch) {
+        for (int from = 0; from < viewBatch.size(); from += batchSize) {
+            List<ViewEntity> batch = viewBatch.subList(from, Math.min(from + batchSize, viewBatch.size()));
+            try {
+                int written = statisticsService.insertViews(batch);
+                viewsWritten.increment(written);
+                viewsRejected.increment(batch.size() - written);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.ERROR, "Writing " + batch.size() + " view events failed", e);
+                viewsFailed.increment(batch.size());
+            }
+            processed(batch.size());
+        }
+        for (int from = 0; from < actionBatch.size(); from += batchSize) {
+            List<ActionEvent> batch = actionBatch.subList(from, Math.min(from + batchSize, actionBatch.size()));
+            try {
+                int written = statisticsService.insertActions(batch);
+                actionsWritten.increment(written);
+                actionsRejected.increment(batch.size() - written);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.ERROR, "Writing " + batch.size() + " action events failed", e);
+                actionsFailed.increment(batch.size());
+            }
+            processed(batch.size());
+        }
+    }
+
+    private void processed(int events) {
+        lock.lock();
+        try {
+            processedEvents += events;
+            eventsWritten.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.allmagen.testtask.service;
+
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Receives the rows written by uploads. Listeners are called inside the upload transaction, batch by batch;
+ * listeners keeping state outside the database should apply it only after the transaction commits.
+ * <p>
+ * Bulk uploads with {@link UploadEngine#COPY} write the rows in the database and read them back only for the
+ * listeners that {@link #needsRows() need them}; the other listeners receive the span of registration times.
+ */
+public interface IngestListener {
+
+    /**
+     * @param views the views inserted by the current transaction.
+     */
+    default void viewsInserted(List<ViewEntity> views) {
+    }
+
+    /**
+     * @param actions the action rows inserted by the current transaction, with the count per uid and tag.
+     *                Only the uid of {@link ActionEntity#getViewEntity()} is guaranteed to be set.
+     */
+    default void actionsInserted(List<ActionEntity> actions) {
+    }
+
+    /**
+     * @return {@code false} if {@link #regTimesInserted(LocalDateTime, LocalDateTime)} is enough for the listener
+     * when the written rows are not at hand.
+     */
+    default boolean needsRows() {
+        return true;
+    }
+
+    /**
+     * Called instead of {@link #viewsInserted(List)} and {@link #actionsInserted(List)} for listeners that do not
+     * {@link #needsRows() need the rows}, when these are not at hand.
+     *
+     * @param first the first registration time of the inserted views, or of the views of the inserted actions.
+     * @param last  the last one.
+     */
+    default void regTimesInserted(LocalDateTime first, LocalDateTime last) {
+    }
+}
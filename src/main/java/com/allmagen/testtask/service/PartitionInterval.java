@@ -0,0 +1,38 @@
+package com.allmagen.testtask.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Selects how views_table and actions_table are range partitioned by the registration time of the view.
+ */
+public enum PartitionInterval {
+    /**
+     * The tables are not partitioned.
+     */
+    NONE,
+    /**
+     * One partition per calendar day.
+     */
+    DAY,
+    /**
+     * One partition per week, starting on Monday like {@code DATE_TRUNC('week', ...)}.
+     */
+    WEEK;
+
+    /**
+     * @return The start of the partition containing the given registration time.
+     */
+    public LocalDateTime floor(LocalDateTime regTime) {
+        LocalDateTime day = regTime.toLocalDate().atStartOfDay();
+        return this == WEEK ? day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)) : day;
+    }
+
+    /**
+     * @return The start of the partition following the one starting at {@code partitionStart}.
+     */
+    public LocalDateTime next(LocalDateTime partitionStart) {
+        return this == WEEK ? partitionStart.plusWeeks(1) : partitionStart.plusDays(1);
+    }
+}
@@ -0,0 +1,194 @@
+package com.allmagen.testtask.service;
+
+import com.allmagen.testtask.model.metrics.RegTimeRange;
+import com.allmagen.testtask.repository.PartitionRepository;
+import com.allmagen.testtask.repository.ViewRepository;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Maintains the time partitions of views_table and actions_table.
+ * <p>
+ * With {@code statistics.partitioning.interval} set to {@link PartitionInterval#DAY} or {@link PartitionInterval#WEEK},
+ * the plain tables created by Hibernate are converted to partitioned tables at startup. Partitions are then created
+ * on demand before views are written, so uploads never fail for a missing partition. Once converted, the tables stay
+ * partitioned; with {@link PartitionInterval#NONE} new partitions are created per day.
+ */
+@Service
+@DependsOn("entityManagerFactory")
+public class PartitionService {
+    private static final Logger LOGGER = LogManager.getLogger(PartitionService.class);
+
+    private final PartitionRepository partitionRepository;
+    private final ViewRepository viewRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final PartitionInterval configuredInterval;
+
+    private volatile boolean partitioned;
+    private PartitionInterval interval;
+    /**
+     * The committed partitions, from the inclusive start to the exclusive end.
+     */
+    private volatile NavigableMap<LocalDateTime, LocalDateTime> partitions = new TreeMap<>();
+
+    public PartitionService(PartitionRepository partitionRepository, ViewRepository viewRepository,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${statistics.partitioning.interval:NONE}") PartitionInterval configuredInterval) {
+        this.partitionRepository = partitionRepository;
+        this.viewRepository = viewRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.configuredInterval = configuredInterval;
+    }
+
+    /**
+     * Copies the registration time of views to actions stored without one and converts the tables to partitioned
+     * tables if partitioning is configured, with the table of their uids, or adds the foreign key between the plain
+     * tables. Then adds the unique key on uid and tag that action uploads merge their counts into.
+     * Runs before the application accepts uploads.
+     */
+    @PostConstruct
+    public void init() {
+        transactionTemplate.executeWithoutResult(status -> {
+            int backfilled = partitionRepository.backfillActionRegTimes();
+            if (backfilled > 0) {
+                LOGGER.log(Level.INFO, "Registration time copied to " + backfilled + " actions");
+            }
+
+            partitioned = partitionRepository.isPartitioned();
+            interval = configuredInterval == PartitionInterval.NONE ? PartitionInterval.DAY : configuredInterval;
+            if (!partitioned && configuredInterval != PartitionInterval.NONE) {
+                partitionTables();
+                partitioned = true;
+            }
+            if (partitioned) {
+                if (partitionRepository.addViewUidsIfMissing()) {
+                    LOGGER.log(Level.INFO, "view_uids added to keep the uids of the partitioned views_table unique");
+                }
+                partitions = partitionRepository.findPartitionBounds();
+            } else {
+                partitionRepository.addViewForeignKeyIfMissing();
+            }
+
+            int merged = partitionRepository.addActionKeyIfMissing(partitioned);
+            if (merged >= 0) {
+                LOGGER.log(Level.INFO, "Unique key on uid and tag added to actions_table, " + merged + " duplicate actions merged");
+            }
+        });
+    }
+
+    /**
+     * @throws IllegalStateException If views without a registration time would be lost.
+     */
+    private void partitionTables() {
+        long startNanos = System.nanoTime();
+        long withoutRegTime = partitionRepository.countViewsWithoutRegTime();
+        if (withoutRegTime > 0) {
+            throw new IllegalStateException("views_table cannot be partitioned: " + withoutRegTime + " views have no " +
+                    "reg_time. Set their reg_time or delete them with their actions, or set " +
+                    "statistics.partitioning.interval=NONE");
+        }
+        RegTimeRange range = viewRepository.findRegTimeRange();
+
+        partitionRepository.lockPartitions();
+        partitionRepository.createPartitionedTables();
+        if (range != null && range.getFirstRegTime() != null) {
+            createMissingPartitions(range.getFirstRegTime(), range.getLastRegTime(), new TreeMap<>());
+        }
+        partitionRepository.moveRows();
+
+        LOGGER.log(Level.INFO, "views_table and actions_table partitioned by " + interval + " in "
+                + Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @return {@code true} if views_table and actions_table are partitioned.
+     */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Makes sure partitions cover the registration times {@code [first, last]} before views are written.
+     * Missing partitions are created in the surrounding transaction: a partition attached by another transaction
+     * would not be visible to a transaction that already wrote to the partitioned table. Attaching does not block
+     * queries and uploads, but uploads that need new partitions wait for each other until the first one ends.
+     *
+     * @param first the earliest registration time to be written, or {@code null} if there is none.
+     * @param last  the latest registration time to be written, or {@code null} if there is none.
+     */
+    public void ensurePartitions(LocalDateTime first, LocalDateTime last) {
+        if (!partitioned || first == null || last == null || isCovered(partitions, first, last)) {
+            return;
+        }
+        partitionRepository.lockPartitions();
+        NavigableMap<LocalDateTime, LocalDateTime> existing = partitionRepository.findPartitionBounds();
+        if (isCovered(existing, first, last)) {
+            return;
+        }
+        createMissingPartitions(first, last, existing);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    partitions = existing;
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates the partitions of the configured interval between {@code first} and {@code last} that do not overlap
+     * existing partitions, shortening them where they would. Adds the created partitions to {@code existing}.
+     */
+    private void createMissingPartitions(LocalDateTime first, LocalDateTime last, NavigableMap<LocalDateTime, LocalDateTime> existing) {
+        int created = 0;
+        for (LocalDateTime start = interval.floor(first); !start.isAfter(last); start = interval.next(start)) {
+            LocalDateTime end = interval.next(start);
+            LocalDateTime from = start;
+            while (from.isBefore(end)) {
+                Map.Entry<LocalDateTime, LocalDateTime> previous = existing.floorEntry(from);
+                if (previous != null && previous.getValue().isAfter(from)) {
+                    from = previous.getValue();
+                    continue;
+                }
+                LocalDateTime nextStart = existing.higherKey(from);
+                LocalDateTime to = nextStart != null && nextStart.isBefore(end) ? nextStart : end;
+                partitionRepository.createPartition(from, to);
+                existing.put(from, to);
+                created++;
+                from = to;
+            }
+        }
+        if (created > 0) {
+            LOGGER.log(Level.INFO, created + " partitions created for registration times from " + first + " to " + last);
+        }
+    }
+
+    private static boolean isCovered(NavigableMap<LocalDateTime, LocalDateTime> partitions, LocalDateTime first, LocalDateTime last) {
+        LocalDateTime time = first;
+        while (!time.isAfter(last)) {
+            Map.Entry<LocalDateTime, LocalDateTime> partition = partitions.floorEntry(time);
+            if (partition == null || !partition.getValue().isAfter(time)) {
+                return false;
+            }
+            time = partition.getValue();
+        }
+        return true;
+    }
+}
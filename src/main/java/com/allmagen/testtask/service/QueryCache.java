@@ -0,0 +1,326 @@
+package com.allmagen.testtask.service;
+
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.RegTimeRange;
+import com.allmagen.testtask.repository.ViewRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Bounded cache of materialized statistics query results.
+ * Entries are evicted in least-recently-used order beyond {@code statistics.cache.max-entries} and expire after
+ * {@code statistics.cache.ttl}. When an upload commits, only the entries whose date range overlaps the registration
+ * times of the uploaded views, or of the views of the uploaded actions, are dropped.
+ * <p>
+ * With {@code statistics.datasource.replicas}, a query run after an upload committed may read a replica that has not
+ * applied it yet. Results overlapping a range invalidated within {@code statistics.datasource.replica-max-lag} are
+ * therefore only cached until that lag has passed since the invalidation, instead of for the whole TTL.
+ * <p>
+ * Results are materialized while the query runs, so the returned streams do not depend on an open database cursor.
+ * Only within {@link #streaming(Runnable)} are cache misses returned as the lazy stream of the query.
+ */
+@Component
+public class QueryCache implements IngestListener {
+    private final ViewRepository viewRepository;
+    private final int maxEntries;
+    private final int maxRows;
+    private final long ttlNanos;
+    private final long replicaLagNanos;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    /**
+     * Incremented by every invalidation, so results computed while an upload committed are not stored.
+     */
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * The ranges invalidated within the last {@link #replicaLagNanos}, oldest first, guarded by {@link #entries}.
+     */
+    private final ArrayDeque<Invalidation> recentInvalidations = new ArrayDeque<>();
+    private final ThreadLocal<Boolean> streaming = ThreadLocal.withInitial(() -> false);
+
+    public QueryCache(ViewRepository viewRepository,
+                      @Value("${statistics.cache.max-entries:1000}") int maxEntries,
+                      @Value("${statistics.cache.max-rows:100000}") int maxRows,
+                      @Value("${statistics.cache.ttl:PT10M}") Duration ttl,
+                      @Value("${statistics.datasource.replicas:}") List<String> replicas,
+                      @Value("${statistics.datasource.replica-max-lag:PT10S}") Duration replicaMaxLag) {
+        this.viewRepository = viewRepository;
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+        this.ttlNanos = ttl.toNanos();
+        boolean hasReplicas = replicas.stream().anyMatch(url -> !url.isBlank());
+        this.replicaLagNanos = hasReplicas ? replicaMaxLag.toNanos() : 0;
+    }
+
+    /**
+     * Returns the cached rows of a query over a date-time range, running the query on a miss.
+     *
+     * @param query      the name of the query.
+     * @param startDate  the start of the queried range, inclusive.
+     * @param endDate    the end of the queried range, inclusive.
+     * @param parameters the remaining query parameters.
+     * @param loader     runs the query; its stream is consumed and closed by the cache.
+     * @return The rows of the query.
+     */
+    public <T> Stream<T> get(String query, LocalDateTime startDate, LocalDateTime endDate, List<?> parameters,
+                             Supplier<Stream<T>> loader) {
+        return lookup(new Key(query, startDate, endDate, parameters), startDate, endDate, loader);
+    }
+
+    /**
+     * Returns the cached rows of a query over a date range, running the query on a miss.
+     *
+     * @see #get(String, LocalDateTime, LocalDateTime, List, Supplier)
+     */
+    public <T> Stream<T> get(String query, LocalDate startDate, LocalDate endDate, Supplier<Stream<T>> loader) {
+        return lookup(new Key(query, startDate, endDate, List.of()), startDate.atStartOfDay(), endDate.atTime(LocalTime.MAX), loader);
+    }
+
+    /**
+     * Runs {@code action} with cache misses passed through: their rows are neither materialized nor cached,
+     * and the returned streams must be consumed while the transaction of the query is open.
+     */
+    public void streaming(Runnable action) {
+        boolean outer = streaming.get();
+        streaming.set(true);
+        try {
+            action.run();
+        } finally {
+            streaming.set(outer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Stream<T> lookup(Key key, LocalDateTime startDate, LocalDateTime endDate, Supplier<Stream<T>> loader) {
+        if (maxEntries <= 0) {
+            return streaming.get() ? loader.get() : materialize(loader).stream();
+        }
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresNanos() - System.nanoTime() > 0) {
+                    hits.incrementAndGet();
+                    return ((List<T>) entry.rows()).stream();
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        if (streaming.get()) {
+            return loader.get();
+        }
+
+        long loadGeneration = generation.get();
+        List<T> rows = materialize(loader);
+
+        if (rows.size() <= maxRows) {
+            synchronized (entries) {
+                if (generation.get() == loadGeneration) {
+                    entries.put(key, new Entry(rows, startDate, endDate, expiresNanos(startDate, endDate)));
+                    evictOverflow();
+                }
+            }
+        }
+        return rows.stream();
+    }
+
+    private static <T> List<T> materialize(Supplier<Stream<T>> loader) {
+        try (Stream<T> stream = loader.get()) {
+            return stream.toList();
+        }
+    }
+
+    /**
+     * @return When a result over a range loaded now expires: after the TTL, or once the replicas have applied the
+     * uploads invalidated recently in the range.
+     */
+    private long expiresNanos(LocalDateTime startDate, LocalDateTime endDate) {
+        long now = System.nanoTime();
+        long expires = now + ttlNanos;
+        if (replicaLagNanos > 0) {
+            dropOldInvalidations(now);
+            for (Invalidation invalidation : recentInvalidations) {
+                if (invalidation.overlaps(startDate, endDate) && invalidation.nanos() + replicaLagNanos - expires < 0) {
+                    expires = invalidation.nanos() + replicaLagNanos;
+                }
+            }
+        }
+        return expires;
+    }
+
+    private void dropOldInvalidations(long now) {
+        while (!recentInvalidations.isEmpty() && now - recentInvalidations.peekFirst().nanos() >= replicaLagNanos) {
+            recentInvalidations.removeFirst();
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void viewsInserted(List<ViewEntity> views) {
+        LocalDateTime first = null;
+        LocalDateTime last = null;
+        for (ViewEntity view : views) {
+            LocalDateTime regTime = view.getRegTime();
+            if (regTime != null) {
+                first = first == null || regTime.isBefore(first) ? regTime : first;
+                last = last == null || regTime.isAfter(last) ? regTime : last;
+            }
+        }
+        invalidateAfterCommit(first, last);
+    }
+
+    @Override
+    public void actionsInserted(List<ActionEntity> actions) {
+        if (actions.isEmpty() || maxEntries <= 0) {
+            return;
+        }
+        Set<String> uids = new HashSet<>();
+        for (ActionEntity action : actions) {
+            uids.add(action.getViewEntity().getUid());
+        }
+        RegTimeRange range = viewRepository.findRegTimeRange(uids);
+        if (range != null) {
+            invalidateAfterCommit(range.getFirstRegTime(), range.getLastRegTime());
+        }
+    }
+
+    @Override
+    public boolean needsRows() {
+        return false;
+    }
+
+    @Override
+    public void regTimesInserted(LocalDateTime first, LocalDateTime last) {
+        invalidateAfterCommit(first, last);
+    }
+
+    /**
+     * Collects the registration time span written by the current transaction and invalidates it once committed.
+     */
+    private void invalidateAfterCommit(LocalDateTime first, LocalDateTime last) {
+        if (first == null || last == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(first, last);
+            return;
+        }
+
+        PendingInvalidation pending = (PendingInvalidation) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            PendingInvalidation created = new PendingInvalidation(first, last);
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(created.first, created.last);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(QueryCache.this);
+                }
+            });
+        } else {
+            pending.extend(first, last);
+        }
+    }
+
+    /**
+     * Drops the entries whose date range overlaps {@code [first, last]}.
+     */
+    public void invalidate(LocalDateTime first, LocalDateTime last) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            if (replicaLagNanos > 0) {
+                long now = System.nanoTime();
+                dropOldInvalidations(now);
+                recentInvalidations.addLast(new Invalidation(first, last, now));
+            }
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (!entry.startDate().isAfter(last) && !first.isAfter(entry.endDate())) {
+                    iterator.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The hit, miss, eviction and invalidation counters and the number of cached entries.
+     */
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.get(), misses.get(), evictions.get(), invalidations.get(), size);
+    }
+
+    /**
+     * Cache counters since startup.
+     *
+     * @param hits          the number of queries answered from the cache.
+     * @param misses        the number of queries sent to the database.
+     * @param evictions     the number of entries dropped because of size or age.
+     * @param invalidations the number of entries dropped by uploads.
+     * @param size          the number of cached entries.
+     */
+    public record Stats(long hits, long misses, long evictions, long invalidations, int size) {
+    }
+
+    private record Key(String query, Object startDate, Object endDate, List<?> parameters) {
+    }
+
+    private record Entry(List<?> rows, LocalDateTime startDate, LocalDateTime endDate, long expiresNanos) {
+    }
+
+    private record Invalidation(LocalDateTime first, LocalDateTime last, long nanos) {
+        private boolean overlaps(LocalDateTime startDate, LocalDateTime endDate) {
+            return !startDate.isAfter(last) && !first.isAfter(endDate);
+        }
+    }
+
+    private static final class PendingInvalidation {
+        private LocalDateTime first;
+        private LocalDateTime last;
+
+        private PendingInvalidation(LocalDateTime first, LocalDateTime last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        private void extend(LocalDateTime first, LocalDateTime last) {
+            this.first = first.isBefore(this.first) ? first : this.first;
+            this.last = last.isAfter(this.last) ? last : this.last;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.allmagen.testtask.service;
+
+/**
+ * Strategy used to answer the statistics queries, selected with {@code statistics.query.engine}.
+ * {@link #SQL} and {@link #ROLLUP} differ only for CTR and EvPM per interval.
+ */
+public enum QueryEngine {
+    /**
+     * Aggregates the views and actions tables on every request.
+     */
+    SQL,
+    /**
+     * Sums the pre-aggregated minute, hour and day rollups and reads raw rows only for partial minutes
+     * at the edges of the range. Returns the same values as {@link #SQL}.
+     */
+    ROLLUP,
+    /**
+     * Scans the primitive column arrays of the in-memory {@code ColumnarStore}. Answers every statistics query
+     * and falls back to {@link #SQL} until the store is loaded.
+     */
+    COLUMNAR
+}
@@ -0,0 +1,65 @@
+package com.allmagen.testtask.service;
+
+import com.allmagen.testtask.repository.RollupRepository;
+import com.allmagen.testtask.repository.SampleRepository;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Maintenance of the minute, hour and day rollups used by {@link QueryEngine#ROLLUP} and of the uid sample used by
+ * approximate queries. Uploads keep both up to date; a rebuild is only needed after the raw tables were changed directly.
+ */
+@Service
+public class RollupService {
+    private static final Logger LOGGER = LogManager.getLogger(RollupService.class);
+
+    private final RollupRepository rollupRepository;
+    private final SampleRepository sampleRepository;
+
+    public RollupService(RollupRepository rollupRepository, SampleRepository sampleRepository) {
+        this.rollupRepository = rollupRepository;
+        this.sampleRepository = sampleRepository;
+    }
+
+    /**
+     * Recomputes the rollups and the uid sample from the views and actions tables.
+     *
+     * @return The number of view and action buckets written.
+     */
+    @Transactional
+    public RollupRepository.RebuildResult rebuild() {
+        long startNanos = System.nanoTime();
+        RollupRepository.RebuildResult result = rollupRepository.rebuild();
+        LOGGER.log(Level.INFO, "Rollups rebuilt in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms: "
+                + result.viewBuckets() + " view buckets, " + result.actionBuckets() + " action buckets");
+        rebuildSample();
+        return result;
+    }
+
+    private void rebuildSample() {
+        long startNanos = System.nanoTime();
+        int views = sampleRepository.rebuild();
+        LOGGER.log(Level.INFO, "Uid sample rebuilt in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms: "
+                + views + " views sampled");
+    }
+
+    /**
+     * Builds the rollups and the uid sample on startup for databases that were filled before they existed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void rebuildIfStale() {
+        if (rollupRepository.isStale()) {
+            LOGGER.log(Level.INFO, "Rollups are empty, rebuilding from the views and actions tables");
+            rebuild();
+        } else if (sampleRepository.isStale()) {
+            LOGGER.log(Level.INFO, "Uid sample is empty, rebuilding from the views and actions tables");
+            rebuildSample();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.allmagen.testtask.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Micrometer meters of uploads and statistics queries, scraped from {@code /actuator/prometheus}.
+ * <ul>
+ *     <li>{@code statistics.upload.rows}: rows parsed, written and rejected per upload type. The ingestion rate is
+ *     the rate of the written rows.</li>
+ *     <li>{@code statistics.upload.rows.per.second}: rows written per second by the last finished upload of a type.</li>
+ *     <li>{@code statistics.upload.flush}: latency of writing one batch of rows.</li>
+ *     <li>{@code statistics.query.rows}: rows returned per executed query, i.e. per cache miss.</li>
+ *     <li>{@code statistics.events}: events received, written, rejected and failed per event type by the event
+ *     ingestion endpoints. The sustained ingestion rate is the rate of the written events.</li>
+ *     <li>{@code statistics.events.buffered}: events received but not written yet.</li>
+ *     <li>{@code statistics.ingest.log.segments}: segments of the ingest log not written to the database yet, with
+ *     {@code statistics.upload.engine=LOG}.</li>
+ *     <li>{@code statistics.ingest.log.stalled.seconds}: how long the drainer has been retrying a failed batch of the
+ *     ingest log, {@code 0} while the log is written.</li>
+ *     <li>{@code statistics.ingest.log.dead.letters}: ingest log records moved to the dead letter table.</li>
+ *     <li>{@code statistics.live.subscribers}: clients of the live CTR and EvPM streams.</li>
+ * </ul>
+ */
+@Component
+public class StatisticsMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, AtomicLong> throughputs = new ConcurrentHashMap<>();
+
+    public StatisticsMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param type     {@code views} or {@code actions}.
+     * @param delegate receives the notifications as well.
+     * @return Progress that counts the rows of an upload.
+     */
+    public UploadProgress uploadProgress(String type, UploadProgress delegate) {
+        Counter parsed = rows(type, "parsed");
+        Counter written = rows(type, "written");
+        Counter rejected = rows(type, "rejected");
+        return new UploadProgress() {
+            @Override
+            public void rowsParsed(long rows) {
+                parsed.increment(rows);
+                delegate.rowsParsed(rows);
+            }
+
+            @Override
+            public void rowsWritten(long rows) {
+                written.increment(rows);
+                delegate.rowsWritten(rows);
+            }
+
+            @Override
+            public void rowsRejected(long rows) {
+                rejected.increment(rows);
+                delegate.rowsRejected(rows);
+            }
+        };
+    }
+
+    /**
+     * Records the throughput of a finished upload.
+     */
+    public void uploadFinished(String type, UploadResult result) {
+        throughputs.computeIfAbsent(type, key -> {
+            AtomicLong throughput = new AtomicLong();
+            Gauge.builder("statistics.upload.rows.per.second", throughput, AtomicLong::get)
+                    .description("Rows written per second by the last upload")
+                    .tag("type", key)
+                    .register(registry);
+            return throughput;
+        }).set(result.rowsPerSecond());
+    }
+
+    /**
+     * Times writing one batch of rows.
+     *
+     * @param type  {@code views} or {@code actions}.
+     * @param flush writes the batch.
+     * @return The result of {@code flush}.
+     */
+    public <T> T flush(String type, Supplier<T> flush) {
+        return Timer.builder("statistics.upload.flush")
+                .description("Latency of writing one batch of uploaded rows")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(registry)
+                .record(flush);
+    }
+
+    /**
+     * Counts the rows of a query result when the stream is closed.
+     *
+     * @param query  the name of the query.
+     * @param engine the engine that executed it.
+     * @param rows   the query result.
+     * @return The query result.
+     */
+    public <T> Stream<T> countRows(String query, String engine, Stream<T> rows) {
+        DistributionSummary summary = DistributionSummary.builder("statistics.query.rows")
+                .description("Rows returned by an executed statistics query")
+                .tag("query", query)
+                .tag("engine", engine)
+                .register(registry);
+        LongAdder count = new LongAdder();
+        return rows.peek(row -> count.increment())
+                .onClose(() -> summary.record(count.sum()));
+    }
+
+    /**
+     * @param type    {@code views} or {@code actions}.
+     * @param outcome {@code received}, {@code written}, {@code rejected} or {@code failed}.
+     * @return The counter of ingested events of a type with an outcome.
+     */
+    public Counter events(String type, String outcome) {
+        return Counter.builder("statistics.events")
+                .description("Ingested events by outcome")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of events received but not written yet.
+     */
+    public void bufferedEvents(Supplier<Number> buffered) {
+        Gauge.builder("statistics.events.buffered", buffered)
+                .description("Events received but not written yet")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of ingest log segments that have not been written to the database completely.
+     */
+    public void ingestLogSegments(Supplier<Number> segments) {
+        Gauge.builder("statistics.ingest.log.segments", segments)
+                .description("Ingest log segments not written to the database yet")
+                .register(registry);
+    }
+
+    /**
+     * Publishes how many seconds the ingest log drainer has been retrying a failed batch.
+     */
+    public void ingestLogStalled(Supplier<Number> seconds) {
+        Gauge.builder("statistics.ingest.log.stalled.seconds", seconds)
+                .description("Seconds the ingest log drainer has been retrying a failed batch")
+                .register(registry);
+    }
+
+    /**
+     * @return The counter of ingest log records moved to the dead letter table.
+     */
+    public Counter ingestLogDeadLetters() {
+        return Counter.builder("statistics.ingest.log.dead.letters")
+                .description("Ingest log records that could not be written")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of clients of the live CTR and EvPM streams.
+     */
+    public void liveSubscribers(Supplier<Number> subscribers) {
+        Gauge.builder("statistics.live.subscribers", subscribers)
+                .description("Clients of the live CTR and EvPM streams")
+                .register(registry);
+    }
+
+    private Counter rows(String type, String outcome) {
+        return Counter.builder("statistics.upload.rows")
+                .description("Uploaded rows by outcome")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
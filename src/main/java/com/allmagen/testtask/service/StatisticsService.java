@@ -2,28 +2,43 @@ package com.allmagen.testtask.service;
 
 import com.allmagen.testtask.controller.StatisticsController;
 import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ActionEvent;
 import com.allmagen.testtask.model.ViewEntity;
 import com.allmagen.testtask.model.metrics.*;
 import com.allmagen.testtask.repository.ActionRepository;
+import com.allmagen.testtask.repository.CopyRepository;
+import com.allmagen.testtask.repository.CubeRepository;
+import com.allmagen.testtask.repository.RollupRepository;
+import com.allmagen.testtask.repository.SampleRepository;
+import com.allmagen.testtask.repository.TopRepository;
 import com.allmagen.testtask.repository.ViewRepository;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.exceptions.CsvValidationException;
+import com.allmagen.testtask.service.columnar.ColumnarStore;
+import com.allmagen.testtask.service.parser.ActionLineReader;
+import com.allmagen.testtask.service.parser.ByteDictionary;
+import com.allmagen.testtask.service.parser.ParallelCsvParser;
+import com.allmagen.testtask.service.parser.ViewLineDecoder;
+import com.allmagen.testtask.service.wal.IngestLog;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 @Service
@@ -32,236 +47,771 @@ public class StatisticsService {
 
     private final ViewRepository viewRepository;
     private final ActionRepository actionRepository;
-    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-    public StatisticsService(ViewRepository viewRepository, ActionRepository actionRepository) {
+    private final CopyRepository copyRepository;
+    private final RollupRepository rollupRepository;
+    private final SampleRepository sampleRepository;
+    private final CubeRepository cubeRepository;
+    private final TopRepository topRepository;
+    private final PartitionService partitionService;
+    private final ParallelCsvParser csvParser;
+    private final UploadEngine uploadEngine;
+    private final QueryEngine queryEngine;
+    private final ColumnarStore columnarStore;
+    private final IngestLog ingestLog;
+    private final TransactionTemplate transactionTemplate;
+    private final QueryCache queryCache;
+    private final StatisticsMetrics metrics;
+    private final List<IngestListener> ingestListeners;
+    /**
+     * The listeners that need the rows written by {@link UploadEngine#COPY}, see {@link IngestListener#needsRows()}.
+     */
+    private final List<IngestListener> rowListeners;
+    private final List<IngestListener> regTimeListeners;
+    private final int batchSize;
+    private final int maxTopLimit;
+
+    public StatisticsService(ViewRepository viewRepository, ActionRepository actionRepository,
+                             CopyRepository copyRepository, RollupRepository rollupRepository,
+                             SampleRepository sampleRepository, CubeRepository cubeRepository, TopRepository topRepository,
+                             PartitionService partitionService, ParallelCsvParser csvParser,
+                             ObjectProvider<ColumnarStore> columnarStore, ObjectProvider<IngestLog> ingestLog,
+                             QueryCache queryCache, StatisticsMetrics metrics,
+                             ObjectProvider<IngestListener> ingestListeners, PlatformTransactionManager transactionManager,
+                             @Value("${statistics.upload.engine:BATCH}") UploadEngine uploadEngine,
+                             @Value("${statistics.query.engine:ROLLUP}") QueryEngine queryEngine,
+                             @Value("${statistics.upload.batch-size:1000}") int batchSize,
+                             @Value("${statistics.top.max-limit:1000}") int maxTopLimit) {
         this.viewRepository = viewRepository;
         this.actionRepository = actionRepository;
+        this.copyRepository = copyRepository;
+        this.rollupRepository = rollupRepository;
+        this.sampleRepository = sampleRepository;
+        this.cubeRepository = cubeRepository;
+        this.topRepository = topRepository;
+        this.partitionService = partitionService;
+        this.csvParser = csvParser;
+        this.uploadEngine = uploadEngine;
+        this.queryEngine = queryEngine;
+        this.columnarStore = columnarStore.getIfAvailable();
+        this.ingestLog = ingestLog.getIfAvailable();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queryCache = queryCache;
+        this.metrics = metrics;
+        this.ingestListeners = ingestListeners.orderedStream().toList();
+        this.rowListeners = this.ingestListeners.stream().filter(IngestListener::needsRows).toList();
+        this.regTimeListeners = this.ingestListeners.stream().filter(listener -> !listener.needsRows()).toList();
+        this.batchSize = batchSize;
+        this.maxTopLimit = maxTopLimit;
     }
 
     /**
      * Uploads views from a CSV file specified in the provided {@link MultipartFile}.
      *
      * @param file containing the CSV file data.
-     * @return The number of views successfully uploaded from the file.
-     * @throws CsvValidationException If there is an error during CSV validation.
-     * @throws IOException            If an I/O error occurs while reading the CSV file.
-     * @throws RuntimeException       If the length of any CSV line does not match the expected length of 10 elements.
-     * @see #uploadViewsFromFile(InputStream, String)
+     * @return The number of views inserted from the file and the achieved throughput.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 10 elements.
+     * @see #uploadViewsFromFile(InputStream, String, UploadProgress)
      */
-    @Transactional
-    public int uploadViewsFromFile(MultipartFile file) throws CsvValidationException, IOException {
-        return uploadViewsFromFile(file.getInputStream(), file.getOriginalFilename());
+    public UploadResult uploadViewsFromFile(MultipartFile file) throws IOException {
+        return uploadViewsFromFile(file.getInputStream(), file.getOriginalFilename(), UploadProgress.NONE);
     }
 
     /**
-     * Uploads views from a CSV file.
+     * Uploads views from a CSV file with the configured {@link UploadEngine}.
+     * Views whose uid is already stored are skipped. The {@code BATCH} and {@code COPY} engines write the whole file
+     * in one transaction; the {@code LOG} engine uses no database connection and returns the number of views logged.
      *
      * @param inputStream The input stream of the CSV file.
      * @param fileName    The name of the CSV file being processed.
-     * @return The number of views successfully uploaded from the file.
-     * @throws CsvValidationException If there is an error during CSV validation.
-     * @throws IOException            If an I/O error occurs while reading the CSV file.
-     * @throws RuntimeException       If the length of any CSV line does not match the expected length of 10 elements.
+     * @param progress    Receives the number of parsed, written and rejected rows.
+     * @return The number of views inserted from the file and the achieved throughput.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 10 elements.
      */
-    private int uploadViewsFromFile(InputStream inputStream, String fileName) throws CsvValidationException, IOException {
-        LOGGER.log(Level.INFO, "Upload views from file " + fileName + " started");
+    public UploadResult uploadViewsFromFile(InputStream inputStream, String fileName, UploadProgress progress) throws IOException {
+        LOGGER.log(Level.INFO, "Upload views from file " + fileName + " started (" + uploadEngine + ")");
+        long startNanos = System.nanoTime();
+        progress = metrics.uploadProgress("views", progress);
+
+        UploadProgress uploadProgress = progress;
+        int inserted;
+        if (uploadEngine == UploadEngine.LOG) {
+            inserted = appendViewsToLog(inputStream, progress);
+        } else if (uploadEngine == UploadEngine.COPY) {
+            inserted = inTransaction(() -> {
+                CopyRepository.CopyResult copyResult = copyRepository.copyViews(inputStream,
+                        partitionService.isPartitioned() ? partitionService::ensurePartitions : null,
+                        regTimeListeners.isEmpty() ? null : this::notifyRegTimesInserted,
+                        rowListeners.isEmpty() ? null : this::notifyCopiedViewsInserted);
+                uploadProgress.rowsParsed(copyResult.copied());
+                uploadProgress.rowsRejected(copyResult.rejected());
+                uploadProgress.rowsWritten(copyResult.inserted());
+                return copyResult.inserted();
+            });
+        } else {
+            inserted = inTransaction(() -> insertViewsInBatches(inputStream, uploadProgress));
+        }
 
-        try (BufferedReader fileReader = new BufferedReader(new InputStreamReader(inputStream)); CSVReader csvReader = new CSVReaderBuilder(fileReader).build()) {
-            // skip csv header
-            csvReader.readNext();
+        UploadResult result = new UploadResult(inserted, Duration.ofNanos(System.nanoTime() - startNanos));
+        metrics.uploadFinished("views", result);
 
-            List<ViewEntity> viewEntityList = new ArrayList<>();
+        LOGGER.log(Level.INFO, "Upload views from file " + fileName + " finished: " + result);
 
-            while (true) {
-                String[] csvLine = csvReader.readNext();
-                if (csvLine == null) {
-                    break;
-                }
-
-                if (csvLine.length != 10) {
-                    String error = "Error: The length of the CSV line should exactly match the expected length of 10 elements.";
-                    throw new RuntimeException(error);
-                }
+        return result;
+    }
 
-                ViewEntity viewEntity = parseViewEntity(csvLine);
-                viewEntityList.add(viewEntity);
+    /**
+     * Parses views from a CSV file with the {@link ParallelCsvParser} and inserts them in JDBC batches of
+     * {@code statistics.upload.batch-size} rows as parsed chunks arrive, so memory usage does not depend on the file size.
+     * Partitions for the registration times of each batch are created before it is inserted.
+     * The inserted views are added to the rollups and the uid sample batch by batch.
+     *
+     * @param inputStream The input stream of the CSV file.
+     * @param progress    Receives the number of parsed, written and rejected rows.
+     * @return The number of views inserted.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 10 elements.
+     */
+    private int insertViewsInBatches(InputStream inputStream, UploadProgress progress) throws IOException {
+        AtomicInteger inserted = new AtomicInteger();
+
+        csvParser.parse(inputStream, ViewLineDecoder::new, views -> {
+            progress.rowsParsed(views.size());
+            for (int from = 0; from < views.size(); from += batchSize) {
+                List<ViewEntity> batch = views.subList(from, Math.min(from + batchSize, views.size()));
+                int batchInserted = insertViews(batch);
+                progress.rowsWritten(batchInserted);
+                progress.rowsRejected(batch.size() - batchInserted);
+                inserted.addAndGet(batchInserted);
             }
+        });
 
-            viewRepository.saveAll(viewEntityList);
-
-            int resultSize = viewEntityList.size();
-
-            LOGGER.log(Level.INFO, "Upload views from file " + fileName + " finished: " + resultSize);
+        return inserted.get();
+    }
 
-            return resultSize;
+    /**
+     * Parses views from a CSV file like {@link #insertViewsInBatches(InputStream, UploadProgress)} and appends them
+     * to the {@link IngestLog}. The views are written to the database by its drainer once they are durable, and
+     * not at all if the file has an invalid line.
+     *
+     * @param inputStream The input stream of the CSV file.
+     * @param progress    Receives the number of parsed rows and of rows written to the log.
+     * @return The number of views logged.
+     * @throws IOException      If an I/O error occurs while reading the CSV file or writing the log.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 10 elements.
+     */
+    private int appendViewsToLog(InputStream inputStream, UploadProgress progress) throws IOException {
+        try (IngestLog.Upload upload = ingestLog.upload()) {
+            csvParser.parse(inputStream, ViewLineDecoder::new, views -> {
+                progress.rowsParsed(views.size());
+                try {
+                    for (ViewEntity view : views) {
+                        upload.add(view);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                progress.rowsWritten(views.size());
+            });
+            return upload.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
     /**
-     * Parses a CSV line and creates a ViewEntity object.
+     * Inserts one batch of views with a single JDBC batch, skipping views whose uid is already stored, and adds the
+     * inserted views to the rollups and the uid sample. Partitions for their registration times are created first.
      *
-     * @param csvLine The CSV line to parse.
-     * @return A ViewEntity representing the parsed data.
-     * @throws NumberFormatException If there is an error parsing numeric values from the CSV line.
+     * @param views The views to insert, at most {@code statistics.upload.batch-size}.
+     * @return The number of views inserted.
      */
-    private ViewEntity parseViewEntity(String[] csvLine) {
-        ViewEntity viewEntity = new ViewEntity(csvLine[ViewColumn.UID.value]);
-        viewEntity.setRegTime(LocalDateTime.parse(csvLine[ViewColumn.REG_TIME.value], formatter));
-        viewEntity.setFcImpChk(Integer.parseInt(csvLine[ViewColumn.FC_IMP_CHK.value]));
-        viewEntity.setFcTimeChk(Integer.parseInt(csvLine[ViewColumn.FC_TIME_CHK.value]));
-        viewEntity.setUtmtr(Integer.parseInt(csvLine[ViewColumn.UTMR.value]));
-        viewEntity.setMmDma(Integer.parseInt(csvLine[ViewColumn.MM_DMA.value]));
-        viewEntity.setOsName(csvLine[ViewColumn.OS_NAME.value]);
-        viewEntity.setModel(csvLine[ViewColumn.MODEL.value]);
-        viewEntity.setHardware(csvLine[ViewColumn.HARDWARE.value]);
-        viewEntity.setSiteId(csvLine[ViewColumn.SITE_ID.value]);
-        return viewEntity;
+    @Transactional
+    public int insertViews(List<ViewEntity> views) {
+        ensurePartitions(views);
+        List<ViewEntity> inserted = metrics.flush("views", () -> {
+            List<ViewEntity> written = viewRepository.insertAll(views);
+            rollupRepository.addViews(written);
+            sampleRepository.addViews(written);
+            return written;
+        });
+        notifyViewsInserted(inserted);
+        return inserted.size();
+    }
+
+    private void ensurePartitions(List<ViewEntity> views) {
+        if (!partitionService.isPartitioned()) {
+            return;
+        }
+        LocalDateTime first = null;
+        LocalDateTime last = null;
+        for (ViewEntity view : views) {
+            LocalDateTime regTime = view.getRegTime();
+            if (regTime != null) {
+                first = first == null || regTime.isBefore(first) ? regTime : first;
+                last = last == null || regTime.isAfter(last) ? regTime : last;
+            }
+        }
+        partitionService.ensurePartitions(first, last);
     }
 
     /**
      * Uploads action data from a CSV file specified in the provided {@link MultipartFile}.
      *
      * @param file containing the CSV file data.
-     * @return The number of actions successfully uploaded from the file.
-     * @throws CsvValidationException If there is an error during CSV validation.
-     * @throws IOException            If an I/O error occurs while reading the CSV file.
-     * @throws RuntimeException       If the length of any CSV line does not match the expected length of 2 elements.
+     * @return The number of actions successfully uploaded from the file and the achieved throughput.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 2 elements.
      */
-    @Transactional
-    public int uploadActionsFromFile(MultipartFile file) throws CsvValidationException, IOException {
-        return uploadActionsFromFile(file.getInputStream(), file.getOriginalFilename());
+    public UploadResult uploadActionsFromFile(MultipartFile file) throws IOException {
+        return uploadActionsFromFile(file.getInputStream(), file.getOriginalFilename(), UploadProgress.NONE);
     }
 
     /**
-     * Uploads action data from a CSV file specified in the provided {@link InputStream} and file name.
+     * Uploads action data from a CSV file specified in the provided {@link InputStream} and file name
+     * with the configured {@link UploadEngine}. Actions of unknown uids are skipped. The {@code BATCH} and
+     * {@code COPY} engines write the whole file in one transaction; the {@code LOG} engine uses no database connection
+     * and returns the number of action lines logged.
      *
      * @param inputStream containing the CSV file data.
      * @param fileName    The name of the CSV file.
-     * @return The number of actions successfully uploaded from the file.
-     * @throws CsvValidationException If there is an error during CSV validation.
-     * @throws IOException            If an I/O error occurs while reading the CSV file.
-     * @throws RuntimeException       If the length of any CSV line does not match the expected length of 2 elements.
+     * @param progress    Receives the number of parsed lines, written action rows and rejected lines.
+     * @return The number of actions successfully uploaded from the file and the achieved throughput.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 2 elements.
      */
-    private int uploadActionsFromFile(InputStream inputStream, String fileName) throws CsvValidationException, IOException {
-        LOGGER.log(Level.INFO, "Upload actions from file " + fileName + " started");
+    public UploadResult uploadActionsFromFile(InputStream inputStream, String fileName, UploadProgress progress) throws IOException {
+        LOGGER.log(Level.INFO, "Upload actions from file " + fileName + " started (" + uploadEngine + ")");
+        long startNanos = System.nanoTime();
+        progress = metrics.uploadProgress("actions", progress);
+
+        UploadProgress uploadProgress = progress;
+        int actionsNumber;
+        if (uploadEngine == UploadEngine.LOG) {
+            actionsNumber = appendActionsToLog(inputStream, progress);
+        } else if (uploadEngine == UploadEngine.COPY) {
+            actionsNumber = inTransaction(() -> {
+                CopyRepository.CopyResult copyResult = copyRepository.copyActions(inputStream,
+                        regTimeListeners.isEmpty() ? null : this::notifyRegTimesInserted,
+                        rowListeners.isEmpty() ? null : this::notifyCopiedActionsInserted);
+                uploadProgress.rowsParsed(copyResult.copied());
+                uploadProgress.rowsRejected(copyResult.rejected());
+                uploadProgress.rowsWritten(copyResult.inserted());
+                return copyResult.inserted();
+            });
+        } else {
+            actionsNumber = inTransaction(() -> insertActionsInChunks(inputStream, uploadProgress));
+        }
 
-        try (BufferedReader fileReader = new BufferedReader(new InputStreamReader(inputStream)); CSVReader csvReader = new CSVReaderBuilder(fileReader).build()) {
-            // skip csv header
-            csvReader.readNext();
+        UploadResult result = new UploadResult(actionsNumber, Duration.ofNanos(System.nanoTime() - startNanos));
+        metrics.uploadFinished("actions", result);
+        LOGGER.log(Level.INFO, "Upload actions from file " + fileName + " finished: " + result);
 
-            Map<ActionEntity, Integer> actionsMap = new HashMap<>();
+        return result;
+    }
 
-            while (true) {
-                String[] csvLine = csvReader.readNext();
-                if (csvLine == null) {
-                    break;
-                }
+    /**
+     * Parses action data from a CSV file and stores the number of actions per uid and tag.
+     * Uids and tags are dictionary encoded while the file is read and the actions are counted in an
+     * {@link ActionCounts} table keyed on the two ids, so reading and counting a line allocates nothing.
+     * Lines are staged in chunks of {@code statistics.upload.batch-size} rows. The uids of each chunk are resolved
+     * against the views table with a single query, and the counts of the chunk are merged into the stored rows of
+     * the same uid and tag with one upsert statement and added to the rollups and the uid sample. Then the uid
+     * dictionary and the counts are cleared, so memory use does not depend on the file size. Actions of unknown uids
+     * are skipped, and their uids are remembered so they are looked up once per file.
+     *
+     * @param inputStream containing the CSV file data.
+     * @param progress    Receives the number of parsed lines, written action rows and rejected lines.
+     * @return The number of action rows written, counting a uid and tag once per chunk it occurs in.
+     * @throws IOException      If an I/O error occurs while reading the CSV file.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 2 elements.
+     */
+    private int insertActionsInChunks(InputStream inputStream, UploadProgress progress) throws IOException {
+        ByteDictionary uids = new ByteDictionary(batchSize);
+        ByteDictionary tags = new ByteDictionary(16);
+        ActionLineReader reader = new ActionLineReader(inputStream, uids, tags);
+        ActionCounts counts = new ActionCounts(batchSize);
+        Set<String> unknownUids = new HashSet<>();
+        int[] chunkUids = new int[batchSize];
+        int[] chunkTags = new int[batchSize];
+        int chunkSize = 0;
+        int written = 0;
+
+        while (reader.next()) {
+            chunkUids[chunkSize] = reader.uid();
+            chunkTags[chunkSize] = reader.tag();
+            if (++chunkSize == batchSize) {
+                written += upsertChunk(chunkUids, chunkTags, chunkSize, uids, tags, unknownUids, counts, progress);
+                chunkSize = 0;
+            }
+        }
 
-                if (csvLine.length != 2) {
-                    String error = "Error: The length of the CSV line should exactly match the expected length of 2 elements";
-                    throw new RuntimeException(error);
-                }
+        if (chunkSize > 0) {
+            written += upsertChunk(chunkUids, chunkTags, chunkSize, uids, tags, unknownUids, counts, progress);
+        }
+        return written;
+    }
 
-                String uid = csvLine[ActionColumn.UID.value];
-                Optional<ViewEntity> optionalViewEntity = viewRepository.findById(uid);
-                if (optionalViewEntity.isEmpty()) {
-                    LOGGER.log(Level.INFO, "Action with UID " + uid + " does not exist in the view table.");
-                    continue;
+    /**
+     * Reads action lines from a CSV file and appends them to the {@link IngestLog} as they are, without resolving
+     * their uids. The dictionaries of the line reader are cleared every {@code statistics.upload.batch-size} lines,
+     * so memory use does not depend on the file size. The drainer counts the actions and skips those of unknown uids
+     * once they are durable, and writes none of them if the file has an invalid line.
+     *
+     * @param inputStream containing the CSV file data.
+     * @param progress    Receives the number of parsed lines and of lines written to the log.
+     * @return The number of action lines logged.
+     * @throws IOException      If an I/O error occurs while reading the CSV file or writing the log.
+     * @throws RuntimeException If the length of any CSV line does not match the expected length of 2 elements.
+     */
+    private int appendActionsToLog(InputStream inputStream, UploadProgress progress) throws IOException {
+        ByteDictionary uids = new ByteDictionary(batchSize);
+        ByteDictionary tags = new ByteDictionary(16);
+        ActionLineReader reader = new ActionLineReader(inputStream, uids, tags);
+        try (IngestLog.Upload upload = ingestLog.upload()) {
+            int lines = 0;
+            while (reader.next()) {
+                upload.add(new ActionEvent(uids.string(reader.uid()), tags.string(reader.tag())));
+                if (++lines == batchSize) {
+                    progress.rowsParsed(lines);
+                    progress.rowsWritten(lines);
+                    uids.clear();
+                    lines = 0;
                 }
+            }
+            progress.rowsParsed(lines);
+            progress.rowsWritten(lines);
+            return upload.commit();
+        }
+    }
+
+    /**
+     * Counts one batch of actions per uid and tag and stores the counts like an upload of the same lines with
+     * {@link UploadEngine#BATCH}. The uids are resolved against the views table with one query and actions of
+     * unknown uids are skipped.
+     *
+     * @param actions The actions to store, at most {@code statistics.upload.batch-size}.
+     * @return The number of actions stored, not counting the skipped ones.
+     */
+    @Transactional
+    public int insertActions(List<ActionEvent> actions) {
+        Map<String, LocalDateTime> regTimes = new HashMap<>();
+        for (ViewRegTime view : viewRepository.findRegTimes(actions.stream().map(ActionEvent::uid).distinct().toList())) {
+            regTimes.put(view.getUid(), view.getRegTime());
+        }
+
+        Map<List<String>, ActionEntity> counts = new LinkedHashMap<>();
+        int stored = 0;
+        for (ActionEvent event : actions) {
+            LocalDateTime regTime = regTimes.get(event.uid());
+            if (regTime == null) {
+                LOGGER.log(Level.DEBUG, "Action with UID " + event.uid() + " does not exist in the view table.");
+                continue;
+            }
+            ActionEntity action = counts.computeIfAbsent(List.of(event.uid(), event.tag()), key -> {
+                ActionEntity entity = new ActionEntity(new ViewEntity(event.uid()), event.tag());
+                entity.setRegTime(regTime);
+                return entity;
+            });
+            action.setCount(action.getCount() + 1);
+            stored++;
+        }
+
+        if (!counts.isEmpty()) {
+            upsertActions(new ArrayList<>(counts.values()));
+        }
+        return stored;
+    }
+
+    /**
+     * Adds the counts of one batch of actions to the stored rows, the rollups and the uid sample.
+     */
+    private void upsertActions(List<ActionEntity> batch) {
+        metrics.flush("actions", () -> {
+            actionRepository.upsertAll(batch);
+            rollupRepository.addActions(batch);
+            sampleRepository.addActions(batch);
+            return batch;
+        });
+        notifyActionsInserted(batch);
+    }
 
-                ViewEntity viewEntity = optionalViewEntity.get();
+    /**
+     * Resolves the uids of a chunk of action lines with one query, counts the actions of known views and adds the
+     * counts to the stored rows. Clears the uid dictionary and the counts for the next chunk.
+     *
+     * @param chunkUids   The uid ids of the staged action lines.
+     * @param chunkTags   The tag ids of the staged action lines.
+     * @param chunkSize   The number of staged action lines.
+     * @param uids        The dictionary of the uid ids, holding the uids of this chunk.
+     * @param tags        The dictionary of the tag ids.
+     * @param unknownUids The uids not found in the views table, not looked up again and extended with the newly
+     *                    missing ones.
+     * @param counts      The table to count the actions of the chunk in, empty.
+     * @param progress    Receives the number of parsed and rejected lines and of written action rows.
+     * @return The number of action rows written.
+     */
+    private int upsertChunk(int[] chunkUids, int[] chunkTags, int chunkSize, ByteDictionary uids, ByteDictionary tags,
+                            Set<String> unknownUids, ActionCounts counts, UploadProgress progress) {
+        Map<String, Integer> unresolvedUids = new HashMap<>();
+        for (int uid = 0; uid < uids.size(); uid++) {
+            if (!unknownUids.contains(uids.string(uid))) {
+                unresolvedUids.put(uids.string(uid), uid);
+            }
+        }
 
-                ActionEntity action = new ActionEntity(viewEntity, csvLine[ActionColumn.TAG.value]);
-                if (actionsMap.containsKey(action)) {
-                    int count = actionsMap.get(action) + 1;
-                    actionsMap.put(action, count);
-                } else {
-                    actionsMap.put(action, 1);
+        LocalDateTime[] regTimes = new LocalDateTime[uids.size()];
+        if (!unresolvedUids.isEmpty()) {
+            for (ViewRegTime view : viewRepository.findRegTimes(unresolvedUids.keySet())) {
+                Integer uid = unresolvedUids.get(view.getUid());
+                if (uid != null && view.getRegTime() != null) {
+                    regTimes[uid] = view.getRegTime();
+                    unresolvedUids.remove(view.getUid());
                 }
             }
+            unknownUids.addAll(unresolvedUids.keySet());
+        }
 
-            List<ActionEntity> actionEntities = actionsMap.entrySet()
-                    .stream()
-                    .map(entry -> {
-                        ActionEntity action = entry.getKey();
-                        action.setCount(entry.getValue());
-                        return action;
-                    })
-                    .toList();
+        int skipped = 0;
+        for (int i = 0; i < chunkSize; i++) {
+            int uid = chunkUids[i];
+            if (regTimes[uid] == null) {
+                LOGGER.log(Level.DEBUG, "Action with UID " + uids.string(uid) + " does not exist in the view table.");
+                skipped++;
+                continue;
+            }
+            counts.increment(uid, chunkTags[i]);
+        }
 
-            actionRepository.saveAll(actionEntities);
+        List<ActionEntity> batch = new ArrayList<>(counts.size());
+        counts.forEach((uid, tag, count) -> {
+            ActionEntity action = new ActionEntity(new ViewEntity(uids.string(uid)), tags.string(tag));
+            action.setRegTime(regTimes[uid]);
+            action.setCount(count);
+            batch.add(action);
+        });
+        counts.clear();
+        uids.clear();
+        if (!batch.isEmpty()) {
+            upsertActions(batch);
+        }
 
-            int actionsNumber = actionEntities.size();
-            LOGGER.log(Level.INFO, "Upload actions from file " + fileName + " finished: " + actionsNumber);
+        progress.rowsParsed(chunkSize);
+        progress.rowsRejected(skipped);
+        progress.rowsWritten(batch.size());
+        if (skipped > 0) {
+            LOGGER.log(Level.INFO, skipped + " actions skipped: UIDs do not exist in the view table.");
+        }
+        return batch.size();
+    }
 
-            return actionsNumber;
+    /**
+     * Runs an upload with the {@code BATCH} or {@code COPY} engine in one transaction, rolled back if it fails.
+     */
+    private int inTransaction(UploadWork work) throws IOException {
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return work.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    @Transactional
+    @FunctionalInterface
+    private interface UploadWork {
+        int run() throws IOException;
+    }
+
+    private void notifyViewsInserted(List<ViewEntity> views) {
+        for (IngestListener listener : ingestListeners) {
+            listener.viewsInserted(views);
+        }
+    }
+
+    private void notifyActionsInserted(List<ActionEntity> actions) {
+        for (IngestListener listener : ingestListeners) {
+            listener.actionsInserted(actions);
+        }
+    }
+
+    private void notifyCopiedViewsInserted(List<ViewEntity> views) {
+        for (IngestListener listener : rowListeners) {
+            listener.viewsInserted(views);
+        }
+    }
+
+    private void notifyCopiedActionsInserted(List<ActionEntity> actions) {
+        for (IngestListener listener : rowListeners) {
+            listener.actionsInserted(actions);
+        }
+    }
+
+    private void notifyRegTimesInserted(LocalDateTime first, LocalDateTime last) {
+        for (IngestListener listener : regTimeListeners) {
+            listener.regTimesInserted(first, last);
+        }
+    }
+
+    /**
+     * Runs a statistics query in a read-only transaction and hands its rows to {@code action} while the database
+     * cursor is open. Rows are fetched in chunks of {@code statistics.streaming.fetch-size} and results that are not
+     * cached are not materialized, so memory use does not depend on the number of rows.
+     *
+     * @param query  runs one of the query methods of this service.
+     * @param action receives the rows in query order.
+     */
+    @Transactional(readOnly = true)
+    public <T> void forEachRow(Supplier<Stream<T>> query, Consumer<T> action) {
+        queryCache.streaming(() -> {
+            try (Stream<T> rows = query.get()) {
+                rows.forEach(action);
+            }
+        });
+    }
+
+    /**
+     * Counts the rows of each executed query in {@link StatisticsMetrics}, tagged with the engine that answers it.
+     *
+     * @param usesRollups {@code true} for the queries answered by {@link QueryEngine#ROLLUP}.
+     */
+    private <T> Supplier<Stream<T>> counted(String query, boolean usesRollups, Supplier<Stream<T>> loader) {
+        return () -> {
+            QueryEngine engine = useColumnarStore() ? QueryEngine.COLUMNAR
+                    : usesRollups && queryEngine == QueryEngine.ROLLUP ? QueryEngine.ROLLUP : QueryEngine.SQL;
+            return metrics.countRows(query, engine.name(), loader.get());
+        };
+    }
+
+    /**
+     * Counts the rows of each executed approximate query in {@link StatisticsMetrics}, tagged with the engine
+     * {@code SAMPLE}.
+     */
+    private <T> Supplier<Stream<T>> sampled(String query, Supplier<Stream<T>> loader) {
+        return () -> metrics.countRows(query, "SAMPLE", loader.get());
+    }
+
+    /**
+     * @return {@code true} if queries should be answered by the {@link ColumnarStore}.
+     */
+    private boolean useColumnarStore() {
+        return queryEngine == QueryEngine.COLUMNAR && columnarStore != null && columnarStore.isLoaded();
+    }
+
+    /**
+     * Calculates the CTR per interval with the configured {@link QueryEngine}. Results are served from the {@link QueryCache}.
+     */
+    @Transactional(readOnly = true)
     public Stream<CtrDates> getCTR(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval, String tag) {
-        return viewRepository.getCTR(startDate, endDate, interval.getValue(), tag);
+        return queryCache.get("ctr", startDate, endDate, Arrays.asList(interval, tag), counted("ctr", true, () -> {
+            if (useColumnarStore()) {
+                return columnarStore.getCTR(startDate, endDate, interval, tag);
+            }
+            if (queryEngine == QueryEngine.ROLLUP) {
+                return rollupRepository.getCTR(startDate, endDate, interval.getValue(), tag);
+            }
+            return viewRepository.getCTR(startDate, endDate, interval.getValue(), tag);
+        }));
     }
 
-    @Transactional
+    /**
+     * Calculates the EvPM per interval with the configured {@link QueryEngine}. Results are served from the {@link QueryCache}.
+     */
+    @Transactional(readOnly = true)
     public Stream<CtrDates> getEvPM(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval, String tag) {
-        return viewRepository.getEvPM(startDate, endDate, interval.getValue(), tag);
+        return queryCache.get("evpm", startDate, endDate, Arrays.asList(interval, tag), counted("evpm", true, () -> {
+            if (useColumnarStore()) {
+                return columnarStore.getEvPM(startDate, endDate, interval, tag);
+            }
+            if (queryEngine == QueryEngine.ROLLUP) {
+                return rollupRepository.getEvPM(startDate, endDate, interval.getValue(), tag);
+            }
+            return viewRepository.getEvPM(startDate, endDate, interval.getValue(), tag);
+        }));
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Stream<MmDmaCount> getViewsCountByMmDma(LocalDate startDate, LocalDate endDate) {
-        return viewRepository.getViewsCountByMmDma(startDate, endDate);
+        return queryCache.get("viewsCountByMmDma", startDate, endDate, counted("viewsCountByMmDma", false, () -> {
+            if (useColumnarStore()) {
+                return columnarStore.getViewsCountByMmDma(startDate, endDate);
+            }
+            return viewRepository.getViewsCountByMmDma(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay());
+        }));
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Stream<SiteIdCount> getViewsCountBySiteId(LocalDate startDate, LocalDate endDate) {
-        return viewRepository.getViewsCountBySiteId(startDate, endDate);
+        return queryCache.get("viewsCountBySiteId", startDate, endDate, counted("viewsCountBySiteId", false, () -> {
+            if (useColumnarStore()) {
+                return columnarStore.getViewsCountBySiteId(startDate, endDate);
+            }
+            return viewRepository.getViewsCountBySiteId(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay());
+        }));
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Stream<MmDmaCTR> getCtrAggregateByMmDma(LocalDateTime startDate, LocalDateTime endDate, String tag) {
-        return viewRepository.getCtrAggregateByMmDma(startDate, endDate, tag);
+        return queryCache.get("ctrByMmDma", startDate, endDate, Collections.singletonList(tag), counted("ctrByMmDma", false, () -> {
+            if (useColumnarStore()) {
+                return columnarStore.getCtrAggregateByMmDma(startDate, endDate, tag);
+            }
+            return viewRepository.getCtrAggregateByMmDma(startDate, endDate, tag);
+        }));
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Stream<SiteIdCTR> getCtrAggregateBySiteId(LocalDateTime startDate, LocalDateTime endDate, String tag) {
-        return viewRepository.getCtrAggregateBySiteId(startDate, endDate, tag);
+        return queryCache.get("ctrBySiteId", startDate, endDate, Collections.singletonList(tag), counted("ctrBySiteId", false, () -> {
+            if (useColumnarStore()) {
+                return columnarStore.getCtrAggregateBySiteId(startDate, endDate, tag);
+            }
+            return viewRepository.getCtrAggregateBySiteId(startDate, endDate, tag);
+        }));
     }
 
     /**
-     * Enumeration representing the columns in the CSV file used for ViewEntity.
+     * Same as {@link #getCTR(LocalDateTime, LocalDateTime, StatisticsController.Interval, String)}, or estimated from
+     * the uid sample of {@link SampleRepository} with an error bound if {@code approximate} is set.
      */
-    private enum ViewColumn {
-        REG_TIME(0),
-        UID(1),
-        FC_IMP_CHK(2),
-        FC_TIME_CHK(3),
-        UTMR(4),
-        MM_DMA(5),
-        OS_NAME(6),
-        MODEL(7),
-        HARDWARE(8),
-        SITE_ID(9);
+    @Transactional(readOnly = true)
+    public Stream<CtrDates> getCTR(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval, String tag,
+                                   boolean approximate) {
+        if (!approximate) {
+            return getCTR(startDate, endDate, interval, tag);
+        }
+        return queryCache.get("ctrApproximate", startDate, endDate, Arrays.asList(interval, tag), sampled("ctr",
+                () -> sampleRepository.getCTR(startDate, endDate, interval.getValue(), tag)));
+    }
 
-        private final int value;
+    /**
+     * Same as {@link #getEvPM(LocalDateTime, LocalDateTime, StatisticsController.Interval, String)}, or estimated from
+     * the uid sample of {@link SampleRepository} with an error bound if {@code approximate} is set.
+     */
+    @Transactional(readOnly = true)
+    public Stream<CtrDates> getEvPM(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval, String tag,
+                                    boolean approximate) {
+        if (!approximate) {
+            return getEvPM(startDate, endDate, interval, tag);
+        }
+        return queryCache.get("evpmApproximate", startDate, endDate, Arrays.asList(interval, tag), sampled("evpm",
+                () -> sampleRepository.getEvPM(startDate, endDate, interval.getValue(), tag)));
+    }
 
-        ViewColumn(int value) {
-            this.value = value;
+    /**
+     * Same as {@link #getViewsCountByMmDma(LocalDate, LocalDate)}, or estimated from the uid sample of
+     * {@link SampleRepository} with an error bound if {@code approximate} is set.
+     */
+    @Transactional(readOnly = true)
+    public Stream<MmDmaCount> getViewsCountByMmDma(LocalDate startDate, LocalDate endDate, boolean approximate) {
+        if (!approximate) {
+            return getViewsCountByMmDma(startDate, endDate);
         }
+        return queryCache.get("viewsCountByMmDmaApproximate", startDate, endDate, sampled("viewsCountByMmDma",
+                () -> sampleRepository.getViewsCountByMmDma(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay())));
     }
 
     /**
-     * Enumeration representing the columns in the CSV file used for ActionEntity.
+     * Same as {@link #getViewsCountBySiteId(LocalDate, LocalDate)}, or estimated from the uid sample of
+     * {@link SampleRepository} with an error bound if {@code approximate} is set.
      */
-    private enum ActionColumn {
-        UID(0),
-        TAG(1);
+    @Transactional(readOnly = true)
+    public Stream<SiteIdCount> getViewsCountBySiteId(LocalDate startDate, LocalDate endDate, boolean approximate) {
+        if (!approximate) {
+            return getViewsCountBySiteId(startDate, endDate);
+        }
+        return queryCache.get("viewsCountBySiteIdApproximate", startDate, endDate, sampled("viewsCountBySiteId",
+                () -> sampleRepository.getViewsCountBySiteId(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay())));
+    }
 
-        private final int value;
+    /**
+     * Same as {@link #getCtrAggregateByMmDma(LocalDateTime, LocalDateTime, String)}, or estimated from the uid sample
+     * of {@link SampleRepository} with an error bound if {@code approximate} is set.
+     */
+    @Transactional(readOnly = true)
+    public Stream<MmDmaCTR> getCtrAggregateByMmDma(LocalDateTime startDate, LocalDateTime endDate, String tag, boolean approximate) {
+        if (!approximate) {
+            return getCtrAggregateByMmDma(startDate, endDate, tag);
+        }
+        return queryCache.get("ctrByMmDmaApproximate", startDate, endDate, Collections.singletonList(tag), sampled("ctrByMmDma",
+                () -> sampleRepository.getCtrAggregateByMmDma(startDate, endDate, tag)));
+    }
 
-        ActionColumn(int value) {
-            this.value = value;
+    /**
+     * Same as {@link #getCtrAggregateBySiteId(LocalDateTime, LocalDateTime, String)}, or estimated from the uid sample
+     * of {@link SampleRepository} with an error bound if {@code approximate} is set.
+     */
+    @Transactional(readOnly = true)
+    public Stream<SiteIdCTR> getCtrAggregateBySiteId(LocalDateTime startDate, LocalDateTime endDate, String tag, boolean approximate) {
+        if (!approximate) {
+            return getCtrAggregateBySiteId(startDate, endDate, tag);
+        }
+        return queryCache.get("ctrBySiteIdApproximate", startDate, endDate, Collections.singletonList(tag), sampled("ctrBySiteId",
+                () -> sampleRepository.getCtrAggregateBySiteId(startDate, endDate, tag)));
+    }
+
+    /**
+     * Computes the measures of every grouping set with one query, see {@link CubeRepository#getCube}.
+     * Results are served from the {@link QueryCache}.
+     *
+     * @throws IllegalArgumentException If no grouping set is given, or the time dimension is requested without an interval.
+     */
+    @Transactional(readOnly = true)
+    public Stream<CubeRow> getCube(LocalDateTime startDate, LocalDateTime endDate, List<Set<CubeDimension>> groupingSets,
+                                   Set<CubeMeasure> measures, StatisticsController.Interval interval, String tag) {
+        if (groupingSets.isEmpty()) {
+            throw new IllegalArgumentException("At least one grouping set is required");
+        }
+        boolean byTime = groupingSets.stream().anyMatch(groupingSet -> groupingSet.contains(CubeDimension.TIME));
+        if (byTime && interval == null) {
+            throw new IllegalArgumentException("The time dimension requires an interval");
+        }
+        String intervalValue = byTime ? interval.getValue() : null;
+        return queryCache.get("cube", startDate, endDate, Arrays.asList(groupingSets, measures, intervalValue, tag), () ->
+                metrics.countRows("cube", QueryEngine.SQL.name(),
+                        cubeRepository.getCube(startDate, endDate, groupingSets, measures, intervalValue, tag)));
+    }
+
+    /**
+     * Ranks the siteIds with at least {@code minViews} views by CTR or by views and returns the first {@code limit}.
+     * Results are served from the {@link QueryCache}.
+     *
+     * @param ascending return the lowest instead of the highest values.
+     * @throws IllegalArgumentException If {@code limit} is not between 1 and {@code statistics.top.max-limit}
+     *                                  or {@code minViews} is not positive.
+     */
+    @Transactional(readOnly = true)
+    public Stream<SiteIdTop> getTopSiteIds(LocalDateTime startDate, LocalDateTime endDate, String tag,
+                                           StatisticsController.RankBy rankBy, boolean ascending, int minViews, int limit) {
+        validateTop(minViews, limit);
+        return queryCache.get("topSiteIds", startDate, endDate, Arrays.asList(tag, rankBy, ascending, minViews, limit), () ->
+                metrics.countRows("topSiteIds", QueryEngine.SQL.name(), topRepository.getTopSiteIds(startDate, endDate, tag,
+                        rankBy == StatisticsController.RankBy.VIEWS, ascending, minViews, limit)));
+    }
+
+    /**
+     * Ranks the mmDma codes like {@link #getTopSiteIds}.
+     */
+    @Transactional(readOnly = true)
+    public Stream<MmDmaTop> getTopMmDmas(LocalDateTime startDate, LocalDateTime endDate, String tag,
+                                         StatisticsController.RankBy rankBy, boolean ascending, int minViews, int limit) {
+        validateTop(minViews, limit);
+        return queryCache.get("topMmDmas", startDate, endDate, Arrays.asList(tag, rankBy, ascending, minViews, limit), () ->
+                metrics.countRows("topMmDmas", QueryEngine.SQL.name(), topRepository.getTopMmDmas(startDate, endDate, tag,
+                        rankBy == StatisticsController.RankBy.VIEWS, ascending, minViews, limit)));
+    }
+
+    private void validateTop(int minViews, int limit) {
+        if (limit < 1 || limit > maxTopLimit) {
+            throw new IllegalArgumentException("The limit must be between 1 and " + maxTopLimit);
+        }
+        if (minViews < 1) {
+            throw new IllegalArgumentException("The minimum number of views must be positive");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,20 @@
+package com.allmagen.testtask.service;
+
+/**
+ * Selects how uploaded CSV files are written to the database.
+ */
+public enum UploadEngine {
+    /**
+     * Rows are parsed in the application and written with batched INSERT statements.
+     */
+    BATCH,
+    /**
+     * The CSV file is streamed into staging tables with PostgreSQL COPY and merged with SQL.
+     */
+    COPY,
+    /**
+     * Rows are parsed in the application and appended to the ingest log on local disk; the upload returns once they
+     * are durable. A background drainer writes them to the database like {@link #BATCH}.
+     */
+    LOG
+}
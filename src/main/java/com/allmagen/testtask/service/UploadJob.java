@@ -0,0 +1,148 @@
+package com.allmagen.testtask.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An upload that runs in the background. Progress counters are updated by the upload while it runs
+ * and can be read at any time through {@link #status()}.
+ */
+public class UploadJob implements UploadProgress {
+    private final UUID id = UUID.randomUUID();
+    private final Type type;
+    private final String fileName;
+    private final long totalBytes;
+    private final Instant submittedAt = Instant.now();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong rowsParsed = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+
+    private volatile State state = State.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public UploadJob(Type type, String fileName, long totalBytes) {
+        this.type = type;
+        this.fileName = fileName;
+        this.totalBytes = totalBytes;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    @Override
+    public void rowsParsed(long rows) {
+        rowsParsed.addAndGet(rows);
+    }
+
+    @Override
+    public void rowsWritten(long rows) {
+        rowsWritten.addAndGet(rows);
+    }
+
+    @Override
+    public void rowsRejected(long rows) {
+        rowsRejected.addAndGet(rows);
+    }
+
+    void bytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    void started() {
+        startedAt = Instant.now();
+        state = State.RUNNING;
+    }
+
+    void succeeded() {
+        finishedAt = Instant.now();
+        state = State.SUCCEEDED;
+    }
+
+    void failed(Throwable e) {
+        finishedAt = Instant.now();
+        error = e.getMessage();
+        state = State.FAILED;
+    }
+
+    /**
+     * @return A snapshot of the job progress, including the parsing throughput and, while the job runs,
+     * the estimated time left based on the share of the file read so far.
+     */
+    public Status status() {
+        Instant started = startedAt;
+        Instant finished = finishedAt;
+        long parsed = rowsParsed.get();
+        long read = bytesRead.get();
+
+        Long rowsPerSecond = null;
+        Long etaSeconds = null;
+        if (started != null) {
+            Duration elapsed = Duration.between(started, finished != null ? finished : Instant.now());
+            long elapsedMillis = Math.max(elapsed.toMillis(), 1);
+            rowsPerSecond = parsed * 1000 / elapsedMillis;
+            if (finished == null && read > 0 && totalBytes > 0) {
+                etaSeconds = Math.max(totalBytes - read, 0) * elapsedMillis / read / 1000;
+            } else if (finished != null) {
+                etaSeconds = 0L;
+            }
+        }
+
+        return new Status(id, type, fileName, state, parsed, rowsWritten.get(), rowsRejected.get(), read, totalBytes,
+                rowsPerSecond, etaSeconds, submittedAt, started, finished, error);
+    }
+
+    public enum Type {
+        VIEWS,
+        ACTIONS
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    /**
+     * Snapshot of an upload job.
+     */
+    public record Status(UUID id,
+                         Type type,
+                         String fileName,
+                         State state,
+                         long rowsParsed,
+                         long rowsWritten,
+                         long rowsRejected,
+                         long bytesRead,
+                         long totalBytes,
+                         Long rowsPerSecond,
+                         Long etaSeconds,
+                         Instant submittedAt,
+                         Instant startedAt,
+                         Instant finishedAt,
+                         String error) {
+    }
+}
@@ -0,0 +1,170 @@
+package com.allmagen.testtask.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs uploads as background jobs.
+ * The uploaded file is copied to a temporary file before the request returns, so a job keeps running
+ * after the client disconnects. Jobs run on a bounded pool of virtual threads; when all workers are busy
+ * and the queue is full, new jobs are refused.
+ */
+@Service
+public class UploadJobService {
+    private static final Logger LOGGER = LogManager.getLogger(UploadJobService.class);
+
+    private final StatisticsService statisticsService;
+    private final ThreadPoolExecutor executor;
+    private final Duration retention;
+    private final Map<UUID, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    public UploadJobService(StatisticsService statisticsService,
+                            @Value("${statistics.jobs.concurrency:2}") int concurrency,
+                            @Value("${statistics.jobs.queue-capacity:16}") int queueCapacity,
+                            @Value("${statistics.jobs.retention:PT1H}") Duration retention) {
+        this.statisticsService = statisticsService;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Thread.ofVirtual().name("upload-job-", 1).factory());
+        this.retention = retention;
+    }
+
+    /**
+     * Starts a background upload of views.
+     *
+     * @param file containing the CSV file data.
+     * @return The submitted job.
+     * @throws IOException             If the file cannot be copied to temporary storage.
+     * @throws ResponseStatusException If too many jobs are already queued.
+     */
+    public UploadJob submitViews(MultipartFile file) throws IOException {
+        return submit(UploadJob.Type.VIEWS, file);
+    }
+
+    /**
+     * Starts a background upload of actions.
+     *
+     * @param file containing the CSV file data.
+     * @return The submitted job.
+     * @throws IOException             If the file cannot be copied to temporary storage.
+     * @throws ResponseStatusException If too many jobs are already queued.
+     */
+    public UploadJob submitActions(MultipartFile file) throws IOException {
+        return submit(UploadJob.Type.ACTIONS, file);
+    }
+
+    public Optional<UploadJob> getJob(UUID id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private UploadJob submit(UploadJob.Type type, MultipartFile file) throws IOException {
+        evictFinishedJobs();
+
+        Path tempFile = Files.createTempFile("upload-", ".csv");
+        file.transferTo(tempFile);
+
+        UploadJob job = new UploadJob(type, file.getOriginalFilename(), Files.size(tempFile));
+        jobs.put(job.getId(), job);
+
+        try {
+            executor.execute(() -> run(job, tempFile));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            Files.deleteIfExists(tempFile);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many upload jobs in progress", e);
+        }
+
+        LOGGER.log(Level.INFO, "Upload job " + job.getId() + " submitted for " + type + " file " + job.getFileName());
+        return job;
+    }
+
+    private void run(UploadJob job, Path tempFile) {
+        job.started();
+        try (InputStream inputStream = new CountingInputStream(Files.newInputStream(tempFile), job)) {
+            if (job.getType() == UploadJob.Type.VIEWS) {
+                statisticsService.uploadViewsFromFile(inputStream, job.getFileName(), job);
+            } else {
+                statisticsService.uploadActionsFromFile(inputStream, job.getFileName(), job);
+            }
+            job.succeeded();
+        } catch (Exception e) {
+            LOGGER.log(Level.ERROR, "Upload job " + job.getId() + " failed", e);
+            job.failed(e);
+        } finally {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARN, "Could not delete " + tempFile, e);
+            }
+        }
+    }
+
+    private void evictFinishedJobs() {
+        Instant threshold = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(threshold));
+    }
+
+    /**
+     * Reports the number of bytes read from the uploaded file to its job.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final UploadJob job;
+
+        CountingInputStream(InputStream in, UploadJob job) {
+            super(in);
+            this.job = job;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                job.bytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                job.bytesRead(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            job.bytesRead(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.allmagen.testtask.service;
+
+/**
+ * Receives progress notifications while a CSV file is uploaded.
+ * Rows are rejected when they are parsed but not written, e.g. views that are already stored
+ * or actions of unknown uids.
+ */
+public interface UploadProgress {
+    UploadProgress NONE = new UploadProgress() {
+    };
+
+    default void rowsParsed(long rows) {
+    }
+
+    default void rowsWritten(long rows) {
+    }
+
+    default void rowsRejected(long rows) {
+    }
+}
@@ -0,0 +1,25 @@
+package com.allmagen.testtask.service;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a CSV upload.
+ *
+ * @param rows    the number of rows written to the database.
+ * @param elapsed the wall-clock time spent on the upload.
+ */
+public record UploadResult(int rows, Duration elapsed) {
+
+    /**
+     * @return The ingestion throughput in rows per second.
+     */
+    public long rowsPerSecond() {
+        long nanos = Math.max(elapsed.toNanos(), 1);
+        return Math.round(rows * 1_000_000_000.0 / nanos);
+    }
+
+    @Override
+    public String toString() {
+        return rows + " (" + rowsPerSecond() + " rows/sec)";
+    }
+}
@@ -0,0 +1,582 @@
+package com.allmagen.testtask.service.columnar;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.*;
+import com.allmagen.testtask.service.IngestListener;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * In-memory copy of the views and actions tables stored as primitive column arrays, one entry per view:
+ * the registration time in epoch seconds, dictionary codes of mmDma, osName and siteId, and one count array per
+ * action tag. Every statistics query is answered by a single scan over these arrays with the same semantics as the
+ * JPA queries of {@code ViewRepository}. Registration times are kept with second precision.
+ * <p>
+ * The store is created with {@code statistics.query.engine=COLUMNAR}, loaded on startup and extended with the rows
+ * of every upload once its transaction has committed. The load reads both tables in one PostgreSQL snapshot. Uploads
+ * that commit before the load has finished are held back with the id of their transaction and then only added if the
+ * snapshot did not see them, so no row is counted twice or missed.
+ * <p>
+ * Groups are returned in the order of the SQL queries. siteIds are ordered by the collation of the database, which
+ * Java cannot reproduce: the load reads them in that order, and siteIds added later are ranked by the database.
+ */
+@Component
+@ConditionalOnProperty(name = "statistics.query.engine", havingValue = "COLUMNAR")
+public class ColumnarStore implements IngestListener {
+    private static final Logger LOGGER = LogManager.getLogger(ColumnarStore.class);
+
+    private static final String SELECT_SITE_IDS = "SELECT DISTINCT site_id FROM views_table ORDER BY site_id";
+    private static final String SELECT_VIEWS = "SELECT uid, reg_time, mm_dma, os_name, site_id FROM views_table";
+    private static final String SELECT_ACTIONS = "SELECT uid, tag, SUM(count) AS count FROM actions_table GROUP BY uid, tag";
+    private static final String SELECT_SNAPSHOT = "SELECT pg_current_snapshot()::text";
+    private static final String SELECT_TRANSACTION_ID = "SELECT pg_current_xact_id()::text";
+    /**
+     * Returns the codes of the given siteIds, one per array element from 0, in the order of {@code ORDER BY site_id}.
+     */
+    private static final String RANK_SITE_IDS = "SELECT code - 1 FROM unnest(?::varchar[]) " +
+            "WITH ORDINALITY AS s(site_id, code) ORDER BY site_id";
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    /**
+     * Registration time of views without one, never inside a query range.
+     */
+    private static final long NO_REG_TIME = Long.MIN_VALUE;
+    /**
+     * Interval scans use one array slot per bucket up to this many buckets, and a sorted map beyond.
+     */
+    private static final int MAX_DENSE_BUCKETS = 1 << 20;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final UidIndex uidIndex = new UidIndex();
+    private final Dictionary<Integer> mmDmas = new Dictionary<>();
+    private final Dictionary<String> osNames = new Dictionary<>();
+    private final Dictionary<String> siteIds = new Dictionary<>();
+    private final Dictionary<String> tags = new Dictionary<>();
+    /**
+     * The codes of the siteIds in the order of the database collation. siteIds added since the last ranking are
+     * missing.
+     */
+    private int[] siteIdOrder = new int[0];
+
+    private long[] regTimes = new long[0];
+    private int[] mmDmaCodes = new int[0];
+    private int[] osNameCodes = new int[0];
+    private int[] siteIdCodes = new int[0];
+    /**
+     * Action counts indexed by tag code and row, allocated when a tag is first seen.
+     */
+    private int[][] tagCounts = new int[0][];
+    private int rows;
+    private long minRegTime = Long.MAX_VALUE;
+    private long maxRegTime = Long.MIN_VALUE;
+    private volatile boolean loaded;
+    /**
+     * The updates of the transactions that committed before the load finished, {@code null} once loaded.
+     */
+    private List<PendingUpdate> pendingUpdates = new ArrayList<>();
+    /**
+     * The snapshot the store was loaded from, set once loaded.
+     */
+    private Snapshot snapshot;
+
+    public ColumnarStore(DataSource dataSource, PlatformTransactionManager transactionManager,
+                         @Value("${statistics.columnar.fetch-size:10000}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * Loads all views and actions into the column arrays. Until it has finished, queries use SQL.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long startNanos = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            // the fetch size only takes effect inside a transaction, which also keeps the snapshot of its first query
+            transactionTemplate.executeWithoutResult(status -> {
+                snapshot = Snapshot.parse(jdbcTemplate.queryForObject(SELECT_SNAPSHOT, String.class));
+                jdbcTemplate.query(SELECT_SITE_IDS, rs -> {
+                    siteIds.encode(rs.getString("site_id"));
+                });
+                siteIdOrder = IntStream.range(0, siteIds.size()).toArray();
+                jdbcTemplate.query(SELECT_VIEWS, rs -> {
+                    Timestamp regTime = rs.getTimestamp("reg_time");
+                    appendView(rs.getString("uid"), regTime == null ? null : regTime.toLocalDateTime(),
+                            rs.getInt("mm_dma"), rs.getString("os_name"), rs.getString("site_id"));
+                });
+                jdbcTemplate.query(SELECT_ACTIONS, rs -> {
+                    appendAction(rs.getString("uid"), rs.getString("tag"), rs.getInt("count"));
+                });
+            });
+            for (PendingUpdate pending : pendingUpdates) {
+                if (!snapshot.isVisible(pending.transactionId())) {
+                    pending.update().run();
+                }
+            }
+            pendingUpdates = null;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LOGGER.log(Level.INFO, "Columnar store loaded in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms: "
+                + rows + " views, " + tags.size() + " tags, " + siteIds.size() + " sites");
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void viewsInserted(List<ViewEntity> views) {
+        append(() -> {
+            for (ViewEntity view : views) {
+                appendView(view.getUid(), view.getRegTime(), view.getMmDma(), view.getOsName(), view.getSiteId());
+            }
+        });
+    }
+
+    @Override
+    public void actionsInserted(List<ActionEntity> actions) {
+        append(() -> {
+            for (ActionEntity action : actions) {
+                appendAction(action.getViewEntity().getUid(), action.getTag(), action.getCount());
+            }
+        });
+    }
+
+    /**
+     * Runs an update under the write lock once the current transaction has committed. Until the store is loaded, the
+     * update is tagged with the id of the transaction, which may have committed before the snapshot of the load.
+     * A transaction that is still writing once the store is loaded commits after the snapshot.
+     */
+    private void append(Runnable update) {
+        long transactionId = loaded || !TransactionSynchronizationManager.isActualTransactionActive() ? 0
+                : Long.parseLong(jdbcTemplate.queryForObject(SELECT_TRANSACTION_ID, String.class));
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                if (pendingUpdates != null) {
+                    pendingUpdates.add(new PendingUpdate(transactionId, update));
+                } else if (transactionId == 0 || !snapshot.isVisible(transactionId)) {
+                    update.run();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Same result as {@code ViewRepository#getCTR}.
+     */
+    public Stream<CtrDates> getCTR(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval, String tag) {
+        return ratioPerInterval(startDate, endDate, interval, isCtrTag(tag), 100.0);
+    }
+
+    /**
+     * Same result as {@code ViewRepository#getEvPM}.
+     */
+    public Stream<CtrDates> getEvPM(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval, String tag) {
+        return ratioPerInterval(startDate, endDate, interval, isEvPMTag(tag), 1.0);
+    }
+
+    /**
+     * Same result as {@code ViewRepository#getViewsCountByMmDma}, ordered by mmDma.
+     */
+    public Stream<MmDmaCount> getViewsCountByMmDma(LocalDate startDate, LocalDate endDate) {
+        return countPerGroup(startDate, endDate, () -> mmDmaCodes, mmDmas, this::mmDmaOrder,
+                (mmDma, count) -> new MmDmaCountRow(mmDma, count));
+    }
+
+    /**
+     * Same result as {@code ViewRepository#getViewsCountBySiteId}, ordered by siteId.
+     */
+    public Stream<SiteIdCount> getViewsCountBySiteId(LocalDate startDate, LocalDate endDate) {
+        rankSiteIds();
+        return countPerGroup(startDate, endDate, () -> siteIdCodes, siteIds, () -> siteIdOrder,
+                (siteId, count) -> new SiteIdCountRow(siteId, count));
+    }
+
+    /**
+     * Same result as {@code ViewRepository#getCtrAggregateByMmDma}.
+     */
+    public Stream<MmDmaCTR> getCtrAggregateByMmDma(LocalDateTime startDate, LocalDateTime endDate, String tag) {
+        return ratioPerGroup(startDate, endDate, isCtrTag(tag), () -> mmDmaCodes, mmDmas, this::mmDmaOrder,
+                (mmDma, ctr) -> new MmDmaCTRRow(mmDma, ctr));
+    }
+
+    /**
+     * Same result as {@code ViewRepository#getCtrAggregateBySiteId}.
+     */
+    public Stream<SiteIdCTR> getCtrAggregateBySiteId(LocalDateTime startDate, LocalDateTime endDate, String tag) {
+        rankSiteIds();
+        return ratioPerGroup(startDate, endDate, isCtrTag(tag), () -> siteIdCodes, siteIds, () -> siteIdOrder,
+                (siteId, ctr) -> new SiteIdCTRRow(siteId, ctr));
+    }
+
+    private Stream<CtrDates> ratioPerInterval(LocalDateTime startDate, LocalDateTime endDate, StatisticsController.Interval interval,
+                                              Predicate<String> tagFilter, double multiplier) {
+        long bucketSeconds = switch (interval) {
+            case MINUTE -> 60;
+            case HOUR -> 3_600;
+            case DAY -> 86_400;
+        };
+        List<CtrDates> result = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            long from = Math.max(ceilSeconds(startDate), minRegTime);
+            long to = Math.min(floorSeconds(endDate), maxRegTime);
+            if (from > to) {
+                return Stream.empty();
+            }
+            int[][] counts = selectTagCounts(tagFilter);
+            long firstBucket = Math.floorDiv(from, bucketSeconds);
+            long bucketCount = Math.floorDiv(to, bucketSeconds) - firstBucket + 1;
+
+            if (bucketCount <= MAX_DENSE_BUCKETS) {
+                long[] views = new long[(int) bucketCount];
+                long[] actions = new long[(int) bucketCount];
+                for (int row = 0; row < rows; row++) {
+                    long regTime = regTimes[row];
+                    if (regTime < from || regTime > to) {
+                        continue;
+                    }
+                    int bucket = (int) (Math.floorDiv(regTime, bucketSeconds) - firstBucket);
+                    views[bucket]++;
+                    for (int[] tagCount : counts) {
+                        actions[bucket] += tagCount[row];
+                    }
+                }
+                for (int bucket = 0; bucket < views.length; bucket++) {
+                    if (views[bucket] > 0) {
+                        result.add(ratioRow((firstBucket + bucket) * bucketSeconds, actions[bucket], views[bucket], multiplier));
+                    }
+                }
+            } else {
+                // sparse data over a long range: only buckets with views are allocated
+                TreeMap<Long, long[]> buckets = new TreeMap<>();
+                for (int row = 0; row < rows; row++) {
+                    long regTime = regTimes[row];
+                    if (regTime < from || regTime > to) {
+                        continue;
+                    }
+                    long[] bucket = buckets.computeIfAbsent(Math.floorDiv(regTime, bucketSeconds), key -> new long[2]);
+                    bucket[0]++;
+                    for (int[] tagCount : counts) {
+                        bucket[1] += tagCount[row];
+                    }
+                }
+                buckets.forEach((bucket, sums) -> result.add(ratioRow(bucket * bucketSeconds, sums[1], sums[0], multiplier)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result.stream();
+    }
+
+    private static CtrDates ratioRow(long bucketStart, long actions, long views, double multiplier) {
+        return new CtrDatesRow(LocalDateTime.ofEpochSecond(bucketStart, 0, ZoneOffset.UTC), (float) (actions * multiplier / views));
+    }
+
+    private <K, R> Stream<R> countPerGroup(LocalDate startDate, LocalDate endDate, ColumnSupplier codeColumn, Dictionary<K> dictionary,
+                                           ColumnSupplier codeOrder, RowFactory<K, Integer, R> rowFactory) {
+        List<R> result = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            long from = startDate.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+            long to = endDate.plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC) - 1;
+            int[] codes = codeColumn.get();
+            int[] views = new int[dictionary.size()];
+            for (int row = 0; row < rows; row++) {
+                long regTime = regTimes[row];
+                if (regTime >= from && regTime <= to) {
+                    views[codes[row]]++;
+                }
+            }
+            for (int code : inOrder(codeOrder.get(), views.length)) {
+                if (views[code] > 0) {
+                    result.add(rowFactory.create(dictionary.decode(code), views[code]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result.stream();
+    }
+
+    private <K, R> Stream<R> ratioPerGroup(LocalDateTime startDate, LocalDateTime endDate, Predicate<String> tagFilter,
+                                           ColumnSupplier codeColumn, Dictionary<K> dictionary, ColumnSupplier codeOrder,
+                                           RowFactory<K, Float, R> rowFactory) {
+        List<R> result = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            long from = ceilSeconds(startDate);
+            long to = floorSeconds(endDate);
+            int[][] counts = selectTagCounts(tagFilter);
+            int[] codes = codeColumn.get();
+            long[] views = new long[dictionary.size()];
+            long[] actions = new long[dictionary.size()];
+            for (int row = 0; row < rows; row++) {
+                long regTime = regTimes[row];
+                if (regTime < from || regTime > to) {
+                    continue;
+                }
+                int code = codes[row];
+                views[code]++;
+                for (int[] tagCount : counts) {
+                    actions[code] += tagCount[row];
+                }
+            }
+            for (int code : inOrder(codeOrder.get(), views.length)) {
+                if (views[code] > 0) {
+                    result.add(rowFactory.create(dictionary.decode(code), (float) (actions[code] * 1.0 / views[code])));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result.stream();
+    }
+
+    /**
+     * @return The codes of an ordering followed by the codes added since it was made, up to {@code size}.
+     */
+    private static int[] inOrder(int[] order, int size) {
+        if (order.length == size) {
+            return order;
+        }
+        int[] codes = Arrays.copyOf(order, size);
+        for (int code = order.length; code < size; code++) {
+            codes[code] = code;
+        }
+        return codes;
+    }
+
+    /**
+     * @return The mmDma codes ordered by mmDma, read under the lock.
+     */
+    private int[] mmDmaOrder() {
+        return IntStream.range(0, mmDmas.size()).boxed()
+                .sorted(Comparator.comparing(mmDmas::decode))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Ranks the siteIds in the order of the database collation again if sites were added since the last ranking.
+     * The ranking is only queried after uploads of new sites, and concurrent queries may rank the same sites.
+     */
+    private void rankSiteIds() {
+        String[] values;
+        lock.readLock().lock();
+        try {
+            if (siteIdOrder.length == siteIds.size()) {
+                return;
+            }
+            values = new String[siteIds.size()];
+            for (int code = 0; code < values.length; code++) {
+                values[code] = siteIds.decode(code);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int[] order = jdbcTemplate.query(RANK_SITE_IDS,
+                        ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", values)),
+                        (rs, rowNum) -> rs.getInt(1))
+                .stream().mapToInt(Integer::intValue).toArray();
+        lock.writeLock().lock();
+        try {
+            if (order.length > siteIdOrder.length) {
+                siteIdOrder = order;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The count arrays of the tags accepted by the filter.
+     */
+    private int[][] selectTagCounts(Predicate<String> tagFilter) {
+        List<int[]> selected = new ArrayList<>();
+        for (int code = 0; code < tags.size(); code++) {
+            String tag = tags.decode(code);
+            if (tag != null && tagFilter.test(tag) && code < tagCounts.length && tagCounts[code] != null) {
+                selected.add(tagCounts[code]);
+            }
+        }
+        return selected.toArray(new int[0][]);
+    }
+
+    /**
+     * The tag predicate of the CTR queries: clicks and all non-view actions by default, or exactly the given tag.
+     */
+    private static Predicate<String> isCtrTag(String tag) {
+        if (tag == null) {
+            return actionTag -> actionTag.equals("fclick") || !actionTag.startsWith("v");
+        }
+        return tag::equals;
+    }
+
+    /**
+     * The tag predicate of the EvPM query: all actions by default, or the given tag and its view-based variant.
+     */
+    private static Predicate<String> isEvPMTag(String tag) {
+        if (tag == null) {
+            return actionTag -> true;
+        }
+        return actionTag -> actionTag.equals(tag) || actionTag.equals("v" + tag);
+    }
+
+    private void appendView(String uid, LocalDateTime regTime, int mmDma, String osName, String siteId) {
+        if (uidIndex.find(uid) >= 0) {
+            return;
+        }
+        ensureCapacity(rows + 1);
+        if (regTime == null) {
+            regTimes[rows] = NO_REG_TIME;
+        } else {
+            long epochSecond = regTime.toEpochSecond(ZoneOffset.UTC);
+            regTimes[rows] = epochSecond;
+            minRegTime = Math.min(minRegTime, epochSecond);
+            maxRegTime = Math.max(maxRegTime, epochSecond);
+        }
+        mmDmaCodes[rows] = mmDmas.encode(mmDma);
+        osNameCodes[rows] = osNames.encode(osName);
+        siteIdCodes[rows] = siteIds.encode(siteId);
+        uidIndex.add(uid);
+        rows++;
+    }
+
+    private void appendAction(String uid, String tag, int count) {
+        int row = uidIndex.find(uid);
+        if (row < 0) {
+            return;
+        }
+        int code = tags.encode(tag);
+        if (code >= tagCounts.length) {
+            tagCounts = Arrays.copyOf(tagCounts, code + 1);
+        }
+        if (tagCounts[code] == null) {
+            tagCounts[code] = new int[regTimes.length];
+        }
+        tagCounts[code][row] += count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= regTimes.length) {
+            return;
+        }
+        int newCapacity = Math.max(Math.max(capacity, regTimes.length * 2), INITIAL_CAPACITY);
+        regTimes = Arrays.copyOf(regTimes, newCapacity);
+        mmDmaCodes = Arrays.copyOf(mmDmaCodes, newCapacity);
+        osNameCodes = Arrays.copyOf(osNameCodes, newCapacity);
+        siteIdCodes = Arrays.copyOf(siteIdCodes, newCapacity);
+        for (int code = 0; code < tagCounts.length; code++) {
+            if (tagCounts[code] != null) {
+                tagCounts[code] = Arrays.copyOf(tagCounts[code], newCapacity);
+            }
+        }
+    }
+
+    /**
+     * Runs the update once the current transaction has committed, or right away outside a transaction.
+     */
+    private static void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
+    private static long ceilSeconds(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) + (dateTime.getNano() > 0 ? 1 : 0);
+    }
+
+    private static long floorSeconds(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private record PendingUpdate(long transactionId, Runnable update) {
+    }
+
+    /**
+     * A PostgreSQL snapshot in the text form {@code xmin:xmax:xip_list}.
+     *
+     * @param xmin       the transactions before it had finished when the snapshot was taken.
+     * @param xmax       the transactions from it on had not started.
+     * @param inProgress the transactions in between that were running.
+     */
+    private record Snapshot(long xmin, long xmax, Set<Long> inProgress) {
+        private static Snapshot parse(String text) {
+            String[] parts = text.split(":", -1);
+            Set<Long> inProgress = new HashSet<>();
+            for (String transactionId : parts[2].split(",")) {
+                if (!transactionId.isEmpty()) {
+                    inProgress.add(Long.parseLong(transactionId));
+                }
+            }
+            return new Snapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), inProgress);
+        }
+
+        /**
+         * @return Whether the rows of a committed transaction are in the snapshot.
+         */
+        private boolean isVisible(long transactionId) {
+            return transactionId < xmin || transactionId < xmax && !inProgress.contains(transactionId);
+        }
+    }
+
+    /**
+     * Reads a code column under the lock, as the arrays are replaced when they grow.
+     */
+    private interface ColumnSupplier {
+        int[] get();
+    }
+
+    private interface RowFactory<K, V, R> {
+        R create(K key, V value);
+    }
+}
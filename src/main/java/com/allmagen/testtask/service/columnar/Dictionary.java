@@ -0,0 +1,43 @@
+package com.allmagen.testtask.service.columnar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the distinct values of a column to dense int codes in order of first appearance.
+ * {@code null} is a regular value. Not thread-safe, guarded by the lock of {@link ColumnarStore}.
+ */
+class Dictionary<T> {
+    private final Map<T, Integer> codes = new HashMap<>();
+    private final List<T> values = new ArrayList<>();
+
+    /**
+     * @return The code of the value, assigning the next code to new values.
+     */
+    int encode(T value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * @return The code of the value, or {@code -1} if the value was never encoded.
+     */
+    int find(T value) {
+        return codes.getOrDefault(value, -1);
+    }
+
+    T decode(int code) {
+        return values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+}
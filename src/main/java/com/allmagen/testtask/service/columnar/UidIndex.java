@@ -0,0 +1,76 @@
+package com.allmagen.testtask.service.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Maps the uids of the views to their rows in order of first appearance, like a {@link Dictionary} of uids,
+ * without a boxed entry per view. The uids are kept in an array indexed by row, and an open-addressing table
+ * with linear probing holds the row plus one of each uid, {@code 0} marking a free slot.
+ * Not thread-safe, guarded by the lock of {@link ColumnarStore}.
+ */
+class UidIndex {
+    private static final int INITIAL_SLOTS = 1 << 16;
+
+    private String[] uids = new String[0];
+    private int[] slots = new int[INITIAL_SLOTS];
+    private int size;
+
+    /**
+     * @return The row of the uid, or {@code -1} if it was never added.
+     */
+    int find(String uid) {
+        int mask = slots.length - 1;
+        for (int slot = hash(uid) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (uids[slots[slot] - 1].equals(uid)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a uid that was not added yet as the next row.
+     *
+     * @return The row of the uid.
+     */
+    int add(String uid) {
+        if (size == uids.length) {
+            uids = Arrays.copyOf(uids, Math.max(size * 2, INITIAL_SLOTS / 2));
+        }
+        uids[size] = uid;
+        // at most half of the slots are used, so probes stay short
+        if (2 * (size + 1) > slots.length) {
+            rehash(slots.length * 2);
+        }
+        insert(size);
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int slotCount) {
+        slots = new int[slotCount];
+        for (int row = 0; row < size; row++) {
+            insert(row);
+        }
+    }
+
+    private void insert(int row) {
+        int mask = slots.length - 1;
+        int slot = hash(uids[row]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    /**
+     * Spreads the bits of {@link String#hashCode()}, as similar uids differ in their last characters.
+     */
+    private static int hash(String uid) {
+        int h = uid.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
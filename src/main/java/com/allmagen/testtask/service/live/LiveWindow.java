@@ -0,0 +1,237 @@
+package com.allmagen.testtask.service.live;
+
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.LiveBucket;
+import com.allmagen.testtask.service.IngestListener;
+import com.allmagen.testtask.service.StatisticsMetrics;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Live CTR and EvPM of the last {@code statistics.live.window} (default one hour), per minute, without querying the
+ * database. The views and actions written by uploads and events are counted in a {@link MinuteWindow} once their
+ * transaction commits. Like the statistics queries, they are bucketed by the registration time of the view, so only
+ * views registered within the window are counted. The window starts empty on startup. Up to
+ * {@code statistics.live.max-tags} action tags can be filtered on, see {@link MinuteWindow}.
+ * <p>
+ * Subscribers receive the whole window first and then, at most every {@code statistics.live.push-interval}, the
+ * buckets that changed and the buckets of the minutes that entered the window. Each subscriber is served by its own
+ * virtual thread, so a slow client does not delay the others.
+ */
+@Component
+public class LiveWindow implements IngestListener {
+    private static final Logger LOGGER = LogManager.getLogger(LiveWindow.class);
+
+    private final MinuteWindow window;
+    private final long pushIntervalMillis;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    public LiveWindow(StatisticsMetrics metrics,
+                      @Value("${statistics.live.window:PT1H}") Duration window,
+                      @Value("${statistics.live.push-interval:PT1S}") Duration pushInterval,
+                      @Value("${statistics.live.max-tags:1000}") int maxTags) {
+        this.window = new MinuteWindow((int) window.toMinutes(), maxTags);
+        this.pushIntervalMillis = pushInterval.toMillis();
+        metrics.liveSubscribers(subscriptions::size);
+    }
+
+    /**
+     * The live statistics, with the tag filters of the corresponding statistics queries.
+     */
+    public enum Metric {
+        /**
+         * Clicks and other non-view actions per 100 views by default, or actions of exactly the given tag.
+         */
+        CTR(100.0),
+        /**
+         * All actions per view by default, or actions of the given tag and its view-based variant.
+         */
+        EVPM(1.0);
+
+        private final double multiplier;
+
+        Metric(double multiplier) {
+            this.multiplier = multiplier;
+        }
+
+        private Predicate<String> tagFilter(String tag) {
+            if (this == CTR) {
+                return tag == null ? actionTag -> actionTag.equals("fclick") || !actionTag.startsWith("v") : tag::equals;
+            }
+            return tag == null ? actionTag -> true : actionTag -> actionTag.equals(tag) || actionTag.equals("v" + tag);
+        }
+    }
+
+    /**
+     * @return The number of minutes of the window.
+     */
+    public int minutes() {
+        return window.size();
+    }
+
+    /**
+     * @param tag the tag filter, {@code null} for the default one.
+     * @return The buckets of every minute of the window, oldest first.
+     */
+    public List<LiveBucket> buckets(Metric metric, String tag) {
+        synchronized (window) {
+            return window.buckets(currentMinute(), 0, Long.MIN_VALUE, metric.tagFilter(tag), metric.multiplier);
+        }
+    }
+
+    /**
+     * Starts sending the buckets of a metric to {@code sink}, until the subscription is closed or the sink throws.
+     *
+     * @param tag the tag filter, {@code null} for the default one.
+     * @return The subscription, which must be closed when the client disconnects.
+     */
+    public Subscription subscribe(Metric metric, String tag, Consumer<List<LiveBucket>> sink) {
+        Subscription subscription = new Subscription(metric.tagFilter(tag), metric.multiplier, sink);
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscriptions.forEach(Subscription::close);
+    }
+
+    /**
+     * Counts the views per minute of the window right away, so the rows are not kept until the transaction commits.
+     */
+    @Override
+    public void viewsInserted(List<ViewEntity> views) {
+        long now = currentMinute();
+        Map<Long, Long> counts = new HashMap<>();
+        for (ViewEntity view : views) {
+            if (view.getRegTime() != null) {
+                long minute = MinuteWindow.minute(view.getRegTime());
+                if (inWindow(minute, now)) {
+                    counts.merge(minute, 1L, Long::sum);
+                }
+            }
+        }
+        if (!counts.isEmpty()) {
+            afterCommit(() -> {
+                synchronized (window) {
+                    long committed = currentMinute();
+                    counts.forEach((minute, count) -> window.addViews(minute, count, committed));
+                }
+            });
+        }
+    }
+
+    @Override
+    public void actionsInserted(List<ActionEntity> actions) {
+        long now = currentMinute();
+        Map<Long, Map<String, Long>> counts = new HashMap<>();
+        for (ActionEntity action : actions) {
+            if (action.getRegTime() != null && action.getTag() != null) {
+                long minute = MinuteWindow.minute(action.getRegTime());
+                if (inWindow(minute, now)) {
+                    counts.computeIfAbsent(minute, key -> new HashMap<>()).merge(action.getTag(), (long) action.getCount(), Long::sum);
+                }
+            }
+        }
+        if (!counts.isEmpty()) {
+            afterCommit(() -> {
+                synchronized (window) {
+                    long committed = currentMinute();
+                    counts.forEach((minute, tagCounts) ->
+                            tagCounts.forEach((tag, count) -> window.addActions(minute, tag, count, committed)));
+                }
+            });
+        }
+    }
+
+    private boolean inWindow(long minute, long now) {
+        return minute <= now && minute > now - window.size();
+    }
+
+    private static long currentMinute() {
+        return MinuteWindow.minute(LocalDateTime.now());
+    }
+
+    private static void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
+    /**
+     * A client of the live window, sent the changed buckets by a virtual thread.
+     */
+    public final class Subscription {
+        private final Predicate<String> tagFilter;
+        private final double multiplier;
+        private final Consumer<List<LiveBucket>> sink;
+        private final Thread thread;
+
+        private Subscription(Predicate<String> tagFilter, double multiplier, Consumer<List<LiveBucket>> sink) {
+            this.tagFilter = tagFilter;
+            this.multiplier = multiplier;
+            this.sink = sink;
+            this.thread = Thread.ofVirtual().name("live-window-subscriber").unstarted(this::pushLoop);
+        }
+
+        /**
+         * Stops sending buckets. Idempotent.
+         */
+        public void close() {
+            subscriptions.remove(this);
+            thread.interrupt();
+        }
+
+        private void pushLoop() {
+            long sinceVersion = 0;
+            long sinceMinute = Long.MIN_VALUE;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long now;
+                    List<LiveBucket> buckets;
+                    synchronized (window) {
+                        now = currentMinute();
+                        buckets = window.buckets(now, sinceVersion, sinceMinute, tagFilter, multiplier);
+                        sinceVersion = window.version();
+                    }
+                    sinceMinute = now;
+                    if (!buckets.isEmpty()) {
+                        sink.accept(buckets);
+                    }
+                    Thread.sleep(pushIntervalMillis);
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.DEBUG, "Live window subscriber disconnected", e);
+            } finally {
+                subscriptions.remove(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.allmagen.testtask.service.live;
+
+import com.allmagen.testtask.model.metrics.LiveBucket;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Ring buffers of view counts and of action counts per tag over the last {@code size} minutes. The counts of a minute
+ * are kept in the slot {@code minute % size}, which is cleared when it is reused for a later minute, so the window
+ * slides without moving data. Minutes are counted since the epoch, see {@link #minute(LocalDateTime)}.
+ * <p>
+ * A tag is forgotten once none of its counts is in the window anymore. At most {@code maxTags} tags are counted
+ * separately; the actions of further tags are added to {@link #OTHER_TAG}, or to {@link #OTHER_VIEW_TAG} for the
+ * view-based tags starting with {@code v}, so the totals over all tags and over the non-view tags stay exact.
+ * <p>
+ * Every change stamps its slot with a new version, so readers can ask for the minutes changed since the version
+ * they read last. Not thread-safe.
+ */
+public class MinuteWindow {
+    /**
+     * Counts the actions of the tags that do not start with {@code v} beyond {@code maxTags}.
+     */
+    public static final String OTHER_TAG = "\0other";
+    /**
+     * Counts the actions of the tags that start with {@code v} beyond {@code maxTags}.
+     */
+    public static final String OTHER_VIEW_TAG = "v\0other";
+
+    private final int size;
+    private final int maxTags;
+    private final long[] slotMinutes;
+    private final long[] slotVersions;
+    private final long[] views;
+    private final Map<String, TagCounts> actions = new HashMap<>();
+    private long version;
+
+    public MinuteWindow(int size, int maxTags) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The window must hold at least one minute");
+        }
+        this.size = size;
+        this.maxTags = maxTags;
+        this.slotMinutes = new long[size];
+        this.slotVersions = new long[size];
+        this.views = new long[size];
+        Arrays.fill(slotMinutes, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return The minutes since the epoch, counting {@code dateTime} as UTC like the {@code reg_time} buckets.
+     */
+    public static long minute(LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The version of the last change, {@code 0} before the first one.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Adds views registered in {@code minute}.
+     *
+     * @param now the current minute, the last one of the window.
+     * @return {@code false} if the minute is not in the window and the views were not counted.
+     */
+    public boolean addViews(long minute, long count, long now) {
+        int slot = slot(minute, now);
+        if (slot < 0) {
+            return false;
+        }
+        views[slot] += count;
+        return true;
+    }
+
+    /**
+     * Adds actions of a tag of views registered in {@code minute}.
+     *
+     * @param now the current minute, the last one of the window.
+     * @return {@code false} if the minute is not in the window and the actions were not counted.
+     */
+    public boolean addActions(long minute, String tag, long count, long now) {
+        int slot = slot(minute, now);
+        if (slot < 0) {
+            return false;
+        }
+        TagCounts tagCounts = actions.get(tag);
+        if (tagCounts == null) {
+            String key = actions.size() < maxTags ? tag : tag.startsWith("v") ? OTHER_VIEW_TAG : OTHER_TAG;
+            tagCounts = actions.computeIfAbsent(key, other -> new TagCounts(size));
+        }
+        tagCounts.add(slot, count);
+        return true;
+    }
+
+    /**
+     * @return The number of tags counted, including {@link #OTHER_TAG} and {@link #OTHER_VIEW_TAG}.
+     */
+    public int tags() {
+        return actions.size();
+    }
+
+    /**
+     * Computes the buckets of the window ending at {@code now} that changed after {@code sinceVersion}, or whose
+     * minute is after {@code sinceMinute}, also if they have no views yet.
+     *
+     * @param tagFilter  selects the tags of the counted actions.
+     * @param multiplier applied to the actions per view, {@code 100} for a CTR in percent.
+     * @return The buckets, oldest first.
+     */
+    public List<LiveBucket> buckets(long now, long sinceVersion, long sinceMinute, Predicate<String> tagFilter,
+                                    double multiplier) {
+        List<long[]> tagCounts = new ArrayList<>();
+        actions.forEach((tag, counts) -> {
+            if (tagFilter.test(tag)) {
+                tagCounts.add(counts.counts);
+            }
+        });
+
+        List<LiveBucket> buckets = new ArrayList<>();
+        for (long minute = now - size + 1; minute <= now; minute++) {
+            int slot = (int) Math.floorMod(minute, (long) size);
+            boolean current = slotMinutes[slot] == minute;
+            if (minute <= sinceMinute && !(current && slotVersions[slot] > sinceVersion)) {
+                continue;
+            }
+            long viewCount = current ? views[slot] : 0;
+            long actionCount = 0;
+            if (current) {
+                for (long[] counts : tagCounts) {
+                    actionCount += counts[slot];
+                }
+            }
+            float ctr = viewCount == 0 ? 0 : (float) (actionCount * multiplier / viewCount);
+            buckets.add(new LiveBucket(LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC),
+                    viewCount, actionCount, ctr));
+        }
+        return buckets;
+    }
+
+    /**
+     * @return The slot of a minute of the window, cleared if it held an earlier minute, or {@code -1} if the minute
+     * is not in the window.
+     */
+    private int slot(long minute, long now) {
+        if (minute > now || minute <= now - size) {
+            return -1;
+        }
+        int slot = (int) Math.floorMod(minute, (long) size);
+        if (slotMinutes[slot] != minute) {
+            slotMinutes[slot] = minute;
+            views[slot] = 0;
+            for (Iterator<TagCounts> iterator = actions.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().clear(slot)) {
+                    iterator.remove();
+                }
+            }
+        }
+        slotVersions[slot] = ++version;
+        return slot;
+    }
+
+    /**
+     * The action counts of a tag per slot, with the number of slots that are not zero.
+     */
+    private static final class TagCounts {
+        private final long[] counts;
+        private int usedSlots;
+
+        private TagCounts(int size) {
+            this.counts = new long[size];
+        }
+
+        private void add(int slot, long count) {
+            if (counts[slot] == 0 && count != 0) {
+                usedSlots++;
+            }
+            counts[slot] += count;
+        }
+
+        /**
+         * @return Whether no slot holds a count anymore.
+         */
+        private boolean clear(int slot) {
+            if (counts[slot] != 0) {
+                counts[slot] = 0;
+                usedSlots--;
+            }
+            return usedSlots == 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.allmagen.testtask.service.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of an action CSV file and encodes their uid and tag with a {@link ByteDictionary} each.
+ * The input is read into one reused buffer and the fields are looked up where they are, so reading a line
+ * allocates nothing unless it holds a value that was not seen before.
+ * <p>
+ * The first line is treated as a header and skipped. Quoted fields are supported, line breaks inside them are not.
+ */
+public final class ActionLineReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int UID = 0;
+    private static final int TAG = 1;
+
+    private final InputStream inputStream;
+    private final ByteDictionary uids;
+    private final ByteDictionary tags;
+    private final CsvFields fields = new CsvFields(2);
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean eof;
+    private boolean headerSkipped;
+    private int uid;
+    private int tag;
+
+    /**
+     * @param inputStream the CSV file content.
+     * @param uids        encodes the uids.
+     * @param tags        encodes the tags.
+     */
+    public ActionLineReader(InputStream inputStream, ByteDictionary uids, ByteDictionary tags) {
+        this.inputStream = inputStream;
+        this.uids = uids;
+        this.tags = tags;
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return {@code false} when the input is exhausted.
+     * @throws IOException      If an I/O error occurs while reading the input.
+     * @throws RuntimeException If the line does not have exactly 2 fields.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int lineEnd = indexOfLineBreak();
+            if (lineEnd < 0) {
+                if (!eof) {
+                    fill();
+                    continue;
+                }
+                if (position == limit) {
+                    return false;
+                }
+                // the last line has no line break
+                lineEnd = limit;
+            }
+
+            int lineStart = position;
+            position = Math.min(lineEnd + 1, limit);
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (!headerSkipped) {
+                headerSkipped = true;
+                continue;
+            }
+
+            if (fields.split(buffer, lineStart, lineEnd) != 2) {
+                String error = "Error: The length of the CSV line should exactly match the expected length of 2 elements";
+                throw new RuntimeException(error);
+            }
+            uid = fields.encode(UID, uids);
+            tag = fields.encode(TAG, tags);
+            return true;
+        }
+    }
+
+    /**
+     * @return The uid id of the current line.
+     */
+    public int uid() {
+        return uid;
+    }
+
+    /**
+     * @return The tag id of the current line.
+     */
+    public int tag() {
+        return tag;
+    }
+
+    private int indexOfLineBreak() {
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the incomplete line to the start of the buffer and reads behind it, growing the buffer
+     * if the line fills it.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        limit += inputStream.readNBytes(buffer, limit, buffer.length - limit);
+        eof = limit < buffer.length;
+    }
+}
@@ -0,0 +1,135 @@
+package com.allmagen.testtask.service.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to UTF-8 values read from a byte buffer. Lookups hash and compare the bytes in place, so
+ * encoding a value that is already known allocates nothing. The bytes of every distinct value are copied once into
+ * an arena and decoded to a string only when {@link #string(int)} is called.
+ * <p>
+ * The ids are kept in an open addressing table with linear probing that is grown at half load.
+ * Instances are not thread-safe.
+ */
+public final class ByteDictionary {
+    private static final int EMPTY = -1;
+
+    private int[] slots;
+    private int mask;
+    private int[] hashes;
+    private int[] offsets;
+    private byte[] arena;
+    private int arenaLength;
+    private String[] strings;
+    private int size;
+
+    /**
+     * @param expectedSize the number of distinct values expected; the dictionary grows beyond it as needed.
+     */
+    public ByteDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        mask = capacity - 1;
+        hashes = new int[capacity / 2];
+        offsets = new int[capacity / 2 + 1];
+        arena = new byte[capacity * 8];
+        strings = new String[capacity / 2];
+    }
+
+    /**
+     * @param buffer the buffer holding the value.
+     * @param start  the index of the first byte of the value.
+     * @param end    the index after the last byte of the value.
+     * @return The id of the value, assigning the next id to new values.
+     */
+    public int encode(byte[] buffer, int start, int end) {
+        int hash = hash(buffer, start, end);
+        int slot = hash & mask;
+        while (true) {
+            int id = slots[slot];
+            if (id == EMPTY) {
+                return add(buffer, start, end, hash, slot);
+            }
+            if (hashes[id] == hash && Arrays.equals(arena, offsets[id], offsets[id + 1], buffer, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return The value of an id, decoded once and then cached.
+     */
+    public String string(int id) {
+        String value = strings[id];
+        if (value == null) {
+            value = new String(arena, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+            strings[id] = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return The number of distinct values, which is also the next id.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all values and reuses the allocated capacity; the ids handed out before become invalid.
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        Arrays.fill(strings, 0, size, null);
+        arenaLength = 0;
+        size = 0;
+    }
+
+    private int add(byte[] buffer, int start, int end, int hash, int slot) {
+        int length = end - start;
+        if (arenaLength + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + length));
+        }
+        System.arraycopy(buffer, start, arena, arenaLength, length);
+        arenaLength += length;
+
+        int id = size++;
+        slots[slot] = id;
+        hashes[id] = hash;
+        offsets[id + 1] = arenaLength;
+
+        if (size * 2 >= slots.length) {
+            grow();
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = slots.length * 2;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+        hashes = Arrays.copyOf(hashes, capacity / 2);
+        offsets = Arrays.copyOf(offsets, capacity / 2 + 1);
+        strings = Arrays.copyOf(strings, capacity / 2);
+    }
+
+    private static int hash(byte[] buffer, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        // spread the low bits, which select the slot
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
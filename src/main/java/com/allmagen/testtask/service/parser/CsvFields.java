@@ -0,0 +1,151 @@
+package com.allmagen.testtask.service.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * Splits a CSV line held in a byte buffer into fields without copying it and decodes single fields on demand.
+ * Quoted fields with doubled quotes are supported, line breaks inside quoted fields are not.
+ * Instances are reused line after line and are not thread-safe.
+ */
+public final class CsvFields {
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+
+    private final int[] starts;
+    private final int[] ends;
+    private final boolean[] escaped;
+    private byte[] buffer;
+
+    /**
+     * @param capacity the number of fields a line is expected to have.
+     */
+    public CsvFields(int capacity) {
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.escaped = new boolean[capacity];
+    }
+
+    /**
+     * Locates the fields of a line. Only the first {@code capacity} fields are recorded.
+     *
+     * @param buffer the buffer holding the line.
+     * @param start  the index of the first byte of the line.
+     * @param end    the index after the last byte of the line.
+     * @return The number of fields in the line.
+     */
+    public int split(byte[] buffer, int start, int end) {
+        this.buffer = buffer;
+        int count = 0;
+        int pos = start;
+        while (true) {
+            int fieldStart = pos;
+            int fieldEnd;
+            boolean fieldEscaped = false;
+
+            if (pos < end && buffer[pos] == QUOTE) {
+                fieldStart = ++pos;
+                while (pos < end) {
+                    if (buffer[pos] == QUOTE) {
+                        if (pos + 1 < end && buffer[pos + 1] == QUOTE) {
+                            fieldEscaped = true;
+                            pos += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    pos++;
+                }
+                fieldEnd = pos;
+                // skip the closing quote and anything up to the next separator
+                while (pos < end && buffer[pos] != SEPARATOR) {
+                    pos++;
+                }
+            } else {
+                while (pos < end && buffer[pos] != SEPARATOR) {
+                    pos++;
+                }
+                fieldEnd = pos;
+            }
+
+            if (count < starts.length) {
+                starts[count] = fieldStart;
+                ends[count] = fieldEnd;
+                escaped[count] = fieldEscaped;
+            }
+            count++;
+
+            if (pos >= end) {
+                return count;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * @param index the index of the field.
+     * @return The field as a string.
+     */
+    public String string(int index) {
+        String value = new String(buffer, starts[index], ends[index] - starts[index], StandardCharsets.UTF_8);
+        return escaped[index] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * @param index      the index of the field.
+     * @param dictionary the dictionary to look the field up in.
+     * @return The id of the field in the dictionary. Fields without doubled quotes are looked up in place.
+     */
+    public int encode(int index, ByteDictionary dictionary) {
+        if (escaped[index]) {
+            byte[] value = string(index).getBytes(StandardCharsets.UTF_8);
+            return dictionary.encode(value, 0, value.length);
+        }
+        return dictionary.encode(buffer, starts[index], ends[index]);
+    }
+
+    /**
+     * Decodes an integer field. ASCII digits are decoded in place, any other content is delegated to
+     * {@link Integer#parseInt(String)} so that accepted values and errors stay the same.
+     *
+     * @param index the index of the field.
+     * @return The field as an integer.
+     * @throws NumberFormatException If the field is not a valid integer.
+     */
+    public int integer(int index) {
+        int start = starts[index];
+        int end = ends[index];
+        int length = end - start;
+        if (length == 0 || length > 9) {
+            return Integer.parseInt(string(index));
+        }
+
+        boolean negative = buffer[start] == '-';
+        int pos = negative ? start + 1 : start;
+        if (pos == end) {
+            return Integer.parseInt(string(index));
+        }
+
+        int value = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(string(index));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @param index the index of the field.
+     * @return The field as a timestamp in the {@code yyyy-MM-dd HH:mm:ss} format.
+     * @see TimestampDecoder#decode(byte[], int, int)
+     */
+    public LocalDateTime timestamp(int index) {
+        if (escaped[index]) {
+            return TimestampDecoder.decode(string(index));
+        }
+        return TimestampDecoder.decode(buffer, starts[index], ends[index]);
+    }
+}
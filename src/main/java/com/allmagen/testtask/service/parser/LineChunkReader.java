@@ -0,0 +1,99 @@
+package com.allmagen.testtask.service.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads an input stream in chunks that always end at a line boundary, so every chunk can be decoded independently.
+ * A line longer than the chunk size makes the chunk grow until the line fits.
+ */
+class LineChunkReader {
+    private final InputStream inputStream;
+    private final int chunkSize;
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    private boolean headerSkipped;
+    private boolean eof;
+
+    /**
+     * @param inputStream the stream to read; the first line is treated as a header and skipped.
+     * @param chunkSize   the preferred number of bytes per chunk.
+     */
+    LineChunkReader(InputStream inputStream, int chunkSize) {
+        this.inputStream = inputStream;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return The next chunk, or {@code null} when the stream is exhausted.
+     * @throws IOException If an I/O error occurs while reading the stream.
+     */
+    Chunk next() throws IOException {
+        if (eof && carryLength == 0) {
+            return null;
+        }
+
+        byte[] buffer = new byte[Math.max(chunkSize, carryLength * 2)];
+        System.arraycopy(carry, 0, buffer, 0, carryLength);
+        int length = carryLength;
+        int searchFrom = carryLength;
+
+        while (true) {
+            if (!eof) {
+                int read = inputStream.readNBytes(buffer, length, buffer.length - length);
+                length += read;
+                eof = length < buffer.length;
+            }
+
+            int lineEnd = lastLineEnd(buffer, searchFrom, length);
+            if (lineEnd >= 0 || eof) {
+                int chunkEnd = lineEnd >= 0 && !eof ? lineEnd + 1 : length;
+                carryLength = length - chunkEnd;
+                if (carry.length < carryLength) {
+                    carry = new byte[Math.max(carryLength, chunkSize / 4)];
+                }
+                System.arraycopy(buffer, chunkEnd, carry, 0, carryLength);
+
+                int start = headerSkipped ? 0 : skipHeader(buffer, chunkEnd);
+                return new Chunk(buffer, start, chunkEnd);
+            }
+
+            // a single line is longer than the buffer
+            searchFrom = length;
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+
+    /**
+     * @return The index after the first line of the chunk, or the chunk end if it holds no line break.
+     */
+    private int skipHeader(byte[] buffer, int end) {
+        headerSkipped = true;
+        for (int i = 0; i < end; i++) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static int lastLineEnd(byte[] buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A slice of the input holding complete lines.
+     *
+     * @param buffer the bytes read.
+     * @param start  the index of the first byte of the first line.
+     * @param end    the index after the last byte of the last line.
+     */
+    record Chunk(byte[] buffer, int start, int end) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.allmagen.testtask.service.parser;
+
+/**
+ * Decodes one CSV line held in a byte buffer into a row object.
+ * A decoder is used by a single parser worker at a time, so implementations need not be thread-safe.
+ *
+ * @param <T> the type of the decoded rows.
+ */
+@FunctionalInterface
+public interface LineDecoder<T> {
+
+    /**
+     * @param buffer the buffer holding the line.
+     * @param start  the index of the first byte of the line.
+     * @param end    the index after the last byte of the line, excluding the line terminator.
+     * @return The decoded row.
+     * @throws RuntimeException If the line is not valid.
+     */
+    T decode(byte[] buffer, int start, int end);
+}
@@ -0,0 +1,124 @@
+package com.allmagen.testtask.service.parser;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Pipelined CSV parser.
+ * The calling thread splits the input into line-aligned chunks and hands them to a pool of parser workers.
+ * Decoded chunks are passed back to the calling thread in input order, so the writer stage runs
+ * in the caller's transaction while the workers keep parsing the following chunks.
+ * The number of chunks in flight is bounded, which keeps memory usage independent of the input size.
+ */
+@Component
+public class ParallelCsvParser {
+    private final ExecutorService workers;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    public ParallelCsvParser(@Value("${statistics.upload.parser-threads:0}") int parserThreads,
+                             @Value("${statistics.upload.chunk-size:1048576}") int chunkSize) {
+        int threads = parserThreads > 0 ? parserThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "csv-parser-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = threads * 2;
+    }
+
+    /**
+     * Parses a CSV file, skipping its header line.
+     *
+     * @param inputStream the CSV file content.
+     * @param decoders    creates a decoder for each chunk.
+     * @param writer      receives the decoded rows chunk by chunk, in input order, on the calling thread.
+     * @param <T>         the type of the decoded rows.
+     * @return The number of rows parsed.
+     * @throws IOException      If an I/O error occurs while reading the input.
+     * @throws RuntimeException If a line cannot be decoded or the writer fails.
+     */
+    public <T> long parse(InputStream inputStream, Supplier<LineDecoder<T>> decoders, Consumer<List<T>> writer) throws IOException {
+        LineChunkReader reader = new LineChunkReader(inputStream, chunkSize);
+        Deque<Future<List<T>>> inFlight = new ArrayDeque<>(maxChunksInFlight);
+        long rows = 0;
+
+        try {
+            LineChunkReader.Chunk chunk;
+            while ((chunk = reader.next()) != null) {
+                LineChunkReader.Chunk submitted = chunk;
+                inFlight.addLast(workers.submit(() -> decodeChunk(submitted, decoders.get())));
+
+                if (inFlight.size() >= maxChunksInFlight) {
+                    rows += write(inFlight.removeFirst(), writer);
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                rows += write(inFlight.removeFirst(), writer);
+            }
+
+            return rows;
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static <T> List<T> decodeChunk(LineChunkReader.Chunk chunk, LineDecoder<T> decoder) {
+        byte[] buffer = chunk.buffer();
+        List<T> rows = new ArrayList<>();
+        int lineStart = chunk.start();
+        while (lineStart < chunk.end()) {
+            int lineEnd = lineStart;
+            while (lineEnd < chunk.end() && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int nextLine = lineEnd + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            rows.add(decoder.decode(buffer, lineStart, lineEnd));
+            lineStart = nextLine;
+        }
+        return rows;
+    }
+
+    private static <T> int write(Future<List<T>> future, Consumer<List<T>> writer) {
+        List<T> rows;
+        try {
+            rows = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("CSV parsing was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        writer.accept(rows);
+        return rows.size();
+    }
+}
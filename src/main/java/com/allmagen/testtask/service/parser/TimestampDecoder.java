@@ -0,0 +1,72 @@
+package com.allmagen.testtask.service.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Decoder for timestamps in the fixed {@code yyyy-MM-dd HH:mm:ss} format.
+ * Well-formed values are decoded directly from the bytes; anything else is handed to
+ * {@link DateTimeFormatter} so that accepted values and errors match {@link LocalDateTime#parse}.
+ */
+public final class TimestampDecoder {
+    public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final int LENGTH = 19;
+
+    private TimestampDecoder() {
+    }
+
+    /**
+     * @param buffer the buffer holding the timestamp.
+     * @param start  the index of the first byte of the timestamp.
+     * @param end    the index after the last byte of the timestamp.
+     * @return The decoded timestamp.
+     * @throws java.time.format.DateTimeParseException If the value is not a valid timestamp.
+     */
+    public static LocalDateTime decode(byte[] buffer, int start, int end) {
+        if (end - start == LENGTH
+                && buffer[start + 4] == '-' && buffer[start + 7] == '-' && buffer[start + 10] == ' '
+                && buffer[start + 13] == ':' && buffer[start + 16] == ':') {
+            int year = digits(buffer, start, 4);
+            int month = digits(buffer, start + 5, 2);
+            int day = digits(buffer, start + 8, 2);
+            int hour = digits(buffer, start + 11, 2);
+            int minute = digits(buffer, start + 14, 2);
+            int second = digits(buffer, start + 17, 2);
+            if ((year | month | day | hour | minute | second) >= 0) {
+                try {
+                    return LocalDateTime.of(year, month, day, hour, minute, second);
+                } catch (DateTimeException e) {
+                    // out of range fields are resolved or reported by the formatter below
+                }
+            }
+        }
+        return decode(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param value the timestamp text.
+     * @return The decoded timestamp.
+     * @throws java.time.format.DateTimeParseException If the value is not a valid timestamp.
+     */
+    public static LocalDateTime decode(String value) {
+        return LocalDateTime.parse(value, FORMATTER);
+    }
+
+    /**
+     * @return The value of {@code count} ASCII digits, or -1 if any of them is not a digit.
+     */
+    private static int digits(byte[] buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,47 @@
+package com.allmagen.testtask.service.parser;
+
+import com.allmagen.testtask.model.ViewEntity;
+
+/**
+ * Decodes a line of a views CSV file into a {@link ViewEntity}.
+ */
+public class ViewLineDecoder implements LineDecoder<ViewEntity> {
+    private static final int COLUMNS = 10;
+    private static final int REG_TIME = 0;
+    private static final int UID = 1;
+    private static final int FC_IMP_CHK = 2;
+    private static final int FC_TIME_CHK = 3;
+    private static final int UTMR = 4;
+    private static final int MM_DMA = 5;
+    private static final int OS_NAME = 6;
+    private static final int MODEL = 7;
+    private static final int HARDWARE = 8;
+    private static final int SITE_ID = 9;
+
+    private final CsvFields fields = new CsvFields(COLUMNS);
+
+    /**
+     * @throws RuntimeException              If the line does not have exactly 10 elements.
+     * @throws NumberFormatException         If there is an error parsing numeric values from the line.
+     * @throws java.time.DateTimeException If the registration time is not a valid timestamp.
+     */
+    @Override
+    public ViewEntity decode(byte[] buffer, int start, int end) {
+        if (fields.split(buffer, start, end) != COLUMNS) {
+            String error = "Error: The length of the CSV line should exactly match the expected length of 10 elements.";
+            throw new RuntimeException(error);
+        }
+
+        ViewEntity viewEntity = new ViewEntity(fields.string(UID));
+        viewEntity.setRegTime(fields.timestamp(REG_TIME));
+        viewEntity.setFcImpChk(fields.integer(FC_IMP_CHK));
+        viewEntity.setFcTimeChk(fields.integer(FC_TIME_CHK));
+        viewEntity.setUtmtr(fields.integer(UTMR));
+        viewEntity.setMmDma(fields.integer(MM_DMA));
+        viewEntity.setOsName(fields.string(OS_NAME));
+        viewEntity.setModel(fields.string(MODEL));
+        viewEntity.setHardware(fields.string(HARDWARE));
+        viewEntity.setSiteId(fields.string(SITE_ID));
+        return viewEntity;
+    }
+}
@@ -0,0 +1,184 @@
+package com.allmagen.testtask.service.wal;
+
+import com.allmagen.testtask.model.ActionEvent;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.repository.IngestLogRepository;
+import com.allmagen.testtask.service.StatisticsMetrics;
+import com.allmagen.testtask.service.UploadEngine;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Durable buffer between uploads and the database, created with {@code statistics.upload.engine=LOG}.
+ * An upload appends its validated rows to a {@link SegmentLog} in {@code statistics.ingest-log.directory} and is
+ * acknowledged once they are on disk, without holding a database connection or the rows in the heap.
+ * The {@link IngestLogDrainer} writes the logged rows to the database afterwards, also those logged before a restart.
+ * <p>
+ * Rows are serialized field by field with a leading type byte. The log is named by its absolute directory, under
+ * which its checkpoint is saved by {@link IngestLogRepository}.
+ */
+@Component
+@ConditionalOnProperty(name = "statistics.upload.engine", havingValue = "LOG")
+public class IngestLog {
+    private static final Logger LOGGER = LogManager.getLogger(IngestLog.class);
+
+    private static final byte VIEW = 1;
+    private static final byte ACTION = 2;
+
+    private final String name;
+    private final SegmentLog segmentLog;
+
+    public IngestLog(IngestLogRepository ingestLogRepository, StatisticsMetrics metrics,
+                     @Value("${statistics.ingest-log.directory}") String directory,
+                     @Value("${statistics.ingest-log.segment-size:67108864}") int segmentSize) throws IOException {
+        Path path = Path.of(directory).toAbsolutePath();
+        this.name = path.toString();
+        ingestLogRepository.createTable();
+        this.segmentLog = new SegmentLog(path, segmentSize, ingestLogRepository.findPosition(name));
+        metrics.ingestLogSegments(segmentLog::segments);
+        LOGGER.log(Level.INFO, "Ingest log " + path + " opened with " + segmentLog.segments() + " segments");
+    }
+
+    /**
+     * @return A new upload, which must be closed.
+     * @see UploadEngine#LOG
+     */
+    public Upload upload() {
+        return new Upload(segmentLog.writer());
+    }
+
+    @PreDestroy
+    public void close() {
+        segmentLog.close();
+    }
+
+    String name() {
+        return name;
+    }
+
+    SegmentLog segmentLog() {
+        return segmentLog;
+    }
+
+    /**
+     * @return The {@link ViewEntity} or {@link ActionEvent} of a record.
+     */
+    static Object decode(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            byte type = in.readByte();
+            if (type == ACTION) {
+                return new ActionEvent(readString(in), readString(in));
+            }
+            if (type != VIEW) {
+                throw new IllegalStateException("Unknown ingest log record type " + type);
+            }
+            ViewEntity view = new ViewEntity(readString(in));
+            if (in.readBoolean()) {
+                view.setRegTime(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC));
+            }
+            view.setFcImpChk(in.readInt());
+            view.setFcTimeChk(in.readInt());
+            view.setUtmtr(in.readInt());
+            view.setMmDma(in.readInt());
+            view.setOsName(readString(in));
+            view.setModel(readString(in));
+            view.setHardware(readString(in));
+            view.setSiteId(readString(in));
+            return view;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * The rows of one uploaded file. They are written to the database only if {@link #commit()} succeeds, and
+     * discarded when the upload is closed otherwise.
+     */
+    public static final class Upload implements Closeable {
+        private final SegmentLog.Writer writer;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int rows;
+
+        private Upload(SegmentLog.Writer writer) {
+            this.writer = writer;
+        }
+
+        public void add(ViewEntity view) throws IOException {
+            bytes.reset();
+            out.writeByte(VIEW);
+            writeString(view.getUid());
+            LocalDateTime regTime = view.getRegTime();
+            out.writeBoolean(regTime != null);
+            if (regTime != null) {
+                out.writeLong(regTime.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(regTime.getNano());
+            }
+            out.writeInt(view.getFcImpChk());
+            out.writeInt(view.getFcTimeChk());
+            out.writeInt(view.getUtmtr());
+            out.writeInt(view.getMmDma());
+            writeString(view.getOsName());
+            writeString(view.getModel());
+            writeString(view.getHardware());
+            writeString(view.getSiteId());
+            append();
+        }
+
+        public void add(ActionEvent action) throws IOException {
+            bytes.reset();
+            out.writeByte(ACTION);
+            writeString(action.uid());
+            writeString(action.tag());
+            append();
+        }
+
+        /**
+         * Forces the rows to disk and hands them to the drainer.
+         *
+         * @return The number of rows added.
+         * @throws IOException If the rows cannot be forced to disk.
+         */
+        public int commit() throws IOException {
+            writer.publish();
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private void append() throws IOException {
+            writer.append(bytes.toByteArray());
+            rows++;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.allmagen.testtask.service.wal;
+
+import com.allmagen.testtask.model.ActionEvent;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.repository.IngestLogRepository;
+import com.allmagen.testtask.service.StatisticsMetrics;
+import com.allmagen.testtask.service.StatisticsService;
+import io.micrometer.core.instrument.Counter;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the rows of the {@link IngestLog} to the database in log order, on a single background thread.
+ * Up to {@code statistics.upload.batch-size} records are read at a time and written in one transaction, together with
+ * the checkpoint of the log: consecutive views with {@link StatisticsService#insertViews(List)} and consecutive actions
+ * with {@link StatisticsService#insertActions(List)}, so the rows are written like the batches of an upload with
+ * {@link com.allmagen.testtask.service.UploadEngine#BATCH}. Segments are deleted once the checkpoint has passed them.
+ * <p>
+ * With {@code statistics.ingest-log.drain-rate} set, at most that many rows per second are written, which bounds
+ * the load that upload spikes put on the database. A batch that fails is retried after
+ * {@code statistics.ingest-log.retry-delay}, so the rows are never reordered. On startup the drainer continues from
+ * the saved checkpoint, which replays the rows logged before a restart.
+ * <p>
+ * Failures to reach the database are retried until it is back. Any other failure, such as a row violating a
+ * constraint or a corrupted record, is retried {@code statistics.ingest-log.max-attempts} times; then the records of
+ * the batch are written one at a time and those that still fail are moved to the dead letter table of
+ * {@link IngestLogRepository}, so one bad row does not stop the log. The rest of a corrupted segment is skipped and
+ * the segment is kept for inspection. While a batch is being retried, the metric
+ * {@code statistics.ingest.log.stalled.seconds} grows.
+ */
+@Component
+@ConditionalOnProperty(name = "statistics.upload.engine", havingValue = "LOG")
+public class IngestLogDrainer {
+    private static final Logger LOGGER = LogManager.getLogger(IngestLogDrainer.class);
+
+    private final IngestLog ingestLog;
+    private final SegmentLog segmentLog;
+    private final StatisticsService statisticsService;
+    private final IngestLogRepository ingestLogRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int drainRate;
+    private final long retryDelayNanos;
+    private final int maxAttempts;
+    private final Counter deadLetters;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when the drainer has caught up with the log or stops.
+     */
+    private final Condition drained = lock.newCondition();
+    /**
+     * The segments before this sequence number have been written to the database.
+     */
+    private long drainedSequence;
+    /**
+     * The position of the next record to write, only used by the drainer thread.
+     */
+    private long position;
+    /**
+     * When the batch being retried failed first, {@code 0} while the log is written.
+     */
+    private volatile long stalledSinceMillis;
+    private volatile boolean running = true;
+    private final Thread drainer;
+
+    public IngestLogDrainer(IngestLog ingestLog, StatisticsService statisticsService,
+                            IngestLogRepository ingestLogRepository, PlatformTransactionManager transactionManager,
+                            StatisticsMetrics metrics,
+                            @Value("${statistics.upload.batch-size:1000}") int batchSize,
+                            @Value("${statistics.ingest-log.drain-rate:0}") int drainRate,
+                            @Value("${statistics.ingest-log.retry-delay:PT5S}") Duration retryDelay,
+                            @Value("${statistics.ingest-log.max-attempts:5}") int maxAttempts) {
+        this.ingestLog = ingestLog;
+        this.segmentLog = ingestLog.segmentLog();
+        this.statisticsService = statisticsService;
+        this.ingestLogRepository = ingestLogRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.drainRate = drainRate;
+        this.retryDelayNanos = retryDelay.toNanos();
+        this.maxAttempts = maxAttempts;
+        this.deadLetters = metrics.ingestLogDeadLetters();
+        metrics.ingestLogStalled(() -> {
+            long since = stalledSinceMillis;
+            return since == 0 ? 0 : (System.currentTimeMillis() - since) / 1000.0;
+        });
+        this.drainer = Thread.ofVirtual().name("ingest-log-drainer").start(this::drainLoop);
+    }
+
+    /**
+     * Waits until every upload committed to the log before the call has been written to the database.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitDrained() throws InterruptedException {
+        long target = segmentLog.published();
+        lock.lock();
+        try {
+            while (drainedSequence < target && drainer.isAlive()) {
+                drained.await(100, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops after the current batch. The rows not written yet stay in the log and are written after a restart.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        segmentLog.wakeUp();
+        lock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        drainer.join();
+    }
+
+    private void drainLoop() {
+        position = ingestLogRepository.findPosition(ingestLog.name());
+        List<byte[]> records = new ArrayList<>(batchSize);
+        int attempts = 0;
+        while (running) {
+            long published = segmentLog.published();
+            long startNanos = System.nanoTime();
+            records.clear();
+            int written;
+            try {
+                long next = segmentLog.read(position, batchSize, records);
+                if (!records.isEmpty()) {
+                    write(records, next);
+                }
+                position = next;
+                written = records.size();
+            } catch (RuntimeException e) {
+                attempts++;
+                if (stalledSinceMillis == 0) {
+                    stalledSinceMillis = System.currentTimeMillis();
+                }
+                if (isTransient(e) || attempts < maxAttempts) {
+                    LOGGER.log(Level.ERROR, "Writing " + records.size() + " rows of the ingest log failed, retrying", e);
+                    pause(retryDelayNanos);
+                    continue;
+                }
+                LOGGER.log(Level.ERROR, "Writing " + records.size() + " rows of the ingest log failed " + attempts +
+                        " times, writing them one at a time", e);
+                try {
+                    written = writeOneAtATime(batchSize);
+                } catch (RuntimeException retryException) {
+                    LOGGER.log(Level.ERROR, "Writing the rows of the ingest log one at a time failed, retrying", retryException);
+                    pause(retryDelayNanos);
+                    continue;
+                }
+            }
+            attempts = 0;
+            stalledSinceMillis = 0;
+            try {
+                segmentLog.deleteBefore(position);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARN, "Deleting written ingest log segments failed", e);
+            }
+
+            if (written == 0) {
+                caughtUp(published);
+                try {
+                    segmentLog.awaitPublished(published, 1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } else if (drainRate > 0) {
+                pause(startNanos + written * 1_000_000_000L / drainRate - System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Writes runs of consecutive views and actions and saves the position after them, in one transaction.
+     */
+    private void write(List<byte[]> records, long next) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<ViewEntity> views = new ArrayList<>();
+            List<ActionEvent> actions = new ArrayList<>();
+            for (byte[] record : records) {
+                Object row = IngestLog.decode(record);
+                if (row instanceof ViewEntity view) {
+                    insertActions(actions);
+                    views.add(view);
+                } else {
+                    insertViews(views);
+                    actions.add((ActionEvent) row);
+                }
+            }
+            insertViews(views);
+            insertActions(actions);
+            ingestLogRepository.savePosition(ingestLog.name(), next);
+        });
+    }
+
+    /**
+     * Writes up to {@code maxRecords} records in a transaction each, moving a record that fails to the dead letter
+     * table and skipping the rest of a segment at a corrupted record.
+     *
+     * @return The number of records written, moved or skipped.
+     * @throws RuntimeException If the database cannot be reached.
+     */
+    private int writeOneAtATime(int maxRecords) {
+        List<byte[]> record = new ArrayList<>(1);
+        int handled = 0;
+        while (handled < maxRecords) {
+            record.clear();
+            long next;
+            try {
+                next = segmentLog.read(position, 1, record);
+            } catch (SegmentLog.CorruptedRecordException e) {
+                deadLetter(e.position(), null, e, skipSegment(e.position()));
+                handled++;
+                continue;
+            }
+            if (record.isEmpty()) {
+                break;
+            }
+            try {
+                write(record, next);
+                position = next;
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                deadLetter(position, record.get(0), e, next);
+            }
+            handled++;
+        }
+        return handled;
+    }
+
+    /**
+     * Moves a record to the dead letter table and saves the position after it, in one transaction.
+     */
+    private void deadLetter(long recordPosition, byte[] record, RuntimeException error, long next) {
+        transactionTemplate.executeWithoutResult(status -> {
+            ingestLogRepository.addDeadLetter(ingestLog.name(), recordPosition, record, String.valueOf(error));
+            ingestLogRepository.savePosition(ingestLog.name(), next);
+        });
+        position = next;
+        deadLetters.increment();
+        LOGGER.log(Level.ERROR, "Moved the ingest log record at position " + recordPosition + " to the dead letter table", error);
+    }
+
+    private long skipSegment(long recordPosition) {
+        try {
+            return segmentLog.skipSegment(recordPosition);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Whether a failure is expected to go away when retried, such as a lost connection.
+     */
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException || e instanceof TransactionException;
+    }
+
+    private void insertViews(List<ViewEntity> views) {
+        if (!views.isEmpty()) {
+            // the listeners keep the list until the transaction commits
+            statisticsService.insertViews(List.copyOf(views));
+            views.clear();
+        }
+    }
+
+    private void insertActions(List<ActionEvent> actions) {
+        if (!actions.isEmpty()) {
+            statisticsService.insertActions(List.copyOf(actions));
+            actions.clear();
+        }
+    }
+
+    private void caughtUp(long published) {
+        lock.lock();
+        try {
+            drainedSequence = published;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits unless the drainer stops meanwhile.
+     */
+    private void pause(long nanos) {
+        lock.lock();
+        try {
+            long remaining = nanos;
+            while (running && remaining > 0) {
+                remaining = drained.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
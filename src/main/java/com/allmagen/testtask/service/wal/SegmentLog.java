@@ -0,0 +1,432 @@
+package com.allmagen.testtask.service.wal;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of binary records kept in memory-mapped segment files of a fixed size.
+ * <p>
+ * Records are written by a {@link Writer} into pending segments that only it can see. {@link Writer#publish()} forces
+ * them to disk and renames them into the log with the next sequence numbers, so the records of one writer become
+ * readable together, in the order written, and only once they are durable. Published segments are never modified.
+ * A position in the log holds the sequence number of a segment in its high 32 bits and the offset of a record in
+ * the segment in its low 32 bits.
+ * <p>
+ * A segment starts with a header holding the number of segments published with it and the sequence number of the
+ * first of them, followed by records of a length, the CRC32 of the content and the content. A zero length ends the
+ * records of a segment. When the log is opened, the pending segments of writers that did not publish are deleted,
+ * as are the segments before the checkpoint, which were read before, and the segments published together with
+ * missing ones, which a crash during {@link Writer#publish()} leaves behind.
+ */
+public final class SegmentLog implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger(SegmentLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+    private static final int MAGIC = 0x43545257;
+    /**
+     * The magic number, the number of segments published together and the sequence number of the first of them.
+     */
+    static final int HEADER_SIZE = 16;
+    /**
+     * The length and the CRC32 of a record.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final NavigableMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when segments are published or readers are woken up.
+     */
+    private final Condition segmentsPublished = lock.newCondition();
+    /**
+     * The sequence number of the next published segment.
+     */
+    private volatile long nextSequence;
+
+    /**
+     * Opens the log in a directory, creating it if needed, and deletes the segments that cannot be read.
+     *
+     * @param directory   the directory of the segment files.
+     * @param segmentSize the size of the segment files in bytes.
+     * @param checkpoint  the position up to which the log has been read before.
+     * @throws IOException If the directory cannot be read or a segment cannot be mapped or deleted.
+     */
+    public SegmentLog(Path directory, int segmentSize, long checkpoint) throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("The segment size should be greater than " + (HEADER_SIZE + RECORD_HEADER_SIZE));
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        long checkpointSequence = sequence(checkpoint);
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(PENDING_SUFFIX)) {
+                    LOGGER.log(Level.INFO, "Deleting unpublished ingest log segment " + file);
+                    Files.delete(file);
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    files.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                }
+            }
+        }
+
+        // a segment read partially before is never reused, even if its file is gone
+        long next = offset(checkpoint) > HEADER_SIZE ? checkpointSequence + 1 : checkpointSequence;
+        for (Map.Entry<Long, Path> entry : files.entrySet()) {
+            long sequence = entry.getKey();
+            if (sequence < checkpointSequence) {
+                Files.delete(entry.getValue());
+                continue;
+            }
+            MappedByteBuffer buffer = map(entry.getValue());
+            if (!isComplete(buffer, files.keySet(), checkpointSequence)) {
+                LOGGER.log(Level.WARN, "Deleting ingest log segment " + entry.getValue() + " published incompletely");
+                Files.delete(entry.getValue());
+                continue;
+            }
+            segments.put(sequence, buffer);
+            next = Math.max(next, sequence + 1);
+        }
+        nextSequence = next;
+    }
+
+    /**
+     * @return A writer of new records, which must be closed.
+     */
+    public Writer writer() {
+        return new Writer();
+    }
+
+    /**
+     * Reads the records following a position.
+     *
+     * @param position   the position of the first record to read, as returned by the previous read or a checkpoint.
+     * @param maxRecords the maximum number of records to read.
+     * @param records    receives the records.
+     * @return The position after the last record read.
+     * @throws CorruptedRecordException If a record is corrupted.
+     */
+    public long read(long position, int maxRecords, List<byte[]> records) {
+        long sequence = sequence(position);
+        int offset = Math.max(offset(position), HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        int read = 0;
+        while (read < maxRecords) {
+            Map.Entry<Long, MappedByteBuffer> segment = segments.ceilingEntry(sequence);
+            if (segment == null) {
+                break;
+            }
+            if (segment.getKey() != sequence) {
+                sequence = segment.getKey();
+                offset = HEADER_SIZE;
+            }
+            MappedByteBuffer buffer = segment.getValue();
+            int length = offset + RECORD_HEADER_SIZE <= buffer.limit() ? buffer.getInt(offset) : 0;
+            if (length == 0) {
+                Long nextSegment = segments.higherKey(sequence);
+                if (nextSegment == null) {
+                    break;
+                }
+                sequence = nextSegment;
+                offset = HEADER_SIZE;
+                continue;
+            }
+            if (length < 0 || offset + RECORD_HEADER_SIZE + length > buffer.limit()) {
+                throw new CorruptedRecordException(sequence, offset);
+            }
+            byte[] record = new byte[length];
+            buffer.get(offset + RECORD_HEADER_SIZE, record);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                throw new CorruptedRecordException(sequence, offset);
+            }
+            records.add(record);
+            read++;
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return position(sequence, offset);
+    }
+
+    /**
+     * Gives up the records of a segment from a position on, keeping a copy of the segment file with the suffix
+     * {@code .corrupt} for inspection. The copy is not read when the log is opened.
+     *
+     * @return The position of the first record of the next segment.
+     * @throws IOException If the segment cannot be copied.
+     */
+    public long skipSegment(long position) throws IOException {
+        long sequence = sequence(position);
+        Path file = segmentFile(sequence);
+        if (Files.exists(file)) {
+            Files.copy(file, directory.resolve(String.format("%019d", sequence) + CORRUPT_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return position(sequence + 1, 0);
+    }
+
+    /**
+     * Deletes the segments before the segment of a position, which have been read completely.
+     *
+     * @throws IOException If a segment file cannot be deleted.
+     */
+    public void deleteBefore(long position) throws IOException {
+        Map.Entry<Long, MappedByteBuffer> segment;
+        while ((segment = segments.firstEntry()) != null && segment.getKey() < sequence(position)) {
+            segments.remove(segment.getKey());
+            Files.deleteIfExists(segmentFile(segment.getKey()));
+        }
+    }
+
+    /**
+     * @return The sequence number of the next published segment; every segment before it has been published.
+     */
+    public long published() {
+        return nextSequence;
+    }
+
+    /**
+     * Waits until a segment with a sequence number of at least {@code sequence} is published, the timeout elapses or
+     * {@link #wakeUp()} is called.
+     *
+     * @return {@code true} if such a segment was published.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitPublished(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            if (nextSequence <= sequence) {
+                segmentsPublished.await(timeout, unit);
+            }
+            return nextSequence > sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up the threads waiting in {@link #awaitPublished(long, long, TimeUnit)}.
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            segmentsPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of published segments that have not been deleted.
+     */
+    public int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Unregisters the segments; the mappings are released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+    }
+
+    public static long position(long sequence, int offset) {
+        return sequence << 32 | offset;
+    }
+
+    public static long sequence(long position) {
+        return position >>> 32;
+    }
+
+    public static int offset(long position) {
+        return (int) position;
+    }
+
+    private Path segmentFile(long sequence) {
+        return directory.resolve(String.format("%019d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * @return {@code true} if the segment has a valid header and every segment published with it and not read
+     * before the checkpoint exists.
+     */
+    private static boolean isComplete(MappedByteBuffer buffer, Set<Long> sequences, long checkpointSequence) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            return false;
+        }
+        int count = buffer.getInt(4);
+        long first = buffer.getLong(8);
+        for (long sequence = Math.max(first, checkpointSequence); sequence < first + count; sequence++) {
+            if (!sequences.contains(sequence)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends records to pending segments and publishes them at once. Closing a writer that was not published
+     * deletes its segments. Instances are not thread-safe.
+     */
+    public final class Writer implements Closeable {
+        private final String id = UUID.randomUUID().toString();
+        private final List<Path> files = new ArrayList<>();
+        private final List<MappedByteBuffer> buffers = new ArrayList<>();
+        private final CRC32 crc = new CRC32();
+        private MappedByteBuffer current;
+        private boolean published;
+
+        private Writer() {
+        }
+
+        /**
+         * Appends a record to the current pending segment, starting a new one if it is full.
+         *
+         * @param record the content of the record, not empty.
+         * @throws IOException If a new segment cannot be created.
+         */
+        public void append(byte[] record) throws IOException {
+            if (published) {
+                throw new IllegalStateException("The writer has been published");
+            }
+            if (record.length == 0 || record.length > segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE) {
+                throw new IllegalArgumentException("A record of " + record.length + " bytes does not fit into a segment");
+            }
+            if (current == null || current.remaining() < RECORD_HEADER_SIZE + record.length) {
+                newSegment();
+            }
+            crc.reset();
+            crc.update(record);
+            current.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        }
+
+        /**
+         * Forces the pending segments to disk and renames them into the log, after the segments published before.
+         * The records can be read once this method returns.
+         *
+         * @throws IOException If the segments cannot be forced or renamed.
+         */
+        public void publish() throws IOException {
+            if (published) {
+                throw new IllegalStateException("The writer has been published");
+            }
+            if (buffers.isEmpty()) {
+                published = true;
+                return;
+            }
+            for (MappedByteBuffer buffer : buffers) {
+                buffer.force();
+            }
+
+            lock.lock();
+            try {
+                long first = nextSequence;
+                int moved = 0;
+                try {
+                    for (; moved < buffers.size(); moved++) {
+                        MappedByteBuffer buffer = buffers.get(moved);
+                        buffer.putInt(0, MAGIC).putInt(4, buffers.size()).putLong(8, first);
+                        buffer.force(0, HEADER_SIZE);
+                        Files.move(files.get(moved), segmentFile(first + moved), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                        channel.force(true);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // the sequence numbers are not taken, so the next writer would overwrite the renamed segments
+                    for (int i = 0; i < moved; i++) {
+                        try {
+                            Files.deleteIfExists(segmentFile(first + i));
+                        } catch (IOException deleteException) {
+                            e.addSuppressed(deleteException);
+                        }
+                    }
+                    throw e;
+                }
+                for (int i = 0; i < buffers.size(); i++) {
+                    segments.put(first + i, buffers.get(i));
+                }
+                nextSequence = first + buffers.size();
+                published = true;
+                segmentsPublished.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!published) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        private void newSegment() throws IOException {
+            Path file = directory.resolve(id + "-" + files.size() + PENDING_SUFFIX);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            current.position(HEADER_SIZE);
+            files.add(file);
+            buffers.add(current);
+        }
+    }
+
+    /**
+     * A record whose length or CRC32 does not match its content.
+     */
+    public static final class CorruptedRecordException extends IllegalStateException {
+        private final long position;
+
+        private CorruptedRecordException(long sequence, int offset) {
+            super("Corrupted ingest log record at offset " + offset + " of segment " + sequence);
+            this.position = SegmentLog.position(sequence, offset);
+        }
+
+        /**
+         * @return The position of the corrupted record.
+         */
+        public long position() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.service.ActionCounts;
+import com.allmagen.testtask.service.parser.ActionLineReader;
+import com.allmagen.testtask.service.parser.ByteDictionary;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ActionCountsTest {
+
+    @Test
+    void testCountsMatchHashMap() throws Exception {
+        StringWriter actions = new StringWriter();
+        new SyntheticDataGenerator(50_000, 1, 11).write(new StringWriter(), actions);
+
+        Map<String, Integer> expected = new HashMap<>();
+        String[] lines = actions.toString().split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            expected.merge(lines[i], 1, Integer::sum);
+        }
+
+        // small initial sizes, so the dictionaries and the table grow several times
+        ByteDictionary uids = new ByteDictionary(1);
+        ByteDictionary tags = new ByteDictionary(1);
+        ActionCounts counts = new ActionCounts(1);
+        ActionLineReader reader = new ActionLineReader(input(actions.toString()), uids, tags);
+        while (reader.next()) {
+            counts.increment(reader.uid(), reader.tag());
+        }
+
+        Map<String, Integer> actual = new HashMap<>();
+        counts.forEach((uid, tag, count) -> actual.put(uids.string(uid) + "," + tags.string(tag), count));
+        assertThat(actual).isEqualTo(expected);
+        assertThat(counts.size()).isEqualTo(expected.size());
+        assertThat(tags.size()).isEqualTo(expected.keySet().stream().map(key -> key.substring(key.indexOf(',') + 1)).distinct().count());
+    }
+
+    @Test
+    void testQuotedFieldsAndLineEndings() throws IOException {
+        String csv = "uid,tag\r\n" +
+                "a,fclick\r\n" +
+                "\"a\",\"fclick\"\n" +
+                "\"b\"\"1\",vclick\n" +
+                "b\"1,vclick";
+        ByteDictionary uids = new ByteDictionary(4);
+        ByteDictionary tags = new ByteDictionary(4);
+        ActionCounts counts = new ActionCounts(4);
+        ActionLineReader reader = new ActionLineReader(input(csv), uids, tags);
+        while (reader.next()) {
+            counts.increment(reader.uid(), reader.tag());
+        }
+
+        assertThat(uids.size()).isEqualTo(2);
+        assertThat(uids.string(1)).isEqualTo("b\"1");
+        assertThat(counts.get(0, 0)).isEqualTo(2);
+        assertThat(counts.get(1, 1)).isEqualTo(2);
+        assertThat(counts.get(1, 0)).isZero();
+    }
+
+    @Test
+    void testClearForgetsCounts() {
+        ActionCounts counts = new ActionCounts(1);
+        for (int uid = 0; uid < 100; uid++) {
+            counts.increment(uid, 0);
+        }
+        counts.clear();
+        counts.increment(7, 0);
+
+        assertThat(counts.size()).isEqualTo(1);
+        assertThat(counts.get(7, 0)).isEqualTo(1);
+        assertThat(counts.get(8, 0)).isZero();
+    }
+
+    @Test
+    void testLineWithWrongNumberOfFieldsIsRejected() {
+        ActionLineReader reader = new ActionLineReader(input("uid,tag\na,fclick,extra\n"), new ByteDictionary(1), new ByteDictionary(1));
+
+        assertThatThrownBy(reader::next)
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("expected length of 2 elements");
+    }
+
+    private static ByteArrayInputStream input(String csv) {
+        return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+    }
+}
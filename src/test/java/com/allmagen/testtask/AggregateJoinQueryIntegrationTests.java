@@ -0,0 +1,144 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.repository.ViewRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Compares the aggregate-then-join queries of {@link ViewRepository} with the original FULL JOIN queries
+ * that counted views with {@code COUNT(DISTINCT v.uid)}.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class AggregateJoinQueryIntegrationTests {
+    private final static String INTERVIEW_X = "classpath:testdata/interview.x.small.csv";
+    private final static String INTERVIEW_Y = "classpath:testdata/interview.y.csv";
+
+    private final static String FULL_JOIN_CTR = "SELECT FUNCTION('DATE_TRUNC', :interval, v.regTime) AS intervalStart, " +
+            "SUM(COALESCE(a.count, 0)) * 100.0 / COUNT(DISTINCT v.uid) AS ctr " +
+            "FROM ViewEntity v " +
+            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND ((:tag is null AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) or a.tag = :tag))" +
+            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
+            "GROUP BY intervalStart " +
+            "ORDER BY intervalStart";
+    private final static String FULL_JOIN_EVPM = "SELECT FUNCTION('DATE_TRUNC', :interval, v.regTime) AS intervalStart, " +
+            "SUM(COALESCE(a.count, 0)) * 1.0 / COUNT(DISTINCT v.uid) AS ctr " +
+            "FROM ViewEntity v " +
+            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND (:tag is null OR a.tag = :tag OR a.tag = CONCAT('v', :tag)))" +
+            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
+            "GROUP BY intervalStart " +
+            "ORDER BY intervalStart";
+    private final static String FULL_JOIN_CTR_BY_MM_DMA = "SELECT v.mmDma AS mmDma, " +
+            "SUM(COALESCE(a.count, 0)) * 1.0 / COUNT(DISTINCT v.uid) AS ctr " +
+            "FROM ViewEntity v " +
+            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND ((:tag is null AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) or a.tag = :tag))" +
+            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
+            "GROUP BY mmDma " +
+            "ORDER BY mmDma";
+    private final static String FULL_JOIN_CTR_BY_SITE_ID = "SELECT v.siteId AS siteId, " +
+            "SUM(COALESCE(a.count, 0)) * 1.0 / COUNT(DISTINCT v.uid) AS ctr " +
+            "FROM ViewEntity v " +
+            "FULL JOIN ActionEntity a ON (v.uid = a.viewEntity.uid AND ((:tag is null AND (a.tag = 'fclick' OR NOT (a.tag LIKE 'v%'))) or a.tag = :tag))" +
+            "WHERE (v.regTime BETWEEN :startDate AND :endDate)" +
+            "GROUP BY siteId " +
+            "ORDER BY siteId";
+
+    private final static List<LocalDateTime[]> RANGES = List.of(
+            range("2021-07-21T00:00:00", "2021-07-23T00:00:00"),
+            range("2021-07-21T19:30:17", "2021-07-22T08:45:42"),
+            range("2021-07-21T21:05:30", "2021-07-21T21:50:10"));
+    private final static String[] TAGS = {null, "fclick", "registration", "vregistration", "signup", "unknown"};
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ResourceLoader resourceLoader;
+    @Autowired
+    private ViewRepository viewRepository;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void upload() throws Exception {
+        TestUploads.upload(mockMvc, "/views", csvFile(INTERVIEW_X))
+                .andExpect(status().isOk());
+        TestUploads.upload(mockMvc, "/actions", csvFile(INTERVIEW_Y))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testQueriesMatchFullJoinQueries() {
+        for (LocalDateTime[] range : RANGES) {
+            for (String tag : TAGS) {
+                for (StatisticsController.Interval interval : StatisticsController.Interval.values()) {
+                    String value = interval.getValue();
+                    assertThat(read(() -> viewRepository.getCTR(range[0], range[1], value, tag), row -> row.getIntervalStart() + "=" + row.getCtr()))
+                            .isNotEmpty()
+                            .isEqualTo(fullJoin(FULL_JOIN_CTR, range, value, tag));
+                    assertThat(read(() -> viewRepository.getEvPM(range[0], range[1], value, tag), row -> row.getIntervalStart() + "=" + row.getCtr()))
+                            .isEqualTo(fullJoin(FULL_JOIN_EVPM, range, value, tag));
+                }
+                assertThat(read(() -> viewRepository.getCtrAggregateByMmDma(range[0], range[1], tag), row -> row.getMmDma() + "=" + row.getCtr()))
+                        .isNotEmpty()
+                        .isEqualTo(fullJoin(FULL_JOIN_CTR_BY_MM_DMA, range, null, tag));
+                assertThat(read(() -> viewRepository.getCtrAggregateBySiteId(range[0], range[1], tag), row -> row.getSiteId() + "=" + row.getCtr()))
+                        .isNotEmpty()
+                        .isEqualTo(fullJoin(FULL_JOIN_CTR_BY_SITE_ID, range, null, tag));
+            }
+        }
+    }
+
+    private List<String> fullJoin(String jpql, LocalDateTime[] range, String interval, String tag) {
+        return transactionTemplate.execute(status -> {
+            Query query = entityManager.createQuery(jpql)
+                    .setParameter("startDate", range[0])
+                    .setParameter("endDate", range[1])
+                    .setParameter("tag", tag);
+            if (interval != null) {
+                query.setParameter("interval", interval);
+            }
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.getResultList();
+            return rows.stream()
+                    .map(row -> row[0] + "=" + ((Number) row[1]).floatValue())
+                    .toList();
+        });
+    }
+
+    private <T> List<String> read(Supplier<Stream<T>> query, Function<T, String> format) {
+        return transactionTemplate.execute(status -> {
+            try (Stream<T> rows = query.get()) {
+                return rows.map(format).toList();
+            }
+        });
+    }
+
+    private MockMultipartFile csvFile(String location) throws Exception {
+        return TestUploads.csvFile(resourceLoader.getResource(location).getInputStream().readAllBytes());
+    }
+
+    private static LocalDateTime[] range(String from, String to) {
+        return new LocalDateTime[]{LocalDateTime.parse(from), LocalDateTime.parse(to)};
+    }
+}
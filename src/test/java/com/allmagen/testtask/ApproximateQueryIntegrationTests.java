@@ -0,0 +1,135 @@
+package com.allmagen.testtask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ApproximateQueryIntegrationTests {
+    private final static String ACTIONS_HEADER = "uid,tag\n";
+    private final static int VIEWS = 50_000;
+    private final static int[] MM_DMAS = {501, 602, 803, 881};
+    private final static String[] SITES = {"a.example.com", "b.example.com", "c.example.com", "d.example.com"};
+    private final static String[] TAGS = {"fclick", "registration", "vregistration"};
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testApproximateResultsAreWithinErrorOfExactResults() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        upload(day);
+
+        LocalDateTime dayEnd = day.plusDays(1).minusSeconds(1);
+        String[][] queries = {
+                {"/ctr", "intervalStart", "ctr"},
+                {"/evpm", "intervalStart", "ctr"},
+                {"/ctrByMmDma", "mmDma", "ctr"},
+                {"/ctrBySiteId", "siteId", "ctr"},
+                {"/viewsCountByMmDma", "mmDma", "count"},
+                {"/viewsCountBySiteId", "siteId", "count"}};
+        for (String[] query : queries) {
+            boolean byDate = query[0].startsWith("/views");
+            Map<String, Double> exact = values(request(query[0], day, dayEnd, byDate, false), query[1], query[2], null);
+            Map<String, Double> errors = new HashMap<>();
+            Map<String, Double> approximate = values(request(query[0], day, dayEnd, byDate, true), query[1], query[2], errors);
+
+            assertThat(exact).as(query[0]).isNotEmpty();
+            assertThat(approximate.keySet()).as(query[0]).isEqualTo(exact.keySet());
+            for (String key : exact.keySet()) {
+                assertThat(errors.get(key)).as(query[0] + " " + key).isNotNull().isPositive();
+                assertThat(approximate.get(key)).as(query[0] + " " + key)
+                        .isCloseTo(exact.get(key), offset(2 * errors.get(key)));
+            }
+        }
+
+        // the views picked in Java when uploading are the ones a rebuild would pick in SQL
+        Integer sampled = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM view_sample WHERE reg_time >= ? AND reg_time < ?",
+                Integer.class, day, day.plusDays(1));
+        Integer expected = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE reg_time >= ? AND reg_time < ? " +
+                "AND mod(('x' || substr(md5(uid), 1, 8))::bit(32)::integer, 100) = 0", Integer.class, day, day.plusDays(1));
+        assertThat(sampled).isEqualTo(expected).isBetween(VIEWS / 200, VIEWS / 50);
+    }
+
+    /**
+     * Uploads views spread over a day, four mmDma codes and four sites, where the number of actions per view
+     * depends on the mmDma code and the site.
+     */
+    private void upload(LocalDateTime day) throws Exception {
+        Random random = new Random(19);
+        StringBuilder views = new StringBuilder(TestUploads.VIEWS_HEADER);
+        StringBuilder actions = new StringBuilder(ACTIONS_HEADER);
+        for (int i = 0; i < VIEWS; i++) {
+            String uid = UUID.randomUUID().toString();
+            int market = random.nextInt(MM_DMAS.length);
+            int site = random.nextInt(SITES.length);
+            LocalDateTime regTime = day.plusSeconds(random.nextInt(24 * 60 * 60));
+            views.append(TestUploads.csvTime(regTime)).append(',').append(uid).append(",0,7,6,")
+                    .append(MM_DMAS[market]).append(",iOS,iPhone XR,Mobile Phone,").append(SITES[site]).append('\n');
+            int actionCount = random.nextInt(2 + market + site);
+            for (int j = 0; j < actionCount; j++) {
+                actions.append(uid).append(',').append(TAGS[random.nextInt(TAGS.length)]).append('\n');
+            }
+        }
+        TestUploads.upload(mockMvc, "/views", views)
+                .andExpect(status().isOk());
+        TestUploads.upload(mockMvc, "/actions", actions)
+                .andExpect(status().isOk());
+        // refresh the planner statistics as autovacuum would, so the exact queries are not planned for empty days
+        jdbcTemplate.execute("ANALYZE views_table, actions_table");
+    }
+
+    private MockHttpServletRequestBuilder request(String path, LocalDateTime dateFrom, LocalDateTime dateTo, boolean byDate,
+                                                  boolean approximate) {
+        MockHttpServletRequestBuilder request = get(path)
+                .param("dateFrom", byDate ? dateFrom.toLocalDate().toString() : dateFrom.toString())
+                .param("dateTo", byDate ? dateTo.toLocalDate().toString() : dateTo.toString())
+                .param("approximate", String.valueOf(approximate))
+                .contentType(MediaType.APPLICATION_JSON);
+        return path.equals("/ctr") || path.equals("/evpm") ? request.param("interval", "DAY") : request;
+    }
+
+    /**
+     * @param errors receives the error bound of each row, or {@code null} if the rows must not have one.
+     */
+    private Map<String, Double> values(MockHttpServletRequestBuilder request, String keyField, String valueField,
+                                       Map<String, Double> errors) throws Exception {
+        String responseJson = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Map<String, Double> values = new HashMap<>();
+        for (JsonNode row : objectMapper.readTree(responseJson).get("items")) {
+            String key = row.get(keyField).asText();
+            values.put(key, row.get(valueField).asDouble());
+            if (errors == null) {
+                assertThat(row.has("error")).isFalse();
+            } else if (row.hasNonNull("error")) {
+                errors.put(key, row.get("error").asDouble());
+            }
+        }
+        return values;
+    }
+}
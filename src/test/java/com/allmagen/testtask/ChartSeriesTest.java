@@ -0,0 +1,48 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.service.ChartSeries;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChartSeriesTest {
+    private final static LocalDateTime START = LocalDateTime.parse("2021-07-20T00:00:00");
+
+    @Test
+    void testDownsamplingKeepsEndsAndPeaks() {
+        ChartSeries series = new ChartSeries();
+        for (int minute = 0; minute < 10_000; minute++) {
+            float value = switch (minute) {
+                case 2_500 -> 90f;
+                case 7_500 -> 0f;
+                default -> 10f + (minute % 7) * 0.1f;
+            };
+            series.add(START.plusMinutes(minute), value);
+        }
+
+        ChartSeries chart = series.downsample(100);
+
+        assertThat(chart.size()).isEqualTo(100);
+        List<LocalDateTime> x = chart.xAxisData();
+        assertThat(x.get(0)).isEqualTo(START);
+        assertThat(x.get(99)).isEqualTo(START.plusMinutes(9_999));
+        assertThat(x).isSorted().contains(START.plusMinutes(2_500), START.plusMinutes(7_500));
+        assertThat(chart.yAxisData()).contains(90f, 0f);
+    }
+
+    @Test
+    void testShortSeriesIsNotDownsampled() {
+        ChartSeries series = new ChartSeries();
+        for (int hour = 0; hour < 5; hour++) {
+            series.add(START.plusHours(hour), hour);
+        }
+
+        assertThat(series.downsample(5)).isSameAs(series);
+        assertThat(series.yAxisData()).containsExactly(0f, 1f, 2f, 3f, 4f);
+        assertThatThrownBy(() -> series.downsample(2)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,194 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.model.ActionEntity;
+import com.allmagen.testtask.model.ActionEvent;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.*;
+import com.allmagen.testtask.repository.ViewRepository;
+import com.allmagen.testtask.service.StatisticsService;
+import com.allmagen.testtask.service.columnar.ColumnarStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "statistics.query.engine=COLUMNAR")
+@AutoConfigureMockMvc
+class ColumnarStoreIntegrationTests {
+    private final static String INTERVIEW_X = "classpath:testdata/interview.x.small.csv";
+    private final static String INTERVIEW_Y = "classpath:testdata/interview.y.csv";
+
+    private final static LocalDateTime DATE_FROM = LocalDateTime.parse("2021-07-21T19:30:17");
+    private final static LocalDateTime DATE_TO = LocalDateTime.parse("2021-07-22T08:45:42");
+    private final static String[] TAGS = {null, "fclick", "registration", "vregistration", "signup"};
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ResourceLoader resourceLoader;
+    @Autowired
+    private ViewRepository viewRepository;
+    @Autowired
+    private ColumnarStore columnarStore;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private StatisticsService statisticsService;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void upload() throws Exception {
+        upload("/views", resourceLoader.getResource(INTERVIEW_X).getInputStream().readAllBytes());
+        upload("/actions", resourceLoader.getResource(INTERVIEW_Y).getInputStream().readAllBytes());
+    }
+
+    @Test
+    void testColumnarQueriesMatchSqlQueries() {
+        assertThat(columnarStore.isLoaded()).isTrue();
+
+        for (String tag : TAGS) {
+            for (StatisticsController.Interval interval : StatisticsController.Interval.values()) {
+                assertThat(read(() -> columnarStore.getCTR(DATE_FROM, DATE_TO, interval, tag), this::format))
+                        .isNotEmpty()
+                        .isEqualTo(read(() -> viewRepository.getCTR(DATE_FROM, DATE_TO, interval.getValue(), tag), this::format));
+                assertThat(read(() -> columnarStore.getEvPM(DATE_FROM, DATE_TO, interval, tag), this::format))
+                        .isEqualTo(read(() -> viewRepository.getEvPM(DATE_FROM, DATE_TO, interval.getValue(), tag), this::format));
+            }
+
+            assertThat(read(() -> columnarStore.getCtrAggregateByMmDma(DATE_FROM, DATE_TO, tag), row -> row.getMmDma() + "=" + row.getCtr()))
+                    .isNotEmpty()
+                    .isEqualTo(read(() -> viewRepository.getCtrAggregateByMmDma(DATE_FROM, DATE_TO, tag), row -> row.getMmDma() + "=" + row.getCtr()));
+            assertThat(read(() -> columnarStore.getCtrAggregateBySiteId(DATE_FROM, DATE_TO, tag), row -> row.getSiteId() + "=" + row.getCtr()))
+                    .isNotEmpty()
+                    .isEqualTo(read(() -> viewRepository.getCtrAggregateBySiteId(DATE_FROM, DATE_TO, tag), row -> row.getSiteId() + "=" + row.getCtr()));
+        }
+
+        LocalDate day = DATE_FROM.toLocalDate();
+        assertThat(read(() -> columnarStore.getViewsCountByMmDma(day, day), row -> row.getMmDma() + "=" + row.getCount()))
+                .isNotEmpty()
+                .containsExactlyInAnyOrderElementsOf(read(() -> viewRepository.getViewsCountByMmDma(day.atStartOfDay(), day.plusDays(1).atStartOfDay()), row -> row.getMmDma() + "=" + row.getCount()));
+        assertThat(read(() -> columnarStore.getViewsCountBySiteId(day, day.plusDays(1)), row -> row.getSiteId() + "=" + row.getCount()))
+                .isNotEmpty()
+                .containsExactlyInAnyOrderElementsOf(read(() -> viewRepository.getViewsCountBySiteId(day.atStartOfDay(), day.plusDays(2).atStartOfDay()), row -> row.getSiteId() + "=" + row.getCount()));
+    }
+
+    @Test
+    void testUploadsRefreshColumnarStore() throws Exception {
+        String uid = UUID.randomUUID().toString();
+        LocalDateTime regTime = TestDays.uniqueWeek().plusHours(10);
+        String siteId = "columnar-" + uid;
+
+        upload("/views", (TestUploads.VIEWS_HEADER + TestUploads.viewLine(regTime, uid, siteId)).getBytes(StandardCharsets.UTF_8));
+        upload("/actions", ("uid,tag\n" + uid + ",fclick\n" + uid + ",fclick\n" + uid + ",vregistration\n").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(read(() -> columnarStore.getViewsCountBySiteId(regTime.toLocalDate(), regTime.toLocalDate()), row -> row.getSiteId() + "=" + row.getCount()))
+                .contains(siteId + "=1");
+        assertThat(read(() -> columnarStore.getCTR(regTime, regTime, StatisticsController.Interval.MINUTE, null), this::format))
+                .containsExactlyElementsOf(read(() -> viewRepository.getCTR(regTime, regTime, "minute", null), this::format));
+        assertThat(read(() -> columnarStore.getCtrAggregateBySiteId(regTime, regTime, null), row -> row.getSiteId() + "=" + row.getCtr()))
+                .containsExactly(siteId + "=2.0");
+    }
+
+    /**
+     * siteIds uploaded after the load are ordered like {@code ORDER BY site_id}, in the collation of the database.
+     */
+    @Test
+    void testSiteIdsAreOrderedLikeSql() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        StringBuilder views = new StringBuilder(TestUploads.VIEWS_HEADER);
+        StringBuilder actions = new StringBuilder("uid,tag\n");
+        for (String site : new String[]{"b", "B", "a-b", "ab", "_a", "Ä", "a b"}) {
+            String uid = UUID.randomUUID().toString();
+            views.append(TestUploads.viewLine(day.plusHours(1), uid, site + "." + suffix + ".example.com"));
+            actions.append(uid).append(",fclick\n");
+        }
+        upload("/views", views.toString().getBytes(StandardCharsets.UTF_8));
+        upload("/actions", actions.toString().getBytes(StandardCharsets.UTF_8));
+
+        LocalDateTime dayEnd = day.plusDays(1);
+        assertThat(read(() -> columnarStore.getCtrAggregateBySiteId(day, dayEnd, null), SiteIdCTR::getSiteId))
+                .hasSize(7)
+                .containsExactlyElementsOf(read(() -> viewRepository.getCtrAggregateBySiteId(day, dayEnd, null), SiteIdCTR::getSiteId));
+    }
+
+    /**
+     * An upload that commits before the load is in its snapshot and an upload that commits while it runs is not,
+     * so both are counted once.
+     */
+    @Test
+    void testUploadsCommittedAroundTheLoadAreCountedOnce() {
+        ColumnarStore store = new ColumnarStore(dataSource, transactionManager, 1000);
+        LocalDateTime day = TestDays.uniqueWeek();
+
+        transactionTemplate.executeWithoutResult(status -> insert(store, day.plusHours(1), 2));
+        transactionTemplate.executeWithoutResult(status -> {
+            insert(store, day.plusHours(2), 1);
+            CompletableFuture.runAsync(store::load).join();
+        });
+
+        assertThat(read(() -> store.getEvPM(day, day.plusDays(1), StatisticsController.Interval.DAY, null), this::format))
+                .containsExactly(day + "=1.5");
+    }
+
+    /**
+     * Writes a view with {@code fclick} actions and passes the rows to the store like {@link StatisticsService}.
+     */
+    private void insert(ColumnarStore store, LocalDateTime regTime, int clicks) {
+        ViewEntity view = new ViewEntity(UUID.randomUUID().toString());
+        view.setRegTime(regTime);
+        view.setMmDma(530);
+        view.setOsName("iOS");
+        view.setModel("iPhone XR");
+        view.setHardware("Mobile Phone");
+        view.setSiteId("columnar.example.com");
+        statisticsService.insertViews(List.of(view));
+        store.viewsInserted(List.of(view));
+
+        statisticsService.insertActions(Stream.generate(() -> new ActionEvent(view.getUid(), "fclick")).limit(clicks).toList());
+        ActionEntity action = new ActionEntity(view, "fclick");
+        action.setCount(clicks);
+        store.actionsInserted(List.of(action));
+    }
+
+    private String format(CtrDates row) {
+        return row.getIntervalStart() + "=" + row.getCtr();
+    }
+
+    private <T> List<String> read(Supplier<Stream<T>> query, Function<T, String> format) {
+        return transactionTemplate.execute(status -> {
+            try (Stream<T> rows = query.get()) {
+                return rows.map(format).toList();
+            }
+        });
+    }
+
+    private void upload(String path, byte[] fileContent) throws Exception {
+        TestUploads.upload(mockMvc, path, fileContent)
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,173 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.model.metrics.LiveBucket;
+import com.allmagen.testtask.service.QueryCache;
+import com.allmagen.testtask.service.live.LiveWindow;
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"statistics.upload.engine=COPY", "statistics.upload.batch-size=2"})
+@AutoConfigureMockMvc
+class CopyUploadIntegrationTests {
+    private final static String INTERVIEW_X = "classpath:testdata/interview.x.small.csv";
+    private final static String INTERVIEW_Y = "classpath:testdata/interview.y.csv";
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ResourceLoader resourceLoader;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private QueryCache queryCache;
+    @Autowired
+    private LiveWindow liveWindow;
+
+    @Test
+    void testCopyViewsAndActionsFromFile() throws Exception {
+        TestUploads.upload(mockMvc, "/views", csvFile(INTERVIEW_X))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(matchesPattern("Views uploaded: \\d+ \\(\\d+ rows/sec\\)")));
+
+        TestUploads.upload(mockMvc, "/actions", csvFile(INTERVIEW_Y))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(matchesPattern("Actions uploaded: \\d+ \\(\\d+ rows/sec\\)")));
+    }
+
+    @Test
+    void testUploadsMergeActionCountsAndSkipStoredViews() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        String uid = UUID.randomUUID().toString();
+        byte[] views = (TestUploads.VIEWS_HEADER + TestUploads.viewLine(day.plusHours(1), uid, "delta.example.com"))
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] actions = ("uid,tag\n" + uid + ",fclick\n" + uid + ",fclick\n" + uid + ",registration\n").getBytes(StandardCharsets.UTF_8);
+
+        upload("/views", views, "Views uploaded: 1 ");
+        upload("/views", views, "Views uploaded: 0 ");
+        upload("/actions", actions, "Actions uploaded: 2 ");
+        Long lastId = jdbcTemplate.queryForObject("SELECT last_value FROM actions_table_seq", Long.class);
+        upload("/actions", actions, "Actions uploaded: 2 ");
+        // updating the stored rows takes no ids
+        assertThat(jdbcTemplate.queryForObject("SELECT last_value FROM actions_table_seq", Long.class)).isEqualTo(lastId);
+
+        assertThat(jdbcTemplate.queryForList("SELECT tag || '=' || count FROM actions_table WHERE uid = ? ORDER BY tag", String.class, uid))
+                .containsExactly("fclick=4", "registration=2");
+        assertThat(jdbcTemplate.queryForObject("SELECT action_count FROM action_rollup " +
+                "WHERE granularity = 'day' AND bucket_start = ? AND tag = 'fclick'", Long.class, day)).isEqualTo(4);
+    }
+
+    /**
+     * The query cache only receives the registration time span of the merged rows, the live window receives the rows
+     * in chunks of {@code statistics.upload.batch-size}.
+     */
+    @Test
+    void testListenersReceiveMergedRows() throws Exception {
+        LocalDateTime minute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(4);
+        String tag = "copy" + UUID.randomUUID().toString().substring(0, 8);
+        String[] uids = {UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString()};
+        StringBuilder views = new StringBuilder(TestUploads.VIEWS_HEADER);
+        StringBuilder actions = new StringBuilder("uid,tag\n");
+        for (String uid : uids) {
+            views.append(TestUploads.viewLine(minute, uid, "copy.example.com"));
+            actions.append(uid).append(',').append(tag).append('\n');
+        }
+
+        getCtr(minute);
+        long invalidations = queryCache.stats().invalidations();
+        upload("/views", views.toString().getBytes(StandardCharsets.UTF_8), "Views uploaded: 3 ");
+        assertThat(queryCache.stats().invalidations() - invalidations).isEqualTo(1);
+
+        getCtr(minute);
+        invalidations = queryCache.stats().invalidations();
+        upload("/actions", actions.toString().getBytes(StandardCharsets.UTF_8), "Actions uploaded: 3 ");
+        assertThat(queryCache.stats().invalidations() - invalidations).isEqualTo(1);
+
+        assertThat(liveWindow.buckets(LiveWindow.Metric.CTR, tag)).contains(new LiveBucket(minute, 3, 3, 100.0f));
+    }
+
+    @Test
+    void testCopyViewsFromFileCsvException() throws Exception {
+        TestUploads.upload(mockMvc, "/views", csvFile(INTERVIEW_Y))
+                .andExpect(status().is4xxClientError())
+                .andExpect(result -> {
+                    Throwable exception = result.getResolvedException();
+                    assertThat(exception).isInstanceOf(RuntimeException.class);
+                    assert exception != null;
+                    assertThat(exception.getMessage()).isEqualTo("Error: The length of the CSV line should exactly match the expected length of 10 elements.");
+                });
+    }
+
+    @Test
+    void testCopyActionsFromFileCsvException() throws Exception {
+        TestUploads.upload(mockMvc, "/actions", csvFile(INTERVIEW_X))
+                .andExpect(status().is4xxClientError())
+                .andExpect(result -> {
+                    Throwable exception = result.getResolvedException();
+                    assertThat(exception).isInstanceOf(RuntimeException.class);
+                    assert exception != null;
+                    assertThat(exception.getMessage()).isEqualTo("Error: The length of the CSV line should exactly match the expected length of 2 elements");
+                });
+    }
+
+    /**
+     * Values that are not integers or timestamps are reported with the messages of the batch engine.
+     */
+    @Test
+    void testCopyViewsValueExceptions() throws Exception {
+        String uid = UUID.randomUUID().toString();
+        String badInteger = TestUploads.viewLine(TestDays.uniqueWeek(), uid, "copy.example.com").replace(",0,7,", ",x,7,");
+
+        uploadFailure(TestUploads.VIEWS_HEADER + badInteger, () -> Integer.parseInt("x"));
+        for (String regTime : new String[]{"not a time", "2021-07-20 25:00:00"}) {
+            String badTimestamp = regTime + "," + uid + ",0,7,6,530,iOS,iPhone XR,Mobile Phone,copy.example.com\n";
+            uploadFailure(TestUploads.VIEWS_HEADER + badTimestamp,
+                    () -> LocalDateTime.parse(regTime, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+        }
+    }
+
+    private void uploadFailure(String views, ThrowingCallable batchParse) throws Exception {
+        Throwable expected = catchThrowable(batchParse);
+        TestUploads.upload(mockMvc, "/views", views)
+                .andExpect(status().is4xxClientError())
+                .andExpect(MockMvcResultMatchers.content().string("Error: " + expected.getMessage()));
+    }
+
+    private void getCtr(LocalDateTime minute) throws Exception {
+        mockMvc.perform(get("/ctr")
+                        .param("dateFrom", minute.toString())
+                        .param("dateTo", minute.plusMinutes(1).toString())
+                        .param("interval", "MINUTE"))
+                .andExpect(status().isOk());
+    }
+
+    private MockMultipartFile csvFile(String location) throws Exception {
+        return TestUploads.csvFile(resourceLoader.getResource(location).getInputStream().readAllBytes());
+    }
+
+    private void upload(String path, byte[] fileContent, String response) throws Exception {
+        TestUploads.upload(mockMvc, path, fileContent)
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(startsWith(response)));
+    }
+}
@@ -0,0 +1,164 @@
+package com.allmagen.testtask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class CubeIntegrationTests {
+    private final static String ACTIONS_HEADER = "uid,tag\n";
+    private final static int[] MM_DMAS = {501, 602};
+    private final static String[] SITES = {"x.example.com", "y.example.com", "z.example.com"};
+    private final static String[] OS_NAMES = {"iOS", "Android"};
+    private final static String[] HARDWARE = {"Mobile Phone", "Desktop"};
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private LocalDateTime day;
+    /**
+     * Views and counted actions per group key, see {@link #key(String, String...)}.
+     */
+    private final Map<String, long[]> expected = new HashMap<>();
+
+    @BeforeEach
+    void upload() throws Exception {
+        day = TestDays.uniqueWeek();
+        Random random = new Random(20);
+        StringBuilder views = new StringBuilder(TestUploads.VIEWS_HEADER);
+        StringBuilder actions = new StringBuilder(ACTIONS_HEADER);
+        for (int i = 0; i < 60; i++) {
+            String uid = UUID.randomUUID().toString();
+            int mmDma = MM_DMAS[random.nextInt(MM_DMAS.length)];
+            String site = SITES[random.nextInt(SITES.length)];
+            String osName = OS_NAMES[random.nextInt(OS_NAMES.length)];
+            String hardware = HARDWARE[random.nextInt(HARDWARE.length)];
+            LocalDateTime regTime = day.plusHours(random.nextInt(3)).plusSeconds(random.nextInt(3600));
+            views.append(TestUploads.csvTime(regTime)).append(',').append(uid).append(",0,7,6,").append(mmDma)
+                    .append(',').append(osName).append(",iPhone XR,").append(hardware).append(',').append(site).append('\n');
+
+            // vregistration is not counted by the default CTR tag filter
+            int clicks = random.nextInt(3);
+            for (int j = 0; j < clicks; j++) {
+                actions.append(uid).append(",fclick\n");
+            }
+            actions.append(uid).append(",vregistration\n");
+
+            for (String key : List.of(key("mmDma", String.valueOf(mmDma)), key("siteId", site),
+                    key("osName,hardware", osName, hardware), key("", ""), key("time", regTime.withMinute(0).withSecond(0).toString()))) {
+                long[] counts = expected.computeIfAbsent(key, k -> new long[2]);
+                counts[0]++;
+                counts[1] += clicks;
+            }
+        }
+        TestUploads.upload(mockMvc, "/views", views)
+                .andExpect(status().isOk());
+        TestUploads.upload(mockMvc, "/actions", actions)
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testCubeComputesEveryGroupingSet() throws Exception {
+        JsonNode rows = items(cube("mmDma;siteId;osName,hardware").param("total", "true"));
+
+        List<String> groupings = new ArrayList<>();
+        Map<String, long[]> actual = new HashMap<>();
+        for (JsonNode row : rows) {
+            String grouping = String.join(",", objectMapper.convertValue(row.get("grouping"), String[].class));
+            if (groupings.isEmpty() || !groupings.get(groupings.size() - 1).equals(grouping)) {
+                groupings.add(grouping);
+            }
+            List<String> values = new ArrayList<>();
+            row.get("dimensions").elements().forEachRemaining(value -> values.add(value.asText()));
+            long views = row.get("views").asLong();
+            long actions = row.get("actions").asLong();
+            actual.put(key(grouping, values.toArray(String[]::new)), new long[]{views, actions});
+            assertThat(row.get("ctr").asDouble()).isCloseTo((double) actions / views, offset(1e-6));
+        }
+
+        // one block per grouping set, in the requested order
+        assertThat(groupings).containsExactly("mmDma", "siteId", "osName,hardware", "");
+        Map<String, long[]> withoutTime = new HashMap<>(expected);
+        withoutTime.keySet().removeIf(key -> key.startsWith("time|"));
+        assertThat(actual).usingRecursiveComparison().isEqualTo(withoutTime);
+
+        // the breakdowns by mmDma and siteId match the dedicated endpoints
+        JsonNode ctrByMmDma = items(get("/ctrByMmDma").param("dateFrom", day.toString()).param("dateTo", day.plusDays(1).toString()));
+        for (JsonNode row : ctrByMmDma) {
+            long[] counts = actual.get(key("mmDma", row.get("mmDma").asText()));
+            assertThat((double) counts[1] / counts[0]).isCloseTo(row.get("ctr").asDouble(), offset(1e-6));
+        }
+    }
+
+    @Test
+    void testCubeByTimeWithSelectedMeasures() throws Exception {
+        JsonNode rows = items(cube("time").param("interval", "HOUR").param("measures", "views"));
+
+        Map<String, long[]> byHour = new HashMap<>();
+        for (JsonNode row : rows) {
+            assertThat(row.has("actions")).isFalse();
+            assertThat(row.has("ctr")).isFalse();
+            String hour = LocalDateTime.parse(row.get("dimensions").get("time").asText()).toString();
+            byHour.put(key("time", hour), new long[]{row.get("views").asLong()});
+        }
+        Map<String, long[]> expectedByHour = new HashMap<>();
+        expected.forEach((key, counts) -> {
+            if (key.startsWith("time|")) {
+                expectedByHour.put(key, new long[]{counts[0]});
+            }
+        });
+        assertThat(byHour).usingRecursiveComparison().isEqualTo(expectedByHour);
+    }
+
+    @Test
+    void testInvalidCubeRequestsAreRejected() throws Exception {
+        mockMvc.perform(cube("mmDma,country"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Unknown cube dimension 'country'")));
+        mockMvc.perform(cube("time"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("requires an interval")));
+        mockMvc.perform(cube("mmDma").param("measures", "clicks"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Unknown cube measure 'clicks'")));
+    }
+
+    private MockHttpServletRequestBuilder cube(String groupBy) {
+        return get("/cube")
+                .param("dateFrom", day.toString())
+                .param("dateTo", day.plusDays(1).toString())
+                .param("groupBy", groupBy)
+                .contentType(MediaType.APPLICATION_JSON);
+    }
+
+    private JsonNode items(MockHttpServletRequestBuilder request) throws Exception {
+        String responseJson = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(responseJson).get("items");
+    }
+
+    private static String key(String grouping, String... values) {
+        return grouping + "|" + String.join(",", values);
+    }
+}
@@ -0,0 +1,151 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.service.EventIngestService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class EventIngestIntegrationTests {
+    private final static DateTimeFormatter REG_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EventIngestService eventIngestService;
+
+    private LocalDateTime day;
+
+    @BeforeEach
+    void setUp() {
+        day = TestDays.uniqueWeek();
+    }
+
+    @Test
+    void testEventsAreWrittenWithTheirActions() throws Exception {
+        List<String> uids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            uids.add(UUID.randomUUID().toString());
+        }
+
+        // one NDJSON batch, one array and one single event
+        mockMvc.perform(post("/events/views").contentType(MediaType.APPLICATION_NDJSON)
+                        .content(view(uids.get(0), 501, 0) + "\n" + view(uids.get(1), 501, 1) + "\n"))
+                .andExpect(status().isAccepted())
+                .andExpect(content().string("Views accepted: 2"));
+        mockMvc.perform(post("/events/views").contentType(MediaType.APPLICATION_JSON)
+                        .content("[" + view(uids.get(2), 602, 2) + "]"))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(post("/events/views").contentType(MediaType.APPLICATION_JSON)
+                        .content(view(uids.get(3), 602, 3)))
+                .andExpect(status().isAccepted());
+
+        // actions may follow their views before these are written; the last action has no view
+        StringBuilder actions = new StringBuilder();
+        for (String uid : List.of(uids.get(0), uids.get(0), uids.get(2), UUID.randomUUID().toString())) {
+            actions.append("{\"uid\":\"").append(uid).append("\",\"tag\":\"fclick\"}\n");
+        }
+        mockMvc.perform(post("/events/actions").contentType(MediaType.APPLICATION_NDJSON).content(actions.toString()))
+                .andExpect(status().isAccepted())
+                .andExpect(content().string("Actions accepted: 4"));
+
+        eventIngestService.flush();
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE reg_time >= ? AND reg_time < ?",
+                Integer.class, day, day.plusDays(1))).isEqualTo(4);
+        assertThat(jdbcTemplate.queryForObject("SELECT count FROM actions_table WHERE uid = ? AND tag = 'fclick'",
+                Integer.class, uids.get(0))).isEqualTo(2);
+
+        String responseJson = mockMvc.perform(get("/ctrByMmDma")
+                        .param("dateFrom", day.toString())
+                        .param("dateTo", day.plusDays(1).toString())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode items = objectMapper.readTree(responseJson).get("items");
+        assertThat(items).hasSize(2);
+        for (JsonNode item : items) {
+            assertThat(item.get("ctr").asDouble()).isEqualTo(item.get("mmDma").asInt() == 501 ? 1.0 : 0.5);
+        }
+
+        // the rollups answering /ctr, in percent, are updated as well
+        responseJson = mockMvc.perform(get("/ctr")
+                        .param("dateFrom", day.toString())
+                        .param("dateTo", day.plusDays(1).minusSeconds(1).toString())
+                        .param("interval", "DAY")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertThat(objectMapper.readTree(responseJson).get("items").get(0).get("ctr").asDouble()).isEqualTo(75.0);
+    }
+
+    @Test
+    void testEventsAreFlushedAfterTheInterval() throws Exception {
+        String uid = UUID.randomUUID().toString();
+        mockMvc.perform(post("/events/views").contentType(MediaType.APPLICATION_JSON).content(view(uid, 501, 0)))
+                .andExpect(status().isAccepted());
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        int stored = 0;
+        while (stored == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            stored = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE uid = ?", Integer.class, uid);
+        }
+        assertThat(stored).isEqualTo(1);
+    }
+
+    @Test
+    void testInvalidEventsAreRejected() throws Exception {
+        String uid = UUID.randomUUID().toString();
+        String withoutSiteId = view(UUID.randomUUID().toString(), 501, 0).replace(",\"siteId\":\"events.example.com\"", "");
+        mockMvc.perform(post("/events/views").contentType(MediaType.APPLICATION_NDJSON)
+                        .content(view(uid, 501, 0) + "\n" + withoutSiteId))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Error: Event 2: The field 'siteId' is missing."));
+        mockMvc.perform(post("/events/views").contentType(MediaType.APPLICATION_JSON)
+                        .content(view(uid, 501, 0).replace(REG_TIME_FORMAT.format(day), day.toString())))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Event 1: Text '" + day + "' could not be parsed")));
+        mockMvc.perform(post("/events/actions").contentType(MediaType.APPLICATION_JSON).content("{\"uid\":\"" + uid + "\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Error: Event 1: The field 'tag' is missing."));
+
+        // the valid view of the rejected request was not accepted either
+        eventIngestService.flush();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE uid = ?", Integer.class, uid)).isZero();
+    }
+
+    /**
+     * @return A view event registered {@code minutes} after the start of the test day.
+     */
+    private String view(String uid, int mmDma, int minutes) {
+        return "{\"regTime\":\"" + REG_TIME_FORMAT.format(day.plusMinutes(minutes)) + "\",\"uid\":\"" + uid + "\"," +
+                "\"fcImpChk\":0,\"fcTimeChk\":7,\"utmtr\":6,\"mmDma\":" + mmDma + "," +
+                "\"osName\":\"iOS\",\"model\":\"iPhone XR\",\"hardware\":\"Mobile Phone\",\"siteId\":\"events.example.com\"}";
+    }
+}
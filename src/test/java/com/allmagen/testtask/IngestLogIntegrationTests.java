@@ -0,0 +1,245 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.model.ActionEvent;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.repository.IngestLogRepository;
+import com.allmagen.testtask.service.StatisticsMetrics;
+import com.allmagen.testtask.service.StatisticsService;
+import com.allmagen.testtask.service.wal.IngestLog;
+import com.allmagen.testtask.service.wal.IngestLogDrainer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"statistics.upload.engine=LOG", "statistics.ingest-log.segment-size=65536"})
+@AutoConfigureMockMvc
+class IngestLogIntegrationTests {
+    private static Path logDirectory;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private IngestLogDrainer ingestLogDrainer;
+    @Autowired
+    private IngestLogRepository ingestLogRepository;
+    @Autowired
+    private StatisticsService statisticsService;
+    @Autowired
+    private StatisticsMetrics metrics;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private LocalDateTime day;
+
+    @DynamicPropertySource
+    static void ingestLog(DynamicPropertyRegistry registry) throws IOException {
+        logDirectory = Files.createTempDirectory("ingest-log");
+        registry.add("statistics.ingest-log.directory", logDirectory::toString);
+    }
+
+    @BeforeEach
+    void setUp() {
+        day = TestDays.uniqueWeek();
+    }
+
+    @Test
+    void testUploadsAreLoggedAndWrittenInOrder() throws Exception {
+        String uid = UUID.randomUUID().toString();
+        String otherUid = UUID.randomUUID().toString();
+        upload("/views", viewsCsv(uid, otherUid), "Views uploaded: 2 ");
+        // the actions follow their views through the log
+        upload("/actions", ("uid,tag\n" + uid + ",fclick\n" + uid + ",fclick\n" + otherUid + ",registration\n" +
+                UUID.randomUUID() + ",fclick\n").getBytes(StandardCharsets.UTF_8), "Actions uploaded: 4 ");
+
+        ingestLogDrainer.awaitDrained();
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE uid IN (?, ?)", Integer.class, uid, otherUid))
+                .isEqualTo(2);
+        assertThat(jdbcTemplate.queryForList("SELECT uid || ':' || tag || '=' || count FROM actions_table " +
+                "WHERE uid IN (?, ?) ORDER BY tag", String.class, uid, otherUid))
+                .containsExactly(uid + ":fclick=2", otherUid + ":registration=1");
+        assertThat(jdbcTemplate.queryForObject("SELECT action_count FROM action_rollup " +
+                "WHERE granularity = 'day' AND bucket_start = ? AND tag = 'fclick'", Long.class, day)).isEqualTo(2);
+        assertThat(ingestLogRepository.findPosition(logDirectory.toAbsolutePath().toString())).isPositive();
+    }
+
+    @Test
+    void testInvalidFileIsNotWritten() throws Exception {
+        String uid = UUID.randomUUID().toString();
+        byte[] views = (new String(viewsCsv(uid, UUID.randomUUID().toString()), StandardCharsets.UTF_8) + "invalid,line\n")
+                .getBytes(StandardCharsets.UTF_8);
+        TestUploads.upload(mockMvc, "/views", views)
+                .andExpect(status().isBadRequest());
+
+        ingestLogDrainer.awaitDrained();
+        assertThat(files(logDirectory, "*.pending")).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE uid = ?", Integer.class, uid)).isZero();
+    }
+
+    /**
+     * Logs rows without a drainer, as if the application stopped before writing them, and opens the log again
+     * twice: the first drainer writes the logged rows and the second one writes nothing.
+     */
+    @Test
+    void testLoggedRowsAreReplayedOnceAfterRestart() throws Exception {
+        Path directory = Files.createTempDirectory("ingest-log");
+        String uid = UUID.randomUUID().toString();
+        String crashedUid = UUID.randomUUID().toString();
+
+        IngestLog log = new IngestLog(ingestLogRepository, metrics, directory.toString(), 1024);
+        try (IngestLog.Upload upload = log.upload()) {
+            upload.add(view(uid));
+            for (int i = 0; i < 5; i++) {
+                upload.add(new ActionEvent(uid, "fclick"));
+            }
+            assertThat(upload.commit()).isEqualTo(6);
+        }
+        // an upload that had not returned when the application stopped
+        log.upload().add(view(crashedUid));
+        log.close();
+
+        for (int restart = 0; restart < 2; restart++) {
+            log = new IngestLog(ingestLogRepository, metrics, directory.toString(), 1024);
+            IngestLogDrainer drainer = drainer(log, 2);
+            drainer.awaitDrained();
+            drainer.shutdown();
+            log.close();
+
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM views_table WHERE uid IN (?, ?)", Integer.class, uid, crashedUid))
+                    .isEqualTo(1);
+            assertThat(jdbcTemplate.queryForObject("SELECT count FROM actions_table WHERE uid = ?", Integer.class, uid))
+                    .isEqualTo(5);
+            assertThat(files(directory, "*.pending")).isEmpty();
+        }
+    }
+
+    /**
+     * A view that violates a column constraint fails its batch every time: after the last attempt it is moved to the
+     * dead letter table and the views around it are written.
+     */
+    @Test
+    void testRowThatCannotBeWrittenIsMovedToTheDeadLetterTable() throws Exception {
+        Path directory = Files.createTempDirectory("ingest-log");
+        String uid = UUID.randomUUID().toString();
+        String invalidUid = UUID.randomUUID().toString();
+        String otherUid = UUID.randomUUID().toString();
+        ViewEntity invalidView = view(invalidUid);
+        invalidView.setSiteId("x".repeat(300));
+
+        IngestLog log = new IngestLog(ingestLogRepository, metrics, directory.toString(), 1024);
+        try (IngestLog.Upload upload = log.upload()) {
+            upload.add(view(uid));
+            upload.add(invalidView);
+            upload.add(view(otherUid));
+            upload.commit();
+        }
+        IngestLogDrainer drainer = drainer(log, 10);
+        drainer.awaitDrained();
+        drainer.shutdown();
+        log.close();
+
+        assertThat(jdbcTemplate.queryForList("SELECT uid FROM views_table WHERE uid IN (?, ?, ?)", String.class,
+                uid, invalidUid, otherUid)).containsExactlyInAnyOrder(uid, otherUid);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ingest_log_dead_letter WHERE log = ? AND record IS NOT NULL",
+                Integer.class, directory.toAbsolutePath().toString())).isEqualTo(1);
+    }
+
+    /**
+     * A record whose CRC32 does not match skips the rest of its segment, which is kept for inspection.
+     */
+    @Test
+    void testCorruptedSegmentIsSkipped() throws Exception {
+        Path directory = Files.createTempDirectory("ingest-log");
+        String uid = UUID.randomUUID().toString();
+        String otherUid = UUID.randomUUID().toString();
+
+        IngestLog log = new IngestLog(ingestLogRepository, metrics, directory.toString(), 1024);
+        try (IngestLog.Upload upload = log.upload()) {
+            upload.add(view(uid));
+            upload.commit();
+        }
+        log.close();
+        Path segment = files(directory, "*.seg").get(0);
+        byte[] content = Files.readAllBytes(segment);
+        // the first byte of the first record, after the segment and record headers
+        content[24] ^= 1;
+        Files.write(segment, content);
+
+        log = new IngestLog(ingestLogRepository, metrics, directory.toString(), 1024);
+        try (IngestLog.Upload upload = log.upload()) {
+            upload.add(view(otherUid));
+            upload.commit();
+        }
+        IngestLogDrainer drainer = drainer(log, 10);
+        drainer.awaitDrained();
+        drainer.shutdown();
+        log.close();
+
+        assertThat(jdbcTemplate.queryForList("SELECT uid FROM views_table WHERE uid IN (?, ?)", String.class, uid, otherUid))
+                .containsExactly(otherUid);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ingest_log_dead_letter WHERE log = ? AND record IS NULL",
+                Integer.class, directory.toAbsolutePath().toString())).isEqualTo(1);
+        assertThat(files(directory, "*.corrupt")).hasSize(1);
+    }
+
+    private IngestLogDrainer drainer(IngestLog log, int batchSize) {
+        return new IngestLogDrainer(log, statisticsService, ingestLogRepository, transactionManager, metrics,
+                batchSize, 0, Duration.ofMillis(10), 2);
+    }
+
+    private void upload(String endpoint, byte[] content, String expectedPrefix) throws Exception {
+        TestUploads.upload(mockMvc, endpoint, content)
+                .andExpect(status().isOk())
+                .andExpect(content().string(startsWith(expectedPrefix)));
+    }
+
+    private byte[] viewsCsv(String... uids) {
+        StringBuilder csv = new StringBuilder(TestUploads.VIEWS_HEADER);
+        for (String uid : uids) {
+            csv.append(TestUploads.viewLine(day.plusHours(1), uid, "log.example.com"));
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ViewEntity view(String uid) {
+        ViewEntity view = new ViewEntity(uid);
+        view.setRegTime(day.plusHours(2));
+        view.setMmDma(530);
+        view.setOsName("iOS");
+        view.setModel("iPhone XR");
+        view.setHardware("Mobile Phone");
+        view.setSiteId("log.example.com");
+        return view;
+    }
+
+    private static List<Path> files(Path directory, String glob) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileSystem().getPathMatcher("glob:" + glob).matches(file.getFileName()))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.model.ActionEvent;
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.model.metrics.LiveBucket;
+import com.allmagen.testtask.service.StatisticsService;
+import com.allmagen.testtask.service.live.LiveWindow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@SpringBootTest(properties = "statistics.live.push-interval=PT0.1S")
+@AutoConfigureMockMvc
+class LiveWindowIntegrationTests {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private StatisticsService statisticsService;
+    @Autowired
+    private LiveWindow liveWindow;
+
+    private String tag;
+
+    @BeforeEach
+    void setUp() {
+        tag = "live" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Test
+    void testCommittedRowsAreCountedInTheirMinute() {
+        LocalDateTime minute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(2);
+        String uid = UUID.randomUUID().toString();
+        statisticsService.insertViews(List.of(liveView(uid, minute.plusSeconds(10)), liveView(UUID.randomUUID().toString(), minute),
+                liveView(UUID.randomUUID().toString(), minute.minusHours(2))));
+        statisticsService.insertActions(List.of(new ActionEvent(uid, tag), new ActionEvent(uid, tag), new ActionEvent(uid, "v" + tag)));
+
+        List<LiveBucket> ctr = liveWindow.buckets(LiveWindow.Metric.CTR, tag);
+        assertThat(ctr).hasSize(60);
+        assertThat(ctr).contains(new LiveBucket(minute, 2, 2, 100.0f));
+        assertThat(ctr).noneMatch(bucket -> bucket.intervalStart().isBefore(LocalDateTime.now().minusHours(1)));
+        assertThat(liveWindow.buckets(LiveWindow.Metric.EVPM, tag)).contains(new LiveBucket(minute, 2, 3, 1.5f));
+    }
+
+    @Test
+    void testStreamPushesChangedBuckets() throws Exception {
+        LocalDateTime minute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(3);
+        String uid = UUID.randomUUID().toString();
+        statisticsService.insertViews(List.of(liveView(uid, minute)));
+
+        MockHttpServletResponse response = mockMvc.perform(get("/ctrLive").param("tag", tag))
+                .andExpect(request().asyncStarted())
+                .andReturn().getResponse();
+        awaitContent(response, "event:buckets");
+        assertThat(response.getContentType()).startsWith("text/event-stream");
+        assertThat(response.getContentAsString()).contains("{\"intervalStart\":\"" + minute + ":00\",\"views\":1,\"actions\":0,\"ctr\":0.0}");
+
+        statisticsService.insertActions(List.of(new ActionEvent(uid, tag)));
+        awaitContent(response, "{\"intervalStart\":\"" + minute + ":00\",\"views\":1,\"actions\":1,\"ctr\":100.0}");
+    }
+
+    @Test
+    void testLiveChartReadsTheStream() throws Exception {
+        mockMvc.perform(get("/evpmLiveChart").param("tag", tag))
+                .andExpect(status().isOk())
+                .andExpect(view().name("liveBarChart"))
+                .andExpect(content().string(containsString("/evpmLive?tag=" + tag)));
+    }
+
+    private static ViewEntity liveView(String uid, LocalDateTime regTime) {
+        ViewEntity view = new ViewEntity(uid);
+        view.setRegTime(regTime);
+        view.setMmDma(530);
+        view.setOsName("iOS");
+        view.setModel("iPhone XR");
+        view.setHardware("Mobile Phone");
+        view.setSiteId("live.example.com");
+        return view;
+    }
+
+    private static void awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!response.getContentAsString().contains(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(response.getContentAsString()).contains(expected);
+    }
+}
@@ -0,0 +1,226 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load test against a PostgreSQL container. Uploads a synthetic data set from {@link SyntheticDataGenerator} and
+ * then queries every statistics endpoint from concurrent clients with random date ranges. Reports the upload
+ * throughput and the p50, p95 and p99 latency per endpoint in the log and in target/load-test-result.json.
+ * <p>
+ * Runs only if {@code loadtest.views} is set and needs Docker:
+ * <pre>
+ * mvn test -Dtest=LoadTests -Dloadtest.views=1000000 [-Dloadtest.clients=8] [-Dloadtest.requests=200] [-Dloadtest.days=7]
+ * </pre>
+ * Application properties such as {@code statistics.upload.engine} or {@code statistics.query.engine} can be set
+ * the same way.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.servlet.multipart.max-file-size=-1",
+        "spring.servlet.multipart.max-request-size=-1"})
+@EnabledIfSystemProperty(named = "loadtest.views", matches = "\\d+")
+class LoadTests {
+    private static final Logger LOGGER = LogManager.getLogger(LoadTests.class);
+
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:15-alpine3.17")
+            .withDatabaseName("mydb")
+            .withUsername("myuser")
+            .withPassword("mypass");
+    private static final String BOUNDARY = "load-test-boundary";
+
+    private final long views = Long.getLong("loadtest.views", 0);
+    private final int days = Integer.getInteger("loadtest.days", 7);
+    private final int clients = Integer.getInteger("loadtest.clients", 8);
+    private final int requests = Integer.getInteger("loadtest.requests", 200);
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        POSTGRES.start();
+        registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+        registry.add("spring.datasource.username", POSTGRES::getUsername);
+        registry.add("spring.datasource.password", POSTGRES::getPassword);
+    }
+
+    @AfterAll
+    static void stopContainer() {
+        POSTGRES.stop();
+    }
+
+    @Test
+    void testUploadThroughputAndQueryLatency() throws Exception {
+        Path directory = Files.createTempDirectory("load-test");
+        Path viewsFile = directory.resolve("views.csv");
+        Path actionsFile = directory.resolve("actions.csv");
+        long actions = new SyntheticDataGenerator(views, days, 42).write(viewsFile, actionsFile);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("views", views);
+        report.put("actions", actions);
+        report.put("clients", clients);
+        report.put("requestsPerEndpoint", requests);
+        report.put("viewsUpload", upload("/views", viewsFile, views));
+        report.put("actionsUpload", upload("/actions", actionsFile, actions));
+
+        LocalDateTime first = SyntheticDataGenerator.FIRST_REG_TIME;
+        int hours = days * 24;
+        Map<String, Function<SplittableRandom, String>> endpoints = new LinkedHashMap<>();
+        for (String path : new String[]{"/ctr", "/evpm", "/ctrChart", "/evpmChart"}) {
+            endpoints.put(path, random -> {
+                LocalDateTime from = first.plusHours(random.nextInt(hours));
+                StatisticsController.Interval interval = StatisticsController.Interval.values()[random.nextInt(3)];
+                return path + "?dateFrom=" + from + "&dateTo=" + from.plusHours(1 + random.nextInt(24)) +
+                        "&interval=" + interval + "&tag=" + (random.nextBoolean() ? "registration" : "fclick");
+            });
+        }
+        for (String path : new String[]{"/viewsCountByMmDma", "/viewsCountBySiteId"}) {
+            endpoints.put(path, random -> {
+                LocalDateTime from = first.plusDays(random.nextInt(days));
+                return path + "?dateFrom=" + from.toLocalDate() + "&dateTo=" + from.plusDays(random.nextInt(2)).toLocalDate();
+            });
+        }
+        for (String path : new String[]{"/ctrByMmDma", "/ctrBySiteId", "/ctrByMmDmaChart", "/ctrBySiteIdChart"}) {
+            endpoints.put(path, random -> {
+                LocalDateTime from = first.plusHours(random.nextInt(hours));
+                return path + "?dateFrom=" + from + "&dateTo=" + from.plusHours(1 + random.nextInt(24)) + "&tag=registration";
+            });
+        }
+
+        Map<String, Object> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, Function<SplittableRandom, String>> endpoint : endpoints.entrySet()) {
+            latencies.put(endpoint.getKey(), query(endpoint.getValue()));
+        }
+        report.put("latencyMillis", latencies);
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String json = objectMapper.writeValueAsString(report);
+        Files.writeString(Path.of("target", "load-test-result.json"), json);
+        LOGGER.log(Level.INFO, "Load test result:\n" + json);
+    }
+
+    /**
+     * Uploads a CSV file as a streamed multipart request.
+     *
+     * @return The rows per second seen by the client and the response of the application.
+     */
+    private Map<String, Object> upload(String path, Path file, long rows) throws IOException, InterruptedException {
+        String head = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + file.getFileName() +
+                "\"\r\nContent-Type: text/csv\r\n\r\n";
+        String tail = "\r\n--" + BOUNDARY + "--\r\n";
+        HttpRequest request = HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofString(head),
+                        HttpRequest.BodyPublishers.ofFile(file),
+                        HttpRequest.BodyPublishers.ofString(tail)))
+                .build();
+
+        long startNanos = System.nanoTime();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        assertThat(response.statusCode()).as(response.body()).isEqualTo(200);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("seconds", seconds);
+        result.put("rowsPerSecond", Math.round(rows / seconds));
+        result.put("response", response.body());
+        return result;
+    }
+
+    /**
+     * Sends {@code loadtest.requests} requests from {@code loadtest.clients} concurrent clients.
+     *
+     * @param requestPath builds a path with random parameters.
+     * @return The latency percentiles in milliseconds.
+     */
+    private Map<String, Object> query(Function<SplittableRandom, String> requestPath) throws Exception {
+        List<Future<long[]>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            for (int client = 0; client < clients; client++) {
+                SplittableRandom random = new SplittableRandom(client);
+                int clientRequests = requests / clients + (client < requests % clients ? 1 : 0);
+                futures.add(executor.submit(() -> {
+                    long[] nanos = new long[clientRequests];
+                    for (int i = 0; i < clientRequests; i++) {
+                        String path = requestPath.apply(random);
+                        HttpRequest request = HttpRequest.newBuilder(uri(path)).GET().build();
+                        long startNanos = System.nanoTime();
+                        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                        nanos[i] = System.nanoTime() - startNanos;
+                        assertThat(response.statusCode()).as(path).isEqualTo(200);
+                    }
+                    return nanos;
+                }));
+            }
+        }
+
+        long[] nanos = new long[0];
+        for (Future<long[]> future : futures) {
+            long[] clientNanos = future.get();
+            int offset = nanos.length;
+            nanos = Arrays.copyOf(nanos, offset + clientNanos.length);
+            System.arraycopy(clientNanos, 0, nanos, offset, clientNanos.length);
+        }
+        Arrays.sort(nanos);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", percentile(nanos, 50));
+        result.put("p95", percentile(nanos, 95));
+        result.put("p99", percentile(nanos, 99));
+        result.put("max", nanos.length == 0 ? 0 : nanos[nanos.length - 1] / 1e6);
+        return result;
+    }
+
+    /**
+     * @return The nearest-rank percentile of sorted latencies in milliseconds.
+     */
+    private static double percentile(long[] sortedNanos, int percent) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sortedNanos.length);
+        return sortedNanos[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path.replace(":", URLEncoder.encode(":", StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,50 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+class MetricsIntegrationTests {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void testUploadsAndQueriesArePublished() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        TestUploads.upload(mockMvc, "/views", TestUploads.VIEWS_HEADER +
+                        TestUploads.viewLine(day.plusHours(1), UUID.randomUUID().toString(), "metrics.example.com"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/ctr")
+                        .param("dateFrom", day.toString())
+                        .param("dateTo", day.plusDays(1).toString())
+                        .param("interval", StatisticsController.Interval.HOUR.getValue().toUpperCase())
+                        .param("tag", "fclick"))
+                .andExpect(status().isOk());
+
+        String metrics = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(metrics)
+                .contains("statistics_upload_rows_total{outcome=\"written\",type=\"views\",}")
+                .contains("statistics_upload_rows_per_second{type=\"views\",}")
+                .contains("statistics_upload_flush_seconds_bucket{type=\"views\",")
+                .contains("statistics_query_rows_count{engine=\"ROLLUP\",query=\"ctr\",}")
+                .containsPattern("http_server_requests_seconds_bucket\\{[^}]*interval=\"HOUR\"[^}]*tagged=\"true\"[^}]*uri=\"/ctr\"")
+                .contains("hikaricp_connections_pending");
+    }
+}
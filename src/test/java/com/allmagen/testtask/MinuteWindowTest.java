@@ -0,0 +1,90 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.model.metrics.LiveBucket;
+import com.allmagen.testtask.service.live.MinuteWindow;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MinuteWindowTest {
+    private static final long NOW = MinuteWindow.minute(LocalDateTime.parse("2021-07-21T10:15:30"));
+
+    @Test
+    void testCountsOutsideTheWindowAreIgnored() {
+        MinuteWindow window = new MinuteWindow(3, 10);
+
+        assertThat(window.addViews(NOW, 4, NOW)).isTrue();
+        assertThat(window.addViews(NOW - 2, 2, NOW)).isTrue();
+        assertThat(window.addViews(NOW - 3, 1, NOW)).isFalse();
+        assertThat(window.addViews(NOW + 1, 1, NOW)).isFalse();
+        assertThat(window.addActions(NOW, "fclick", 1, NOW)).isTrue();
+        assertThat(window.addActions(NOW, "vclick", 2, NOW)).isTrue();
+        assertThat(window.addActions(NOW - 2, "registration", 1, NOW)).isTrue();
+
+        assertThat(window.buckets(NOW, 0, Long.MIN_VALUE, tag -> !tag.equals("vclick"), 100.0)).containsExactly(
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:13:00"), 2, 1, 50.0f),
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:14:00"), 0, 0, 0.0f),
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:15:00"), 4, 1, 25.0f));
+    }
+
+    @Test
+    void testSlotsAreClearedWhenReused() {
+        MinuteWindow window = new MinuteWindow(3, 10);
+        window.addViews(NOW, 4, NOW);
+        window.addActions(NOW, "fclick", 3, NOW);
+
+        // the slot of NOW is reused three minutes later
+        long later = NOW + 3;
+        window.addViews(later, 1, later);
+
+        assertThat(window.buckets(later, 0, Long.MIN_VALUE, tag -> true, 1.0)).containsExactly(
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:16:00"), 0, 0, 0.0f),
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:17:00"), 0, 0, 0.0f),
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:18:00"), 1, 0, 0.0f));
+    }
+
+    @Test
+    void testOnlyChangedAndNewMinutesAreReturned() {
+        MinuteWindow window = new MinuteWindow(60, 10);
+        window.addViews(NOW - 10, 2, NOW);
+        window.addViews(NOW - 5, 2, NOW);
+        long version = window.version();
+
+        assertThat(window.buckets(NOW, version, NOW, tag -> true, 1.0)).isEmpty();
+
+        window.addActions(NOW - 10, "fclick", 1, NOW);
+        List<LiveBucket> changed = window.buckets(NOW + 1, version, NOW, tag -> true, 1.0);
+        assertThat(changed).containsExactly(
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:05:00"), 2, 1, 0.5f),
+                new LiveBucket(LocalDateTime.parse("2021-07-21T10:16:00"), 0, 0, 0.0f));
+    }
+
+    @Test
+    void testTagsAreForgottenAndCapped() {
+        MinuteWindow window = new MinuteWindow(3, 2);
+        window.addViews(NOW, 10, NOW);
+        window.addActions(NOW, "fclick", 1, NOW);
+        window.addActions(NOW, "vfclick", 2, NOW);
+        // beyond the cap, counted only in the totals of their kind
+        window.addActions(NOW, "registration", 3, NOW);
+        window.addActions(NOW, "vregistration", 4, NOW);
+        assertThat(window.tags()).isEqualTo(4);
+
+        assertThat(window.buckets(NOW, 0, NOW - 1, tag -> true, 1.0))
+                .containsExactly(new LiveBucket(LocalDateTime.parse("2021-07-21T10:15:00"), 10, 10, 1.0f));
+        assertThat(window.buckets(NOW, 0, NOW - 1, tag -> !tag.startsWith("v"), 1.0))
+                .containsExactly(new LiveBucket(LocalDateTime.parse("2021-07-21T10:15:00"), 10, 4, 0.4f));
+        assertThat(window.buckets(NOW, 0, NOW - 1, "registration"::equals, 1.0))
+                .containsExactly(new LiveBucket(LocalDateTime.parse("2021-07-21T10:15:00"), 10, 0, 0.0f));
+
+        // the slot of NOW is reused three minutes later, which drops every tag
+        window.addViews(NOW + 3, 1, NOW + 3);
+        assertThat(window.tags()).isZero();
+        window.addActions(NOW + 3, "registration", 1, NOW + 3);
+        assertThat(window.buckets(NOW + 3, 0, NOW + 2, "registration"::equals, 1.0))
+                .containsExactly(new LiveBucket(LocalDateTime.parse("2021-07-21T10:18:00"), 1, 1, 1.0f));
+    }
+}
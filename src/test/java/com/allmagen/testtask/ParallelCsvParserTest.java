@@ -0,0 +1,98 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.service.parser.ParallelCsvParser;
+import com.allmagen.testtask.service.parser.TimestampDecoder;
+import com.allmagen.testtask.service.parser.ViewLineDecoder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ParallelCsvParserTest {
+    private final static String INTERVIEW_X = "/testdata/interview.x.small.csv";
+
+    private final ParallelCsvParser parser = new ParallelCsvParser(4, 512);
+
+    @AfterEach
+    void shutdown() {
+        parser.shutdown();
+    }
+
+    @Test
+    void testParsedViewsMatchOpenCsvInInputOrder() throws Exception {
+        List<ViewEntity> expected = new ArrayList<>();
+        try (InputStream inputStream = getClass().getResourceAsStream(INTERVIEW_X);
+             CSVReader csvReader = new CSVReaderBuilder(new InputStreamReader(inputStream, StandardCharsets.UTF_8)).withSkipLines(1).build()) {
+            String[] csvLine;
+            while ((csvLine = csvReader.readNext()) != null) {
+                ViewEntity viewEntity = new ViewEntity(csvLine[1]);
+                viewEntity.setRegTime(LocalDateTime.parse(csvLine[0], TimestampDecoder.FORMATTER));
+                viewEntity.setFcImpChk(Integer.parseInt(csvLine[2]));
+                viewEntity.setFcTimeChk(Integer.parseInt(csvLine[3]));
+                viewEntity.setUtmtr(Integer.parseInt(csvLine[4]));
+                viewEntity.setMmDma(Integer.parseInt(csvLine[5]));
+                viewEntity.setOsName(csvLine[6]);
+                viewEntity.setModel(csvLine[7]);
+                viewEntity.setHardware(csvLine[8]);
+                viewEntity.setSiteId(csvLine[9]);
+                expected.add(viewEntity);
+            }
+        }
+
+        List<ViewEntity> actual = new ArrayList<>();
+        try (InputStream inputStream = getClass().getResourceAsStream(INTERVIEW_X)) {
+            long rows = parser.parse(inputStream, ViewLineDecoder::new, actual::addAll);
+            assertThat(rows).isEqualTo(expected.size());
+        }
+
+        assertThat(actual).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void testQuotedFieldsAndCrLf() throws Exception {
+        String csv = "reg_time,uid,fc_imp_chk,fc_time_chk,utmtr,mm_dma,osName,model,hardware,site_id\r\n" +
+                "2021-07-21 19:25:47,u1,0,7,6,530,iOS,\"iPhone, \"\"XR\"\"\",Mobile Phone,soaps.sheknows.com\r\n" +
+                "\"2021-02-29 00:00:00\",u2,-1,+7,6,\"612\",Android,,Mobile Phone,www.forbes.com";
+
+        List<ViewEntity> views = new ArrayList<>();
+        parser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), ViewLineDecoder::new, views::addAll);
+
+        assertThat(views).hasSize(2);
+        assertThat(views.get(0).getModel()).isEqualTo("iPhone, \"XR\"");
+        assertThat(views.get(0).getSiteId()).isEqualTo("soaps.sheknows.com");
+        assertThat(views.get(1).getRegTime()).isEqualTo(LocalDateTime.parse("2021-02-29 00:00:00", TimestampDecoder.FORMATTER));
+        assertThat(views.get(1).getFcImpChk()).isEqualTo(-1);
+        assertThat(views.get(1).getFcTimeChk()).isEqualTo(7);
+        assertThat(views.get(1).getMmDma()).isEqualTo(612);
+        assertThat(views.get(1).getModel()).isEmpty();
+    }
+
+    @Test
+    void testInvalidLines() {
+        String header = "reg_time,uid,fc_imp_chk,fc_time_chk,utmtr,mm_dma,osName,model,hardware,site_id\n";
+
+        assertThatThrownBy(() -> parser.parse(new ByteArrayInputStream((header + "a,b\n").getBytes(StandardCharsets.UTF_8)),
+                ViewLineDecoder::new, views -> {
+                }))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessage("Error: The length of the CSV line should exactly match the expected length of 10 elements.");
+
+        assertThatThrownBy(() -> parser.parse(new ByteArrayInputStream((header + "2021-07-21T19:25:47,u,0,7,6,530,iOS,m,h,s\n").getBytes(StandardCharsets.UTF_8)),
+                ViewLineDecoder::new, views -> {
+                }))
+                .isInstanceOf(DateTimeParseException.class);
+    }
+}
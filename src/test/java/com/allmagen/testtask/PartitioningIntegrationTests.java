@@ -0,0 +1,178 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.model.metrics.CtrDates;
+import com.allmagen.testtask.repository.CopyRepository;
+import com.allmagen.testtask.repository.RollupRepository;
+import com.allmagen.testtask.repository.ViewRepository;
+import com.allmagen.testtask.service.PartitionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs against tables partitioned per day in a separate schema, so the other tests keep using plain tables.
+ */
+@SpringBootTest(properties = {
+        "statistics.partitioning.interval=DAY",
+        "statistics.upload.batch-size=2",
+        "spring.datasource.url=jdbc:postgresql://127.0.0.1:5432/mydb?currentSchema=partitioned",
+        // Hibernate finds the sequence of the public schema and would not create its own
+        "spring.datasource.hikari.connection-init-sql=CREATE SCHEMA IF NOT EXISTS partitioned; " +
+                "CREATE SEQUENCE IF NOT EXISTS partitioned.actions_table_seq INCREMENT BY 50"})
+@AutoConfigureMockMvc
+class PartitioningIntegrationTests {
+    private final static String INTERVIEW_X = "classpath:testdata/interview.x.small.csv";
+    private final static String INTERVIEW_Y = "classpath:testdata/interview.y.csv";
+    private final static DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ResourceLoader resourceLoader;
+    @Autowired
+    private PartitionService partitionService;
+    @Autowired
+    private ViewRepository viewRepository;
+    @Autowired
+    private RollupRepository rollupRepository;
+    @Autowired
+    private CopyRepository copyRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void testQueriesMatchRollupQueries() throws Exception {
+        upload("/views", resourceLoader.getResource(INTERVIEW_X).getInputStream().readAllBytes());
+        upload("/actions", resourceLoader.getResource(INTERVIEW_Y).getInputStream().readAllBytes());
+
+        assertThat(partitionService.isPartitioned()).isTrue();
+        assertThat(partitionRows("views_table", LocalDateTime.parse("2021-07-21T00:00:00"))).isPositive();
+        assertThat(partitionRows("actions_table", LocalDateTime.parse("2021-07-22T00:00:00"))).isPositive();
+
+        LocalDateTime dateFrom = LocalDateTime.parse("2021-07-21T19:30:17");
+        LocalDateTime dateTo = LocalDateTime.parse("2021-07-22T08:45:42");
+        for (String tag : new String[]{null, "fclick", "registration"}) {
+            for (StatisticsController.Interval interval : StatisticsController.Interval.values()) {
+                String value = interval.getValue();
+                assertThat(read(() -> viewRepository.getCTR(dateFrom, dateTo, value, tag), this::format))
+                        .isNotEmpty()
+                        .isEqualTo(read(() -> rollupRepository.getCTR(dateFrom, dateTo, value, tag), this::format));
+                assertThat(read(() -> viewRepository.getEvPM(dateFrom, dateTo, value, tag), this::format))
+                        .isEqualTo(read(() -> rollupRepository.getEvPM(dateFrom, dateTo, value, tag), this::format));
+            }
+        }
+    }
+
+    @Test
+    void testUploadCreatesPartitionsAndQueriesPrune() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        String[] uids = {UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString()};
+
+        // with a batch size of 2 the partition of the next day is created after the first batch was inserted
+        upload("/views", (TestUploads.VIEWS_HEADER +
+                view(day.plusHours(1), uids[0]) + view(day.plusHours(2), uids[1]) + view(day.plusDays(1).plusHours(1), uids[2]))
+                .getBytes(StandardCharsets.UTF_8));
+        upload("/actions", ("uid,tag\n" + uids[0] + ",fclick\n" + uids[2] + ",fclick\n" + uids[2] + ",fclick\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertThat(partitionRows("views_table", day)).isEqualTo(2);
+        assertThat(partitionRows("views_table", day.plusDays(1))).isEqualTo(1);
+        assertThat(partitionRows("actions_table", day)).isEqualTo(1);
+        assertThat(partitionRows("actions_table", day.plusDays(1))).isEqualTo(1);
+
+        assertThat(read(() -> viewRepository.getCTR(day, day.plusDays(2), "day", null), this::format))
+                .containsExactly(day + "=50.0", day.plusDays(1) + "=200.0");
+
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN SELECT COUNT(*) FROM views_table v " +
+                "JOIN actions_table a ON a.uid = v.uid AND a.reg_time = v.reg_time " +
+                "WHERE v.reg_time BETWEEN ? AND ? AND a.reg_time BETWEEN ? AND ?", String.class,
+                day, day.plusHours(12), day, day.plusHours(12)));
+        assertThat(plan)
+                .contains(partition("views_table", day), partition("actions_table", day))
+                .doesNotContain(partition("views_table", day.plusDays(1)), partition("actions_table", day.plusDays(1)));
+
+        // a second upload merges into the rows of the unique key, which includes reg_time here
+        upload("/actions", ("uid,tag\n" + uids[2] + ",fclick\n").getBytes(StandardCharsets.UTF_8));
+        assertThat(partitionRows("actions_table", day.plusDays(1))).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT count FROM actions_table WHERE uid = ?", Integer.class, uids[2])).isEqualTo(3);
+    }
+
+    @Test
+    void testUidIsStoredOnceAcrossPartitions() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        String uid = UUID.randomUUID().toString();
+        String copiedUid = UUID.randomUUID().toString();
+
+        // the same uid in one file and in a later upload, with registration times in different partitions
+        upload("/views", (TestUploads.VIEWS_HEADER + view(day.plusHours(1), uid) + view(day.plusDays(1), uid))
+                .getBytes(StandardCharsets.UTF_8));
+        upload("/views", (TestUploads.VIEWS_HEADER + view(day.plusDays(2), uid)).getBytes(StandardCharsets.UTF_8));
+        CopyRepository.CopyResult copyResult = transactionTemplate.execute(status -> {
+            try {
+                return copyRepository.copyViews(new ByteArrayInputStream((TestUploads.VIEWS_HEADER +
+                                view(day.plusDays(3), copiedUid) + view(day.plusHours(3), copiedUid) + view(day.plusDays(4), uid))
+                                .getBytes(StandardCharsets.UTF_8)),
+                        partitionService::ensurePartitions, null, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        assertThat(copyResult.inserted()).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForList("SELECT reg_time FROM views_table WHERE uid IN (?, ?) ORDER BY reg_time",
+                LocalDateTime.class, uid, copiedUid))
+                .containsExactly(day.plusHours(1), day.plusDays(3));
+    }
+
+    private Integer partitionRows(String table, LocalDateTime day) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition(table, day), Integer.class);
+    }
+
+    private static String partition(String table, LocalDateTime day) {
+        return table + "_p" + PARTITION_SUFFIX.format(day);
+    }
+
+    private static String view(LocalDateTime regTime, String uid) {
+        return TestUploads.viewLine(regTime, uid, "partitioned.example.com");
+    }
+
+    private String format(CtrDates row) {
+        return row.getIntervalStart() + "=" + row.getCtr();
+    }
+
+    private <T> List<String> read(Supplier<Stream<T>> query, Function<T, String> format) {
+        return transactionTemplate.execute(status -> {
+            try (Stream<T> rows = query.get()) {
+                return rows.map(format).toList();
+            }
+        });
+    }
+
+    private void upload(String path, byte[] fileContent) throws Exception {
+        TestUploads.upload(mockMvc, path, fileContent)
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,86 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.service.QueryCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class QueryCacheIntegrationTests {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private QueryCache queryCache;
+
+    @Test
+    void testRepeatedQueriesAreServedFromCache() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        QueryCache.Stats before = queryCache.stats();
+
+        JsonNode first = getCtr(day, day.plusDays(1));
+        JsonNode second = getCtr(day, day.plusDays(1));
+
+        QueryCache.Stats after = queryCache.stats();
+        assertThat(second).isEqualTo(first);
+        assertThat(after.misses() - before.misses()).isEqualTo(1);
+        assertThat(after.hits() - before.hits()).isEqualTo(1);
+
+        mockMvc.perform(get("/cache/stats"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testUploadInvalidatesOnlyOverlappingEntries() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        LocalDateTime otherDay = day.plusDays(3);
+
+        uploadView(day.plusHours(1));
+        assertThat(getCtr(day, day.plusDays(1))).hasSize(1);
+        assertThat(getCtr(otherDay, otherDay.plusDays(1))).isEmpty();
+
+        QueryCache.Stats beforeUpload = queryCache.stats();
+        uploadView(day.plusHours(2));
+        QueryCache.Stats afterUpload = queryCache.stats();
+        assertThat(afterUpload.invalidations() - beforeUpload.invalidations()).isEqualTo(1);
+
+        // the overlapping entry is reloaded with the new view, the other one is still cached
+        assertThat(getCtr(day, day.plusDays(1))).hasSize(2);
+        assertThat(getCtr(otherDay, otherDay.plusDays(1))).isEmpty();
+        QueryCache.Stats afterQueries = queryCache.stats();
+        assertThat(afterQueries.misses() - afterUpload.misses()).isEqualTo(1);
+        assertThat(afterQueries.hits() - afterUpload.hits()).isEqualTo(1);
+    }
+
+    private JsonNode getCtr(LocalDateTime dateFrom, LocalDateTime dateTo) throws Exception {
+        String responseJson = mockMvc.perform(get("/ctr")
+                        .param("dateFrom", dateFrom.toString())
+                        .param("dateTo", dateTo.toString())
+                        .param("interval", StatisticsController.Interval.HOUR.getValue().toUpperCase())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(responseJson).get("items");
+    }
+
+    private void uploadView(LocalDateTime regTime) throws Exception {
+        TestUploads.upload(mockMvc, "/views", TestUploads.VIEWS_HEADER +
+                        TestUploads.viewLine(regTime, UUID.randomUUID().toString(), "cache.example.com"))
+                .andExpect(status().isOk());
+    }
+}
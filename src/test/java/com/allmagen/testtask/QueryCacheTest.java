@@ -0,0 +1,53 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.service.QueryCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryCacheTest {
+    private static final LocalDate DAY = LocalDate.parse("2021-07-21");
+    private static final LocalDate OTHER_DAY = LocalDate.parse("2021-08-21");
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void testResultsAfterAnInvalidationAreCachedForTheReplicaLag() throws InterruptedException {
+        QueryCache cache = new QueryCache(null, 10, 100, Duration.ofMinutes(10),
+                List.of("jdbc:postgresql://replica:5432/mydb"), Duration.ofMillis(300));
+        get(cache, DAY);
+        cache.invalidate(DAY.atStartOfDay(), DAY.atStartOfDay());
+        // may have read a replica that has not applied the upload yet
+        get(cache, DAY);
+        get(cache, OTHER_DAY);
+        get(cache, DAY);
+        assertThat(loads).hasValue(3);
+
+        Thread.sleep(400);
+        get(cache, DAY);
+        get(cache, OTHER_DAY);
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void testResultsAfterAnInvalidationAreCachedForTheTtlWithoutReplicas() throws InterruptedException {
+        QueryCache cache = new QueryCache(null, 10, 100, Duration.ofMinutes(10), List.of(), Duration.ofMillis(300));
+        get(cache, DAY);
+        cache.invalidate(DAY.atStartOfDay(), DAY.atStartOfDay());
+        get(cache, DAY);
+
+        Thread.sleep(400);
+        get(cache, DAY);
+        assertThat(loads).hasValue(2);
+    }
+
+    private void get(QueryCache cache, LocalDate day) {
+        assertThat(cache.get("count", day, day, () -> Stream.of(loads.incrementAndGet()))).hasSize(1);
+    }
+}
@@ -0,0 +1,129 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.repository.ReplicaRoutingDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaRoutingDataSourceTest {
+    private final StubDataSource primary = new StubDataSource("primary");
+    private final StubDataSource replica0 = new StubDataSource("replica0");
+    private final StubDataSource replica1 = new StubDataSource("replica1");
+
+    @AfterEach
+    void resetReadOnly() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void testWritesUsePrimaryAndReadsAlternateReplicas() throws SQLException {
+        ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(primary, List.of(replica0, replica1), Duration.ofHours(1));
+
+        assertThat(connectTo(dataSource, 2)).containsExactly("primary", "primary");
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertThat(connectTo(dataSource, 4)).containsExactly("replica0", "replica1", "replica0", "replica1");
+    }
+
+    @Test
+    void testFailedReplicaIsSkippedUntilRetry() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        replica0.failing = true;
+        ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(primary, List.of(replica0, replica1), Duration.ofHours(1));
+        assertThat(connectTo(dataSource, 4)).containsExactly("replica1", "replica1", "replica1", "replica1");
+        assertThat(replica0.attempts).isEqualTo(1);
+
+        // without a retry delay, the replica is tried again by the next read and used once it recovers
+        dataSource = new ReplicaRoutingDataSource(primary, List.of(replica0, replica1), Duration.ZERO);
+        assertThat(connectTo(dataSource, 1)).containsExactly("replica1");
+        replica0.failing = false;
+        assertThat(connectTo(dataSource, 2)).containsExactly("replica1", "replica0");
+    }
+
+    @Test
+    void testReadsFallBackToPrimaryWithoutAvailableReplica() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        replica0.failing = true;
+        replica1.failing = true;
+        ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(primary, List.of(replica0, replica1), Duration.ofHours(1));
+        assertThat(connectTo(dataSource, 3)).containsExactly("primary", "primary", "primary");
+        assertThat(replica0.attempts).isEqualTo(1);
+        assertThat(replica1.attempts).isEqualTo(1);
+    }
+
+    @Test
+    void testReadOnlyTransactionsUseReplicaBehindLazyProxy() {
+        DataSource dataSource = new LazyConnectionDataSourceProxy(
+                new ReplicaRoutingDataSource(primary, List.of(replica0), Duration.ofHours(1)));
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        assertThat((String) transactionTemplate.execute(status -> catalog(dataSource))).isEqualTo("primary");
+        transactionTemplate.setReadOnly(true);
+        assertThat((String) transactionTemplate.execute(status -> catalog(dataSource))).isEqualTo("replica0");
+    }
+
+    private static List<String> connectTo(DataSource dataSource, int connections) throws SQLException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            names.add(dataSource.getConnection().getCatalog());
+        }
+        return names;
+    }
+
+    private static String catalog(DataSource dataSource) {
+        try {
+            return DataSourceUtils.getConnection(dataSource).getCatalog();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Opens connections whose catalog is the name of the data source and that accept every other call.
+     */
+    private static class StubDataSource extends AbstractDataSource {
+        private final String name;
+        private volatile boolean failing;
+        private int attempts;
+
+        private StubDataSource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            attempts++;
+            if (failing) {
+                throw new SQLException("Connection to " + name + " refused");
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getCatalog", "toString" -> name;
+                        case "getAutoCommit" -> true;
+                        case "getTransactionIsolation" -> Connection.TRANSACTION_READ_COMMITTED;
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> method.getReturnType() == boolean.class ? false : null;
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+    }
+}
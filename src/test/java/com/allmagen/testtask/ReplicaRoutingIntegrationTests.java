@@ -0,0 +1,140 @@
+package com.allmagen.testtask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the application against a primary and a read replica container. The containers are independent databases,
+ * so every row shows which of them answered: uploads are stored on the primary, the statistics queries read the
+ * replica, and read the primary once the replica is stopped.
+ * <p>
+ * Runs only if Docker is available.
+ */
+@SpringBootTest(properties = {
+        "statistics.cache.max-entries=0",
+        "statistics.datasource.replica-connection-timeout=PT1S",
+        "statistics.datasource.replica-retry=PT1M"})
+@AutoConfigureMockMvc
+@EnabledIf("dockerAvailable")
+class ReplicaRoutingIntegrationTests {
+    private static final PostgreSQLContainer<?> PRIMARY = new PostgreSQLContainer<>("postgres:15-alpine3.17")
+            .withDatabaseName("mydb")
+            .withUsername("myuser")
+            .withPassword("mypass");
+    private static final PostgreSQLContainer<?> REPLICA = new PostgreSQLContainer<>("postgres:15-alpine3.17")
+            .withDatabaseName("replica")
+            .withUsername("myuser")
+            .withPassword("mypass");
+    private static final LocalDate DAY = LocalDate.parse("2021-07-21");
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    static boolean dockerAvailable() {
+        return DockerClientFactory.instance().isDockerAvailable();
+    }
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        PRIMARY.start();
+        REPLICA.start();
+        registry.add("spring.datasource.url", PRIMARY::getJdbcUrl);
+        registry.add("spring.datasource.username", PRIMARY::getUsername);
+        registry.add("spring.datasource.password", PRIMARY::getPassword);
+        registry.add("statistics.datasource.replicas", REPLICA::getJdbcUrl);
+    }
+
+    @AfterAll
+    static void stopContainers() {
+        PRIMARY.stop();
+        REPLICA.stop();
+    }
+
+    @Test
+    void testQueriesReadReplicaAndFallBackToPrimary() throws Exception {
+        seedReplica();
+        TestUploads.upload(mockMvc, "/views", TestUploads.VIEWS_HEADER +
+                        DAY + " 10:00:00,primary-uid,0,7,6,501,iOS,iPhone XR,Mobile Phone,primary.example.com\n")
+                .andExpect(status().isOk());
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        assertThat((String) transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT current_database()", String.class)))
+                .isEqualTo("mydb");
+        transactionTemplate.setReadOnly(true);
+        assertThat((String) transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT current_database()", String.class)))
+                .isEqualTo("replica");
+
+        assertThat(viewsCountBySiteId()).isEqualTo(Map.of("replica.example.com", 2L));
+
+        REPLICA.stop();
+        assertThat(viewsCountBySiteId()).isEqualTo(Map.of("primary.example.com", 1L));
+    }
+
+    /**
+     * Creates the columns of {@code views_table} read by the views count query on the replica, with rows that are
+     * not on the primary.
+     */
+    private static void seedReplica() throws Exception {
+        try (Connection connection = DriverManager.getConnection(REPLICA.getJdbcUrl(), REPLICA.getUsername(), REPLICA.getPassword())) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE views_table (uid varchar(255) PRIMARY KEY, reg_time timestamp(6), site_id varchar(255))");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO views_table VALUES (?, ?, ?)")) {
+                for (String uid : new String[]{"replica-uid-1", "replica-uid-2"}) {
+                    insert.setString(1, uid);
+                    insert.setTimestamp(2, Timestamp.valueOf(DAY.atTime(12, 0)));
+                    insert.setString(3, "replica.example.com");
+                    insert.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private Map<String, Long> viewsCountBySiteId() throws Exception {
+        String responseJson = mockMvc.perform(get("/viewsCountBySiteId")
+                        .param("dateFrom", DAY.toString())
+                        .param("dateTo", DAY.toString())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Map<String, Long> counts = new HashMap<>();
+        for (JsonNode row : objectMapper.readTree(responseJson).get("items")) {
+            counts.put(row.get("siteId").asText(), row.get("count").asLong());
+        }
+        return counts;
+    }
+}
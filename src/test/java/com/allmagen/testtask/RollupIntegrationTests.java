@@ -0,0 +1,119 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.model.metrics.CtrDates;
+import com.allmagen.testtask.repository.RollupRepository;
+import com.allmagen.testtask.repository.ViewRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class RollupIntegrationTests {
+    private final static String INTERVIEW_X = "classpath:testdata/interview.x.small.csv";
+    private final static String INTERVIEW_Y = "classpath:testdata/interview.y.csv";
+
+    private final static List<LocalDateTime[]> RANGES = List.of(
+            range("2021-07-21T00:00:00", "2021-07-23T00:00:00"),
+            range("2021-07-21T19:30:17", "2021-07-22T08:45:42"),
+            range("2021-07-21T20:15:05", "2021-07-21T20:15:40"),
+            range("2021-07-21T21:05:30", "2021-07-21T21:50:10"),
+            range("2021-07-21T23:59:59", "2021-07-22T01:00:00"),
+            range("2021-07-22T09:00:00", "2021-07-22T09:00:00"));
+    private final static String[] TAGS = {null, "fclick", "registration", "vregistration", "signup"};
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ResourceLoader resourceLoader;
+    @Autowired
+    private ViewRepository viewRepository;
+    @Autowired
+    private RollupRepository rollupRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void upload() throws Exception {
+        TestUploads.upload(mockMvc, "/views", csvFile(INTERVIEW_X))
+                .andExpect(status().isOk());
+        TestUploads.upload(mockMvc, "/actions", csvFile(INTERVIEW_Y))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testUploadsKeepRollupsUpToDate() throws Exception {
+        List<Map<String, Object>> viewRollup = jdbcTemplate.queryForList("SELECT * FROM view_rollup ORDER BY 1, 2");
+        List<Map<String, Object>> actionRollup = jdbcTemplate.queryForList("SELECT * FROM action_rollup ORDER BY 1, 2, 3");
+
+        mockMvc.perform(post("/rollups/rebuild"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(matchesPattern("Rollups rebuilt: \\d+ view buckets, \\d+ action buckets")));
+
+        assertThat(viewRollup).isNotEmpty();
+        assertThat(jdbcTemplate.queryForList("SELECT * FROM view_rollup ORDER BY 1, 2")).isEqualTo(viewRollup);
+        assertThat(jdbcTemplate.queryForList("SELECT * FROM action_rollup ORDER BY 1, 2, 3")).isEqualTo(actionRollup);
+    }
+
+    @Test
+    void testRollupQueriesMatchRawQueries() {
+        assertThat(read(() -> rollupRepository.getCTR(RANGES.get(0)[0], RANGES.get(0)[1], "hour", null))).isNotEmpty();
+
+        for (LocalDateTime[] range : RANGES) {
+            for (StatisticsController.Interval interval : StatisticsController.Interval.values()) {
+                for (String tag : TAGS) {
+                    String description = Arrays.toString(range) + " " + interval + " " + tag;
+
+                    List<String> rawCtr = read(() -> viewRepository.getCTR(range[0], range[1], interval.getValue(), tag));
+                    List<String> rollupCtr = read(() -> rollupRepository.getCTR(range[0], range[1], interval.getValue(), tag));
+                    assertThat(rollupCtr).as("CTR " + description).isEqualTo(rawCtr);
+
+                    List<String> rawEvPM = read(() -> viewRepository.getEvPM(range[0], range[1], interval.getValue(), tag));
+                    List<String> rollupEvPM = read(() -> rollupRepository.getEvPM(range[0], range[1], interval.getValue(), tag));
+                    assertThat(rollupEvPM).as("EvPM " + description).isEqualTo(rawEvPM);
+                }
+            }
+        }
+    }
+
+    private List<String> read(Supplier<Stream<CtrDates>> query) {
+        Function<CtrDates, String> format = row -> row.getIntervalStart() + "=" + row.getCtr();
+        return transactionTemplate.execute(status -> {
+            try (Stream<CtrDates> rows = query.get()) {
+                return rows.map(format).toList();
+            }
+        });
+    }
+
+    private MockMultipartFile csvFile(String location) throws Exception {
+        return TestUploads.csvFile(resourceLoader.getResource(location).getInputStream().readAllBytes());
+    }
+
+    private static LocalDateTime[] range(String from, String to) {
+        return new LocalDateTime[]{LocalDateTime.parse(from), LocalDateTime.parse(to)};
+    }
+}
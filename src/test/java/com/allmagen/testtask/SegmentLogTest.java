@@ -0,0 +1,195 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.service.wal.SegmentLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentLogTest {
+    /**
+     * Holds three records of {@link #record(int)} behind the header.
+     */
+    private static final int SEGMENT_SIZE = 70;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void testPublishedRecordsAreReadInOrderAcrossSegments() throws IOException {
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            SegmentLog.Writer first = log.writer();
+            SegmentLog.Writer second = log.writer();
+            for (int i = 0; i < 5; i++) {
+                first.append(record(i));
+                second.append(record(10 + i));
+            }
+            assertThat(read(log, 0, 100)).isEmpty();
+
+            // published in the opposite order of the first appends
+            second.publish();
+            first.publish();
+            assertThat(log.published()).isEqualTo(4);
+            assertThat(files("*.pending")).isEmpty();
+
+            List<String> records = new ArrayList<>();
+            long position = 0;
+            for (int i = 0; i < 4; i++) {
+                List<byte[]> batch = new ArrayList<>();
+                position = log.read(position, 3, batch);
+                batch.forEach(record -> records.add(new String(record, StandardCharsets.UTF_8)));
+            }
+            assertThat(records).containsExactly("record-10", "record-11", "record-12", "record-13", "record-14",
+                    "record-00", "record-01", "record-02", "record-03", "record-04");
+            assertThat(log.read(position, 3, new ArrayList<>())).isEqualTo(position);
+
+            log.deleteBefore(position);
+            assertThat(log.segments()).isEqualTo(1);
+            assertThat(files("*.seg")).hasSize(1);
+        }
+    }
+
+    @Test
+    void testFailedPublishDeletesRenamedSegments() throws IOException {
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            // the second segment cannot be renamed over a directory that is not empty
+            Path blocked = Files.createDirectories(directory.resolve(String.format("%019d.seg", 1)));
+            Files.createFile(blocked.resolve("file"));
+            try (SegmentLog.Writer failed = log.writer()) {
+                for (int i = 0; i < 5; i++) {
+                    failed.append(record(i));
+                }
+                assertThatThrownBy(failed::publish).isInstanceOf(IOException.class);
+            }
+            assertThat(log.published()).isZero();
+            assertThat(files("*.pending")).isEmpty();
+            assertThat(files("*.seg")).containsExactly(blocked);
+
+            Files.delete(blocked.resolve("file"));
+            Files.delete(blocked);
+            try (SegmentLog.Writer writer = log.writer()) {
+                writer.append(record(10));
+                writer.publish();
+            }
+            assertThat(read(log, 0, 100)).containsExactly("record-10");
+        }
+    }
+
+    @Test
+    void testReopenDeletesUnpublishedAndReadSegments() throws IOException {
+        long checkpoint;
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            try (SegmentLog.Writer writer = log.writer()) {
+                for (int i = 0; i < 6; i++) {
+                    writer.append(record(i));
+                }
+                writer.publish();
+            }
+            // a failed upload is discarded when closed, a crashed one when the log is opened again
+            try (SegmentLog.Writer failed = log.writer()) {
+                failed.append(record(20));
+            }
+            log.writer().append(record(30));
+            assertThat(files("*.pending")).hasSize(1);
+
+            List<byte[]> records = new ArrayList<>();
+            checkpoint = log.read(0, 4, records);
+            assertThat(records).hasSize(4);
+        }
+
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, checkpoint)) {
+            assertThat(files("*.pending")).isEmpty();
+            assertThat(log.segments()).isEqualTo(1);
+            assertThat(read(log, checkpoint, 100)).containsExactly("record-04", "record-05");
+
+            // new segments follow the partially read one
+            try (SegmentLog.Writer writer = log.writer()) {
+                writer.append(record(6));
+                writer.publish();
+            }
+            assertThat(read(log, checkpoint, 100)).containsExactly("record-04", "record-05", "record-06");
+        }
+    }
+
+    @Test
+    void testReopenDeletesIncompletelyPublishedSegments() throws IOException {
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            try (SegmentLog.Writer writer = log.writer()) {
+                writer.append(record(0));
+                writer.publish();
+            }
+            try (SegmentLog.Writer writer = log.writer()) {
+                for (int i = 1; i < 8; i++) {
+                    writer.append(record(i));
+                }
+                writer.publish();
+            }
+        }
+        // a crash before the last segment of the second writer was renamed
+        Files.delete(directory.resolve(String.format("%019d.seg", 3)));
+
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            assertThat(read(log, 0, 100)).containsExactly("record-00");
+            assertThat(files("*.seg")).hasSize(1);
+            assertThat(log.published()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void testCorruptedRecordIsDetected() throws IOException {
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            try (SegmentLog.Writer writer = log.writer()) {
+                writer.append(record(0));
+                writer.publish();
+            }
+        }
+        Path segment = files("*.seg").get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[30] ^= 1;
+        Files.write(segment, bytes);
+
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0)) {
+            assertThatThrownBy(() -> log.read(0, 100, new ArrayList<>()))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Corrupted ingest log record at offset 16 of segment 0");
+        }
+    }
+
+    @Test
+    void testRecordLargerThanSegmentIsRejected() throws IOException {
+        try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE, 0);
+             SegmentLog.Writer writer = log.writer()) {
+            assertThatThrownBy(() -> writer.append(new byte[SEGMENT_SIZE]))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    private static byte[] record(int i) {
+        return String.format("record-%02d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> read(SegmentLog log, long position, int maxRecords) {
+        List<byte[]> records = new ArrayList<>();
+        log.read(position, maxRecords, records);
+        return records.stream().map(record -> new String(record, StandardCharsets.UTF_8)).toList();
+    }
+
+    private List<Path> files(String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(file -> file.getFileSystem().getPathMatcher("glob:" + glob).matches(file.getFileName()))
+                    .sorted()
+                    .forEach(files::add);
+        }
+        return files;
+    }
+}
@@ -9,14 +9,21 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -36,6 +43,8 @@ class StatisticsIntegrationTests {
     @Autowired
     private ResourceLoader resourceLoader;
     @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
     private ObjectMapper objectMapper;
 
     @Test
@@ -50,7 +59,8 @@ class StatisticsIntegrationTests {
         mockMvc.perform(multipart("/views")
                         .file(file)
                         .contentType(MediaType.MULTIPART_FORM_DATA))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(matchesPattern("Views uploaded: \\d+ \\(\\d+ rows/sec\\)")));
     }
 
     @Test
@@ -110,6 +120,25 @@ class StatisticsIntegrationTests {
                 });
     }
 
+    @Test
+    void testUploadsMergeActionCountsAndSkipStoredViews() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        String uid = UUID.randomUUID().toString();
+        byte[] views = (TestUploads.VIEWS_HEADER + TestUploads.viewLine(day.plusHours(1), uid, "delta.example.com"))
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] actions = ("uid,tag\n" + uid + ",fclick\n" + uid + ",fclick\n" + uid + ",registration\n").getBytes(StandardCharsets.UTF_8);
+
+        upload("/views", views, "Views uploaded: 1 ");
+        upload("/views", views, "Views uploaded: 0 ");
+        upload("/actions", actions, "Actions uploaded: 2 ");
+        upload("/actions", actions, "Actions uploaded: 2 ");
+
+        assertThat(jdbcTemplate.queryForList("SELECT tag || '=' || count FROM actions_table WHERE uid = ? ORDER BY tag", String.class, uid))
+                .containsExactly("fclick=4", "registration=2");
+        assertThat(jdbcTemplate.queryForObject("SELECT action_count FROM action_rollup " +
+                "WHERE granularity = 'day' AND bucket_start = ? AND tag = 'fclick'", Long.class, day)).isEqualTo(4);
+    }
+
     @Test
     void testGetCTR() throws Exception {
         LocalDateTime dateFrom = LocalDateTime.parse("2021-07-20T20:00:00", formatter);
@@ -234,4 +263,27 @@ class StatisticsIntegrationTests {
                 .andExpect(MockMvcResultMatchers.status().isOk());
     }
 
+    @Test
+    void testCtrChartIsDownsampledToMaxPoints() throws Exception {
+        mockMvc.perform(get("/ctrChart")
+                        .param("dateFrom", dateFrom.toString())
+                        .param("dateTo", dateTo.toString())
+                        .param("interval", StatisticsController.Interval.MINUTE.getValue().toUpperCase())
+                        .param("maxPoints", "3"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.model().attribute("xAxisData", hasSize(lessThanOrEqualTo(3))));
+
+        mockMvc.perform(get("/ctrChart")
+                        .param("dateFrom", dateFrom.toString())
+                        .param("dateTo", dateTo.toString())
+                        .param("interval", StatisticsController.Interval.MINUTE.getValue().toUpperCase())
+                        .param("maxPoints", "2"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private void upload(String path, byte[] fileContent, String response) throws Exception {
+        TestUploads.upload(mockMvc, path, fileContent)
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(startsWith(response)));
+    }
 }
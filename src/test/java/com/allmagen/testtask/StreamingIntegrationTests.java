@@ -0,0 +1,155 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.controller.StatisticsController;
+import com.allmagen.testtask.service.QueryCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "statistics.streaming.fetch-size=2")
+@AutoConfigureMockMvc
+class StreamingIntegrationTests {
+    private final static MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private final static MediaType COLUMNS = MediaType.parseMediaType("application/vnd.ctr-evpm.columns");
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private QueryCache queryCache;
+
+    @Test
+    void testNdjsonMatchesJsonResponse() throws Exception {
+        LocalDateTime day = uploadHourlyViews();
+
+        for (String path : new String[]{"/ctr", "/evpm"}) {
+            QueryCache.Stats before = queryCache.stats();
+            List<JsonNode> streamed = getNdjson(ctrRequest(path, day).accept(NDJSON));
+            QueryCache.Stats after = queryCache.stats();
+
+            assertThat(streamed).hasSize(5);
+            assertThat(streamed).containsExactlyElementsOf(getJson(ctrRequest(path, day)));
+            // the streamed result was not cached, so the JSON request missed as well
+            assertThat(queryCache.stats().misses() - after.misses()).isEqualTo(after.misses() - before.misses());
+        }
+
+        List<JsonNode> streamedSiteIds = getNdjson(get("/viewsCountBySiteId")
+                .param("dateFrom", day.toLocalDate().toString())
+                .param("dateTo", day.toLocalDate().toString())
+                .accept(NDJSON));
+        assertThat(streamedSiteIds).anySatisfy(row -> {
+            assertThat(row.get("siteId").asText()).isEqualTo("streaming.example.com");
+            assertThat(row.get("count").asLong()).isEqualTo(5);
+        });
+    }
+
+    @Test
+    void testColumnsMatchJsonResponse() throws Exception {
+        LocalDateTime day = uploadHourlyViews();
+
+        for (String path : new String[]{"/ctr", "/evpm"}) {
+            MvcResult result = mockMvc.perform(ctrRequest(path, day).accept(COLUMNS))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            byte[] body = mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(COLUMNS))
+                    .andReturn().getResponse().getContentAsByteArray();
+
+            ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+            assertThat(new String(body, 0, 4, StandardCharsets.US_ASCII)).isEqualTo("CTRC");
+            buffer.position(4);
+            assertThat(buffer.getInt()).isEqualTo(1);
+            List<String> decoded = new ArrayList<>();
+            for (int rows = buffer.getInt(); rows > 0; rows = buffer.getInt()) {
+                long[] intervalStarts = new long[rows];
+                for (int i = 0; i < rows; i++) {
+                    intervalStarts[i] = buffer.getLong();
+                }
+                for (int i = 0; i < rows; i++) {
+                    decoded.add(LocalDateTime.ofEpochSecond(intervalStarts[i], 0, ZoneOffset.UTC) + "=" + buffer.getFloat());
+                }
+            }
+            assertThat(buffer.hasRemaining()).isFalse();
+
+            List<String> expected = getJson(ctrRequest(path, day)).stream()
+                    .map(row -> LocalDateTime.parse(row.get("intervalStart").asText()) + "=" + row.get("ctr").floatValue())
+                    .toList();
+            assertThat(decoded).hasSize(5).isEqualTo(expected);
+        }
+    }
+
+    /**
+     * Uploads one view per hour for five hours, more rows than the fetch size, so the cursor is read in several round trips.
+     *
+     * @return The start of the first hour.
+     */
+    private LocalDateTime uploadHourlyViews() throws Exception {
+        LocalDateTime day = TestDays.uniqueWeek();
+        StringBuilder csv = new StringBuilder(TestUploads.VIEWS_HEADER);
+        for (int hour = 0; hour < 5; hour++) {
+            csv.append(TestUploads.viewLine(day.plusHours(hour), UUID.randomUUID().toString(), "streaming.example.com"));
+        }
+        TestUploads.upload(mockMvc, "/views", csv)
+                .andExpect(status().isOk());
+        return day;
+    }
+
+    private MockHttpServletRequestBuilder ctrRequest(String path, LocalDateTime day) {
+        return get(path)
+                .param("dateFrom", day.toString())
+                .param("dateTo", day.plusDays(1).toString())
+                .param("interval", StatisticsController.Interval.HOUR.getValue().toUpperCase());
+    }
+
+    private List<JsonNode> getNdjson(MockHttpServletRequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        List<JsonNode> rows = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.isEmpty()) {
+                rows.add(objectMapper.readTree(line));
+            }
+        }
+        return rows;
+    }
+
+    private List<JsonNode> getJson(MockHttpServletRequestBuilder requestBuilder) throws Exception {
+        String responseJson = mockMvc.perform(requestBuilder.contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<JsonNode> rows = new ArrayList<>();
+        objectMapper.readTree(responseJson).get("items").forEach(rows::add);
+        return rows;
+    }
+}
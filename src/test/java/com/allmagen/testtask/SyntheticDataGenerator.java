@@ -0,0 +1,192 @@
+package com.allmagen.testtask;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Writes view and action CSV files in the schema of interview.x and interview.y at any size.
+ * The output only depends on the number of views, the number of days and the seed, so runs are repeatable.
+ * <p>
+ * Site ids and mmDma codes follow Zipf distributions, so a few sites and markets hold most views as in production
+ * data. Every view gets a geometric number of actions, about 1.5 on average like the sample files, and the tags
+ * are weighted by their frequency in interview.y. Lines are written as they are generated, so memory use does not
+ * depend on the number of rows.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.allmagen.testtask.SyntheticDataGenerator -Dexec.args="target/data 10000000"
+ * </pre>
+ */
+public class SyntheticDataGenerator {
+    public static final String VIEWS_HEADER = "reg_time,uid,fc_imp_chk,fc_time_chk,utmtr,mm_dma,osName,model,hardware,site_id";
+    public static final String ACTIONS_HEADER = "uid,tag";
+    public static final LocalDateTime FIRST_REG_TIME = LocalDateTime.parse("2021-07-20T00:00:00");
+
+    private static final String[] TAGS = {"vregistration", "registration", "fclick", "vcontent", "vsignup", "vlead",
+            "vmisc", "signup", "content", "misc", "lead"};
+    private static final double[] TAG_WEIGHTS = {6340, 4163, 3942, 503, 247, 66, 46, 27, 17, 4, 4};
+    private static final String[] OS_NAMES = {"iOS", "Android", "Windows", "OS X", "Linux", "Chrome OS"};
+    private static final double[] OS_WEIGHTS = {55, 30, 8, 5, 1, 1};
+    private static final String[] MODELS = {"iPhone", "iPhone XR", "iPhone 11", "SM-G960U", "Pixel 4a", "Other"};
+    private static final String[] HARDWARE = {"Mobile Phone", "Desktop", "Tablet", "Media Player"};
+    private static final double[] HARDWARE_WEIGHTS = {80, 12, 7, 1};
+    private static final int SITES = 5_000;
+    /**
+     * The Nielsen DMA codes range from 500 to 881.
+     */
+    private static final int FIRST_MM_DMA = 500;
+    private static final int MM_DMAS = 382;
+    /**
+     * The probability that a view has no further action, giving 1.5 actions per view on average.
+     */
+    private static final double ACTION_STOP = 0.4;
+
+    private final long views;
+    private final int days;
+    private final long seed;
+
+    public SyntheticDataGenerator(long views, int days, long seed) {
+        this.views = views;
+        this.days = days;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the view and action files.
+     *
+     * @return The number of action lines written.
+     */
+    public long write(Path viewsFile, Path actionsFile) throws IOException {
+        try (Writer viewsWriter = Files.newBufferedWriter(viewsFile, StandardCharsets.UTF_8);
+             Writer actionsWriter = Files.newBufferedWriter(actionsFile, StandardCharsets.UTF_8)) {
+            return write(viewsWriter, actionsWriter);
+        }
+    }
+
+    /**
+     * Writes the view and action lines, each preceded by the header line.
+     *
+     * @return The number of action lines written.
+     */
+    public long write(Writer viewsWriter, Writer actionsWriter) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        Distribution sites = Distribution.zipf(SITES, 1.1);
+        Distribution mmDmas = Distribution.zipf(MM_DMAS, 0.9);
+        Distribution tags = new Distribution(TAG_WEIGHTS);
+        Distribution osNames = new Distribution(OS_WEIGHTS);
+        Distribution hardware = new Distribution(HARDWARE_WEIGHTS);
+
+        viewsWriter.write(VIEWS_HEADER);
+        viewsWriter.write('\n');
+        actionsWriter.write(ACTIONS_HEADER);
+        actionsWriter.write('\n');
+
+        long firstSecond = FIRST_REG_TIME.toEpochSecond(ZoneOffset.UTC);
+        double secondsPerView = (double) days * 86_400 / views;
+        StringBuilder line = new StringBuilder(160);
+        long actions = 0;
+        for (long view = 0; view < views; view++) {
+            String uid = uid(view);
+            long regTime = firstSecond + (long) (view * secondsPerView);
+
+            line.setLength(0);
+            appendTimestamp(line, regTime);
+            line.append(',').append(uid)
+                    .append(',').append(random.nextInt(2))
+                    .append(',').append(random.nextInt(10))
+                    .append(',').append(random.nextInt(10))
+                    .append(',').append(FIRST_MM_DMA + mmDmas.next(random))
+                    .append(',').append(OS_NAMES[osNames.next(random)])
+                    .append(',').append(MODELS[random.nextInt(MODELS.length)])
+                    .append(',').append(HARDWARE[hardware.next(random)])
+                    .append(",site").append(sites.next(random)).append(".example.com\n");
+            viewsWriter.append(line);
+
+            while (random.nextDouble() >= ACTION_STOP) {
+                actionsWriter.append(uid).append(',').append(TAGS[tags.next(random)]).append('\n');
+                actions++;
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * @return The uid of the view with the given index, formatted like the uids of the sample files.
+     */
+    public static String uid(long view) {
+        String digits = Long.toString(860_000_000_000L + view);
+        return "00000000-0000-0001-6268-" + "0".repeat(Math.max(0, 12 - digits.length())) + digits;
+    }
+
+    private static void appendTimestamp(StringBuilder line, long epochSecond) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+        line.append(time.getYear()).append('-');
+        twoDigits(line, time.getMonthValue()).append('-');
+        twoDigits(line, time.getDayOfMonth()).append(' ');
+        twoDigits(line, time.getHour()).append(':');
+        twoDigits(line, time.getMinute()).append(':');
+        twoDigits(line, time.getSecond());
+    }
+
+    private static StringBuilder twoDigits(StringBuilder line, int value) {
+        return line.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Arguments: the output directory, the number of views (default 1000000), the number of days the registration
+     * times span (default 7) and the seed (default 42). Writes views.csv and actions.csv.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Path.of(args.length > 0 ? args[0] : "target/data");
+        long views = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 7;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        Files.createDirectories(directory);
+        long startNanos = System.nanoTime();
+        long actions = new SyntheticDataGenerator(views, days, seed).write(directory.resolve("views.csv"), directory.resolve("actions.csv"));
+        System.out.printf("%d views and %d actions written to %s in %d ms%n",
+                views, actions, directory, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * Draws category indexes with fixed weights by binary search over the cumulative weights.
+     */
+    private static final class Distribution {
+        private final double[] cumulative;
+
+        Distribution(double[] weights) {
+            cumulative = new double[weights.length];
+            double sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        /**
+         * @return A distribution where category {@code k} has a weight of {@code 1 / (k + 1)^exponent}.
+         */
+        static Distribution zipf(int categories, double exponent) {
+            double[] weights = new double[categories];
+            for (int k = 0; k < categories; k++) {
+                weights[k] = 1 / Math.pow(k + 1, exponent);
+            }
+            return new Distribution(weights);
+        }
+
+        int next(SplittableRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index >= 0 ? index + 1 : -index - 1, cumulative.length - 1);
+        }
+    }
+}
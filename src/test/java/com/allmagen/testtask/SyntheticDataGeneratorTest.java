@@ -0,0 +1,62 @@
+package com.allmagen.testtask;
+
+import com.allmagen.testtask.model.ViewEntity;
+import com.allmagen.testtask.service.parser.ViewLineDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SyntheticDataGeneratorTest {
+
+    @Test
+    void testOutputIsRepeatableAndValid() throws Exception {
+        StringWriter views = new StringWriter();
+        StringWriter actions = new StringWriter();
+        long actionCount = new SyntheticDataGenerator(20_000, 2, 7).write(views, actions);
+
+        StringWriter viewsAgain = new StringWriter();
+        StringWriter actionsAgain = new StringWriter();
+        new SyntheticDataGenerator(20_000, 2, 7).write(viewsAgain, actionsAgain);
+        assertThat(viewsAgain.toString()).isEqualTo(views.toString());
+        assertThat(actionsAgain.toString()).isEqualTo(actions.toString());
+
+        String[] viewLines = views.toString().split("\n");
+        assertThat(viewLines[0]).isEqualTo(SyntheticDataGenerator.VIEWS_HEADER);
+        assertThat(viewLines).hasSize(20_001);
+
+        ViewLineDecoder decoder = new ViewLineDecoder();
+        Set<String> uids = new HashSet<>();
+        Map<String, Integer> viewsPerSite = new HashMap<>();
+        for (int i = 1; i < viewLines.length; i++) {
+            byte[] line = viewLines[i].getBytes(StandardCharsets.UTF_8);
+            ViewEntity view = decoder.decode(line, 0, line.length);
+            assertThat(view.getRegTime()).isBetween(SyntheticDataGenerator.FIRST_REG_TIME, SyntheticDataGenerator.FIRST_REG_TIME.plusDays(2));
+            uids.add(view.getUid());
+            viewsPerSite.merge(view.getSiteId(), 1, Integer::sum);
+        }
+        assertThat(uids).hasSize(20_000);
+        // Zipf skew: the most frequent site has far more views than an even split over the sites seen
+        assertThat(viewsPerSite.get("site0.example.com")).isGreaterThan(20 * 20_000 / viewsPerSite.size());
+
+        String[] actionLines = actions.toString().split("\n");
+        assertThat(actionLines[0]).isEqualTo(SyntheticDataGenerator.ACTIONS_HEADER);
+        assertThat(actionLines).hasSize((int) actionCount + 1);
+        assertThat(actionCount).isBetween(25_000L, 35_000L);
+        int unknownUids = 0;
+        for (int i = 1; i < actionLines.length; i++) {
+            String[] fields = actionLines[i].split(",");
+            assertThat(fields).hasSize(2);
+            if (!uids.contains(fields[0])) {
+                unknownUids++;
+            }
+        }
+        assertThat(unknownUids).isZero();
+    }
+}
@@ -0,0 +1,26 @@
+package com.allmagen.testtask;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Days for the rows of the integration tests, which share one database and keep their rows. Every call returns the
+ * start of a week that no other call of the test run returns, so a test only counts its own rows. The weeks of a run
+ * follow the current time in seconds, so they do not overlap the weeks of earlier runs either.
+ */
+final class TestDays {
+    private static final LocalDateTime FIRST_WEEK = LocalDateTime.parse("4000-01-03T00:00:00");
+    private static final long WEEKS = ChronoUnit.WEEKS.between(FIRST_WEEK, LocalDateTime.parse("9000-01-01T00:00:00"));
+    private static final AtomicLong NEXT_WEEK = new AtomicLong(System.currentTimeMillis() / 1000);
+
+    private TestDays() {
+    }
+
+    /**
+     * @return The start of seven days without rows of other tests.
+     */
+    static LocalDateTime uniqueWeek() {
+        return FIRST_WEEK.plusWeeks(Math.floorMod(NEXT_WEEK.getAndIncrement(), WEEKS));
+    }
+}
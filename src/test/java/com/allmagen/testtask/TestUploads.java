@@ -0,0 +1,62 @@
+package com.allmagen.testtask;
+
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+
+/**
+ * CSV files of the integration tests and their upload to {@code /views} and {@code /actions}.
+ */
+final class TestUploads {
+    static final String VIEWS_HEADER = "reg_time,uid,fc_imp_chk,fc_time_chk,utmtr,mm_dma,osName,model,hardware,site_id\n";
+    private static final DateTimeFormatter CSV_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private TestUploads() {
+    }
+
+    /**
+     * @return The registration time as written in the views files.
+     */
+    static String csvTime(LocalDateTime time) {
+        return CSV_TIME.format(time);
+    }
+
+    /**
+     * @return A line of a views file of a view on an iPhone in market 530.
+     */
+    static String viewLine(LocalDateTime regTime, String uid, String siteId) {
+        return csvTime(regTime) + "," + uid + ",0,7,6,530,iOS,iPhone XR,Mobile Phone," + siteId + "\n";
+    }
+
+    static MockMultipartFile csvFile(CharSequence csv) {
+        return csvFile(csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static MockMultipartFile csvFile(byte[] content) {
+        return new MockMultipartFile("file", "test.csv", "text/csv", content);
+    }
+
+    /**
+     * Uploads a CSV file as a multipart request.
+     *
+     * @return The result of the request, for the expectations of the test.
+     */
+    static ResultActions upload(MockMvc mockMvc, String path, CharSequence csv) throws Exception {
+        return upload(mockMvc, path, csvFile(csv));
+    }
+
+    static ResultActions upload(MockMvc mockMvc, String path, byte[] content) throws Exception {
+        return upload(mockMvc, path, csvFile(content));
+    }
+
+    static ResultActions upload(MockMvc mockMvc, String path, MockMultipartFile file) throws Exception {
+        return mockMvc.perform(multipart(path).file(file).contentType(MediaType.MULTIPART_FORM_DATA));
+    }
+}
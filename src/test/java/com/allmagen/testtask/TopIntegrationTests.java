@@ -0,0 +1,124 @@
+package com.allmagen.testtask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class TopIntegrationTests {
+    private final static String ACTIONS_HEADER = "uid,tag\n";
+    private final static int SITES = 10;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private LocalDateTime day;
+
+    /**
+     * Site {@code i} gets {@code 1 + 2 * i} views. Its views have {@code (i * 7) % 5} clicks each, except the
+     * one-view site 0, which has the highest CTR. All views of a site share the mmDma code {@code 500 + i}.
+     */
+    @BeforeEach
+    void upload() throws Exception {
+        day = TestDays.uniqueWeek();
+        StringBuilder views = new StringBuilder(TestUploads.VIEWS_HEADER);
+        StringBuilder actions = new StringBuilder(ACTIONS_HEADER);
+        for (int site = 0; site < SITES; site++) {
+            for (int view = 0; view < 1 + 2 * site; view++) {
+                String uid = UUID.randomUUID().toString();
+                views.append(TestUploads.csvTime(day.plusMinutes(view))).append(',').append(uid).append(",0,7,6,")
+                        .append(500 + site).append(",iOS,iPhone XR,Mobile Phone,").append(site(site)).append('\n');
+                int clicks = site == 0 ? 9 : (site * 7) % 5;
+                for (int click = 0; click < clicks; click++) {
+                    actions.append(uid).append(",fclick\n");
+                }
+            }
+        }
+        TestUploads.upload(mockMvc, "/views", views)
+                .andExpect(status().isOk());
+        TestUploads.upload(mockMvc, "/actions", actions)
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testTopSiteIdsByCtrAndViews() throws Exception {
+        // clicks per view by site: 0:9, 1:2, 2:4, 3:1, 4:3, 5:0, 6:2, 7:4, 8:1, 9:3
+        assertThat(siteIds(top("/topSiteIds").param("limit", "3"))).containsExactly(site(0), site(7), site(2));
+        assertThat(siteIds(top("/topSiteIds").param("limit", "3").param("minViews", "2"))).containsExactly(site(7), site(2), site(9));
+        assertThat(siteIds(top("/topSiteIds").param("limit", "2").param("ascending", "true"))).containsExactly(site(5), site(8));
+        assertThat(siteIds(top("/topSiteIds").param("limit", "2").param("rankBy", "VIEWS"))).containsExactly(site(9), site(8));
+
+        JsonNode first = items(top("/topSiteIds").param("limit", "1").param("rankBy", "VIEWS")).get(0);
+        assertThat(first.get("views").asLong()).isEqualTo(19);
+        assertThat(first.get("ctr").asDouble()).isEqualTo(3.0);
+
+        JsonNode mmDmas = items(top("/topMmDmas").param("limit", "2").param("minViews", "2"));
+        assertThat(mmDmas.get(0).get("mmDma").asInt()).isEqualTo(507);
+        assertThat(mmDmas.get(1).get("mmDma").asInt()).isEqualTo(502);
+    }
+
+    @Test
+    void testChartDrawsTopSiteIds() throws Exception {
+        mockMvc.perform(get("/ctrBySiteIdChart")
+                        .param("dateFrom", day.toString())
+                        .param("dateTo", day.plusDays(1).toString())
+                        .param("top", "4")
+                        .param("minViews", "2"))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("xAxisData", List.of(site(7), site(2), site(9), site(4))))
+                .andExpect(model().attribute("yAxisData", hasSize(4)));
+    }
+
+    @Test
+    void testInvalidLimitIsRejected() throws Exception {
+        mockMvc.perform(top("/topSiteIds").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("The limit must be between 1 and 1000")));
+        mockMvc.perform(top("/topMmDmas").param("minViews", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("minimum number of views must be positive")));
+    }
+
+    private MockHttpServletRequestBuilder top(String path) {
+        return get(path)
+                .param("dateFrom", day.toString())
+                .param("dateTo", day.plusDays(1).toString())
+                .contentType(MediaType.APPLICATION_JSON);
+    }
+
+    private List<String> siteIds(MockHttpServletRequestBuilder request) throws Exception {
+        List<String> siteIds = new ArrayList<>();
+        items(request).forEach(row -> siteIds.add(row.get("siteId").asText()));
+        return siteIds;
+    }
+
+    private JsonNode items(MockHttpServletRequestBuilder request) throws Exception {
+        String responseJson = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(responseJson).get("items");
+    }
+
+    private String site(int site) {
+        return "top" + site + "-" + day.toLocalDate() + ".example.com";
+    }
+}
@@ -0,0 +1,97 @@
+package com.allmagen.testtask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class UploadJobIntegrationTests {
+    private final static String INTERVIEW_X = "classpath:testdata/interview.x.small.csv";
+    private final static String INTERVIEW_Y = "classpath:testdata/interview.y.csv";
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ResourceLoader resourceLoader;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void testAsyncUploadViewsAndActions() throws Exception {
+        JsonNode views = awaitJob(submit("/views", INTERVIEW_X));
+        assertThat(views.get("state").asText()).isEqualTo("SUCCEEDED");
+        assertThat(views.get("type").asText()).isEqualTo("VIEWS");
+        assertThat(views.get("rowsParsed").asLong()).isEqualTo(9999);
+        assertThat(views.get("rowsWritten").asLong() + views.get("rowsRejected").asLong()).isEqualTo(9999);
+        assertThat(views.get("bytesRead").asLong()).isEqualTo(views.get("totalBytes").asLong());
+        assertThat(views.get("etaSeconds").asLong()).isZero();
+
+        JsonNode actions = awaitJob(submit("/actions", INTERVIEW_Y));
+        assertThat(actions.get("state").asText()).isEqualTo("SUCCEEDED");
+        assertThat(actions.get("rowsParsed").asLong()).isEqualTo(15359);
+        assertThat(actions.get("rowsWritten").asLong()).isPositive();
+        assertThat(actions.get("rowsRejected").asLong()).isPositive();
+    }
+
+    @Test
+    void testAsyncUploadFailure() throws Exception {
+        JsonNode job = awaitJob(submit("/views", INTERVIEW_Y));
+
+        assertThat(job.get("state").asText()).isEqualTo("FAILED");
+        assertThat(job.get("error").asText()).isEqualTo("Error: The length of the CSV line should exactly match the expected length of 10 elements.");
+    }
+
+    @Test
+    void testUnknownJob() throws Exception {
+        mockMvc.perform(get("/jobs/" + UUID.randomUUID()))
+                .andExpect(status().isNotFound());
+    }
+
+    private String submit(String path, String location) throws Exception {
+        byte[] fileContent = resourceLoader.getResource(location).getInputStream().readAllBytes();
+        MockMultipartFile file = new MockMultipartFile("file", "test.csv", "text/csv", fileContent);
+
+        String jobId = mockMvc.perform(multipart(path)
+                        .file(file)
+                        .param("async", "true")
+                        .contentType(MediaType.MULTIPART_FORM_DATA))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(UUID.fromString(jobId)).isNotNull();
+
+        return jobId;
+    }
+
+    private JsonNode awaitJob(String jobId) throws Exception {
+        for (int attempt = 0; attempt < 300; attempt++) {
+            String responseJson = mockMvc.perform(get("/jobs/" + jobId))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            JsonNode job = objectMapper.readTree(responseJson);
+            String state = job.get("state").asText();
+            if (state.equals("SUCCEEDED") || state.equals("FAILED")) {
+                return job;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Upload job " + jobId + " did not finish");
+    }
+}